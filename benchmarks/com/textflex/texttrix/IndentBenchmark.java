@@ -0,0 +1,153 @@
+/* ***** BEGIN LICENSE BLOCK *****
+ * Version: MPL 1.1/GPL 2.0/LGPL 2.1
+ *
+ * The contents of this file are subject to the Mozilla Public License Version
+ * 1.1 (the "License"); you may not use this file except in compliance with
+ * the License. You may obtain a copy of the License at
+ * http://www.mozilla.org/MPL/
+ *
+ * Software distributed under the License is distributed on an "AS IS" basis,
+ * WITHOUT WARRANTY OF ANY KIND, either express or implied. See the License
+ * for the specific language governing rights and limitations under the
+ * License.
+ *
+ * The Original Code is the Text Trix code.
+ *
+ * The Initial Developer of the Original Code is
+ * Text Flex.
+ * Portions created by the Initial Developer are Copyright (C) 2019
+ * the Initial Developer. All Rights Reserved.
+ *
+ * Contributor(s): David Young <david@textflex.com>
+ *
+ * Alternatively, the contents of this file may be used under the terms of
+ * either the GNU General Public License Version 2 or later (the "GPL"), or
+ * the GNU Lesser General Public License Version 2.1 or later (the "LGPL"),
+ * in which case the provisions of the GPL or the LGPL are applicable instead
+ * of those above. If you wish to allow use of your version of this file only
+ * under the terms of either the GPL or the LGPL, and not to allow others to
+ * use your version of this file under the terms of the MPL, indicate your
+ * decision by deleting the provisions above and replace them with the notice
+ * and other provisions required by the GPL or the LGPL. If you do not delete
+ * the provisions above, a recipient may use your version of this file under
+ * the terms of any one of the MPL, the GPL or the LGPL.
+ *
+ * ***** END LICENSE BLOCK ***** */
+
+
+package com.textflex.texttrix;
+
+import javax.swing.text.*;
+
+/** Times the auto-indent path for a single Enter keystroke at documents
+ * of increasing size.
+ * Each keystroke finds the previous paragraph, counts its leading 
+ * whitespace, and inserts the same whitespace, as 
+ * <code>TextPad.autoIndent()</code> does.  The time per keystroke should
+ * stay flat as the document grows, since only the current line is read.
+ * The former path, which copied the entire document for each keystroke,
+ * is timed alongside for comparison.  Only the indent itself is timed,
+ * since the document's own cost of splitting the paragraph for the hard
+ * return grows with the number of lines either way.
+ * 
+ * <p>The benchmark lives outside of the <code>com</code> source tree so
+ * that it is left out of the build.  After building, compile and run 
+ * it from the project directory against the built classes with
+ * <code>javac -cp classes -d bench benchmarks/com/textflex/texttrix/IndentBenchmark.java</code>
+ * and <code>java -cp classes:bench com.textflex.texttrix.IndentBenchmark [maxMB]</code>,
+ * giving the JVM enough heap for the largest document.
+ */
+public class IndentBenchmark {
+	
+	private static final String LINE = "\t\t    for (int i = 0; i < n; i++) {\n";
+	private static final int KEYSTROKES = 10000;
+	private static final int COPYING_KEYSTROKES = 10;
+	
+	/** Runs the benchmark.
+	 * @param args the largest document size in megabytes, 50 by default
+	 */
+	public static void main(String[] args) throws BadLocationException {
+		int maxMB = args.length > 0 ? Integer.parseInt(args[0]) : 50;
+		System.out.println("size (MB)\tsegment (us/key)\tcopying (us/key)");
+		for (int mb = 1; mb <= maxMB; mb *= 5) {
+			Document doc = createDocument(mb);
+			// warms up before timing
+			segmentKeystrokes(doc, KEYSTROKES);
+			long segment = segmentKeystrokes(doc, KEYSTROKES);
+			long copying = copyingKeystrokes(doc, COPYING_KEYSTROKES);
+			System.out.println(mb + "\t\t" + segment / 1000.0 + "\t\t\t" 
+					+ copying / 1000.0);
+		}
+	}
+	
+	/** Creates a styled document of indented lines.
+	 * @param mb approximate size in megabytes
+	 * @return the document
+	 */
+	private static Document createDocument(int mb) 
+			throws BadLocationException {
+		int lines = mb * 1024 * 1024 / LINE.length();
+		StringBuilder builder = new StringBuilder(lines * LINE.length());
+		for (int i = 0; i < lines; i++) {
+			builder.append(LINE);
+		}
+		Document doc = new DefaultStyledDocument();
+		doc.insertString(0, builder.toString(), null);
+		return doc;
+	}
+	
+	/** Types Enter keystrokes in the middle of the document, scanning only
+	 * the previous paragraph through a reused segment.
+	 * @param doc document to type in
+	 * @param keys number of keystrokes
+	 * @return average nanoseconds per keystroke
+	 */
+	private static long segmentKeystrokes(Document doc, int keys) 
+			throws BadLocationException {
+		Segment seg = new Segment();
+		int caret = doc.getLength() / 2;
+		long time = 0;
+		for (int i = 0; i < keys; i++) {
+			doc.insertString(caret++, "\n", null);
+			long start = System.nanoTime();
+			int n = LibTTx.getParagraphStart(doc, caret - 1);
+			int len = LibTTx.getLeadingWhitespace(doc, n, seg);
+			doc.insertString(caret, new String(seg.array, seg.offset, len), null);
+			time += System.nanoTime() - start;
+			// undoes the keystroke to keep the document the same size
+			doc.remove(caret - 1, len + 1);
+			caret--;
+		}
+		return time / keys;
+	}
+	
+	/** Types Enter keystrokes in the middle of the document, scanning back
+	 * one character at a time and copying the whole text as before.
+	 * @param doc document to type in
+	 * @param keys number of keystrokes
+	 * @return average nanoseconds per keystroke
+	 */
+	private static long copyingKeystrokes(Document doc, int keys) 
+			throws BadLocationException {
+		int caret = doc.getLength() / 2;
+		long time = 0;
+		for (int i = 0; i < keys; i++) {
+			doc.insertString(caret++, "\n", null);
+			long start = System.nanoTime();
+			int n = caret - 2;
+			while (n >= 0 && !doc.getText(n, 1).equals("\n")) n--;
+			String s = doc.getText(0, doc.getLength());
+			StringBuilder builder = new StringBuilder();
+			for (int j = n + 1; j < s.length(); j++) {
+				char c = s.charAt(j);
+				if (c != '\t' && c != ' ') break;
+				builder.append(c);
+			}
+			doc.insertString(caret, builder.toString(), null);
+			time += System.nanoTime() - start;
+			doc.remove(caret - 1, builder.length() + 1);
+			caret--;
+		}
+		return time / keys;
+	}
+}
@@ -245,7 +245,7 @@ echo "Compiling the Text Trix program..."
 echo "Using the Java binary directory at [defaults to PATH]:"
 echo "$JAVA"
 CLASSPATH=lib/jsyntaxpane.jar:lib/oster.jar:.
-JAVA_FILES=`find . -path ./com/inet/jorthotests -prune -o -path ./com/*.java -print`
+JAVA_FILES=`find . -path ./com/inet/jorthotests -prune -o -path ./com/textflex/texttrixtests -prune -o -path ./com/*.java -print`
 if [ "$CYGWIN" = "true" ]
 then
 	CLASSPATH=`cygpath -wp $CLASSPATH`
@@ -253,6 +253,17 @@ then
 fi
 "$JAVA"javac -cp $CLASSPATH -source $JAVA_VER_SRC -target $JAVA_VER_SRC $JAVA_FILES -d $CLASSES_DIR
 
+#############
+# Precompile the spell checker dictionaries into trees that load
+# without rebuilding them from the word lists
+echo ""
+echo "Precompiling dictionaries..."
+"$JAVA"java -cp $CLASSES_DIR com.inet.jortho.Dictionary dictionaries/dictionary_*.ortho
+# the word lists were copied when the output directory was created, 
+# before the trees existed, so the trees are copied now
+mkdir -p "$CLASSES_DIR/dictionaries"
+cp -f dictionaries/*.tree "$CLASSES_DIR/dictionaries"
+
 #############
 # Build plugins
 
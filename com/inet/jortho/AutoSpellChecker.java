@@ -22,34 +22,85 @@
  */
 package com.inet.jortho;
 
+import java.awt.EventQueue;
+import java.awt.Point;
+import java.awt.Rectangle;
+import java.util.ArrayList;
 import java.util.Locale;
+import java.util.concurrent.PriorityBlockingQueue;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
 
 import javax.swing.*;
 import javax.swing.event.*;
 import javax.swing.text.*;
-import javax.swing.text.Highlighter.Highlight;
+
+import com.textflex.texttrix.LibTTx;
 
 /**
  * This class check a <code>JTextComponent</code> automatically (in the background) for orthography. Spell error are
  * highlighted with a red zigzag line.
+ * <p>
+ * The text is checked in chunks of whole paragraphs on a pool of worker threads shared by all checkers. Each
+ * chunk's text is read under the document's read lock, tokenized and looked up on the worker, and only the
+ * misspelled ranges are sent back to the event dispatch thread, in batches. Chunks in the visible region are
+ * checked first, and chunks that are edited before their results arrive are checked again instead.
  * 
  * @author Volker Berlin
  */
 class AutoSpellChecker implements DocumentListener, LanguageChangeListener {
-    private static final RedZigZagPainter painter = new RedZigZagPainter();
+    /** Number of characters to check in one piece of work, rounded up to whole paragraphs. */
+    private static final int CHUNK = 16 * 1024;
+    
+    /** Priority of chunks that were just edited. */
+    private static final int PRIORITY_EDIT = 0;
+    /** Priority of chunks in the visible region. */
+    private static final int PRIORITY_VISIBLE = 1;
+    /** Priority of all other chunks. */
+    private static final int PRIORITY_BACKGROUND = 2;
+    
+    /** Workers shared by all checkers, leaving one processor for the event dispatch thread. */
+    private static final ThreadPoolExecutor workers;
+    static {
+        int count = Math.max( 1, Runtime.getRuntime().availableProcessors() - 1 );
+        workers = new ThreadPoolExecutor( count, count, 0L, TimeUnit.MILLISECONDS, 
+                new PriorityBlockingQueue<Runnable>(), new ThreadFactory() {
+            public Thread newThread( Runnable runnable ) {
+                Thread thread = new Thread( runnable, "JOrtho checker" );
+                thread.setPriority( Thread.NORM_PRIORITY - 1 );
+                thread.setDaemon( true );
+                return thread;
+            }
+        } );
+    }
+    
+    /** Orders the chunks of equal priority by their submission. */
+    private static final AtomicLong sequence = new AtomicLong();
 
     private final JTextComponent                jText;
     private final SpellCheckerOptions options;
 
-    private Dictionary                    dictionary;
+    private volatile Dictionary                    dictionary;
 
-    private Locale                        locale;
+    private volatile Locale                        locale;
+    
+    /** The misspelled words, painted as one highlight. */
+    private final MisspellingPainter misspellings = new MisspellingPainter();
+    
+    /** Chunks submitted and not yet painted, only used on the event dispatch thread. */
+    private final ArrayList<Chunk> pending = new ArrayList<Chunk>();
+    
+    /** Chunks checked by the workers and waiting to be painted. */
+    private final ArrayList<Chunk> ready = new ArrayList<Chunk>();
 
     
     public AutoSpellChecker(JTextComponent text, SpellCheckerOptions options){
         this.jText = text;
         this.options = options == null ? SpellChecker.getOptions() : options;
         jText.getDocument().addDocumentListener( this );
+        misspellings.install( jText );
 
         SpellChecker.addLanguageChangeLister( this );
         dictionary = SpellChecker.getCurrentDictionary();
@@ -69,12 +120,8 @@ class AutoSpellChecker implements DocumentListener, LanguageChangeListener {
             if(listener instanceof AutoSpellChecker){
                 AutoSpellChecker autoSpell = (AutoSpellChecker)listener;
                 doc.removeDocumentListener( autoSpell );
-                Highlighter highlighter = text.getHighlighter();
-                for( Highlight highlight : highlighter.getHighlights() ) {
-                    if( highlight.getPainter() == painter ){
-                        highlighter.removeHighlight( highlight );
-                    }
-                }
+                autoSpell.cancelAll();
+                autoSpell.misspellings.uninstall( text );
             }
         }
     }
@@ -112,6 +159,7 @@ class AutoSpellChecker implements DocumentListener, LanguageChangeListener {
      * {@inheritDoc}
      */
     public void insertUpdate( DocumentEvent ev ) {
+        misspellings.insertUpdate( ev );
         checkElements( ev.getOffset(), ev.getLength() );
     }
 
@@ -119,110 +167,163 @@ class AutoSpellChecker implements DocumentListener, LanguageChangeListener {
      * {@inheritDoc}
      */
     public void removeUpdate( DocumentEvent ev ) {
+        misspellings.removeUpdate( ev );
         checkElements( ev.getOffset(), 0 );
     }
 
     /**
-     * Check the Elements on the given position.
+     * Check the paragraphs on the given position after an edit, along with any chunks waiting to be checked
+     * that the edit has made stale.
      */
     private void checkElements( int offset, int length ) {
-        int end = offset + length;
         Document document = jText.getDocument();
-        Element element;
-
-        do{
-            try {
-                // We need to use a ParagraphElement because a CharacterElement produce problems with formating in a word
-                element = ((AbstractDocument)document).getParagraphElement( offset );
-            } catch( java.lang.Exception ex ) {
-                return;
+        if( !(document instanceof AbstractDocument) ) {
+            return;
+        }
+        AbstractDocument doc = (AbstractDocument)document;
+        int start = doc.getParagraphElement( offset ).getStartOffset();
+        int end = doc.getParagraphElement( offset + length ).getEndOffset();
+        
+        // restarts the chunks that the edit overlaps, since their text has changed
+        boolean stale = false;
+        for( int i = pending.size(); --i >= 0; ) {
+            Chunk chunk = pending.get( i );
+            int chunkStart = chunk.start.getOffset();
+            int chunkEnd = chunk.end.getOffset();
+            if( chunkStart <= end && start <= chunkEnd ) {
+                chunk.cancelled = true;
+                pending.remove( i );
+                start = Math.min( start, chunkStart );
+                end = Math.max( end, chunkEnd );
+                stale = true;
             }
-            checkElement( element );
-            offset = element.getEndOffset();
-        }while( offset <= end && offset < document.getLength() );
-    }
-
-    /**
-     * Check the spelling of the text of an element.
-     * 
-     * @param element
-     *            the to checking Element
-     */
-    private void checkElement( javax.swing.text.Element element ) {
+        }
+        
+        // waits until the word is complete while the user types it
         try {
-					if (jText.getCaretPosition() > 0) {
-						if (!Character.isLetter(jText.getText(jText.getCaretPosition() - 1,1).charAt(0))) {
-            int i = element.getStartOffset();
-            int j = element.getEndOffset();
-            Highlighter highlighter = jText.getHighlighter();
-            Highlight[] highlights = highlighter.getHighlights();
-            for( int k = highlights.length; --k >= 0; ) {
-                Highlight highlight = highlights[k];
-                int hlStartOffset = highlight.getStartOffset();
-                int hlEndOffset = highlight.getEndOffset();
-                if( (i <= hlStartOffset && hlStartOffset <= j) || 
-                    (i <= hlEndOffset && hlEndOffset <= j) ) {
-                    highlighter.removeHighlight( highlight );
-                }
-            }
-
-            int l = ((AbstractDocument)jText.getDocument()).getLength();
-            j = Math.min( j, l );
-            if( i >= j )
-                return;
-
-            // prevent a NPE if the dictionary is currently not loaded.
-            Dictionary dic = dictionary;
-            Locale loc = locale;
-            if( dic == null || loc == null ){
+            int caret = jText.getCaretPosition();
+            if( !stale && caret > 0 && Character.isLetter( doc.getText( caret - 1, 1 ).charAt( 0 ) ) ) {
                 return;
             }
-            
-            Tokenizer tok = new Tokenizer( jText, dic, loc, i, j, options );
-            String word;
-            while( (word = tok.nextInvalidWord()) != null ) {
-                int wordOffset = tok.getWordOffset();
-                highlighter.addHighlight( wordOffset, wordOffset + word.length(), painter );
-            }
-						}
-					}
         } catch( BadLocationException e ) {
-//            e.printStackTrace();
-						System.out.println("auto-spell-checker location error...will probably reset");
+            System.out.println("auto-spell-checker location error...will probably reset");
         }
+        submit( start, end, true );
     }
 
     /**
-//     * Check the completely text. Because this can consume many times with large Documents that this will do in a thread
-     * in the background step by step.
+     * Check the completely text. Because this can consume many times with large Documents that this will do on
+     * the worker threads in the background, chunk by chunk.
      */
     private void checkAll() {
         if( dictionary == null || jText == null ) {
             //the needed objects does not exists
             return;
         }
-        Thread thread = new Thread( new Runnable() {
-            public void run() {
-                Document document = jText.getDocument();
-                for( int i = 0; i < document.getLength(); ) {
-                    try {
-                        final Element element = ((AbstractDocument)document).getParagraphElement( i );
-                        i = element.getEndOffset();
-                        SwingUtilities.invokeLater( new Runnable() {
-                            public void run() {
-                                checkElement( element );
-                            }
-
-                        } );
-                    } catch( java.lang.Exception ex ) {
-                        return;
-                    }
+        if( !EventQueue.isDispatchThread() ) {
+            // the language is changed on a loader thread
+            SwingUtilities.invokeLater( new Runnable() {
+                public void run() {
+                    checkAll();
                 }
+            } );
+            return;
+        }
+        cancelAll();
+        submit( 0, jText.getDocument().getLength(), false );
+    }
+    
+    /**
+     * Stop all chunks that have not yet been painted.
+     */
+    private void cancelAll() {
+        for( Chunk chunk : pending ) {
+            chunk.cancelled = true;
+        }
+        pending.clear();
+    }
+    
+    /**
+     * Divide a range into chunks of whole paragraphs and queue them on the workers.
+     * @param start the start offset
+     * @param end the end offset
+     * @param edited true if the range was just edited, to check it before any other chunk
+     */
+    private void submit( int start, int end, boolean edited ) {
+        Document doc = jText.getDocument();
+        Element root = doc.getDefaultRootElement();
+        end = Math.min( end, doc.getLength() );
+        
+        // finds the visible region
+        int visibleStart = 0;
+        int visibleEnd = 0;
+        if( !edited ) {
+            Rectangle rect = jText.getVisibleRect();
+            visibleStart = Math.max( 0, LibTTx.viewToModel( jText, rect.getLocation() ) );
+            visibleEnd = LibTTx.viewToModel( jText, new Point( rect.x + rect.width, rect.y + rect.height ) );
+        }
+        
+        try {
+            while( start < end ) {
+                int chunkEnd = root.getElement( root.getElementIndex( Math.min( start + CHUNK, end ) ) ).getEndOffset();
+                chunkEnd = Math.min( Math.max( chunkEnd, start + 1 ), doc.getLength() );
+                int priority = PRIORITY_BACKGROUND;
+                if( edited ) {
+                    priority = PRIORITY_EDIT;
+                } else if( start <= visibleEnd && visibleStart <= chunkEnd ) {
+                    priority = PRIORITY_VISIBLE;
+                }
+                Chunk chunk = new Chunk( doc.createPosition( start ), doc.createPosition( chunkEnd ), priority );
+                pending.add( chunk );
+                workers.execute( chunk );
+                start = chunkEnd;
+            }
+        } catch( BadLocationException e ) {
+            System.out.println("auto-spell-checker location error...will probably reset");
+        }
+    }
+    
+    /**
+     * Queue a checked chunk to be painted in the next batch.
+     */
+    private void publish( Chunk chunk ) {
+        synchronized( ready ) {
+            ready.add( chunk );
+            if( ready.size() > 1 ) {
+                // a batch is already waiting
+                return;
+            }
+        }
+        SwingUtilities.invokeLater( new Runnable() {
+            public void run() {
+                paintReady();
+            }
+        } );
+    }
+    
+    /**
+     * Paint the misspellings of all checked chunks that have not been edited since.
+     */
+    private void paintReady() {
+        Chunk[] chunks;
+        synchronized( ready ) {
+            chunks = ready.toArray( new Chunk[ready.size()] );
+            ready.clear();
+        }
+        for( Chunk chunk : chunks ) {
+            if( chunk.cancelled ) {
+                continue;
+            }
+            pending.remove( chunk );
+            int i = chunk.start.getOffset();
+            int j = Math.min( chunk.end.getOffset(), jText.getDocument().getLength() );
+            misspellings.remove( i, j );
+            int[] words = chunk.words;
+            for( int k = 0; k < chunk.wordCount; k += 2 ) {
+                misspellings.add( i + words[k], i + words[k + 1] );
             }
-        }, "JOrtho checkall" );
-        thread.setPriority( Thread.NORM_PRIORITY - 1 );
-        thread.setDaemon( true );
-        thread.start();
+            jText.getUI().damageRange( jText, i, j );
+        }
     }
 
     /**
@@ -233,5 +334,80 @@ class AutoSpellChecker implements DocumentListener, LanguageChangeListener {
         locale = SpellChecker.getCurrentLocale();
         checkAll();
     }
+    
+    /**
+     * A range of whole paragraphs to check on a worker thread. Its positions follow the edits to the text, and it
+     * is cancelled if the edits reach into it before its misspellings are painted.
+     */
+    private class Chunk implements Runnable, Comparable<Chunk> {
+        final Position start;
+        final Position end;
+        final int priority;
+        final long order = sequence.getAndIncrement();
+        volatile boolean cancelled;
+        /** start and end offsets of the misspelled words, relative to the start of the chunk */
+        int[] words = new int[16];
+        int wordCount;
+        
+        Chunk( Position start, Position end, int priority ) {
+            this.start = start;
+            this.end = end;
+            this.priority = priority;
+        }
+        
+        public int compareTo( Chunk chunk ) {
+            if( priority != chunk.priority ) {
+                return priority < chunk.priority ? -1 : 1;
+            }
+            return order < chunk.order ? -1 : order == chunk.order ? 0 : 1;
+        }
+        
+        public void run() {
+            final Dictionary dic = dictionary;
+            final Locale loc = locale;
+            // prevent a NPE if the dictionary is currently not loaded.
+            if( cancelled || dic == null || loc == null ) {
+                return;
+            }
+            
+            // reads the text under the read lock so that it matches the positions
+            final Document doc = jText.getDocument();
+            final String[] text = new String[1];
+            final int[] offset = new int[1];
+            Runnable reader = new Runnable() {
+                public void run() {
+                    offset[0] = start.getOffset();
+                    int length = Math.min( end.getOffset(), doc.getLength() ) - offset[0];
+                    try {
+                        text[0] = length > 0 ? doc.getText( offset[0], length ) : null;
+                    } catch( BadLocationException e ) {
+                        text[0] = null;
+                    }
+                }
+            };
+            if( doc instanceof AbstractDocument ) {
+                ((AbstractDocument)doc).render( reader );
+            } else {
+                reader.run();
+            }
+            if( text[0] != null ) {
+                Tokenizer tok = new Tokenizer( text[0], 0, dic, loc, options );
+                String word;
+                while( !cancelled && (word = tok.nextInvalidWord()) != null ) {
+                    if( wordCount + 2 > words.length ) {
+                        int[] temp = new int[words.length * 2];
+                        System.arraycopy( words, 0, temp, 0, wordCount );
+                        words = temp;
+                    }
+                    int wordOffset = tok.getWordOffset();
+                    words[wordCount++] = wordOffset;
+                    words[wordCount++] = wordOffset + word.length();
+                }
+            }
+            if( !cancelled ) {
+                publish( this );
+            }
+        }
+    }
 
 }
@@ -23,6 +23,9 @@
 package com.inet.jortho;
 
 import java.io.*;
+import java.net.URL;
+import java.nio.*;
+import java.nio.channels.FileChannel;
 import java.util.zip.*;
 
 /**
@@ -31,6 +34,24 @@ import java.util.zip.*;
  */
 final class Dictionary extends DictionaryBase{
 
+    // the copy of the tree that a word is being added to, and its size
+    private char[] work;
+    private int workSize;
+
+    /**
+     * Identifies a file with a precompiled tree, "JORT".
+     */
+    static final int TREE_MAGIC = 0x4A4F5254;
+    
+    /**
+     * Version of the precompiled tree format. Must be increased if the layout of the tree changes.
+     */
+    static final int TREE_VERSION = 1;
+    
+    /**
+     * Size in bytes of the header of a precompiled tree: magic, version, source stamp and char count.
+     */
+    static final int TREE_HEADER = 4 + 4 + 8 + 4;
    
     /**
      * Create an empty Dictionary.
@@ -71,7 +92,7 @@ final class Dictionary extends DictionaryBase{
      * @param stream the OutputStream
      * @throws IOException if an I/O error occurs.
      */
-    public void save(OutputStream stream) throws IOException{
+    public synchronized void save(OutputStream stream) throws IOException{
         Deflater deflater = new Deflater();
         deflater.setLevel(Deflater.BEST_COMPRESSION);
         DeflaterOutputStream zip = new DeflaterOutputStream(stream, deflater);
@@ -103,12 +124,21 @@ final class Dictionary extends DictionaryBase{
      */
     public void load(InputStream stream)  throws IOException{
         InputStream zip = new InflaterInputStream(stream);
-        zip = new BufferedInputStream(zip);
+        byte[] buffer = new byte[8192];
+        int low = -1; // low byte of a char split between two reads
+        int count;
         size = 0;
-        while(zip.available() > 0){
-            char c = (char)(zip.read() + (zip.read() << 8));
-            checkSize(size+1);
-            tree[size++] = c;
+        while((count = zip.read(buffer)) > 0){
+            checkSize(size + count/2 + 1);
+            for(int i=0; i<count; i++){
+                int b = buffer[i] & 0xFF;
+                if(low < 0){
+                    low = b;
+                }else{
+                    tree[size++] = (char)(low + (b << 8));
+                    low = -1;
+                }
+            }
         }
         zip.close();
         // Shrinken
@@ -116,13 +146,155 @@ final class Dictionary extends DictionaryBase{
     }
     
     
+    /**
+     * Save the tree of this dictionary uncompressed, in the precompiled format that {@link #loadTree(File, long)}
+     * reads back without rebuilding the tree. The file is first written to a temporary file, so that a failed
+     * save does not leave a broken file.
+     * @param file the destination file
+     * @param stamp identifies the version of the word list that the tree was created from, or 0 if the tree
+     * should be used regardless of the word list
+     * @throws IOException if an I/O error occurs.
+     */
+    public synchronized void saveTree(File file, long stamp) throws IOException{
+        ByteBuffer buffer = ByteBuffer.allocate(TREE_HEADER + size * 2);
+        buffer.order(ByteOrder.LITTLE_ENDIAN);
+        buffer.putInt(TREE_MAGIC).putInt(TREE_VERSION).putLong(stamp).putInt(size);
+        buffer.asCharBuffer().put(tree, 0, size);
+        buffer.clear();
+        
+        File tmp = new File(file.getPath() + ".tmp");
+        FileOutputStream output = new FileOutputStream(tmp);
+        try{
+            FileChannel channel = output.getChannel();
+            while(buffer.hasRemaining()){
+                channel.write(buffer);
+            }
+        }finally{
+            output.close();
+        }
+        file.delete();
+        if(!tmp.renameTo(file)){
+            tmp.delete();
+            throw new IOException("Could not rename " + tmp + " to " + file);
+        }
+    }
+    
+    
+    /**
+     * Load a precompiled tree from a file, reading it into the heap in bulk. The file is not memory-mapped, since a
+     * mapping keeps the file open until it is garbage collected, which prevents {@link #saveTree(File, long)} from
+     * replacing it on Windows.
+     * @param file the file written by {@link #saveTree(File, long)}
+     * @param stamp the version of the word list that the tree must have been created from, or 0 to accept any
+     * @return the dictionary, or null if the file is missing, of another format version or for another word list
+     * @throws IOException if an I/O error occurs.
+     */
+    static Dictionary loadTree(File file, long stamp) throws IOException{
+        if(!file.isFile()){
+            return null;
+        }
+        FileInputStream input = new FileInputStream(file);
+        try{
+            FileChannel channel = input.getChannel();
+            long size = channel.size();
+            if(size > Integer.MAX_VALUE){
+                return null;
+            }
+            ByteBuffer buffer = ByteBuffer.allocate((int)size);
+            while(buffer.hasRemaining() && channel.read(buffer) >= 0){
+                // a file channel usually fills the buffer with the first read
+            }
+            buffer.flip();
+            return loadTree(buffer, stamp);
+        }finally{
+            input.close();
+        }
+    }
+    
+    
+    /**
+     * Load a precompiled tree from a URL, reading it in bulk. Trees in local files are read through a file channel.
+     * @param url the location of a file written by {@link #saveTree(File, long)}
+     * @param stamp the version of the word list that the tree must have been created from, or 0 to accept any
+     * @return the dictionary, or null if the tree does not exist, is of another format version or for another word list
+     */
+    static Dictionary loadTree(URL url, long stamp){
+        try{
+            if("file".equals(url.getProtocol())){
+                return loadTree(new File(url.toURI()), stamp);
+            }
+            DataInputStream input = new DataInputStream(url.openStream());
+            try{
+                byte[] header = new byte[TREE_HEADER];
+                input.readFully(header);
+                ByteBuffer buffer = ByteBuffer.wrap(header).order(ByteOrder.LITTLE_ENDIAN);
+                int count = buffer.getInt(TREE_HEADER - 4);
+                if(count < 0 || buffer.getInt(0) != TREE_MAGIC){
+                    return null;
+                }
+                byte[] data = new byte[TREE_HEADER + count * 2];
+                System.arraycopy(header, 0, data, 0, TREE_HEADER);
+                input.readFully(data, TREE_HEADER, count * 2);
+                return loadTree(ByteBuffer.wrap(data), stamp);
+            }finally{
+                input.close();
+            }
+        }catch(Exception ex){
+            // a missing tree is expected, the word list is used instead
+            return null;
+        }
+    }
+    
+    
+    /**
+     * Read a precompiled tree after checking its header.
+     */
+    private static Dictionary loadTree(ByteBuffer buffer, long stamp){
+        buffer.order(ByteOrder.LITTLE_ENDIAN);
+        if(buffer.remaining() < TREE_HEADER || buffer.getInt() != TREE_MAGIC || buffer.getInt() != TREE_VERSION){
+            return null;
+        }
+        long treeStamp = buffer.getLong();
+        int count = buffer.getInt();
+        if((stamp != 0 && treeStamp != stamp) || count < 1 || buffer.remaining() != count * 2){
+            return null;
+        }
+        char[] tree = new char[count];
+        buffer.asCharBuffer().get(tree);
+        return new Dictionary(tree);
+    }
+    
+    
+    /**
+     * Precompile word lists into trees at build time. Each word list "dictionary_xx.ortho" is saved as
+     * "dictionary_xx.tree" beside it.
+     * @param args the paths of the word lists
+     * @throws IOException if an I/O error occurs.
+     */
+    public static void main(String[] args) throws IOException{
+        for(int i=0; i<args.length; i++){
+            File file = new File(args[i]);
+            String name = file.getName();
+            int dot = name.lastIndexOf('.');
+            File treeFile = new File(file.getParentFile(), (dot > 0 ? name.substring(0, dot) : name) + ".tree");
+            DictionaryFactory factory = new DictionaryFactory();
+            factory.loadWordList(file.toURI().toURL());
+            Dictionary dictionary = factory.create();
+            dictionary.saveTree(treeFile, 0);
+            System.out.println(file + " -> " + treeFile + " (" + dictionary.getDataSize() + " chars)");
+        }
+        // the word list loader leaves a timer thread running
+        System.exit(0);
+    }
+    
+    
     /**
      * Trims the capacity of this <tt>Dictionary</tt> instance to be the
      * current size.  An application can use this operation to minimize
      * the storage of an <tt>Dictionary</tt> instance.
      * The load methods already call it.
      */
-    void trimToSize(){
+    synchronized void trimToSize(){
         char[] temp = new char[size];
         System.arraycopy( tree, 0, temp, 0, size );
         tree = temp;
@@ -131,24 +303,34 @@ final class Dictionary extends DictionaryBase{
 
     /**
      * Add a word to the tree. If it already exist then it has no effect. 
+     * The word is added to a copy of the tree that then replaces it, so that lookups from other threads are
+     * not disturbed.
      * @param word the new word.
      */
-    public void add(String word){
-        idx = 0;
+    public synchronized void add(String word){
+        // each character adds at most one entry and one node
+        work = new char[size + 4 * word.length()];
+        System.arraycopy( tree, 0, work, 0, size );
+        workSize = size;
+        int idx = 0;
         for(int i=0; i<word.length(); i++){
             char c = word.charAt(i);
-            searchCharOrAdd( c );
+            idx = searchCharOrAdd( idx, c );
             if(i == word.length()-1){
-                tree[idx+1] |= 0x8000;
-                return;
+                work[idx+1] |= 0x8000;
+                break;
             }
-            int nextIdx = readIndex();
+            int nextIdx = readIndex( work, idx );
             if(nextIdx == 0){
-                idx = createNewNode();
+                idx = createNewNode( idx );
             }else{
                 idx = nextIdx;
             }
         }
+        size = workSize;
+        tree = work;
+        work = null;
+        WordCache.clear();
     }
     
     
@@ -156,7 +338,7 @@ final class Dictionary extends DictionaryBase{
      * Convert the directory tree to char array.
      * @return a char array that include the data of the dictionary.
      */
-    public char[] toArray(){
+    public synchronized char[] toArray(){
         char[] puffer = new char[size];
         System.arraycopy(tree, 0, puffer, 0, size);
         return puffer; 
@@ -171,39 +353,38 @@ final class Dictionary extends DictionaryBase{
     }
     
     
-    private void searchCharOrAdd(char c){
+    private int searchCharOrAdd(int idx, char c){
         if(c == LAST_CHAR)
             throw new RuntimeException("Invalid Character");
-        while(idx<size && tree[idx] < c){
+        while(idx<workSize && work[idx] < c){
             idx += 3;
         }
-        if(idx>=size)
+        if(idx>=workSize)
             throw new RuntimeException("Internal Error");
-        if(tree[idx] == c){
-            return;
+        if(work[idx] == c){
+            return idx;
         }
-        insertChar(c);
-        return;
+        insertChar(idx, c);
+        return idx;
     }
 
 
-    private void insertChar(char c) {
-        checkSize(size+3);
-        System.arraycopy(tree, idx, tree, idx+3, size-idx);
-        tree[idx] = c;
-        tree[idx+1] = 0;
-        tree[idx+2] = 0;
-        size += 3;
-        for(int i=0; i<size; ){
-            if(tree[i] == LAST_CHAR){
+    private void insertChar(int idx, char c) {
+        System.arraycopy(work, idx, work, idx+3, workSize-idx);
+        work[idx] = c;
+        work[idx+1] = 0;
+        work[idx+2] = 0;
+        workSize += 3;
+        for(int i=0; i<workSize; ){
+            if(work[i] == LAST_CHAR){
                 i++;
             }else{
-                int index = (tree[i+1]<<16) + tree[i+2];
+                int index = (work[i+1]<<16) + work[i+2];
                 int indexValue = index & 0x7fffffff;
                 if(indexValue > idx){
                     index += 3;
-                    tree[i+1] = (char)(index >> 16);
-                    tree[i+2] = (char)(index);
+                    work[i+1] = (char)(index >> 16);
+                    work[i+2] = (char)(index);
                 }
                 i += 3;
             }
@@ -213,17 +394,16 @@ final class Dictionary extends DictionaryBase{
     
     /**
      * Create a new node at end of the array.
-     * On the current idx position is writing the pointer.
-     * The pointer on the current idx position must be 0 without some word end flags (0x8000 on idx+1)
+     * On the given idx position is writing the pointer.
+     * The pointer on the idx position must be 0 without some word end flags (0x8000 on idx+1)
      * @return Pointer on new node.
      */
-    private final int createNewNode() {
-        checkSize(size+1);
-        tree[idx+1] |= (char)(size >> 16);
-        tree[idx+2] |= (char)(size);
-        idx = size;
-        tree[idx  ] = LAST_CHAR;
-        size += 1;
+    private final int createNewNode(int idx) {
+        work[idx+1] |= (char)(workSize >> 16);
+        work[idx+2] |= (char)(workSize);
+        idx = workSize;
+        work[idx  ] = LAST_CHAR;
+        workSize += 1;
         return idx;
     }
 
@@ -29,9 +29,13 @@ import java.util.*;
  */
 abstract class DictionaryBase {
 
-    protected char[] tree;
+    /**
+     * The tree of words. Lookups only read the array that is current when they start, and words are added to a
+     * copy that then replaces it, so that any number of threads can look up words at the same time. Each node is a
+     * list of entries ending with <code>LAST_CHAR</code>, which also bounds the lookups if the array has spare room.
+     */
+    protected volatile char[] tree;
     protected int size;
-    protected int idx;
     
     
     protected static final char LAST_CHAR = 0xFFFF;
@@ -51,24 +55,33 @@ abstract class DictionaryBase {
     
     
     /**
-     * Check if the word exist in this dictinary.
+     * Check if the word exist in this dictinary. Can be called from multiple threads at the same time.
      * @param word the word to check. Can't be null.
      * @return true if the word exist.
      */
     public boolean exist(String word){
-        idx = 0;
+        return exist( (CharSequence)word );
+    }
+    
+    
+    /**
+     * Check if the word exist in this dictinary without the need to create a String.
+     * Can be called from multiple threads at the same time.
+     * @param word the word to check. Can't be null.
+     * @return true if the word exist.
+     */
+    public boolean exist(CharSequence word){
+        char[] tree = this.tree;
+        int idx = 0;
         for(int i=0; i<word.length(); i++){
-            char c = word.charAt(i);
-            while(idx<size && tree[idx] < c){
-                idx += 3;
-            }
-            if((idx>=size || tree[idx] != c)){
+            idx = searchChar( tree, idx, word.charAt(i) );
+            if( idx < 0 ){
                 return false;
             }
-            if( i == word.length() - 1 && isWordMatch() ) {
+            if( i == word.length() - 1 && isWordMatch( tree, idx ) ) {
                 return true;
             }
-            idx = readIndex();
+            idx = readIndex( tree, idx );
             if(idx <= 0) return false;
         }
         return false;
@@ -78,6 +91,7 @@ abstract class DictionaryBase {
     
     /**
      * Returns a list of suggestions if the word is not in the dictionary.
+     * Can be called from multiple threads at the same time.
      * @param word the wrong spelled word. Can't be null.
      * @return a list of class Suggestion.
      * @see Suggestion
@@ -87,8 +101,7 @@ abstract class DictionaryBase {
             return new ArrayList<Suggestion>();
         }
         Suggestions suggesions = new Suggestions( Math.min( 20, 4+word.length() ) );
-        idx = 0;
-        searchSuggestions( suggesions, word, 0, 0, 0);
+        searchSuggestions( tree, suggesions, word, 0, 0, 0);
         List<Suggestion> list = suggesions.getlist();
         Collections.sort( list );
         return list;
@@ -99,21 +112,22 @@ abstract class DictionaryBase {
      * Es wird nach verschiedenen Regeln nach �hnlichen W�rtern gesucht.
      * Je nach Regel gibt es einen anderen diff. Jekleiner der diff desto �hnlicher.
      * Diese Methode ruft sich rekursiv auf.
+     * @param tree der Suchindex
      * @param list Kontainer f�r die gefundenen W�rter
      * @param chars bis zur charPosition bereits gemappte Buchstaben, danach noch zu mappende des orignal Wortes
      * @param charPosition Zeichenposition im char array
      * @param lastIdx Position im Suchindex der zur aktuellen Zeichenposition zeigt.
      * @param diff Die Un�hnlichkeit bis zur aktuellen Zeichenposition
      */
-    private void searchSuggestions( Suggestions list, CharSequence chars, int charPosition, int lastIdx, int diff){
+    private void searchSuggestions( char[] tree, Suggestions list, CharSequence chars, int charPosition, int lastIdx, int diff){
         if(diff > list.getMaxDissimilarity()){
             return;
         }
         // First with the correct letters to go on 
-        idx = lastIdx;
         char currentChar = chars.charAt(charPosition);
-        if(searchChar(currentChar)){
-            if( isWordMatch() ) {
+        int idx = searchChar( tree, lastIdx, currentChar );
+        if( idx >= 0 ){
+            if( isWordMatch( tree, idx ) ) {
                 if(charPosition+1 == chars.length()){
                     // exact match at this character position
                     list.add( new Suggestion(chars, diff));
@@ -124,121 +138,111 @@ abstract class DictionaryBase {
                     list.add( new Suggestion(chars2, diff + (chars.length()-length)*5));
                 }
             }
-            idx = readIndex();
+            idx = readIndex( tree, idx );
             if( idx <= 0 ) {
                 // no more characters in the tree
                 return;
             }
             if(charPosition+1 == chars.length()){
-                searchSuggestionsLonger( list, chars, chars.length(), idx, diff + 5);
+                searchSuggestionsLonger( tree, list, chars, chars.length(), idx, diff + 5);
                 return;
             }
-            searchSuggestions( list, chars, charPosition + 1, idx, diff );
+            searchSuggestions( tree, list, chars, charPosition + 1, idx, diff );
         }
 
         
         // transposed letters and additional letter
         if(charPosition+1 < chars.length()){
-            idx = lastIdx;
             currentChar = chars.charAt(charPosition+1);
-            if(searchChar(currentChar)){
-                int tempIdx = idx;
-                
+            int tempIdx = searchChar( tree, lastIdx, currentChar );
+            if( tempIdx >= 0 ){
                 //transposed letters (German - Buchstabendreher)
-                idx = readIndex();
+                idx = readIndex( tree, tempIdx );
                 if( idx > 0 ) {
                     StringBuilder buffer = new StringBuilder( chars );
                     buffer.setCharAt( charPosition+1, chars.charAt( charPosition ) );
                     buffer.setCharAt( charPosition, currentChar );
-                    searchSuggestions( list, buffer, charPosition+1, idx, diff+3);
+                    searchSuggestions( tree, list, buffer, charPosition+1, idx, diff+3);
                 }
                 
                 // Additional character in the misspelled word
-                idx = tempIdx;
                 StringBuilder buffer = new StringBuilder();
                 buffer.append( chars, 0, charPosition );
                 buffer.append( chars, charPosition+1, chars.length() );
-                searchSuggestions( list, buffer, charPosition, lastIdx, diff+5);
+                searchSuggestions( tree, list, buffer, charPosition, lastIdx, diff+5);
             }
         }
 
         // Missing letters, we need to add one character
-        {
-            int tempIdx = idx = lastIdx;
-            while( idx < size && tree[idx] < LAST_CHAR ) {
-                char newChar = tree[idx];
-                idx = readIndex();
-                if( idx > 0 && newChar != currentChar) {
-                    StringBuilder buffer = new StringBuilder( chars );
-                    buffer.insert( charPosition, newChar );
-                    searchSuggestions( list, buffer, charPosition + 1, idx, diff + 5 );
-                }
-                idx = tempIdx += 3;
+        for( int entry = lastIdx; entry < tree.length && tree[entry] < LAST_CHAR; entry += 3 ) {
+            char newChar = tree[entry];
+            idx = readIndex( tree, entry );
+            if( idx > 0 && newChar != currentChar) {
+                StringBuilder buffer = new StringBuilder( chars );
+                buffer.insert( charPosition, newChar );
+                searchSuggestions( tree, list, buffer, charPosition + 1, idx, diff + 5 );
             }
         }
         
         // Typos - wrong letters (One character is replaced with any character)
         if(charPosition < chars.length()){
             currentChar = chars.charAt(charPosition);
-            int tempIdx = idx = lastIdx;
-            while( idx < size && tree[idx] < LAST_CHAR ) {
-                if( isWordMatch() ){
+            for( int entry = lastIdx; entry < tree.length && tree[entry] < LAST_CHAR; entry += 3 ) {
+                if( isWordMatch( tree, entry ) ){
                     StringBuilder buffer = new StringBuilder();
                     buffer.append( chars, 0, charPosition );
-                    buffer.append( tree[idx] );
+                    buffer.append( tree[entry] );
                     list.add( new Suggestion( buffer, diff + 5 + (chars.length()-buffer.length())*5 ) );
                 }
                 if(charPosition + 1 < chars.length()){
-                    char newChar = tree[idx];
-                    idx = readIndex();
+                    char newChar = tree[entry];
+                    idx = readIndex( tree, entry );
                     if( idx > 0 && newChar != currentChar) {
                         StringBuilder buffer = new StringBuilder( chars );
                         buffer.setCharAt( charPosition, newChar );
-                        searchSuggestions( list, buffer, charPosition + 1, idx, diff + charDiff( currentChar, newChar ) );
+                        searchSuggestions( tree, list, buffer, charPosition + 1, idx, diff + charDiff( currentChar, newChar ) );
                     }
                 }
-                idx = tempIdx += 3;
             }
         }
     }
     
-    private void searchSuggestionsLonger( Suggestions list, CharSequence chars, int originalLength, int lastIdx, int diff){
-        idx = lastIdx;
-        while(idx<size && tree[idx] < LAST_CHAR){
-            if( isWordMatch() ){
+    private void searchSuggestionsLonger( char[] tree, Suggestions list, CharSequence chars, int originalLength, int lastIdx, int diff){
+        for( int idx = lastIdx; idx < tree.length && tree[idx] < LAST_CHAR; idx += 3 ){
+            if( isWordMatch( tree, idx ) ){
                 list.add( new Suggestion( chars.toString() + tree[idx], diff ) );
             }
-            idx += 3;
         }
     }
     
     /**
-     * Search if the character exist in the current node. If found then the variable <code>idx</code> point to the location.
-     * If not found then it point on the next character (char value) item in the node. 
+     * Search if the character exist in the node that starts at the given location.
+     * @param tree the tree to search
+     * @param idx the location of the node's first entry
      * @param c the searching character
-     * @return true if found
+     * @return the location of the character's entry, or -1 if not found
      */
-    private boolean searchChar(char c){
-        while(idx<size && tree[idx] < c){
+    static int searchChar( char[] tree, int idx, char c ){
+        while(idx<tree.length && tree[idx] < c){
             idx += 3;
         }
-        if((idx>=size || tree[idx] != c)){
-            return false;
+        if((idx>=tree.length || tree[idx] != c)){
+            return -1;
         }
-        return true;
+        return idx;
     }
     
     /**
-     * Check if on the current item position a word ends.
+     * Check if a word ends at the entry on the given location.
      */
-    private boolean isWordMatch(){
+    static boolean isWordMatch( char[] tree, int idx ){
         return (tree[idx + 1] & 0x8000) > 0;
     }
     
     /**
-     * Read the offset in the tree of the next character. 
+     * Read the offset in the tree of the next character from the entry on the given location.
      */
-    final int readIndex(){
+    static int readIndex( char[] tree, int idx ){
         return ((tree[idx+1] & 0x7fff)<<16) + tree[idx+2]; 
     }
     
@@ -88,6 +88,7 @@ public class FileUserDictionary implements UserDictionaryProvider{
             }
             writer.write( word );
             writer.close();
+            WordCache.clear();
         }catch(Exception ex){
             ex.printStackTrace();
         }
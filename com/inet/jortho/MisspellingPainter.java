@@ -0,0 +1,271 @@
+/*
+ *  JOrtho
+ *
+ *  Copyright (C) 2019 by Text Flex
+ *
+ *  This program is free software; you can redistribute it and/or
+ *  modify it under the terms of the GNU General Public License as 
+ *  published by the Free Software Foundation; either version 2 of the
+ *  License, or (at your option) any later version. 
+ *
+ *  This program is distributed in the hope that it will be useful, but
+ *  WITHOUT ANY WARRANTY; without even the implied warranty of
+ *  MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ *  General Public License for more details.
+ *
+ *  You should have received a copy of the GNU General Public License
+ *  along with this program; if not, write to the Free Software
+ *  Foundation, Inc., 59 Temple Place, Suite 330, Boston, MA 02111-1307
+ *  USA.
+ */
+package com.inet.jortho;
+
+import java.awt.*;
+
+import javax.swing.event.DocumentEvent;
+import javax.swing.text.*;
+
+/**
+ * Holds the misspelled words of one <code>JTextComponent</code> and paints them as a single highlight layer over
+ * the whole document. The words are kept sorted by offset in a gap buffer. The entries before the gap store their
+ * offsets from the start of the document and the entries after the gap store them from the end, so that an edit
+ * only has to move the gap to its paragraph and adjust the words it touches.
+ * 
+ * @author David Young
+ */
+class MisspellingPainter extends RedZigZagPainter {
+
+    private int[]  starts = new int[64];
+
+    private int[]  ends   = new int[64];
+
+    private int    gapStart;
+
+    private int    gapEnd = starts.length;
+
+    /** the document length that the offsets after the gap are relative to */
+    private int    length;
+
+    private Object tag;
+
+    /**
+     * Add the layer to the highlighter of the given text component.
+     * 
+     * @param jText
+     *            the text component to paint
+     */
+    void install( JTextComponent jText ) {
+        Document doc = jText.getDocument();
+        length = doc.getLength();
+        try {
+            // the end position of the document moves with every insert
+            tag = jText.getHighlighter().addHighlight( 0, doc.getEndPosition().getOffset(), this );
+        } catch( BadLocationException e ) {
+            e.printStackTrace();
+        }
+    }
+
+    /**
+     * Remove the layer and all its words from the highlighter of the given text component.
+     * 
+     * @param jText
+     *            the text component to paint
+     */
+    void uninstall( JTextComponent jText ) {
+        if( tag != null ) {
+            jText.getHighlighter().removeHighlight( tag );
+            tag = null;
+        }
+        gapStart = 0;
+        gapEnd = starts.length;
+    }
+
+    /**
+     * Get the count of misspelled words.
+     */
+    int size() {
+        return gapStart + starts.length - gapEnd;
+    }
+
+    /**
+     * Get the start offset of a word.
+     * 
+     * @param idx
+     *            the index of the word in offset order
+     */
+    int getStartOffset( int idx ) {
+        return idx < gapStart ? starts[idx] : length - starts[idx + gapEnd - gapStart];
+    }
+
+    /**
+     * Get the end offset of a word.
+     * 
+     * @param idx
+     *            the index of the word in offset order
+     */
+    int getEndOffset( int idx ) {
+        return idx < gapStart ? ends[idx] : length - ends[idx + gapEnd - gapStart];
+    }
+
+    /**
+     * Find the first word that ends after the given offset.
+     */
+    private int indexOf( int offset ) {
+        int low = 0;
+        int high = size();
+        while( low < high ) {
+            int mid = (low + high) >>> 1;
+            if( getEndOffset( mid ) <= offset ) {
+                low = mid + 1;
+            } else {
+                high = mid;
+            }
+        }
+        return low;
+    }
+
+    /**
+     * Move the gap in front of the word with the given index.
+     */
+    private void moveGap( int idx ) {
+        while( gapStart > idx ) {
+            gapStart--;
+            gapEnd--;
+            starts[gapEnd] = length - starts[gapStart];
+            ends[gapEnd] = length - ends[gapStart];
+        }
+        while( gapStart < idx ) {
+            starts[gapStart] = length - starts[gapEnd];
+            ends[gapStart] = length - ends[gapEnd];
+            gapStart++;
+            gapEnd++;
+        }
+    }
+
+    /**
+     * Add a misspelled word. The word must not overlap any other word.
+     * 
+     * @param start
+     *            the start offset of the word
+     * @param end
+     *            the end offset of the word
+     */
+    void add( int start, int end ) {
+        moveGap( indexOf( start ) );
+        if( gapStart == gapEnd ) {
+            int newSize = starts.length * 2;
+            int tail = starts.length - gapEnd;
+            int[] newStarts = new int[newSize];
+            int[] newEnds = new int[newSize];
+            System.arraycopy( starts, 0, newStarts, 0, gapStart );
+            System.arraycopy( ends, 0, newEnds, 0, gapStart );
+            System.arraycopy( starts, gapEnd, newStarts, newSize - tail, tail );
+            System.arraycopy( ends, gapEnd, newEnds, newSize - tail, tail );
+            starts = newStarts;
+            ends = newEnds;
+            gapEnd = newSize - tail;
+        }
+        starts[gapStart] = start;
+        ends[gapStart] = end;
+        gapStart++;
+    }
+
+    /**
+     * Remove all words that overlap the given range. The range excludes its end, so that a word that starts at
+     * the end, such as in the next paragraph, is kept.
+     * 
+     * @param start
+     *            the start offset of the range
+     * @param end
+     *            the end offset of the range, exclusive
+     */
+    void remove( int start, int end ) {
+        moveGap( indexOf( start ) );
+        while( gapEnd < starts.length && length - starts[gapEnd] < end ) {
+            gapEnd++;
+        }
+    }
+
+    /**
+     * Update the offsets after text was inserted.
+     */
+    void insertUpdate( DocumentEvent ev ) {
+        int offset = ev.getOffset();
+        int count = ev.getLength();
+        // words that start at or after the insert are behind the gap and move with the end of the text
+        moveGap( indexOf( offset ) );
+        if( gapEnd < starts.length && length - starts[gapEnd] < offset ) {
+            // the text was inserted into this word
+            moveGap( gapStart + 1 );
+            ends[gapStart - 1] += count;
+        }
+        length += count;
+    }
+
+    /**
+     * Update the offsets after text was removed.
+     */
+    void removeUpdate( DocumentEvent ev ) {
+        int offset = ev.getOffset();
+        int count = ev.getLength();
+        int removeEnd = offset + count;
+        // words that start after the removed text are behind the gap and move with the end of the text
+        moveGap( indexOf( offset ) );
+        while( gapEnd < starts.length && length - starts[gapEnd] < removeEnd ) {
+            moveGap( gapStart + 1 );
+        }
+        length -= count;
+        for( int i = gapStart; --i >= 0 && ends[i] > offset; ) {
+            int start = Math.min( starts[i], offset );
+            int end = ends[i] > removeEnd ? ends[i] - count : offset;
+            if( start >= end ) {
+                // the complete word was removed
+                System.arraycopy( starts, i + 1, starts, i, gapStart - i - 1 );
+                System.arraycopy( ends, i + 1, ends, i, gapStart - i - 1 );
+                gapStart--;
+            } else {
+                starts[i] = start;
+                ends[i] = end;
+            }
+        }
+    }
+
+    /**
+     * Paint the misspelled words in the range of a view. The highlighter calls this only for the views that
+     * are painted, and words outside the clip are skipped.
+     * 
+     * {@inheritDoc}
+     */
+    @Override
+    public Shape paintLayer( Graphics g, int p0, int p1, Shape shape, JTextComponent jtext, View view ) {
+        if( !jtext.isEditable() ) {
+            return null;
+        }
+        g.setColor( Color.red );
+        Rectangle clip = g.getClipBounds();
+        Rectangle bounds = null;
+        int count = size();
+        for( int i = indexOf( p0 ); i < count; i++ ) {
+            int start = getStartOffset( i );
+            if( start >= p1 ) {
+                break;
+            }
+            try {
+                Shape sh = view.modelToView( Math.max( start, p0 ), Position.Bias.Forward, 
+                        Math.min( getEndOffset( i ), p1 ), Position.Bias.Backward, shape );
+                Rectangle rect = (sh instanceof Rectangle) ? (Rectangle)sh : sh.getBounds();
+                if( clip != null && rect.y > clip.y + clip.height ) {
+                    // the rest of the view is below the clip
+                    break;
+                }
+                if( clip == null || rect.intersects( clip ) ) {
+                    drawZigZagLine( g, rect );
+                    bounds = bounds == null ? rect : bounds.union( rect );
+                }
+            } catch( BadLocationException e ) {
+                // the view is out of date, it is painted again after the update
+            }
+        }
+        return bounds;
+    }
+}
@@ -61,7 +61,7 @@ class RedZigZagPainter extends DefaultHighlighter.DefaultHighlightPainter {
     }
 	
 
-    private void drawZigZagLine(Graphics g, Rectangle rect){
+    void drawZigZagLine(Graphics g, Rectangle rect){
         int x1 = rect.x;
         int x2 = x1 + rect.width - 1;
         int y = rect.y + rect.height - 1;
@@ -29,11 +29,12 @@ import java.awt.event.ActionEvent;
 import java.awt.event.ItemEvent;
 import java.awt.event.KeyEvent;
 import java.awt.event.MouseListener;
+import java.io.File;
 import java.io.IOException;
 import java.io.InputStream;
-import java.io.StringReader;
 import java.net.MalformedURLException;
 import java.net.URL;
+import java.net.URLConnection;
 import java.util.ArrayList;
 import java.util.Collections;
 import java.util.Locale;
@@ -83,6 +84,7 @@ public class SpellChecker {
     private static Dictionary currentDictionary;
     private static Locale currentLocale;
     private static UserDictionaryProvider userDictionaryProvider;
+    private static File dictionaryCacheDir;
     private final static java.util.Map<LanguageChangeListener, Object> listeners = Collections.synchronizedMap( new WeakHashMap<LanguageChangeListener, Object>() );
     private static String applicationName;
     private static final SpellCheckerOptions globalOptions = new SpellCheckerOptions();
@@ -109,6 +111,17 @@ public class SpellChecker {
         SpellChecker.userDictionaryProvider = userDictionaryProvider;
     }
 
+    /**
+     * Sets the folder in which the trees of loaded dictionaries are cached. A dictionary's word list then only
+     * needs to be built into a tree the first time that its language is loaded; later loads read the cached tree
+     * directly. Languages with a precompiled tree "dictionary_xx.tree" beside the word list are never cached.
+     * 
+     * @param dir the cache folder, or null to not cache dictionaries
+     */
+    public static void setDictionaryCacheDir( File dir ) {
+        dictionaryCacheDir = dir;
+    }
+    
     /**
      * Gets the currently set UserDictionaryProvider. If none has been set then null is returned.
      * 
@@ -444,6 +457,7 @@ baseURL = LibTTx.getBaseURI("dictionaries").toURL();
      * Helper method to fire an Language change event.
      */
     private static void fireLanguageChanged( Locale oldLocale ) {
+        WordCache.clear();
         LanguageChangeEvent ev = new LanguageChangeEvent( currentLocale, oldLocale );
         for( LanguageChangeListener listener : listeners.keySet() ) {
             listener.languageChanged( ev );
@@ -618,21 +632,24 @@ baseURL = LibTTx.getBaseURI("dictionaries").toURL();
             Thread thread = new Thread( new Runnable() {
                 public void run() {
                     try {
-                        DictionaryFactory factory = new DictionaryFactory();
+                        Dictionary dictionary = null;
                         try {
-                            factory.loadWordList( new URL( baseURL, "dictionary_" + locale + extension ) );
+                            dictionary = loadDictionary();
                             UserDictionaryProvider provider = userDictionaryProvider;
                             if( provider != null ) {
                                 String userWords = provider.getUserWords( locale );
                                 if( userWords != null ) {
-                                    factory.loadPlainWordList( new StringReader( userWords ) );
+                                    addWords( dictionary, userWords );
                                 }
                             }
                         } catch( Exception ex ) {
                             JOptionPane.showMessageDialog( null, ex.toString(), "Error", JOptionPane.ERROR_MESSAGE );
+                            if( dictionary == null ) {
+                                dictionary = new Dictionary();
+                            }
                         }
                         Locale oldLocale = locale;
-                        currentDictionary = factory.create();
+                        currentDictionary = dictionary;
                         currentLocale = locale;
                         fireLanguageChanged( oldLocale );
                     } finally {
@@ -645,6 +662,69 @@ baseURL = LibTTx.getBaseURI("dictionaries").toURL();
             thread.start();
         }
         
+        /**
+         * Load the tree of the dictionary. A precompiled tree is used if one exists beside the word list, then
+         * a cached tree built from the same word list. Otherwise the tree is built from the word list and cached.
+         * @return the dictionary without user words
+         * @throws IOException if the word list can't be read
+         */
+        private Dictionary loadDictionary() throws IOException {
+            String name = "dictionary_" + locale;
+            Dictionary dictionary = Dictionary.loadTree( new URL( baseURL, name + ".tree" ), 0 );
+            if( dictionary != null ) {
+                return dictionary;
+            }
+            
+            // identifies the word list by its size and modification time, if known
+            URL wordList = new URL( baseURL, name + extension );
+            URLConnection conn = wordList.openConnection();
+            long stamp = conn.getLastModified() * 31 + conn.getContentLength();
+            if( conn.getLastModified() == 0 ) {
+                stamp = 0;
+            }
+            try {
+                conn.getInputStream().close();
+            } catch( IOException ex ) {
+                // reported when the word list is loaded
+            }
+            File dir = dictionaryCacheDir;
+            File cache = dir != null && stamp != 0 ? new File( dir, name + ".tree" ) : null;
+            if( cache != null ) {
+                dictionary = Dictionary.loadTree( cache, stamp );
+                if( dictionary != null ) {
+                    return dictionary;
+                }
+            }
+            
+            DictionaryFactory factory = new DictionaryFactory();
+            factory.loadWordList( wordList );
+            dictionary = factory.create();
+            if( cache != null ) {
+                try {
+                    dir.mkdirs();
+                    dictionary.saveTree( cache, stamp );
+                } catch( IOException ex ) {
+                    ex.printStackTrace();
+                }
+            }
+            return dictionary;
+        }
+        
+        /**
+         * Add the user words to the dictionary.
+         * @param dictionary the dictionary
+         * @param userWords the user words, delimited with newlines
+         */
+        private void addWords( Dictionary dictionary, String userWords ) {
+            for( String word : userWords.split( "\n" ) ) {
+                word = word.trim();
+                if( word.length() > 1 ) {
+                    dictionary.add( word );
+                }
+            }
+            dictionary.trimToSize();
+        }
+        
         @Override
         public boolean equals(Object obj){
             if(obj instanceof LanguageAction){
@@ -707,4 +787,22 @@ baseURL = LibTTx.getBaseURI("dictionaries").toURL();
     public static SpellCheckerOptions getOptions(){
         return globalOptions;
     }
+
+    /**
+     * Get the count of words whose spelling was found in the cache that is shared by all checkers.
+     * Together with {@link #getWordCacheMisses()} this shows how well the cache works for the checked text.
+     * @return the count of cache hits since start
+     */
+    public static long getWordCacheHits(){
+        return WordCache.getHits();
+    }
+
+    /**
+     * Get the count of words that had to be looked up in the dictionary because they were not cached.
+     * @return the count of cache misses since start
+     * @see #getWordCacheHits()
+     */
+    public static long getWordCacheMisses(){
+        return WordCache.getMisses();
+    }
 }
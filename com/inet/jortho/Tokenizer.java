@@ -38,6 +38,10 @@ import javax.swing.text.Utilities;
 class Tokenizer {
     
     private final Document doc;
+    /** snapshot of the text to check instead of a document */
+    private final String text;
+    /** offset of the snapshot within its document */
+    private int textOffset;
     private final SpellCheckerOptions options;
     /** start offset of current paragraph */
     private int paragraphOffset;
@@ -79,6 +83,7 @@ class Tokenizer {
 
         this.dictionary = dictionary;
         doc = jText.getDocument();
+        text = null;
         this.options = options == null ? SpellChecker.getOptions() : options;
         sentences = BreakIterator.getSentenceInstance( locale );
         words = BreakIterator.getWordInstance( locale );
@@ -91,6 +96,31 @@ class Tokenizer {
         endWord = BreakIterator.DONE;
     }
 
+    /**
+     * Create a tokenizer for a snapshot of a range of text, which can be used on any thread. 
+     * The snapshot is divided into paragraphs at its newlines.
+     * @param text the snapshot
+     * @param textOffset the offset of the snapshot within its document, so that word offsets refer to the document
+     * @param dictionary the used Dictionary
+     * @param locale the used Locale, is needed for the word and sentence breaker
+     * @param options the options, or null for the default options
+     */
+    Tokenizer( String text, int textOffset, Dictionary dictionary, Locale locale, SpellCheckerOptions options ) {
+        this.dictionary = dictionary;
+        doc = null;
+        this.text = text;
+        this.textOffset = textOffset;
+        this.options = options == null ? SpellChecker.getOptions() : options;
+        sentences = BreakIterator.getSentenceInstance( locale );
+        words = BreakIterator.getWordInstance( locale );
+
+        paragraphOffset = textOffset;
+        endOffset = textOffset + text.length();
+        setSentencesText();
+        endSentence = sentences.first();
+        endWord = BreakIterator.DONE;
+    }
+
     /**
      * Get the next misspelling word. If not found then it return null.
      */
@@ -115,14 +145,14 @@ class Tokenizer {
                 endWord = words.next();
                 //only words with 2 or more characters are checked
                 if( word.length() > 1 && Character.isLetter( word.charAt( 0 ) )){
-                    boolean exist = dictionary.exist( word );
+                    boolean exist = WordCache.exist( dictionary, word );
                     if(!exist && !options.isCaseSensitive()){
-                        exist = dictionary.exist( Utils.getInvertedCapitalizion( word ) );
+                        exist = WordCache.exist( dictionary, Utils.getInvertedCapitalizion( word ) );
                     }else
                     if( !exist && (isFirstWordInSentence || options.getIgnoreCapitalization()) && Character.isUpperCase( word.charAt( 0 ) ) ) {
                         // Uppercase check on starting of sentence
                         String capitalizeWord = word.substring( 0, 1 ).toLowerCase() + word.substring( 1 );
-                        exist = dictionary.exist( capitalizeWord );
+                        exist = WordCache.exist( dictionary, capitalizeWord );
                     }
                     
                     if( !exist && options.isIgnoreAllCapsWords() && Utils.isAllCapitalized( word ) ){
@@ -195,7 +225,12 @@ class Tokenizer {
      * @return true, if there is a next paragraph
      */
     private boolean nextParagraph(){
-        if(doc instanceof AbstractDocument){
+        if(text != null){
+            paragraphOffset = getSnapshotParagraphEnd();
+            if(paragraphOffset >= endOffset){
+                return false;
+            }
+        }else if(doc instanceof AbstractDocument){
             paragraphOffset = ((AbstractDocument)doc).getParagraphElement( paragraphOffset ).getEndOffset();
             if(paragraphOffset >= endOffset){
                 return false;
@@ -223,6 +258,11 @@ class Tokenizer {
      */
     private void setSentencesText(){
         int end = endOffset;
+        if(text != null){
+            phrase = text.substring( paragraphOffset - textOffset, getSnapshotParagraphEnd() - textOffset );
+            sentences.setText( phrase );
+            return;
+        }
         if(doc instanceof AbstractDocument){
             end = ((AbstractDocument)doc).getParagraphElement( paragraphOffset ).getEndOffset();
         }
@@ -234,6 +274,14 @@ class Tokenizer {
         sentences.setText( phrase );
     }
 
+    /**
+     * Get the end offset of the current paragraph in the snapshot, after its newline.
+     */
+    private int getSnapshotParagraphEnd(){
+        int newline = text.indexOf( '\n', paragraphOffset - textOffset );
+        return newline < 0 ? endOffset : textOffset + newline + 1;
+    }
+
     /**
      * Load the next Sentence in the word breaker.
      */
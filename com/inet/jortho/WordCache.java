@@ -0,0 +1,137 @@
+/*
+ *  JOrtho
+ *
+ *  Copyright (C) 2019 by Text Flex
+ *
+ *  This program is free software; you can redistribute it and/or
+ *  modify it under the terms of the GNU General Public License as 
+ *  published by the Free Software Foundation; either version 2 of the
+ *  License, or (at your option) any later version. 
+ *
+ *  This program is distributed in the hope that it will be useful, but
+ *  WITHOUT ANY WARRANTY; without even the implied warranty of
+ *  MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ *  General Public License for more details.
+ *
+ *  You should have received a copy of the GNU General Public License
+ *  along with this program; if not, write to the Free Software
+ *  Foundation, Inc., 59 Temple Place, Suite 330, Boston, MA 02111-1307
+ *  USA.
+ */
+package com.inet.jortho;
+
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+import java.util.concurrent.atomic.AtomicReference;
+
+/**
+ * Caches the results of dictionary lookups for all checkers. The words are not stored, only a 63 bit hash of each
+ * word together with its result in one <code>long</code>, in a table of fixed size. The table is dropped as a whole
+ * if the language changes or a word is added to the dictionary.
+ * 
+ * @author David Young
+ */
+class WordCache {
+
+    private static final int                        SIZE   = 1 << 16;
+
+    /** the count of slots that are searched for a word */
+    private static final int                        PROBES = 4;
+
+    private static final AtomicReference<Table>     table  = new AtomicReference<Table>();
+
+    private static final AtomicLong                 hits   = new AtomicLong();
+
+    private static final AtomicLong                 misses = new AtomicLong();
+
+    /**
+     * Check if the word exist in the dictionary, looking up the dictionary only if the result is not cached.
+     * 
+     * @param dictionary
+     *            the dictionary to look up
+     * @param word
+     *            the word to check
+     * @return true if the word exist
+     */
+    static boolean exist( Dictionary dictionary, String word ) {
+        Table current = table.get();
+        if( current == null || current.dictionary != dictionary ) {
+            Table newTable = new Table( dictionary );
+            if( !table.compareAndSet( current, newTable ) ) {
+                // an other thread has changed the table at the same time
+                misses.incrementAndGet();
+                return dictionary.exist( word );
+            }
+            current = newTable;
+        }
+
+        long hash = hash( word );
+        int home = (int)(hash ^ (hash >>> 32)) & (SIZE - 1);
+        int free = home;
+        for( int i = 0; i < PROBES; i++ ) {
+            int idx = (home + i) & (SIZE - 1);
+            long entry = current.entries.get( idx );
+            if( entry == 0 ) {
+                free = idx;
+                break;
+            }
+            if( (entry & ~1L) == hash ) {
+                hits.incrementAndGet();
+                return (entry & 1) != 0;
+            }
+        }
+        misses.incrementAndGet();
+        // the table was read before the dictionary, so the result of a dictionary that has changed in the
+        // meantime goes to a table that was already cleared
+        boolean exist = dictionary.exist( word );
+        current.entries.lazySet( free, exist ? hash | 1 : hash );
+        return exist;
+    }
+
+    /**
+     * Remove all cached results. This must be called after the dictionary was modified.
+     */
+    static void clear() {
+        table.set( null );
+    }
+
+    /**
+     * Get the count of words that were found in the cache.
+     */
+    static long getHits() {
+        return hits.get();
+    }
+
+    /**
+     * Get the count of words that were looked up in the dictionary.
+     */
+    static long getMisses() {
+        return misses.get();
+    }
+
+    /**
+     * Calculate a FNV-1a hash of the word. The lowest bit is cleared for the result, and 0 is reserved for empty
+     * slots.
+     */
+    private static long hash( String word ) {
+        long hash = 0xcbf29ce484222325L;
+        for( int i = 0; i < word.length(); i++ ) {
+            hash = (hash ^ word.charAt( i )) * 0x100000001b3L;
+        }
+        hash &= ~1L;
+        return hash == 0 ? 2 : hash;
+    }
+
+    /**
+     * The cached results of one dictionary.
+     */
+    private static class Table {
+        final Dictionary      dictionary;
+
+        final AtomicLongArray entries = new AtomicLongArray( SIZE );
+
+        Table( Dictionary dictionary ) {
+            this.dictionary = dictionary;
+        }
+    }
+}
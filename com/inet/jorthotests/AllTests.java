@@ -42,6 +42,7 @@ public class AllTests {
         TestSuite suite = new TestSuite( "JOrtho Tests" );
         suite.addTestSuite( EventTest.class );
         suite.addTestSuite( MemoryTest.class );
+        suite.addTestSuite( MisspellingPainterTest.class );
         return suite;
     }
 }
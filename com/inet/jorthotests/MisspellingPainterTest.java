@@ -0,0 +1,67 @@
+package com.inet.jorthotests;
+
+import java.lang.reflect.*;
+
+import junit.framework.TestCase;
+
+/**
+ * Checks that repainted paragraphs keep the misspellings of their neighbours.
+ * @author David Young
+ */
+public class MisspellingPainterTest extends TestCase {
+
+    private Object painter;
+
+    protected void setUp() throws Exception {
+        // the painter is package private
+        Constructor<?> constructor = Class.forName( "com.inet.jortho.MisspellingPainter" ).getDeclaredConstructor();
+        constructor.setAccessible( true );
+        painter = constructor.newInstance();
+    }
+
+    private int call( String name, int... args ) throws Exception {
+        Class<?>[] types = new Class[args.length];
+        Object[] values = new Object[args.length];
+        for( int i = 0; i < args.length; i++ ) {
+            types[i] = int.class;
+            values[i] = Integer.valueOf( args[i] );
+        }
+        Method method = painter.getClass().getDeclaredMethod( name, types );
+        method.setAccessible( true );
+        Object result = method.invoke( painter, values );
+        return result instanceof Integer ? ((Integer)result).intValue() : 0;
+    }
+
+    /**
+     * Repaint a paragraph with the misspellings found in it.
+     */
+    private void paintChunk( int start, int end, int wordStart, int wordEnd ) throws Exception {
+        call( "remove", start, end );
+        call( "add", wordStart, wordEnd );
+    }
+
+    /**
+     * Adjacent paragraphs that are painted out of order must not remove the misspellings of each other.
+     */
+    public void testAdjacentChunksOutOfOrder() throws Exception {
+        paintChunk( 5, 10, 5, 9 );
+        paintChunk( 0, 5, 0, 4 );
+        assertEquals( "count", 2, call( "size" ) );
+        assertEquals( "start 0", 0, call( "getStartOffset", 0 ) );
+        assertEquals( "end 0", 4, call( "getEndOffset", 0 ) );
+        assertEquals( "start 1", 5, call( "getStartOffset", 1 ) );
+        assertEquals( "end 1", 9, call( "getEndOffset", 1 ) );
+    }
+
+    /**
+     * A repainted paragraph replaces its own misspellings.
+     */
+    public void testRepaintChunk() throws Exception {
+        paintChunk( 0, 5, 0, 4 );
+        paintChunk( 5, 10, 5, 9 );
+        paintChunk( 5, 10, 6, 8 );
+        assertEquals( "count", 2, call( "size" ) );
+        assertEquals( "start 1", 6, call( "getStartOffset", 1 ) );
+        assertEquals( "end 1", 8, call( "getEndOffset", 1 ) );
+    }
+}
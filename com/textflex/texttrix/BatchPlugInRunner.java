@@ -0,0 +1,549 @@
+/* ***** BEGIN LICENSE BLOCK *****
+ * Version: MPL 1.1/GPL 2.0/LGPL 2.1
+ *
+ * The contents of this file are subject to the Mozilla Public License Version
+ * 1.1 (the "License"); you may not use this file except in compliance with
+ * the License. You may obtain a copy of the License at
+ * http://www.mozilla.org/MPL/
+ *
+ * Software distributed under the License is distributed on an "AS IS" basis,
+ * WITHOUT WARRANTY OF ANY KIND, either express or implied. See the License
+ * for the specific language governing rights and limitations under the
+ * License.
+ *
+ * The Original Code is the Text Trix code.
+ *
+ * The Initial Developer of the Original Code is
+ * Text Flex.
+ * Portions created by the Initial Developer are Copyright (C) 2019
+ * the Initial Developer. All Rights Reserved.
+ *
+ * Contributor(s): David Young <david@textflex.com>
+ *
+ * Alternatively, the contents of this file may be used under the terms of
+ * either the GNU General Public License Version 2 or later (the "GPL"), or
+ * the GNU Lesser General Public License Version 2.1 or later (the "LGPL"),
+ * in which case the provisions of the GPL or the LGPL are applicable instead
+ * of those above. If you wish to allow use of your version of this file only
+ * under the terms of either the GPL or the LGPL, and not to allow others to
+ * use your version of this file under the terms of the MPL, indicate your
+ * decision by deleting the provisions above and replace them with the notice
+ * and other provisions required by the GPL or the LGPL. If you do not delete
+ * the provisions above, a recipient may use your version of this file under
+ * the terms of any one of the MPL, the GPL or the LGPL.
+ *
+ * ***** END LICENSE BLOCK ***** */
+
+
+
+package com.textflex.texttrix;
+
+import java.awt.EventQueue;
+import java.io.*;
+import java.nio.*;
+import java.nio.channels.FileChannel;
+import java.nio.charset.*;
+import java.util.*;
+import java.util.concurrent.*;
+import java.util.concurrent.atomic.AtomicInteger;
+import javax.swing.JProgressBar;
+import javax.swing.text.*;
+
+/**
+ * Runs a plug-in over many texts at once, either every tab in a 
+ * tab group or every file in a folder.
+ * 
+ * <p>The texts are split among the threads of a fork-join pool, each 
+ * of which reads, transforms, and writes one text at a time, so only
+ * as many files from a folder as there are threads are held in 
+ * memory together.  Files in a folder are read and written directly, 
+ * without opening tabs for them, and files whose text the plug-in 
+ * leaves unchanged are not rewritten.  Binary files, detected by their null characters,
+ * and files that are not valid text in the default charset are skipped
+ * rather than rewritten with replacement characters.
+ * 
+ * <p>Tabs are snapshot on the event dispatch thread, transformed in 
+ * the pool, and updated back on the event dispatch thread, each as
+ * a single undoable edit, so every tab's text is copied up front and 
+ * each new text is held until the whole batch finishes.  Tabs edited in the meantime are left
+ * alone, as are read-only tabs and tabs whose files are still loading.
+ * 
+ * <p>Because the plug-in is called from several threads at once, its
+ * <code>run</code> and <code>runEdits</code> methods must not change
+ * state that other runs depend on.  Once the batch has finished, 
+ * {@link #getSummary()} lists the texts that changed.
+ */
+public class BatchPlugInRunner implements Runnable {
+	
+	/** Chars to decode from a file at a time. */
+	private static final int CHUNK = 64 * 1024;
+	/** Bytes to read from a file at a time. */
+	private static final int READ_SIZE = 64 * 1024;
+	
+	private static ForkJoinPool pool = new ForkJoinPool();
+	// each pool thread writes through its own writer, since writes 
+	// through a shared writer take turns
+	private static ThreadLocal<DocumentWriter> writers = 
+			new ThreadLocal<DocumentWriter>() {
+		protected DocumentWriter initialValue() {
+			return new DocumentWriter();
+		}
+	};
+	// each pool thread reads into its own buffer; the files are read
+	// rather than mapped, since a mapping lingers until garbage 
+	// collection and on some platforms keeps the file from being 
+	// replaced by the write that follows
+	private static ThreadLocal<ByteBuffer> buffers = 
+			new ThreadLocal<ByteBuffer>() {
+		protected ByteBuffer initialValue() {
+			return ByteBuffer.allocate(READ_SIZE);
+		}
+	};
+	
+	private TextTrix ttx = null; // the window to report to
+	private PlugIn pl = null; // the plug-in to run
+	private JProgressBar progress = null; // status bar progress
+	private Item[] items = null; // the tabs or files to process
+	private AtomicInteger done = new AtomicInteger(0); // items processed
+	private int changed = 0; // number of texts changed
+	
+	/**
+	 * Creates a runner to apply a plug-in to every tab in a tab group.
+	 * Must be called on the event dispatch thread, since the tabs' 
+	 * text is captured here.
+	 * @param aTtx the window whose status bar shows the progress
+	 * @param aPl the plug-in
+	 * @param pane the tab group
+	 * @param aProgress the status bar's progress bar
+	 * @throws BadLocationException if a tab's text cannot be read
+	 */
+	public BatchPlugInRunner(TextTrix aTtx, PlugIn aPl, 
+			MotherTabbedPane pane, JProgressBar aProgress) 
+			throws BadLocationException {
+		this(aTtx, aPl, aProgress);
+		int n = pane.getTabCount();
+		items = new Item[n];
+		for (int i = 0; i < n; i++) {
+			TextPad pad = aTtx.getTextPadAt(pane, i);
+			Item item = new Item(pad.getFile());
+			item.pad = pad;
+			items[i] = item;
+			// skips tabs that can't take the outcome rather than 
+			// copying their text
+			if (pad.isPaged()) {
+				item.error = "open in the read-only large file viewer";
+				continue;
+			} else if (pad.isFollowing()) {
+				item.error = "following its file";
+				continue;
+			} else if (pad.isLoading()) {
+				item.error = "still loading";
+				continue;
+			}
+			item.doc = pad.getDocument();
+			item.editCount = pad.getEditCount();
+			if (item.doc instanceof IndentedDocument) {
+				item.text = ((IndentedDocument) item.doc).getSnapshot();
+			}
+			if (item.text == null) {
+				item.text = item.doc.getText(0, item.doc.getLength());
+			}
+		}
+	}
+	
+	/**
+	 * Creates a runner to apply a plug-in to every file in a folder 
+	 * and its subfolders, except hidden ones.
+	 * @param aTtx the window whose status bar shows the progress
+	 * @param aPl the plug-in
+	 * @param dir the folder
+	 * @param aProgress the status bar's progress bar
+	 */
+	public BatchPlugInRunner(TextTrix aTtx, PlugIn aPl, File dir, 
+			JProgressBar aProgress) {
+		this(aTtx, aPl, aProgress);
+		ArrayList<Item> list = new ArrayList<Item>();
+		addFiles(dir, list);
+		items = list.toArray(new Item[list.size()]);
+	}
+	
+	private BatchPlugInRunner(TextTrix aTtx, PlugIn aPl, 
+			JProgressBar aProgress) {
+		ttx = aTtx;
+		pl = aPl;
+		progress = aProgress;
+	}
+	
+	/** Adds the files in a folder and its subfolders.
+	 */
+	private void addFiles(File dir, ArrayList<Item> list) {
+		File[] files = dir.listFiles();
+		if (files == null) return;
+		Arrays.sort(files);
+		for (int i = 0; i < files.length; i++) {
+			if (files[i].isHidden()) continue;
+			if (files[i].isDirectory()) {
+				addFiles(files[i], list);
+			} else if (files[i].isFile()) {
+				list.add(new Item(files[i]));
+			}
+		}
+	}
+	
+	/**
+	 * Starts the batch on a worker thread.  Must be called on the
+	 * event dispatch thread.
+	 */
+	public void start() {
+		pl.setCancelled(false);
+		progress.setIndeterminate(false);
+		progress.setStringPainted(true);
+		progress.setValue(0);
+		progress.setString(pl.getName() + " 0 of " + items.length);
+		progress.setToolTipText("Click to cancel " + pl.getName());
+		Thread thread = new Thread(this, "Batch " + pl.getName());
+		thread.setDaemon(true);
+		thread.start();
+	}
+	
+	/**
+	 * Processes all the items in the pool, then finishes up on the 
+	 * event dispatch thread.
+	 */
+	public void run() {
+		pool.invoke(new Batch(0, items.length));
+		EventQueue.invokeLater(new Runnable() {
+			public void run() {
+				finish();
+			}
+		});
+	}
+	
+	/**
+	 * Asks the plug-in to stop.  Files already written are kept, but
+	 * no more are processed, and no tabs are changed.
+	 */
+	public void cancel() {
+		pl.setCancelled(true);
+		progress.setString("Cancelling " + pl.getName() + "...");
+	}
+	
+	/**
+	 * Gets the plug-in that this batch runs.
+	 * @return the plug-in
+	 */
+	public PlugIn getPlugIn() {
+		return pl;
+	}
+	
+	/**
+	 * Gets a summary of the batch, listing the texts that changed and
+	 * any that could not be processed.
+	 * @return the summary
+	 */
+	public String getSummary() {
+		StringBuilder changedList = new StringBuilder();
+		StringBuilder errorList = new StringBuilder();
+		int errors = 0;
+		for (int i = 0; i < items.length; i++) {
+			Item item = items[i];
+			if (item.changed) {
+				changedList.append(item.getName()).append('\n');
+			} else if (item.error != null) {
+				errorList.append(item.getName()).append(": ")
+					.append(item.error).append('\n');
+				errors++;
+			}
+		}
+		StringBuilder summary = new StringBuilder();
+		summary.append(pl.getName()).append(" changed ").append(changed)
+			.append(" of ").append(items.length).append(" files");
+		if (pl.isCancelled()) summary.append(" before being cancelled");
+		summary.append(":\n").append(changedList);
+		if (errors > 0) {
+			summary.append("\nSkipped ").append(errors).append(" files:\n")
+				.append(errorList);
+		}
+		return summary.toString();
+	}
+	
+	/**
+	 * Updates the tabs with their new text and reports the summary.
+	 * Called on the event dispatch thread.
+	 */
+	private void finish() {
+		for (int i = 0; i < items.length; i++) {
+			Item item = items[i];
+			if (item.pad == null || item.result == null) continue;
+			if (pl.isCancelled()) {
+				item.result = null;
+			} else if (item.pad.getDocument() != item.doc 
+					|| item.pad.getEditCount() != item.editCount) {
+				item.error = "edited while " + pl.getName() + " ran";
+			} else {
+				try {
+					item.pad.startCompoundEdit();
+					if (item.outcome.getEdits() != null) {
+						ttx.applyEdits(item.pad, item.doc, 
+								item.outcome.getEdits());
+					} else {
+						ttx.replaceSection(item.pad, item.doc, item.outcome,
+								0, item.doc.getLength());
+					}
+					item.changed = true;
+				} catch (BadLocationException e) {
+					item.error = e.getMessage();
+				} finally {
+					item.pad.stopCompoundEdit();
+				}
+			}
+			item.result = null;
+			item.outcome = null;
+		}
+		changed = 0;
+		for (int i = 0; i < items.length; i++) {
+			if (items[i].changed) changed++;
+		}
+		progress.setValue(0);
+		progress.setToolTipText(null);
+		progress.setString(pl.getName() + " changed " + changed + " of " 
+				+ items.length + " files");
+		ttx.batchFinished(this);
+	}
+	
+	/**
+	 * Reads, transforms, and writes one item.  Called on a pool thread.
+	 */
+	private void process(Item item) {
+		if (pl.isCancelled()) return;
+		try {
+			if (item.pad == null) item.text = read(item);
+			if (item.text == null) return;
+			
+			// plug-ins that give edits work on the text directly,
+			// while others receive it as a string
+			PlugInOutcome outcome = pl.runEdits(item.text, 0, 0);
+			if (outcome == null) {
+				String s = item.text.toString();
+				outcome = pl.getAlwaysEntireText() 
+					? pl.run(s, 0, 0) : pl.run(s, 0);
+			}
+			if (outcome == null || outcome.getNoTextChange() 
+					|| pl.isCancelled()) {
+				return;
+			}
+			CharSequence result = getResult(item.text, outcome);
+			if (result == null) return;
+			
+			// tabs are updated later on the event dispatch thread
+			if (item.pad != null) {
+				item.outcome = outcome;
+				item.result = result;
+			} else if (writers.get().write(result, item.file, item.eol, 
+					false)) {
+				item.changed = true;
+			} else {
+				item.error = "could not write the file";
+			}
+		} catch (IOException e) {
+			item.error = e.getMessage();
+		} catch (BadLocationException e) {
+			item.error = e.getMessage();
+		} catch (RuntimeException e) {
+			e.printStackTrace();
+			item.error = e.toString();
+		} finally {
+			item.text = null;
+			showProgress();
+		}
+	}
+	
+	/**
+	 * Reads a file's text, normalizing its end-of-line characters to
+	 * "\n" and recording the original ones.
+	 * @return the text, or <code>null</code> if the file appears to be 
+	 * binary, cannot be decoded in the default charset, or is too large
+	 */
+	private CharSequence read(Item item) throws IOException {
+		FileInputStream in = new FileInputStream(item.file);
+		try {
+			FileChannel channel = in.getChannel();
+			long size = channel.size();
+			if (size >= Integer.MAX_VALUE) {
+				item.error = "too large";
+				return null;
+			}
+			// matches FileReader's default charset but reports malformed 
+			// input, since writing back replacement characters would 
+			// corrupt the file
+			CharsetDecoder decoder = Charset.defaultCharset().newDecoder()
+				.onMalformedInput(CodingErrorAction.REPORT)
+				.onUnmappableCharacter(CodingErrorAction.REPORT);
+			StringBuilder text = new StringBuilder((int) size);
+			CharBuffer chars = CharBuffer.allocate(CHUNK);
+			String eol = null;
+			boolean pendingCR = false; // chunk ended with a CR
+			ByteBuffer bytes = buffers.get();
+			bytes.clear();
+			while (true) {
+				boolean endOfInput = channel.read(bytes) < 0;
+				bytes.flip();
+				CoderResult result = null;
+				do {
+					result = decoder.decode(bytes, chars, endOfInput);
+					if (result.isError()) {
+						item.error = "not " + decoder.charset().name() + " text";
+						return null;
+					}
+					if (endOfInput && result.isUnderflow()) {
+						decoder.flush(chars);
+					}
+					chars.flip();
+					while (chars.hasRemaining()) {
+						char c = chars.get();
+						if (c == 0) {
+							item.error = "binary file";
+							return null;
+						}
+						if (pendingCR) {
+							pendingCR = false;
+							if (c == '\n') {
+								if (eol == null) eol = "\r\n";
+								continue;
+							}
+							if (eol == null) eol = "\r";
+						}
+						if (c == '\r') {
+							pendingCR = true;
+							text.append('\n');
+						} else {
+							if (c == '\n' && eol == null) eol = "\n";
+							text.append(c);
+						}
+					}
+					chars.clear();
+				} while (result.isOverflow());
+				// keeps any bytes of a character split across reads
+				bytes.compact();
+				if (endOfInput) break;
+			}
+			if (pendingCR && eol == null) eol = "\r";
+			item.eol = eol;
+			return text;
+		} finally {
+			in.close();
+		}
+	}
+	
+	/**
+	 * Gets the text that results from a plug-in's outcome.
+	 * @return the resulting text, or <code>null</code> if it is the 
+	 * same as the original text
+	 * @throws BadLocationException if the outcome's edits overlap or
+	 * lie beyond the text
+	 */
+	private CharSequence getResult(CharSequence text, PlugInOutcome outcome) 
+			throws BadLocationException {
+		StringBuilder result = new StringBuilder(text.length());
+		ArrayList<TextEdit> edits = outcome.getEdits();
+		if (edits != null) {
+			ArrayList<TextEdit> sorted = new ArrayList<TextEdit>(edits);
+			Collections.sort(sorted, new Comparator<TextEdit>() {
+				public int compare(TextEdit a, TextEdit b) {
+					return a.getStart() - b.getStart();
+				}
+			});
+			int pos = 0;
+			for (int i = 0; i < sorted.size(); i++) {
+				TextEdit edit = sorted.get(i);
+				if (edit.getStart() < pos || edit.getEnd() > text.length()) {
+					throw new BadLocationException(
+							"Plug-in edits overlap or lie beyond the text", 
+							edit.getStart());
+				}
+				result.append(text, pos, edit.getStart());
+				result.append(edit.getText());
+				pos = edit.getEnd();
+			}
+			result.append(text, pos, text.length());
+		} else if (outcome.getText() == null) {
+			return null;
+		} else if (outcome.getReplaceStart() != -1) {
+			result.append(text, 0, outcome.getReplaceStart());
+			result.append(outcome.getText());
+			result.append(text, outcome.getReplaceEnd(), text.length());
+		} else {
+			result.append(outcome.getText());
+		}
+		if (result.length() == text.length()) {
+			int i = 0;
+			while (i < result.length() && result.charAt(i) == text.charAt(i)) {
+				i++;
+			}
+			if (i == result.length()) return null;
+		}
+		return result;
+	}
+	
+	/** Shows the number of items processed so far.
+	 */
+	private void showProgress() {
+		final int n = done.incrementAndGet();
+		EventQueue.invokeLater(new Runnable() {
+			public void run() {
+				if (pl.isCancelled()) return;
+				progress.setValue(n * 100 / items.length);
+				progress.setString(
+						pl.getName() + " " + n + " of " + items.length);
+			}
+		});
+	}
+	
+	/**
+	 * Processes a range of items, splitting it in half among the pool's
+	 * threads until each holds a single item.
+	 */
+	private class Batch extends RecursiveAction {
+		private int start = 0;
+		private int end = 0;
+		
+		public Batch(int aStart, int aEnd) {
+			start = aStart;
+			end = aEnd;
+		}
+		
+		protected void compute() {
+			if (end - start <= 1) {
+				if (start < end) process(items[start]);
+			} else {
+				int mid = (start + end) / 2;
+				invokeAll(new Batch(start, mid), new Batch(mid, end));
+			}
+		}
+	}
+	
+	/**
+	 * A tab or file to process, along with its result.
+	 */
+	private static class Item {
+		private File file = null; // the file to read and write
+		private TextPad pad = null; // the tab, if any
+		private Document doc = null; // the tab's document
+		private int editCount = 0; // the tab's edit count at the start
+		private CharSequence text = null; // the original text
+		private String eol = null; // end-of-line chars read from the file
+		private PlugInOutcome outcome = null; // the tab's outcome
+		private CharSequence result = null; // the tab's new text
+		private boolean changed = false; // flag that the text changed
+		private String error = null; // reason the item was skipped
+		
+		public Item(File aFile) {
+			file = aFile;
+		}
+		
+		/** Gets the item's path for the summary. */
+		public String getName() {
+			return file != null ? file.getPath() : "";
+		}
+	}
+}
@@ -0,0 +1,339 @@
+/* ***** BEGIN LICENSE BLOCK *****
+ * Version: MPL 1.1/GPL 2.0/LGPL 2.1
+ *
+ * The contents of this file are subject to the Mozilla Public License Version
+ * 1.1 (the "License"); you may not use this file except in compliance with
+ * the License. You may obtain a copy of the License at
+ * http://www.mozilla.org/MPL/
+ *
+ * Software distributed under the License is distributed on an "AS IS" basis,
+ * WITHOUT WARRANTY OF ANY KIND, either express or implied. See the License
+ * for the specific language governing rights and limitations under the
+ * License.
+ *
+ * The Original Code is the Text Trix code.
+ *
+ * The Initial Developer of the Original Code is
+ * Text Flex.
+ * Portions created by the Initial Developer are Copyright (C) 2019
+ * the Initial Developer. All Rights Reserved.
+ *
+ * Contributor(s): David Young <david@textflex.com>
+ *
+ * Alternatively, the contents of this file may be used under the terms of
+ * either the GNU General Public License Version 2 or later (the "GPL"), or
+ * the GNU Lesser General Public License Version 2.1 or later (the "LGPL"),
+ * in which case the provisions of the GPL or the LGPL are applicable instead
+ * of those above. If you wish to allow use of your version of this file only
+ * under the terms of either the GPL or the LGPL, and not to allow others to
+ * use your version of this file under the terms of the MPL, indicate your
+ * decision by deleting the provisions above and replace them with the notice
+ * and other provisions required by the GPL or the LGPL. If you do not delete
+ * the provisions above, a recipient may use your version of this file under
+ * the terms of any one of the MPL, the GPL or the LGPL.
+ *
+ * ***** END LICENSE BLOCK ***** */
+
+
+package com.textflex.texttrix;
+
+import java.awt.EventQueue;
+import java.io.*;
+import java.lang.reflect.InvocationTargetException;
+import java.nio.*;
+import java.nio.channels.FileChannel;
+import java.nio.charset.*;
+import javax.swing.JProgressBar;
+import javax.swing.text.BadLocationException;
+import javax.swing.text.Document;
+
+/**
+ * Loads a file into a {@link TextPad} in chunks.
+ * The file is memory-mapped a window at a time and decoded into 
+ * fixed-size character chunks, each of which is appended to the pad's 
+ * document on the event dispatch thread as soon as it is ready.  The first 
+ * screen of text therefore appears right away while the rest of the file 
+ * fills in behind it, and the whole file never has to sit in the heap as 
+ * a single string in addition to the document's own copy.
+ * 
+ * <p>End-of-line characters are normalized to "\n" as the chunks are 
+ * decoded, the same as the editor kit does when reading a whole file, 
+ * and the original end-of-line style is stored in the pad for saving.
+ */
+public class ChunkedFileLoader extends StoppableThread {
+	
+	/** Size of each memory-mapped window of the file, in bytes. */
+	private static final int MAP_WINDOW = 8 * 1024 * 1024;
+	/** Chars to decode for the first chunk, kept small to show 
+	 * the first screen quickly. */
+	private static final int FIRST_CHUNK = 16 * 1024;
+	/** Chars to decode for each of the remaining chunks. */
+	private static final int CHUNK = 512 * 1024;
+	/** Bytes to read at a time when reading a file in bulk. */
+	private static final int READ_SIZE = 64 * 1024;
+	
+	private Thread thread = null;
+	private TextPad pad = null;
+	private File file = null;
+	private JProgressBar progress = null;
+	private Runnable onFinished = null;
+	private boolean firstChunk = true;
+	private boolean pendingCR = false; // chunk ended in the middle of a CRLF
+	
+	/** Constructs a loader for the given pad.
+	 * @param aPad the pad to receive the text
+	 * @param aFile the file to load
+	 * @param aProgress progress bar in which to display the loading status;
+	 * can be <code>null</code>
+	 */
+	public ChunkedFileLoader(TextPad aPad, File aFile, JProgressBar aProgress) {
+		pad = aPad;
+		file = aFile;
+		progress = aProgress;
+	}
+	
+	/** Starts loading the file in a separate thread.
+	 */
+	public void start() {
+		setStopped(false);
+		thread = new Thread(this, "thread");
+		thread.start();
+	}
+	
+	/** Reads, decodes, and appends the file chunk by chunk, finally 
+	 * running the <code>onFinished</code> task on the event dispatch 
+	 * thread once the entire file has been loaded.
+	 */
+	public void run() {
+		FileInputStream in = null;
+		try {
+			in = new FileInputStream(file);
+			FileChannel channel = in.getChannel();
+			final long size = channel.size();
+			CharsetDecoder decoder = newDecoder();
+			CharBuffer chars = CharBuffer.allocate(FIRST_CHUNK);
+			long pos = 0;
+			boolean endOfInput = size == 0;
+			
+			// maps one window at a time, remapping from the first byte
+			// the decoder has not consumed so that multi-byte characters
+			// split across windows are decoded intact
+			while (!endOfInput && !isStopped()) {
+				long len = Math.min(MAP_WINDOW, size - pos);
+				MappedByteBuffer bytes = 
+					channel.map(FileChannel.MapMode.READ_ONLY, pos, len);
+				endOfInput = pos + len >= size;
+				while (!isStopped()) {
+					CoderResult result = decoder.decode(bytes, chars, endOfInput);
+					if (result.isOverflow()) {
+						// chunk full: hand it off and start the next one
+						appendChunk(chars, pos + bytes.position(), size);
+						chars = CharBuffer.allocate(CHUNK);
+					} else {
+						break; // underflow: need more bytes
+					}
+				}
+				pos += bytes.position();
+				if (endOfInput) {
+					decoder.flush(chars);
+				} else if (bytes.position() == 0) {
+					// guards against a window too small to decode any char
+					throw new IOException("Unable to decode " + file);
+				}
+			}
+			if (!isStopped()) {
+				appendChunk(chars, size, size);
+			}
+		} catch (IOException e) {
+			e.printStackTrace();
+		} finally {
+			try {
+				if (in != null) in.close();
+			} catch (IOException e) {
+			}
+		}
+		// runs the finishing tasks even if stopped or unable to read 
+		// the entire file so that the pad isn't left half-initialized;
+		// a stopped loader leaves the progress bar to whoever stopped 
+		// it, since another loader may already be using the bar
+		EventQueue.invokeLater(new Runnable() {
+			public void run() {
+				if (progress != null && !isStopped()) {
+					progress.setValue(0);
+					progress.setString("");
+				}
+				if (onFinished != null) onFinished.run();
+			}
+		});
+	}
+	
+	/** Normalizes the end-of-line characters of the decoded chunk and
+	 * appends it to the document.  Waits for the event dispatch thread
+	 * to insert the chunk so that decoding never runs more than one chunk
+	 * ahead of the document.
+	 * @param chars the decoded chunk, still in write mode
+	 * @param pos number of bytes read so far
+	 * @param size total number of bytes in the file
+	 */
+	private void appendChunk(CharBuffer chars, long pos, long size) {
+		chars.flip();
+		if (firstChunk) {
+			// determines the end-of-line style from the start of the file,
+			// before normalizing it away
+			pad.setEOL(LibTTx.getEOL(chars.toString()));
+			firstChunk = false;
+		}
+		final String text = normalizeEOLs(chars);
+		final int percent = size == 0 ? 100 : (int) (pos * 100 / size);
+		try {
+			EventQueue.invokeAndWait(new Runnable() {
+				public void run() {
+					if (isStopped()) return;
+					Document doc = pad.getDocument();
+					try {
+						doc.insertString(doc.getLength(), text, null);
+					} catch (BadLocationException e) {
+						e.printStackTrace();
+					}
+					if (progress != null) {
+						progress.setValue(percent);
+						progress.setString("Loading " + percent + "%");
+					}
+				}
+			});
+		} catch (InterruptedException e) {
+			requestStop();
+		} catch (InvocationTargetException e) {
+			e.printStackTrace();
+			requestStop();
+		}
+	}
+	
+	/** Converts CRLF and CR end-of-line characters into LF characters.
+	 * A CR at the end of one chunk is remembered so that an LF 
+	 * starting the next chunk is not counted as a second newline.
+	 * @param chars the chunk to convert, in read mode
+	 * @return the converted text
+	 */
+	private String normalizeEOLs(CharBuffer chars) {
+		StringBuilder builder = new StringBuilder(chars.remaining());
+		pendingCR = appendNormalized(chars, builder, pendingCR);
+		return builder.toString();
+	}
+	
+	/** Appends a chunk with its end-of-line characters converted into 
+	 * LF characters.
+	 * @param chars the chunk to convert, in read mode
+	 * @param builder the builder to append to
+	 * @param pendingCR <code>true</code> if the previous chunk ended 
+	 * in a CR
+	 * @return <code>true</code> if this chunk ends in a CR
+	 */
+	private static boolean appendNormalized(CharBuffer chars, 
+			StringBuilder builder, boolean pendingCR) {
+		int len = chars.remaining();
+		for (int i = 0; i < len; i++) {
+			char c = chars.get(i);
+			if (c == '\r') {
+				builder.append('\n');
+				pendingCR = true;
+			} else {
+				if (!(c == '\n' && pendingCR)) builder.append(c);
+				pendingCR = false;
+			}
+		}
+		return pendingCR;
+	}
+	
+	/** Creates a decoder matching FileReader's default charset and its
+	 * tolerance for malformed input.
+	 */
+	private static CharsetDecoder newDecoder() {
+		return Charset.defaultCharset().newDecoder()
+			.onMalformedInput(CodingErrorAction.REPLACE)
+			.onUnmappableCharacter(CodingErrorAction.REPLACE);
+	}
+	
+	/** Reads a range of a file in bulk, decoding it as the loader does,
+	 * for reading a file outside the event dispatch thread without 
+	 * appending it to a pad.
+	 * @param file the file to read
+	 * @param start the offset of the first byte to read
+	 * @param end the offset just past the last byte to read, or -1 
+	 * to read to the end of the file
+	 * @param eol holds the end-of-line characters found at the start of
+	 * the text; can be <code>null</code>
+	 * @return the decoded text, with LF end-of-lines only
+	 * @throws IOException if the file could not be read
+	 */
+	public static String readText(File file, long start, long end, 
+			String[] eol) throws IOException {
+		FileInputStream in = new FileInputStream(file);
+		try {
+			FileChannel channel = in.getChannel();
+			if (end < 0) end = channel.size();
+			long remaining = Math.max(0, end - start);
+			channel.position(start);
+			CharsetDecoder decoder = newDecoder();
+			ByteBuffer bytes = ByteBuffer.allocate(
+					(int) Math.min(READ_SIZE, Math.max(remaining, 16)));
+			CharBuffer chars = CharBuffer.allocate(bytes.capacity());
+			StringBuilder builder = 
+					new StringBuilder((int) Math.min(remaining, Integer.MAX_VALUE));
+			boolean pendingCR = false;
+			boolean endOfInput = false;
+			while (!endOfInput) {
+				int n = (int) Math.min(bytes.remaining(), remaining);
+				bytes.limit(bytes.position() + n);
+				n = channel.read(bytes);
+				if (n > 0) remaining -= n;
+				endOfInput = n < 0 || remaining == 0;
+				bytes.flip();
+				CoderResult result = null;
+				do {
+					result = decoder.decode(bytes, chars, endOfInput);
+					if (endOfInput && result.isUnderflow()) decoder.flush(chars);
+					chars.flip();
+					if (eol != null && eol[0] == null) {
+						eol[0] = LibTTx.getEOL(chars.toString());
+					}
+					pendingCR = appendNormalized(chars, builder, pendingCR);
+					chars.clear();
+				} while (result.isOverflow());
+				bytes.compact();
+			}
+			return builder.toString();
+		} finally {
+			try {
+				in.close();
+			} catch (IOException e) {
+			}
+		}
+	}
+	
+	/**
+	 * Requests the loader to stop by setting the <code>stopped</code>
+	 * flag and interrupting the running thread.  Any text already loaded
+	 * remains in the pad.
+	 */
+	public void requestStop() {
+		setStopped(true);
+		if (thread != null) {
+			thread.interrupt();
+			thread = null;
+		}
+	}
+	
+	/** Sets the task to run on the event dispatch thread after the last
+	 * chunk has been loaded.
+	 * @param aOnFinished the task to run
+	 */
+	public void setOnFinished(Runnable aOnFinished) {
+		onFinished = aOnFinished;
+	}
+	
+	public TextPad getTextPad() {
+		return pad;
+	}
+	
+}
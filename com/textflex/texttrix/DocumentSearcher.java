@@ -0,0 +1,268 @@
+/* ***** BEGIN LICENSE BLOCK *****
+ * Version: MPL 1.1/GPL 2.0/LGPL 2.1
+ *
+ * The contents of this file are subject to the Mozilla Public License Version
+ * 1.1 (the "License"); you may not use this file except in compliance with
+ * the License. You may obtain a copy of the License at
+ * http://www.mozilla.org/MPL/
+ *
+ * Software distributed under the License is distributed on an "AS IS" basis,
+ * WITHOUT WARRANTY OF ANY KIND, either express or implied. See the License
+ * for the specific language governing rights and limitations under the
+ * License.
+ *
+ * The Original Code is the Text Trix code.
+ *
+ * The Initial Developer of the Original Code is
+ * Text Flex.
+ * Portions created by the Initial Developer are Copyright (C) 2019
+ * the Initial Developer. All Rights Reserved.
+ *
+ * Contributor(s): David Young <david@textflex.com>
+ *
+ * Alternatively, the contents of this file may be used under the terms of
+ * either the GNU General Public License Version 2 or later (the "GPL"), or
+ * the GNU Lesser General Public License Version 2.1 or later (the "LGPL"),
+ * in which case the provisions of the GPL or the LGPL are applicable instead
+ * of those above. If you wish to allow use of your version of this file only
+ * under the terms of either the GPL or the LGPL, and not to allow others to
+ * use your version of this file under the terms of the MPL, indicate your
+ * decision by deleting the provisions above and replace them with the notice
+ * and other provisions required by the GPL or the LGPL. If you do not delete
+ * the provisions above, a recipient may use your version of this file under
+ * the terms of any one of the MPL, the GPL or the LGPL.
+ *
+ * ***** END LICENSE BLOCK ***** */
+
+
+package com.textflex.texttrix;
+
+import javax.swing.text.*;
+
+/**
+ * Searches documents for a sequence of characters, ignoring case.
+ * The document is read a chunk at a time through <code>Segment</code>s, 
+ * which reference the document's own storage rather than copying the 
+ * text whenever the chunk lies to one side of the document's gap, and
+ * each chunk is searched with the Boyer-Moore-Horspool algorithm on
+ * case-folded characters.  Searches can therefore run over large 
+ * documents, including those in the large-file viewer, without copying
+ * or lower-casing the entire text.
+ */
+public class DocumentSearcher {
+	/** Number of match starting positions to search per chunk. */
+	public static final int CHUNK = 64 * 1024;
+	
+	private char[] pattern = null; // the case-folded sequence
+	private int[] skip = new int[256]; // shifts by folded char's low byte
+	
+	/** Constructs a searcher for the given sequence.
+	 * @param seq the sequence to find, ignoring case
+	 */
+	public DocumentSearcher(String seq) {
+		int len = seq.length();
+		pattern = new char[len];
+		for (int i = 0; i < len; i++) {
+			pattern[i] = fold(seq.charAt(i));
+		}
+		// shifts to the next alignment at which the last character could
+		// match; characters sharing the same low byte share the smallest 
+		// of their shifts
+		for (int i = 0; i < skip.length; i++) {
+			skip[i] = len;
+		}
+		for (int i = 0; i < len - 1; i++) {
+			skip[pattern[i] & 0xFF] = len - 1 - i;
+		}
+	}
+	
+	/** Gets the length of the sequence.
+	 * @return the number of characters in the sequence
+	 */
+	public int getLength() {
+		return pattern.length;
+	}
+	
+	/** Folds a character's case so that characters differing only in 
+	 * case compare as equal.
+	 * @param c the character
+	 * @return the folded character
+	 */
+	private static char fold(char c) {
+		return Character.toLowerCase(Character.toUpperCase(c));
+	}
+	
+	/** Finds the matches in a segment.  Matches do not overlap.
+	 * @param seg the text to search
+	 * @param starts the number of positions from the start of the 
+	 * segment at which matches may start; the segment must extend
+	 * beyond them for matches to complete
+	 * @param base the document offset of the segment
+	 * @param matches the list to which to add the offsets of matches
+	 */
+	public void find(Segment seg, int starts, int base, Matches matches) {
+		find(seg, starts, base, matches, false);
+	}
+	
+	/** Finds the matches in a segment.
+	 * @param seg the text to search
+	 * @param starts the number of positions from the start of the 
+	 * segment at which matches may start; the segment must extend
+	 * beyond them for matches to complete
+	 * @param base the document offset of the segment
+	 * @param matches the list to which to add the offsets of matches
+	 * @param overlapping <code>true</code> to find matches that overlap
+	 * earlier ones, such as to find the last occurrence of a sequence
+	 * that overlaps itself
+	 */
+	public void find(Segment seg, int starts, int base, Matches matches,
+			boolean overlapping) {
+		int len = pattern.length;
+		if (len == 0) return;
+		char[] array = seg.array;
+		int offset = seg.offset;
+		int last = len - 1;
+		int max = Math.min(seg.count - len, starts - 1);
+		int i = 0;
+		while (i <= max) {
+			char c = fold(array[offset + i + last]);
+			int j = last;
+			if (c == pattern[last]) {
+				j--;
+				while (j >= 0 && fold(array[offset + i + j]) == pattern[j]) {
+					j--;
+				}
+			}
+			if (j < 0) {
+				matches.add(base + i);
+				i += overlapping ? 1 : len;
+			} else {
+				i += skip[c & 0xFF];
+			}
+		}
+	}
+	
+	/** Finds the matches that start in the given chunk of a document.
+	 * The caller should hold the document's read lock, such as through
+	 * <code>AbstractDocument.render</code>, if the document may be
+	 * modified by another thread.
+	 * @param doc the document to search
+	 * @param start the first offset at which a match may start
+	 * @param end the offset after the last at which a match may start,
+	 * at most {@link #CHUNK} after <code>start</code>
+	 * @param seg a segment to reuse for reading the document
+	 * @param matches the list to which to add the offsets of matches
+	 * @throws BadLocationException if the region lies outside the document
+	 */
+	public void findChunk(Document doc, int start, int end, Segment seg, 
+			Matches matches) throws BadLocationException {
+		findChunk(doc, start, end, seg, matches, false);
+	}
+	
+	/** Finds the matches that start in the given chunk of a document,
+	 * including those that overlap earlier matches if requested.
+	 * @param doc the document to search
+	 * @param start the first offset at which a match may start
+	 * @param end the offset after the last at which a match may start,
+	 * at most {@link #CHUNK} after <code>start</code>
+	 * @param seg a segment to reuse for reading the document
+	 * @param matches the list to which to add the offsets of matches
+	 * @param overlapping <code>true</code> to find overlapping matches
+	 * @throws BadLocationException if the region lies outside the document
+	 * @see #find(Segment, int, int, Matches, boolean)
+	 */
+	public void findChunk(Document doc, int start, int end, Segment seg, 
+			Matches matches, boolean overlapping) 
+			throws BadLocationException {
+		int len = Math.min(end + pattern.length - 1, doc.getLength()) - start;
+		if (len < pattern.length) return;
+		// reads the chunk in one piece, which only copies the text 
+		// when the chunk spans the document's gap
+		seg.setPartialReturn(false);
+		doc.getText(start, len, seg);
+		find(seg, end - start, start, matches, overlapping);
+	}
+	
+	/** Finds the matches that start in the given region of a document.
+	 * @param doc the document to search
+	 * @param start the first offset at which a match may start
+	 * @param end the offset after the last at which a match may start
+	 * @param matches the list to which to add the offsets of matches
+	 * @throws BadLocationException if the region lies outside the document
+	 * @see #findChunk(Document, int, int, Segment, Matches)
+	 */
+	public void findAll(Document doc, int start, int end, Matches matches) 
+			throws BadLocationException {
+		Segment seg = new Segment();
+		for (int i = start; i < end; i += CHUNK) {
+			findChunk(doc, i, Math.min(i + CHUNK, end), seg, matches);
+		}
+	}
+	
+	/** Replaces every match in a document.  Matches that overlap an 
+	 * earlier match are skipped.  Must be called in the event dispatch 
+	 * thread.
+	 * @param doc the document in which to replace text
+	 * @param replacement the text to replace each match
+	 * @return the number of matches replaced
+	 * @throws BadLocationException if the document is not editable
+	 */
+	public int replaceAll(Document doc, String replacement) 
+			throws BadLocationException {
+		Matches matches = new Matches();
+		findAll(doc, 0, doc.getLength(), matches);
+		int len = pattern.length;
+		int count = 0;
+		// skips matches that overlap the previous kept match, which can 
+		// occur where chunks meet
+		int next = -1;
+		for (int i = 0; i < matches.size(); i++) {
+			int match = matches.get(i);
+			if (next != -1 && match < next) {
+				matches.set(i, -1);
+			} else {
+				next = match + len;
+			}
+		}
+		// replaces from the end so that the remaining offsets are 
+		// unaffected by each replacement
+		for (int i = matches.size() - 1; i >= 0; i--) {
+			int match = matches.get(i);
+			if (match == -1) continue;
+			doc.remove(match, len);
+			if (replacement.length() > 0) {
+				doc.insertString(match, replacement, null);
+			}
+			count++;
+		}
+		return count;
+	}
+	
+	
+	
+	
+	/** A growable list of match offsets.
+	 */
+	public static class Matches {
+		private int[] offsets = new int[16];
+		private int size = 0;
+		
+		public void add(int offset) {
+			if (size == offsets.length) {
+				int[] grown = new int[size * 2];
+				System.arraycopy(offsets, 0, grown, 0, size);
+				offsets = grown;
+			}
+			offsets[size++] = offset;
+		}
+		
+		public int get(int i) { return offsets[i]; }
+		
+		public void set(int i, int offset) { offsets[i] = offset; }
+		
+		public int size() { return size; }
+		
+		public void clear() { size = 0; }
+	}
+	
+}
@@ -0,0 +1,422 @@
+/* ***** BEGIN LICENSE BLOCK *****
+ * Version: MPL 1.1/GPL 2.0/LGPL 2.1
+ *
+ * The contents of this file are subject to the Mozilla Public License Version
+ * 1.1 (the "License"); you may not use this file except in compliance with
+ * the License. You may obtain a copy of the License at
+ * http://www.mozilla.org/MPL/
+ *
+ * Software distributed under the License is distributed on an "AS IS" basis,
+ * WITHOUT WARRANTY OF ANY KIND, either express or implied. See the License
+ * for the specific language governing rights and limitations under the
+ * License.
+ *
+ * The Original Code is the Text Trix code.
+ *
+ * The Initial Developer of the Original Code is
+ * Text Flex.
+ * Portions created by the Initial Developer are Copyright (C) 2019
+ * the Initial Developer. All Rights Reserved.
+ *
+ * Contributor(s): David Young <david@textflex.com>
+ *
+ * Alternatively, the contents of this file may be used under the terms of
+ * either the GNU General Public License Version 2 or later (the "GPL"), or
+ * the GNU Lesser General Public License Version 2.1 or later (the "LGPL"),
+ * in which case the provisions of the GPL or the LGPL are applicable instead
+ * of those above. If you wish to allow use of your version of this file only
+ * under the terms of either the GPL or the LGPL, and not to allow others to
+ * use your version of this file under the terms of the MPL, indicate your
+ * decision by deleting the provisions above and replace them with the notice
+ * and other provisions required by the GPL or the LGPL. If you do not delete
+ * the provisions above, a recipient may use your version of this file under
+ * the terms of any one of the MPL, the GPL or the LGPL.
+ *
+ * ***** END LICENSE BLOCK ***** */
+
+
+package com.textflex.texttrix;
+
+import java.awt.EventQueue;
+import java.io.*;
+import java.nio.*;
+import java.nio.channels.FileChannel;
+import java.nio.charset.*;
+import java.nio.file.*;
+import java.nio.file.attribute.PosixFilePermission;
+import java.security.*;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.Set;
+import javax.swing.JProgressBar;
+import javax.swing.text.*;
+
+/**
+ * Writes documents to files without copying their text into a 
+ * single string.  The document is walked a segment at a time, with 
+ * end-of-line characters translated on the fly and the text encoded 
+ * into a reusable direct buffer for the file's channel.
+ * 
+ * <p>The text is written to a temporary file in the destination's
+ * directory, which then replaces the destination in a single rename, 
+ * so that a failed save never leaves a partially written file.
+ * 
+ * <p>The writer remembers a digest of the last text saved to each file,
+ * so that snapshots whose text has not changed since that save can be
+ * skipped.  Writes are synchronized so that a single writer and its 
+ * buffers can be shared among threads.
+ */
+public class DocumentWriter {
+	
+	/** Number of characters to request from the document at a time. */
+	private static final int SEGMENT_CHARS = 16 * 1024;
+	
+	private ByteBuffer bytes = ByteBuffer.allocateDirect(64 * 1024);
+	private CharBuffer chars = CharBuffer.allocate(SEGMENT_CHARS);
+	private Segment seg = new Segment();
+	private char[] snapshotChars = new char[SEGMENT_CHARS];
+	private byte[] digestBytes = new byte[SEGMENT_CHARS * 2];
+	// digest and modification time of the last text saved to each path
+	private HashMap<String, SavedText> saved = new HashMap<String, SavedText>();
+	
+	/** Constructs a writer.
+	 */
+	public DocumentWriter() {
+		seg.setPartialReturn(true);
+	}
+	
+	/** Writes a document's text to a file, using the default charset 
+	 * as <code>FileWriter</code> does.
+	 * The text is copied under the document's read lock and encoded 
+	 * and written once the lock is released, so edits only wait for 
+	 * the copy rather than the whole write.  Documents stored in a 
+	 * {@link PieceContent} are written from a snapshot instead, 
+	 * without a copy.
+	 * 
+	 * @param doc the document to write
+	 * @param file the destination file
+	 * @param eol the end-of-line characters to replace each newline;
+	 * if <code>null</code>, newlines are written unchanged
+	 * @param progress progress bar in which to display the percent 
+	 * written; can be <code>null</code>
+	 * @return <code>true</code> if the text was successfully written
+	 */
+	public synchronized boolean write(final Document doc, final File file, 
+			final String eol, final JProgressBar progress) {
+		// holds the read lock for a consistent copy of the document,
+		// unless the document can give an unchanging snapshot instead
+		PieceContent.Snapshot snapshot = doc instanceof IndentedDocument
+				? ((IndentedDocument) doc).getSnapshot() : null;
+		if (snapshot != null) {
+			return writeLocked(null, snapshot, null, file, eol, progress);
+		} else if (doc instanceof AbstractDocument) {
+			final char[][] copy = { null };
+			((AbstractDocument) doc).render(new Runnable() {
+				public void run() {
+					copy[0] = copyText(doc);
+				}
+			});
+			if (copy[0] == null) return false;
+			return writeLocked(null, CharBuffer.wrap(copy[0]), null, file, 
+					eol, progress);
+		}
+		return writeLocked(doc, null, null, file, eol, progress);
+	}
+	
+	/** Writes a snapshot of a document's text to a file, using the
+	 * default charset.  Since the snapshot cannot change, no lock is 
+	 * held during the write.
+	 * 
+	 * @param text the snapshot to write, such as a string or a
+	 * {@link PieceContent.Snapshot}
+	 * @param file the destination file
+	 * @param eol the end-of-line characters to replace each newline;
+	 * if <code>null</code>, newlines are written unchanged
+	 * @param progress progress bar in which to display the percent 
+	 * written; can be <code>null</code>
+	 * @return <code>true</code> if the text was successfully written
+	 */
+	public synchronized boolean write(CharSequence text, File file, 
+			String eol, JProgressBar progress) {
+		return writeLocked(null, text, null, file, eol, progress);
+	}
+	
+	/** Writes a snapshot of a document's text to a file, using the
+	 * default charset.  Since the snapshot cannot change, no lock is 
+	 * held during the write.
+	 * 
+	 * @param text the snapshot to write, such as a string or a
+	 * {@link PieceContent.Snapshot}
+	 * @param file the destination file
+	 * @param eol the end-of-line characters to replace each newline;
+	 * if <code>null</code>, newlines are written unchanged
+	 * @param skipUnchanged <code>true</code> to skip the write if the
+	 * same text was the last saved to the file through this writer and
+	 * the file has not been modified since
+	 * @return <code>true</code> if the text was successfully written
+	 * or skipped
+	 */
+	public synchronized boolean write(CharSequence text, File file, 
+			String eol,
+			boolean skipUnchanged) {
+		byte[] digest = null;
+		if (skipUnchanged) {
+			MessageDigest md = newDigest(eol);
+			int len = text.length();
+			try {
+				for (int offset = 0; offset < len; offset += seg.count) {
+					getChars(text, offset, Math.min(SEGMENT_CHARS, len - offset));
+					updateDigest(md, seg.array, seg.offset, seg.count);
+				}
+			} catch (BadLocationException e) {
+				e.printStackTrace();
+				return false;
+			}
+			digest = md.digest();
+			SavedText last = saved.get(getKey(file));
+			if (last != null && Arrays.equals(last.digest, digest)
+					&& last.modified == file.lastModified()) {
+				return true;
+			}
+		}
+		return writeLocked(null, text, digest, file, eol, null);
+	}
+	
+	/** Writes the document or snapshot, assuming that any document 
+	 * is already locked.
+	 */
+	private boolean writeLocked(Document doc, CharSequence text, 
+			byte[] digest,
+			File file, String eol, JProgressBar progress) {
+		Path target = file.toPath();
+		File tmp = null;
+		FileOutputStream out = null;
+		try {
+			// replaces the file that a link points to rather than the link
+			if (Files.isSymbolicLink(target)) target = target.toRealPath();
+			File dir = target.toAbsolutePath().getParent().toFile();
+			tmp = File.createTempFile("." + file.getName() + "~", ".tmp", dir);
+			out = new FileOutputStream(tmp);
+			FileChannel channel = out.getChannel();
+			CharsetEncoder encoder = Charset.defaultCharset().newEncoder()
+				.onMalformedInput(CodingErrorAction.REPLACE)
+				.onUnmappableCharacter(CodingErrorAction.REPLACE);
+			bytes.clear();
+			chars.clear();
+			// digests the text as it is written unless already known
+			MessageDigest md = digest == null ? newDigest(eol) : null;
+			int len = doc != null ? doc.getLength() : text.length();
+			int offset = 0;
+			int lastPercent = -1;
+			while (offset < len) {
+				int n = Math.min(SEGMENT_CHARS, len - offset);
+				if (doc != null) {
+					doc.getText(offset, n, seg);
+				} else {
+					getChars(text, offset, n);
+				}
+				if (md != null) updateDigest(md, seg.array, seg.offset, seg.count);
+				for (int i = 0; i < seg.count; i++) {
+					char c = seg.array[seg.offset + i];
+					if (chars.remaining() < 2) encode(encoder, channel, false);
+					if (c == '\n' && eol != null) {
+						chars.put(eol);
+					} else {
+						chars.put(c);
+					}
+				}
+				offset += seg.count;
+				int percent = (int) ((long) offset * 100 / len);
+				if (progress != null && percent != lastPercent) {
+					setProgress(progress, percent, "Saving " + percent + "%");
+					lastPercent = percent;
+				}
+			}
+			encode(encoder, channel, true);
+			out.close();
+			out = null;
+			
+			copyPermissions(target, tmp.toPath());
+			try {
+				Files.move(tmp.toPath(), target, 
+						StandardCopyOption.ATOMIC_MOVE,
+						StandardCopyOption.REPLACE_EXISTING);
+			} catch (AtomicMoveNotSupportedException e) {
+				Files.move(tmp.toPath(), target, 
+						StandardCopyOption.REPLACE_EXISTING);
+			}
+			tmp = null;
+			saved.put(getKey(file), new SavedText(
+					md != null ? md.digest() : digest, target.toFile().lastModified()));
+			return true;
+		} catch (IOException e) {
+			System.out.println("Could not write text to " + file);
+			return false;
+		} catch (BadLocationException e) {
+			e.printStackTrace();
+			return false;
+		} finally {
+			try {
+				if (out != null) out.close();
+			} catch (IOException e) {
+			}
+			if (tmp != null) tmp.delete();
+			if (progress != null) setProgress(progress, 0, "");
+		}
+	}
+	
+	/** Copies a document's text a segment at a time, which avoids 
+	 * the extra copy of a segment spanning the document's gap.
+	 * @return the text, or <code>null</code> if it could not be read
+	 */
+	private char[] copyText(Document doc) {
+		int len = doc.getLength();
+		char[] copy = new char[len];
+		try {
+			for (int offset = 0; offset < len; offset += seg.count) {
+				doc.getText(offset, Math.min(SEGMENT_CHARS, len - offset), seg);
+				System.arraycopy(seg.array, seg.offset, copy, offset, seg.count);
+			}
+		} catch (BadLocationException e) {
+			e.printStackTrace();
+			return null;
+		}
+		return copy;
+	}
+	
+	/** Points the segment at a range of a snapshot, straight into a
+	 * piece-table snapshot's or array-backed buffer's own text or else
+	 * through a copy.
+	 */
+	private void getChars(CharSequence text, int offset, int n) 
+			throws BadLocationException {
+		if (text instanceof PieceContent.Snapshot) {
+			((PieceContent.Snapshot) text).getChars(offset, n, seg);
+			return;
+		}
+		if (text instanceof CharBuffer && ((CharBuffer) text).hasArray()) {
+			CharBuffer buf = (CharBuffer) text;
+			seg.array = buf.array();
+			seg.offset = buf.arrayOffset() + buf.position() + offset;
+			seg.count = n;
+			return;
+		}
+		if (text instanceof String) {
+			((String) text).getChars(offset, offset + n, snapshotChars, 0);
+		} else {
+			for (int i = 0; i < n; i++) {
+				snapshotChars[i] = text.charAt(offset + i);
+			}
+		}
+		seg.array = snapshotChars;
+		seg.offset = 0;
+		seg.count = n;
+	}
+	
+	/** Creates a digest for identifying saved text, starting with the
+	 * end-of-line characters that the text will be saved with.
+	 */
+	private MessageDigest newDigest(String eol) {
+		try {
+			MessageDigest md = MessageDigest.getInstance("MD5");
+			if (eol != null) md.update(eol.getBytes());
+			return md;
+		} catch (NoSuchAlgorithmException e) {
+			// all platforms are required to support MD5
+			throw new RuntimeException(e);
+		}
+	}
+	
+	/** Adds characters to the digest.
+	 */
+	private void updateDigest(MessageDigest md, char[] array, int offset, 
+			int len) {
+		int j = 0;
+		for (int i = offset; i < offset + len; i++) {
+			digestBytes[j++] = (byte) (array[i] >> 8);
+			digestBytes[j++] = (byte) array[i];
+		}
+		md.update(digestBytes, 0, j);
+	}
+	
+	/** Gets the key for a file's saved text.
+	 */
+	private String getKey(File file) {
+		return file.getAbsolutePath();
+	}
+	
+	/** Encodes the buffered characters and writes any full buffer
+	 * of bytes to the channel.
+	 * @param endOfInput <code>true</code> if no more characters will
+	 * follow, in which case all remaining bytes are written
+	 */
+	private void encode(CharsetEncoder encoder, FileChannel channel, 
+			boolean endOfInput) throws IOException {
+		chars.flip();
+		while (true) {
+			CoderResult result = encoder.encode(chars, bytes, endOfInput);
+			if (result.isOverflow()) {
+				drain(channel);
+			} else {
+				break;
+			}
+		}
+		if (endOfInput) {
+			while (encoder.flush(bytes).isOverflow()) {
+				drain(channel);
+			}
+			drain(channel);
+		}
+		chars.compact();
+	}
+	
+	/** Writes the buffered bytes to the channel.
+	 */
+	private void drain(FileChannel channel) throws IOException {
+		bytes.flip();
+		while (bytes.hasRemaining()) {
+			channel.write(bytes);
+		}
+		bytes.clear();
+	}
+	
+	/** Gives the new file the same permissions as the file it replaces,
+	 * where the file system supports them.
+	 */
+	private void copyPermissions(Path from, Path to) {
+		if (!Files.exists(from)) return;
+		try {
+			Set<PosixFilePermission> perms = Files.getPosixFilePermissions(from);
+			Files.setPosixFilePermissions(to, perms);
+		} catch (UnsupportedOperationException e) {
+			// non-POSIX file systems keep their default permissions
+		} catch (IOException e) {
+			e.printStackTrace();
+		}
+	}
+	
+	/** Digest and modification time of the text last saved to a file.
+	 */
+	private static class SavedText {
+		private byte[] digest = null;
+		private long modified = 0;
+		
+		public SavedText(byte[] aDigest, long aModified) {
+			digest = aDigest;
+			modified = aModified;
+		}
+	}
+	
+	/** Updates the progress bar on the event dispatch thread.
+	 */
+	private void setProgress(final JProgressBar progress, final int percent,
+			final String msg) {
+		EventQueue.invokeLater(new Runnable() {
+			public void run() {
+				progress.setValue(percent);
+				progress.setString(msg);
+			}
+		});
+	}
+	
+}
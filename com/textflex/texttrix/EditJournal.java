@@ -0,0 +1,562 @@
+/* ***** BEGIN LICENSE BLOCK *****
+ * Version: MPL 1.1/GPL 2.0/LGPL 2.1
+ *
+ * The contents of this file are subject to the Mozilla Public License Version
+ * 1.1 (the "License"); you may not use this file except in compliance with
+ * the License. You may obtain a copy of the License at
+ * http://www.mozilla.org/MPL/
+ *
+ * Software distributed under the License is distributed on an "AS IS" basis,
+ * WITHOUT WARRANTY OF ANY KIND, either express or implied. See the License
+ * for the specific language governing rights and limitations under the
+ * License.
+ *
+ * The Original Code is the Text Trix code.
+ *
+ * The Initial Developer of the Original Code is
+ * Text Flex.
+ * Portions created by the Initial Developer are Copyright (C) 2019
+ * the Initial Developer. All Rights Reserved.
+ *
+ * Contributor(s): David Young <david@textflex.com>
+ *
+ * Alternatively, the contents of this file may be used under the terms of
+ * either the GNU General Public License Version 2 or later (the "GPL"), or
+ * the GNU Lesser General Public License Version 2.1 or later (the "LGPL"),
+ * in which case the provisions of the GPL or the LGPL are applicable instead
+ * of those above. If you wish to allow use of your version of this file only
+ * under the terms of either the GPL or the LGPL, and not to allow others to
+ * use your version of this file under the terms of the MPL, indicate your
+ * decision by deleting the provisions above and replace them with the notice
+ * and other provisions required by the GPL or the LGPL. If you do not delete
+ * the provisions above, a recipient may use your version of this file under
+ * the terms of any one of the MPL, the GPL or the LGPL.
+ *
+ * ***** END LICENSE BLOCK ***** */
+
+
+package com.textflex.texttrix;
+
+import java.io.*;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.util.ArrayList;
+import java.util.LinkedHashSet;
+import javax.swing.text.BadLocationException;
+import javax.swing.text.Document;
+
+/**
+ * Append-only journal of the edits made to a <code>TextPad</code>
+ * since its text was last loaded or saved.  If Text Trix ends 
+ * without saving or discarding the pad, such as in a crash, the 
+ * edits can be replayed onto the file at the next startup without 
+ * the file itself ever having been touched.
+ * 
+ * <p>Each journal starts with a header identifying the file that 
+ * the edits apply to, along with its length and modification time so
+ * that edits are never replayed onto a file that has since changed.
+ * Each insertion or removal is then appended as a binary record.  
+ * Records are buffered in memory and written by a single writer 
+ * thread shared among all journals, which gathers the records from
+ * every journal edited within a short interval and forces them to 
+ * disk together.
+ * 
+ * <p>The journal file is only created once the pad has been edited, 
+ * and is deleted as soon as the pad is saved or closed.
+ */
+public class EditJournal {
+	
+	private static final int MAGIC = 0x54544A4C; // "TTJL"
+	private static final int VERSION = 1;
+	private static final byte OP_INSERT = 1;
+	private static final byte OP_REMOVE = 2;
+	/** Milliseconds to gather records before committing them together. */
+	private static final long COMMIT_INTERVAL = 200;
+	/** Most characters of inserted text kept from edits during saves. */
+	private static final int KEEP_CHARS = 64 * 1024;
+	
+	private static JournalWriter writer = null; // shared group-commit writer
+	private static int journalCount = 0; // for unique journal names
+	
+	private File file = null;
+	private FileChannel channel = null; // only accessed by the writer
+	// records not yet written, guarded by this journal
+	private ByteArrayOutputStream pending = new ByteArrayOutputStream();
+	private DataOutputStream out = new DataOutputStream(pending);
+	private boolean truncate = false; // flags to start the file over
+	private boolean empty = true; // no records since the header was reset
+	private boolean closed = false;
+	private String basePath = "";
+	private long baseLength = -1; // no base file to check
+	private long baseModified = 0;
+	// edits made during saves, to re-record after rebasing onto the 
+	// saved file, guarded by this journal
+	private ArrayList<Op> kept = new ArrayList<Op>();
+	private int keptChars = 0;
+	private int lastEdit = -1; // edit count of the last edit to keep
+	
+	/** Constructs a journal in the given directory.
+	 * The journal file is not created until the first edit.
+	 * @param dir the directory in which to store the journal
+	 */
+	public EditJournal(File dir) {
+		synchronized (EditJournal.class) {
+			file = new File(dir, "journal-" + System.currentTimeMillis() 
+					+ "-" + journalCount++ + ".ttj");
+		}
+	}
+	
+	public File getFile() { return file; }
+	
+	/** Starts the journal over from the given file, such as after 
+	 * loading or saving it.  Any recorded edits are discarded.
+	 * @param base the file that later edits apply to; if 
+	 * <code>null</code> or nonexistent, edits will be replayed onto 
+	 * an empty document
+	 */
+	public void reset(File base) {
+		synchronized (this) {
+			if (closed) return;
+			setBase(base);
+		}
+		schedule(this);
+	}
+	
+	/** Starts the journal over with the given text, for when the 
+	 * pad's text no longer matches any saved file.
+	 * @param text the pad's entire text
+	 */
+	public void rebase(String text) {
+		reset(null);
+		insert(0, text);
+	}
+	
+	/** Starts the journal over from a file just saved from a snapshot
+	 * of the pad's text, re-recording only the kept edits made after 
+	 * the snapshot.
+	 * @param base the saved file
+	 * @param editCount the pad's edit count when the snapshot was taken
+	 * @return <code>true</code> if the journal was rebased, or 
+	 * <code>false</code> if not all the edits since the snapshot were
+	 * kept, in which case the journal is unchanged
+	 * @see #insert(int, String, int)
+	 */
+	public boolean rebase(File base, int editCount) {
+		synchronized (this) {
+			if (closed) return true;
+			int start = 0;
+			while (start < kept.size() && kept.get(start).edit <= editCount) {
+				keptChars -= kept.get(start).len;
+				start++;
+			}
+			kept.subList(0, start).clear();
+			if (kept.isEmpty() ? lastEdit > editCount 
+					: kept.get(0).edit != editCount + 1) {
+				return false;
+			}
+			setBase(base);
+			for (int i = 0; i < kept.size(); i++) {
+				write(kept.get(i));
+			}
+		}
+		schedule(this);
+		return true;
+	}
+	
+	/** Records an insertion.
+	 * @param offset the offset at which the text was inserted
+	 * @param text the inserted text
+	 */
+	public void insert(int offset, String text) {
+		insert(offset, text, -1);
+	}
+	
+	/** Records an insertion, keeping it in memory in case a save in 
+	 * progress rebases the journal.
+	 * @param offset the offset at which the text was inserted
+	 * @param text the inserted text
+	 * @param edit the pad's edit count including this insertion, or
+	 * -1 if no save is in progress
+	 */
+	public void insert(int offset, String text, int edit) {
+		record(new Op(OP_INSERT, offset, text.length(), text), edit);
+	}
+	
+	/** Records a removal.
+	 * @param offset the offset of the removed text
+	 * @param len the number of characters removed
+	 */
+	public void remove(int offset, int len) {
+		remove(offset, len, -1);
+	}
+	
+	/** Records a removal, keeping it in memory in case a save in 
+	 * progress rebases the journal.
+	 * @param offset the offset of the removed text
+	 * @param len the number of characters removed
+	 * @param edit the pad's edit count including this removal, or
+	 * -1 if no save is in progress
+	 */
+	public void remove(int offset, int len, int edit) {
+		record(new Op(OP_REMOVE, offset, len, null), edit);
+	}
+	
+	/** Records an edit and keeps it if made during a save.
+	 */
+	private void record(Op op, int edit) {
+		synchronized (this) {
+			if (closed) return;
+			write(op);
+			if (edit >= 0) keep(op, edit);
+		}
+		schedule(this);
+	}
+	
+	/** Keeps an edit made during a save, dropping the earliest edits 
+	 * once the kept text grows too large.
+	 */
+	private void keep(Op op, int edit) {
+		// only an unbroken run of edits can be re-recorded
+		if (edit != lastEdit + 1) {
+			kept.clear();
+			keptChars = 0;
+		}
+		lastEdit = edit;
+		op.edit = edit;
+		kept.add(op);
+		if (op.text != null) keptChars += op.len;
+		while (keptChars > KEEP_CHARS && !kept.isEmpty()) {
+			Op first = kept.remove(0);
+			if (first.text != null) keptChars -= first.len;
+		}
+	}
+	
+	/** Discards the records and sets the file that later edits apply to.
+	 */
+	private void setBase(File base) {
+		pending.reset();
+		truncate = true;
+		empty = true;
+		if (base != null && base.exists()) {
+			basePath = base.getAbsolutePath();
+			baseLength = base.length();
+			baseModified = base.lastModified();
+		} else {
+			basePath = "";
+			baseLength = -1;
+			baseModified = 0;
+		}
+	}
+	
+	/** Appends an edit to the pending records.
+	 */
+	private void write(Op op) {
+		try {
+			writeHeader();
+			out.writeByte(op.type);
+			out.writeInt(op.offset);
+			out.writeInt(op.len);
+			if (op.type == OP_INSERT) out.writeChars(op.text);
+		} catch (IOException e) {
+			// not thrown by byte array streams
+		}
+	}
+	
+	/** Closes and deletes the journal, such as when the pad is closed.
+	 */
+	public void close() {
+		synchronized (this) {
+			closed = true;
+			pending.reset();
+		}
+		schedule(this);
+	}
+	
+	/** Writes the header before the first record since the last reset.
+	 */
+	private void writeHeader() throws IOException {
+		if (!empty) return;
+		out.writeInt(MAGIC);
+		out.writeInt(VERSION);
+		out.writeUTF(basePath);
+		out.writeLong(baseLength);
+		out.writeLong(baseModified);
+		empty = false;
+	}
+	
+	/** Writes the pending records to the journal file.
+	 * Called only by the writer thread.
+	 * @return the channel written to, to be forced to disk, or 
+	 * <code>null</code> if nothing was written
+	 */
+	private FileChannel commit() throws IOException {
+		byte[] bytes = null;
+		boolean trunc = false;
+		boolean isClosed = false;
+		synchronized (this) {
+			bytes = pending.toByteArray();
+			pending.reset();
+			trunc = truncate;
+			truncate = false;
+			isClosed = closed;
+		}
+		if (isClosed || (trunc && bytes.length == 0)) {
+			// nothing left to recover
+			if (channel != null) {
+				channel.close();
+				channel = null;
+			}
+			file.delete();
+			return null;
+		}
+		if (bytes.length == 0) return null;
+		if (channel == null) {
+			file.getParentFile().mkdirs();
+			channel = new RandomAccessFile(file, "rw").getChannel();
+			trunc = true;
+		}
+		if (trunc) channel.truncate(0);
+		channel.position(channel.size());
+		ByteBuffer buf = ByteBuffer.wrap(bytes);
+		while (buf.hasRemaining()) {
+			channel.write(buf);
+		}
+		return channel;
+	}
+	
+	/** Queues a journal to be committed by the shared writer.
+	 */
+	private static void schedule(EditJournal journal) {
+		synchronized (EditJournal.class) {
+			if (writer == null || writer.isStopped()) {
+				writer = new JournalWriter();
+				writer.start();
+			}
+			writer.add(journal);
+		}
+	}
+	
+	/** Commits all pending records and stops the shared writer, 
+	 * such as before exiting, so that journals closed along with 
+	 * their pads are deleted.
+	 */
+	public static void shutdown() {
+		JournalWriter w = null;
+		synchronized (EditJournal.class) {
+			w = writer;
+			writer = null;
+		}
+		if (w != null) w.finish();
+	}
+	
+	/** Reads a journal left from a previous session.
+	 * @param file the journal file
+	 * @return the recorded edits, or <code>null</code> if the file
+	 * is not a readable journal
+	 */
+	public static Recovery read(File file) {
+		DataInputStream in = null;
+		try {
+			in = new DataInputStream(new BufferedInputStream(
+					new FileInputStream(file)));
+			if (in.readInt() != MAGIC || in.readInt() != VERSION) return null;
+			Recovery recovery = new Recovery(
+					in.readUTF(), in.readLong(), in.readLong());
+			try {
+				while (true) {
+					byte op = in.readByte();
+					int offset = in.readInt();
+					int len = in.readInt();
+					String text = null;
+					if (op == OP_INSERT) {
+						char[] chars = new char[len];
+						for (int i = 0; i < len; i++) {
+							chars[i] = in.readChar();
+						}
+						text = new String(chars);
+					} else if (op != OP_REMOVE) {
+						break;
+					}
+					recovery.add(op, offset, len, text);
+				}
+			} catch (EOFException e) {
+				// end of the journal, possibly with an incomplete 
+				// final record that is skipped
+			}
+			return recovery;
+		} catch (IOException e) {
+			return null;
+		} finally {
+			try {
+				if (in != null) in.close();
+			} catch (IOException e) {
+			}
+		}
+	}
+	
+	
+	
+	
+	/** Edits read from a journal, ready to be replayed.
+	 */
+	public static class Recovery {
+		private String path = null;
+		private long length = -1;
+		private long modified = 0;
+		private ArrayList<Op> ops = new ArrayList<Op>();
+		
+		private Recovery(String aPath, long aLength, long aModified) {
+			path = aPath;
+			length = aLength;
+			modified = aModified;
+		}
+		
+		private void add(byte op, int offset, int len, String text) {
+			ops.add(new Op(op, offset, len, text));
+		}
+		
+		/** Gets the path of the file the edits apply to.
+		 * @return the path, or an empty string if the edits apply 
+		 * to an empty document
+		 */
+		public String getPath() { return path; }
+		
+		/** Checks whether any edits were recorded.
+		 * @return <code>true</code> if the journal has edits
+		 */
+		public boolean hasEdits() { return ops.size() > 0; }
+		
+		/** Checks whether the file is unchanged since the edits began.
+		 * @param file the file
+		 * @return <code>true</code> if the edits can be applied to the file
+		 */
+		public boolean matchesBase(File file) {
+			return length < 0 || (file.length() == length
+					&& file.lastModified() == modified);
+		}
+		
+		/** Replays the edits onto the document.
+		 * @param doc the document, holding either the base file's text 
+		 * or, if no base file was recorded, any text to be replaced
+		 * @throws BadLocationException if an edit lies outside the 
+		 * document, in which case the edits before it remain applied
+		 */
+		public void apply(Document doc) throws BadLocationException {
+			if (length < 0) doc.remove(0, doc.getLength());
+			for (int i = 0; i < ops.size(); i++) {
+				ops.get(i).apply(doc);
+			}
+		}
+	}
+	
+	/** A single edit, either kept from a save or read from a journal.
+	 */
+	private static class Op {
+		private byte type = OP_INSERT;
+		private int offset = 0;
+		private int len = 0;
+		private String text = null;
+		private int edit = -1; // the pad's edit count, if kept
+		
+		/** Constructs an edit.
+		 * @param aType {@link #OP_INSERT} or {@link #OP_REMOVE}
+		 * @param anOffset the offset of the inserted or removed text
+		 * @param aLen the length of the removed text
+		 * @param aText the inserted text
+		 */
+		private Op(byte aType, int anOffset, int aLen, String aText) {
+			type = aType;
+			offset = anOffset;
+			len = aLen;
+			text = aText;
+		}
+		
+		/** Makes the edit in a document.
+		 */
+		private void apply(Document doc) throws BadLocationException {
+			if (type == OP_INSERT) {
+				doc.insertString(offset, text, null);
+			} else {
+				doc.remove(offset, len);
+			}
+		}
+	}
+	
+	
+	
+	
+	/** Commits the records of all edited journals in groups, forcing
+	 * each group to disk together.
+	 */
+	private static class JournalWriter extends StoppableThread {
+		private Thread thread = null;
+		private LinkedHashSet<EditJournal> queue = 
+				new LinkedHashSet<EditJournal>();
+		
+		public void start() {
+			setStopped(false);
+			thread = new Thread(this, "thread");
+			thread.setDaemon(true);
+			thread.start();
+		}
+		
+		public synchronized void add(EditJournal journal) {
+			queue.add(journal);
+			notify();
+		}
+		
+		public void run() {
+			while (true) {
+				ArrayList<EditJournal> batch = null;
+				try {
+					synchronized (this) {
+						while (queue.isEmpty() && !isStopped()) wait();
+					}
+					// gathers further edits into the same commit
+					if (!isStopped()) sleep(COMMIT_INTERVAL);
+				} catch (InterruptedException e) {
+					// stopping; commits whatever remains
+				}
+				synchronized (this) {
+					if (queue.isEmpty() && isStopped()) return;
+					batch = new ArrayList<EditJournal>(queue);
+					queue.clear();
+				}
+				ArrayList<FileChannel> written = new ArrayList<FileChannel>();
+				for (int i = 0; i < batch.size(); i++) {
+					try {
+						FileChannel c = batch.get(i).commit();
+						if (c != null) written.add(c);
+					} catch (IOException e) {
+						e.printStackTrace();
+					}
+				}
+				for (int i = 0; i < written.size(); i++) {
+					try {
+						written.get(i).force(false);
+					} catch (IOException e) {
+						e.printStackTrace();
+					}
+				}
+			}
+		}
+		
+		/** Waits for the writer to commit all remaining records.
+		 */
+		public void finish() {
+			requestStop();
+			try {
+				if (thread != null) thread.join();
+			} catch (InterruptedException e) {
+				Thread.currentThread().interrupt();
+			}
+		}
+		
+		public synchronized void requestStop() {
+			// not interrupted, which would close channels mid-write
+			setStopped(true);
+			notify();
+		}
+	}
+	
+}
@@ -0,0 +1,212 @@
+/* ***** BEGIN LICENSE BLOCK *****
+ * Version: MPL 1.1/GPL 2.0/LGPL 2.1
+ *
+ * The contents of this file are subject to the Mozilla Public License Version
+ * 1.1 (the "License"); you may not use this file except in compliance with
+ * the License. You may obtain a copy of the License at
+ * http://www.mozilla.org/MPL/
+ *
+ * Software distributed under the License is distributed on an "AS IS" basis,
+ * WITHOUT WARRANTY OF ANY KIND, either express or implied. See the License
+ * for the specific language governing rights and limitations under the
+ * License.
+ *
+ * The Original Code is the Text Trix code.
+ *
+ * The Initial Developer of the Original Code is
+ * Text Flex.
+ * Portions created by the Initial Developer are Copyright (C) 2019
+ * the Initial Developer. All Rights Reserved.
+ *
+ * Contributor(s): David Young <david@textflex.com>
+ *
+ * Alternatively, the contents of this file may be used under the terms of
+ * either the GNU General Public License Version 2 or later (the "GPL"), or
+ * the GNU Lesser General Public License Version 2.1 or later (the "LGPL"),
+ * in which case the provisions of the GPL or the LGPL are applicable instead
+ * of those above. If you wish to allow use of your version of this file only
+ * under the terms of either the GPL or the LGPL, and not to allow others to
+ * use your version of this file under the terms of the MPL, indicate your
+ * decision by deleting the provisions above and replace them with the notice
+ * and other provisions required by the GPL or the LGPL. If you do not delete
+ * the provisions above, a recipient may use your version of this file under
+ * the terms of any one of the MPL, the GPL or the LGPL.
+ *
+ * ***** END LICENSE BLOCK ***** */
+
+
+package com.textflex.texttrix;
+
+import java.awt.EventQueue;
+import java.io.*;
+import java.nio.ByteBuffer;
+import java.nio.CharBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.*;
+import javax.swing.text.*;
+
+/**
+ * Follows a file that grows, such as a log, by appending the text added
+ * to the end of the file to a <code>TextPad</code>.  Only the bytes 
+ * written since the last read are read, from the file channel position
+ * where the last read stopped, and each batch is appended to the
+ * document as a single edit.  The pad scrolls to the end after each
+ * batch, and if a line limit is set, the earliest lines are removed to
+ * stay within the limit.  If the file shrinks, such as when a log is
+ * rotated, the pad starts over from the beginning of the file.
+ * 
+ * <p>The {@link FileWatcher} calls {@link #tail()} whenever the file
+ * changes.
+ */
+public class FileTailer {
+	/** Most bytes to read for a single edit. */
+	private static final int BATCH = 1024 * 1024;
+	
+	private TextPad pad = null;
+	private File file = null;
+	private long position = 0; // file position following the last read
+	private int maxLines = 0; // lines to keep, or 0 for all
+	private CharsetDecoder decoder = null;
+	private ByteBuffer bytes = ByteBuffer.allocate(BATCH);
+	private CharBuffer chars = null;
+	private boolean pendingCR = false; // batch ended in the middle of a CRLF
+	private volatile boolean stopped = false;
+	
+	/** Constructs a tailer for the pad's file.
+	 * @param aPad the pad to append to
+	 * @param aPosition the file position from which to start following,
+	 * such as the file's length when the pad was last loaded
+	 * @param aMaxLines the most lines to keep, or 0 to keep all lines
+	 */
+	public FileTailer(TextPad aPad, long aPosition, int aMaxLines) {
+		pad = aPad;
+		file = pad.getFile();
+		position = aPosition;
+		maxLines = aMaxLines;
+		// matches FileReader's default charset and its tolerance for
+		// malformed input
+		decoder = Charset.defaultCharset().newDecoder()
+			.onMalformedInput(CodingErrorAction.REPLACE)
+			.onUnmappableCharacter(CodingErrorAction.REPLACE);
+		chars = CharBuffer.allocate(
+				(int) (BATCH * decoder.maxCharsPerByte()) + 1);
+	}
+	
+	/** Reads any text added to the file since the last read and queues it
+	 * to be appended to the pad.  Called from outside of the event 
+	 * dispatch thread.
+	 */
+	public synchronized void tail() {
+		if (stopped) return;
+		FileInputStream in = null;
+		try {
+			in = new FileInputStream(file);
+			FileChannel channel = in.getChannel();
+			long size = channel.size();
+			boolean restart = size < position;
+			if (restart) {
+				// the file was truncated or replaced
+				position = 0;
+				bytes.clear();
+				decoder.reset();
+				pendingCR = false;
+			}
+			while (position < size && !stopped) {
+				// appends after any bytes left over from a character split
+				// across the previous batch
+				int n = channel.read(bytes, position);
+				if (n <= 0) break;
+				position += n;
+				bytes.flip();
+				decoder.decode(bytes, chars, false);
+				bytes.compact();
+				chars.flip();
+				append(normalizeEOLs(chars), restart);
+				chars.clear();
+				restart = false;
+			}
+		} catch (IOException e) {
+			e.printStackTrace();
+		} finally {
+			try {
+				if (in != null) in.close();
+			} catch (IOException e) {
+			}
+		}
+	}
+	
+	/** Stops following the file.  Batches already read are still 
+	 * appended.
+	 */
+	public void stop() {
+		stopped = true;
+	}
+	
+	/** Converts CRLF and CR end-of-line characters into LF characters.
+	 * A CR at the end of one batch is remembered so that an LF 
+	 * starting the next batch is not counted as a second newline.
+	 * @param chars the batch to convert, in read mode
+	 * @return the converted text
+	 */
+	private String normalizeEOLs(CharBuffer chars) {
+		int len = chars.remaining();
+		StringBuilder builder = new StringBuilder(len);
+		for (int i = 0; i < len; i++) {
+			char c = chars.get(i);
+			if (c == '\r') {
+				builder.append('\n');
+				pendingCR = true;
+			} else {
+				if (!(c == '\n' && pendingCR)) builder.append(c);
+				pendingCR = false;
+			}
+		}
+		return builder.toString();
+	}
+	
+	/** Appends text to the pad in the event dispatch thread.
+	 * @param text the text to append
+	 * @param replace <code>true</code> to replace the pad's text
+	 */
+	private void append(final String text, final boolean replace) {
+		EventQueue.invokeLater(new Runnable() {
+			public void run() {
+				if (pad.getTailer() != FileTailer.this) return;
+				Document doc = pad.getDocument();
+				// prevent UI updates in TextPadDocListener since the text
+				// matches the file
+				pad.setChanged(true);
+				try {
+					if (replace) doc.remove(0, doc.getLength());
+					if (text.length() > 0) {
+						doc.insertString(doc.getLength(), text, null);
+					}
+					trim(doc);
+				} catch (BadLocationException e) {
+					e.printStackTrace();
+				}
+				pad.setChanged(false);
+				pad.setCaretPosition(doc.getLength());
+			}
+		});
+	}
+	
+	/** Removes the earliest lines beyond the line limit.
+	 * @param doc the document to trim
+	 */
+	private void trim(Document doc) throws BadLocationException {
+		if (maxLines <= 0) return;
+		Element root = doc.getDefaultRootElement();
+		int lines = root.getElementCount();
+		// an empty last line after a final newline does not count
+		if (doc.getLength() > 0 && root.getElement(lines - 1)
+				.getStartOffset() == doc.getLength()) {
+			lines--;
+		}
+		int excess = lines - maxLines;
+		if (excess > 0) {
+			doc.remove(0, root.getElement(excess).getStartOffset());
+		}
+	}
+	
+}
@@ -0,0 +1,465 @@
+/* ***** BEGIN LICENSE BLOCK *****
+ * Version: MPL 1.1/GPL 2.0/LGPL 2.1
+ *
+ * The contents of this file are subject to the Mozilla Public License Version
+ * 1.1 (the "License"); you may not use this file except in compliance with
+ * the License. You may obtain a copy of the License at
+ * http://www.mozilla.org/MPL/
+ *
+ * Software distributed under the License is distributed on an "AS IS" basis,
+ * WITHOUT WARRANTY OF ANY KIND, either express or implied. See the License
+ * for the specific language governing rights and limitations under the
+ * License.
+ *
+ * The Original Code is the Text Trix code.
+ *
+ * The Initial Developer of the Original Code is
+ * Text Flex.
+ * Portions created by the Initial Developer are Copyright (C) 2019
+ * the Initial Developer. All Rights Reserved.
+ *
+ * Contributor(s): David Young <david@textflex.com>
+ *
+ * Alternatively, the contents of this file may be used under the terms of
+ * either the GNU General Public License Version 2 or later (the "GPL"), or
+ * the GNU Lesser General Public License Version 2.1 or later (the "LGPL"),
+ * in which case the provisions of the GPL or the LGPL are applicable instead
+ * of those above. If you wish to allow use of your version of this file only
+ * under the terms of either the GPL or the LGPL, and not to allow others to
+ * use your version of this file under the terms of the MPL, indicate your
+ * decision by deleting the provisions above and replace them with the notice
+ * and other provisions required by the GPL or the LGPL. If you do not delete
+ * the provisions above, a recipient may use your version of this file under
+ * the terms of any one of the MPL, the GPL or the LGPL.
+ *
+ * ***** END LICENSE BLOCK ***** */
+
+
+package com.textflex.texttrix;
+
+import javax.swing.*;
+import java.awt.*;
+import java.io.*;
+import java.nio.file.*;
+import java.util.*;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * File modification watcher.  Flags files that have been opened in Text 
+ * Trix but modified elsewhere, such as source code that is open in the 
+ * editor but which gets updated by a concurrent version update.
+ * 
+ * <p>A single watcher thread serves all the open files.  The directory
+ * of each file is registered once with the file system's 
+ * <code>WatchService</code>, no matter how many files in it are open,
+ * and the watcher sleeps until the file system reports a change.  Files
+ * on file systems without watch support are instead polled every few
+ * seconds by the same thread.  Bursts of change events for a file, such 
+ * as from a program writing it in several steps, are debounced into a 
+ * single check, and only a file whose modification time differs from the
+ * one last seen by Text Trix is handed to its <code>TextPad</code>,
+ * or to its {@link FileTailer} if the pad is following the file.
+ */
+public class FileWatcher extends StoppableThread {
+	/** Milliseconds to wait for a file's changes to settle. */
+	private static final long DEBOUNCE = 300;
+	/** Most milliseconds to put off checking a continually changing file,
+	 * such as a log that is being followed. */
+	private static final long MAX_DELAY = 1000;
+	/** Milliseconds between checks of files that cannot be watched. */
+	private static final long POLL_INTERVAL = 5000;
+	
+	private static FileWatcher watcher = null; // the shared watcher
+	
+	private Thread thread = null;
+	private WatchService service = null; // null if watching unsupported
+	// watched files by directory
+	private HashMap<Path, ArrayList<Watch>> dirs = 
+			new HashMap<Path, ArrayList<Watch>>();
+	// registrations with the watch service, by directory
+	private HashMap<Path, WatchKey> keys = new HashMap<Path, WatchKey>();
+	// directories that must be polled instead
+	private HashSet<Path> polledDirs = new HashSet<Path>();
+	// watches due to be checked, with the times of their first unchecked
+	// change and their debounced deadlines
+	private HashMap<Watch, long[]> pending = new HashMap<Watch, long[]>();
+	private long nextPoll = 0;
+	
+	private FileWatcher() {
+		try {
+			service = FileSystems.getDefault().newWatchService();
+		} catch (IOException e) {
+			System.out.println("Unable to watch files; polling instead");
+		} catch (UnsupportedOperationException e) {
+			System.out.println("Unable to watch files; polling instead");
+		}
+	}
+	
+	/** Starts watching a pad's file for modifications made outside of
+	 * Text Trix.
+	 * @param pad the pad whose file to watch
+	 * @param prompt <code>true</code> if the user should be asked before
+	 * refreshing the pad
+	 * @return the watch, which follows the pad's file until cancelled
+	 */
+	public static Watch watch(TextPad pad, boolean prompt) {
+		Watch watch = new Watch(pad, prompt);
+		watch.update();
+		return watch;
+	}
+	
+	/** Gets the shared watcher, starting it if necessary.
+	 * @return the watcher
+	 */
+	private static synchronized FileWatcher getWatcher() {
+		if (watcher == null || watcher.isStopped()) {
+			watcher = new FileWatcher();
+			watcher.start();
+		}
+		return watcher;
+	}
+	
+	public void start() {
+		setStopped(false);
+		thread = new Thread(this, "thread");
+		thread.setDaemon(true);
+		thread.start();
+	}
+	
+	/** Registers a watch under its file's directory, registering the 
+	 * directory itself if it is not yet watched.
+	 * @param watch the watch to add
+	 */
+	private synchronized void add(Watch watch) {
+		Path dir = watch.path.getParent();
+		if (dir == null) return;
+		ArrayList<Watch> list = dirs.get(dir);
+		if (list == null) {
+			list = new ArrayList<Watch>();
+			dirs.put(dir, list);
+			WatchKey key = null;
+			if (service != null) {
+				try {
+					key = dir.register(service, 
+							StandardWatchEventKinds.ENTRY_CREATE, 
+							StandardWatchEventKinds.ENTRY_MODIFY, 
+							StandardWatchEventKinds.ENTRY_DELETE);
+				} catch (IOException e) {
+					// such as a directory that does not yet exist
+				} catch (UnsupportedOperationException e) {
+				}
+			}
+			if (key == null) {
+				polledDirs.add(dir);
+			} else {
+				keys.put(dir, key);
+			}
+		}
+		list.add(watch);
+	}
+	
+	/** Unregisters a watch, unregistering its directory as well if no
+	 * other files in it are watched.
+	 * @param watch the watch to remove
+	 */
+	private synchronized void remove(Watch watch) {
+		pending.remove(watch);
+		Path dir = watch.path.getParent();
+		ArrayList<Watch> list = dirs.get(dir);
+		if (list == null) return;
+		list.remove(watch);
+		if (list.isEmpty()) {
+			dirs.remove(dir);
+			polledDirs.remove(dir);
+			WatchKey key = keys.remove(dir);
+			if (key != null) key.cancel();
+		}
+	}
+	
+	/** Schedules the watches for files in a directory to be checked.
+	 * @param dir the directory
+	 * @param name the name of the changed file, or <code>null</code> 
+	 * to check all the files in the directory
+	 * @param now the current time; later changes push the check back 
+	 * further, up to {@link #MAX_DELAY} after the first change
+	 */
+	private synchronized void schedule(Path dir, Path name, long now) {
+		ArrayList<Watch> list = dirs.get(dir);
+		if (list == null) return;
+		for (int i = 0; i < list.size(); i++) {
+			Watch watch = list.get(i);
+			if (name == null || name.equals(watch.path.getFileName())) {
+				long[] times = pending.get(watch);
+				if (times == null) {
+					pending.put(watch, new long[] { now, now + DEBOUNCE });
+				} else {
+					times[1] = Math.min(now + DEBOUNCE, times[0] + MAX_DELAY);
+				}
+			}
+		}
+	}
+	
+	/** Handles the events for a directory reported by the watch service.
+	 * @param key the directory's watch key
+	 * @param now the current time
+	 */
+	private void handle(WatchKey key, long now) {
+		Path dir = (Path) key.watchable();
+		java.util.List<WatchEvent<?>> events = key.pollEvents();
+		for (int i = 0; i < events.size(); i++) {
+			WatchEvent<?> event = events.get(i);
+			if (event.kind() == StandardWatchEventKinds.OVERFLOW) {
+				// events were lost, so checks every file in the directory
+				schedule(dir, null, now);
+			} else {
+				schedule(dir, (Path) event.context(), now);
+			}
+		}
+		if (!key.reset()) {
+			// the directory is no longer accessible, such as after being
+			// deleted, so polls it in case it reappears
+			synchronized (this) {
+				if (keys.get(dir) == key) {
+					keys.remove(dir);
+					if (dirs.containsKey(dir)) polledDirs.add(dir);
+				}
+			}
+			schedule(dir, null, now);
+		}
+	}
+	
+	/** Gets the time until the next scheduled check.
+	 * @param now the current time
+	 * @return the milliseconds to wait, at least 1
+	 */
+	private synchronized long getTimeout(long now) {
+		long next = polledDirs.isEmpty() ? now + POLL_INTERVAL : nextPoll;
+		Iterator<long[]> it = pending.values().iterator();
+		while (it.hasNext()) {
+			long deadline = it.next()[1];
+			if (deadline < next) next = deadline;
+		}
+		return Math.max(1, next - now);
+	}
+	
+	/** Checks the files whose deadlines have passed, handing any 
+	 * modified file to its pad.
+	 * @param now the current time
+	 */
+	private void checkPending(long now) {
+		ArrayList<Watch> due = new ArrayList<Watch>();
+		synchronized (this) {
+			if (!polledDirs.isEmpty() && now >= nextPoll) {
+				Iterator<Path> it = polledDirs.iterator();
+				while (it.hasNext()) {
+					ArrayList<Watch> list = dirs.get(it.next());
+					for (int i = 0; i < list.size(); i++) {
+						pending.remove(list.get(i));
+						due.add(list.get(i));
+					}
+				}
+				nextPoll = now + POLL_INTERVAL;
+			}
+			Iterator<Map.Entry<Watch, long[]>> entries = 
+					pending.entrySet().iterator();
+			while (entries.hasNext()) {
+				Map.Entry<Watch, long[]> entry = entries.next();
+				if (entry.getValue()[1] <= now) {
+					due.add(entry.getKey());
+					entries.remove();
+				}
+			}
+		}
+		// checks the modification times off of the event dispatch thread
+		for (int i = 0; i < due.size(); i++) {
+			due.get(i).check();
+		}
+	}
+	
+	public void run() {
+		while (!isStopped()) {
+			try {
+				long timeout = getTimeout(System.currentTimeMillis());
+				if (service == null) {
+					synchronized (this) {
+						wait(timeout);
+					}
+				} else {
+					WatchKey key = service.poll(timeout, TimeUnit.MILLISECONDS);
+					while (key != null) {
+						handle(key, System.currentTimeMillis());
+						key = service.poll();
+					}
+				}
+				checkPending(System.currentTimeMillis());
+			} catch (InterruptedException e) {
+				setStopped(true);
+				Thread.currentThread().interrupt();
+			} catch (ClosedWatchServiceException e) {
+				setStopped(true);
+			}
+		}
+	}
+	
+	/**
+	 * Requests the thread to stop by setting the <code>stopped</code>
+	 * flag, interrupting the running thread, and closing the watch service.
+	 * Any remaining watches are not notified of later modifications.
+	 */
+	public void requestStop() {
+		setStopped(true);
+		if (thread != null) {
+			thread.interrupt();
+			thread = null;
+		}
+		try {
+			if (service != null) service.close();
+		} catch (IOException e) {
+		}
+	}
+	
+	
+	
+	
+	/**
+	 * A watch on a single pad's file.
+	 */
+	public static class Watch {
+		private TextPad pad = null;
+		private Path path = null; // the watched file
+		private FileWatcher owner = null; // the watcher holding this watch
+		private volatile long lastModifiedWithTTx = 0;
+		// file length when last read or written by Text Trix
+		private volatile long lengthWithTTx = -1;
+		private volatile boolean prompt = true;
+		private volatile boolean checking = false; // pad is being notified
+		private volatile boolean cancelled = false;
+		
+		private Watch(TextPad aPad, boolean aPrompt) {
+			pad = aPad;
+			prompt = aPrompt;
+		}
+		
+		// refresh the tab, prompting the user beforehand for confirmation 
+		// if necessary
+		private Runnable refreshTab = new Runnable() {
+			public void run() {
+				try {
+					refreshTab();
+				} finally {
+					checking = false;
+				}
+			}
+		};
+		
+		private void refreshTab() {
+			File file = pad.getFile();
+			// skip if file doesn't exist b/c will ask for file
+			// name later, when can still cancel the save
+			// also skip while saving, since the pad's own write will change 
+			// the modification time
+			if (cancelled || !file.exists() || pad.isSaving()) return;
+			long lastMod = file.lastModified();
+			if (lastMod == lastModifiedWithTTx) return;
+			String lastModTime = LibTTx.calcTime(lastMod);
+			String currModTime = LibTTx.calcTime(lastModifiedWithTTx);
+			System.out.println("file last modified: " 
+					+ lastModTime + ", current TTx file last modified: "
+					+ currModTime);
+			// only asks once for each modification
+			lastModifiedWithTTx = lastMod;
+			boolean refresh = true;
+			if (prompt) {
+				// prompt with save dialog
+				int choice = JOptionPane.showConfirmDialog(
+						pad,
+						file.getPath() 
+								+ "\nhas been modified elsewhere."
+								+ "\nRefresh the file?",
+						"File Modified Elsewhere",
+						JOptionPane.YES_NO_OPTION,
+						JOptionPane.QUESTION_MESSAGE);
+				refresh = choice == JOptionPane.YES_OPTION;
+			}
+			if (refresh && !cancelled) pad.refresh();
+		}
+		
+		/** Checks whether the file's modification time differs from the 
+		 * one last seen by Text Trix, and if so, hands the file to the 
+		 * pad in the event dispatch thread.
+		 */
+		private void check() {
+			if (cancelled || checking) return;
+			File file = path.toFile();
+			FileTailer tailer = pad.getTailer();
+			if (tailer != null) {
+				// appends the new text to pads following the file instead
+				lastModifiedWithTTx = file.lastModified();
+				tailer.tail();
+				return;
+			}
+			if (file.exists() && file.lastModified() != lastModifiedWithTTx) {
+				checking = true;
+				EventQueue.invokeLater(refreshTab);
+			}
+		}
+		
+		/** Updates the watch to the pad's current file and modification 
+		 * time, such as after opening or saving the file in Text Trix.
+		 */
+		public void update() {
+			if (cancelled) return;
+			File file = pad.getFile();
+			lastModifiedWithTTx = file.lastModified();
+			lengthWithTTx = file.exists() ? file.length() : -1;
+			Path newPath = null;
+			try {
+				newPath = file.getAbsoluteFile().toPath();
+			} catch (InvalidPathException e) {
+				// leaves the file unwatched
+			}
+			if (newPath == null ? path == null : newPath.equals(path)) return;
+			if (path != null) owner.remove(this);
+			path = newPath;
+			if (path != null) {
+				owner = getWatcher();
+				owner.add(this);
+			}
+		}
+		
+		/** Stops watching the file, such as when the pad is closed.
+		 */
+		public void cancel() {
+			cancelled = true;
+			if (path != null) owner.remove(this);
+		}
+		
+		public void setPrompt(boolean val) {
+			prompt = val;
+		}
+		
+		public void setLastModifiedWithTTx(long aLastModifiedWithTTx) {
+			lastModifiedWithTTx = aLastModifiedWithTTx;
+		}
+		
+		public long getLastModifiedWithTTx() {
+			return lastModifiedWithTTx;
+		}
+		
+		public void setLengthWithTTx(long aLengthWithTTx) {
+			lengthWithTTx = aLengthWithTTx;
+		}
+		
+		/** Gets the file's length when Text Trix last read or wrote it.
+		 * @return the length in bytes, or -1 if unknown
+		 */
+		public long getLengthWithTTx() {
+			return lengthWithTTx;
+		}
+		
+		public TextPad getTextPad() {
+			return pad;
+		}
+	}
+	
+}
@@ -0,0 +1,91 @@
+/* ***** BEGIN LICENSE BLOCK *****
+ * Version: MPL 1.1/GPL 2.0/LGPL 2.1
+ *
+ * The contents of this file are subject to the Mozilla Public License Version
+ * 1.1 (the "License"); you may not use this file except in compliance with
+ * the License. You may obtain a copy of the License at
+ * http://www.mozilla.org/MPL/
+ *
+ * Software distributed under the License is distributed on an "AS IS" basis,
+ * WITHOUT WARRANTY OF ANY KIND, either express or implied. See the License
+ * for the specific language governing rights and limitations under the
+ * License.
+ *
+ * The Original Code is the Text Trix code.
+ *
+ * The Initial Developer of the Original Code is
+ * Text Flex.
+ * Portions created by the Initial Developer are Copyright (C) 2019
+ * the Initial Developer. All Rights Reserved.
+ *
+ * Contributor(s): David Young <david@textflex.com>
+ *
+ * Alternatively, the contents of this file may be used under the terms of
+ * either the GNU General Public License Version 2 or later (the "GPL"), or
+ * the GNU Lesser General Public License Version 2.1 or later (the "LGPL"),
+ * in which case the provisions of the GPL or the LGPL are applicable instead
+ * of those above. If you wish to allow use of your version of this file only
+ * under the terms of either the GPL or the LGPL, and not to allow others to
+ * use your version of this file under the terms of the MPL, indicate your
+ * decision by deleting the provisions above and replace them with the notice
+ * and other provisions required by the GPL or the LGPL. If you do not delete
+ * the provisions above, a recipient may use your version of this file under
+ * the terms of any one of the MPL, the GPL or the LGPL.
+ *
+ * ***** END LICENSE BLOCK ***** */
+
+
+package com.textflex.texttrix;
+
+import javax.swing.event.*;
+import javax.swing.text.*;
+
+/** The default document for pads, with support for setting paragraph 
+ * attributes in batches for wrap-indent.
+ * @see WrapEditorKit
+ */
+public class IndentedDocument extends DefaultStyledDocument 
+		implements BatchStyledDocument {
+	
+	/** Constructs an empty document.
+	 */
+	public IndentedDocument() {
+		super();
+	}
+	
+	/** Constructs an empty document stored in the given content.
+	 * @param c the content, such as a {@link PieceContent}
+	 */
+	public IndentedDocument(AbstractDocument.Content c) {
+		super(c, new StyleContext());
+	}
+	
+	/** Gets an unchanging snapshot of the text, which can be read 
+	 * without locking the document.
+	 * @return the snapshot, or <code>null</code> if the document is not
+	 * stored in a piece table
+	 */
+	public PieceContent.Snapshot getSnapshot() {
+		Content c = getContent();
+		return c instanceof PieceContent 
+				? ((PieceContent) c).getSnapshot() : null;
+	}
+	
+	/** Adds attributes to consecutive paragraphs under a single write lock.
+	 * @param offset a position in the first paragraph
+	 * @param attribs the attributes to add to each paragraph in turn
+	 */
+	public void setParagraphAttributes(int offset, AttributeSet[] attribs) {
+		try {
+			writeLock();
+			DefaultDocumentEvent changes = 
+					ParagraphIndenter.addParagraphAttributes(this, offset, attribs);
+			if (changes != null) {
+				fireChangedUpdate(changes);
+				fireUndoableEditUpdate(new UndoableEditEvent(this, changes));
+			}
+		} finally {
+			writeUnlock();
+		}
+	}
+}
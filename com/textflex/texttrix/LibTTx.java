@@ -66,6 +66,8 @@ public class LibTTx {
 	 */
 	public static final String NEWLINE = System.getProperty("line.separator");
 	public static final String DIR_PLUGINS = "plugins";
+	// JTextComponent.viewToModel2D, or null before Java 9
+	private static final Method viewToModel2D = findViewToModel2D();
 
 	/** Constructs the library object, almost never necessary since
 	 * virtually all of its methods are static.
@@ -557,17 +559,10 @@ public class LibTTx {
 	 * @return index of found string; -1 if not found
 	 */
 	public static int reverseIndexOf(String str, String searchStr, int offset) {
-		int searchLen = searchStr.length();
-		int strLen = str.length();
-		if (offset > strLen || offset < 0) return -1;
-		// start position
-		int i = offset - 1;
-		while (i >= 0
-//			&& i + searchLen <= strLen
-			&& !str.substring(i).startsWith(searchStr)) {
-			i--;
-		}
-		return i;
+		if (offset > str.length() || offset < 0) return -1;
+		// searches in place rather than comparing a substring at 
+		// each position
+		return str.lastIndexOf(searchStr, offset - 1);
 	}
 	
 	/** Searches backward in a text to find a given normal-oriented string.
@@ -607,7 +602,53 @@ public class LibTTx {
 		if (i < 0) i = -1;
 		return i;
 	}
-	
+
+	/** Gets the start of the paragraph containing a given position.
+	 * Looks up the paragraph in the document's root element rather than
+	 * scanning backward for the previous newline, so the cost does not
+	 * depend on the length of the line or the document.
+	 * @param doc document containing the paragraph
+	 * @param offset position within the paragraph
+	 * @return offset of the paragraph's first character
+	 */
+	public static int getParagraphStart(Document doc, int offset) {
+		Element root = doc.getDefaultRootElement();
+		return root.getElement(root.getElementIndex(offset)).getStartOffset();
+	}
+
+	/** Loads the run of tabs and spaces that starts at a given position
+	 * into a segment.
+	 * The run stops at the first other character or at the end of the
+	 * paragraph, and only the paragraph's text from the given position
+	 * onward is read, without copying the document.
+	 * @param doc document to scan
+	 * @param offset position at which the run starts, usually the start of
+	 * a paragraph
+	 * @param seg segment to reuse; on return, it holds the whitespace
+	 * characters, or none if the position does not start with whitespace
+	 * @return number of whitespace characters in the run
+	 * @throws BadLocationException if the position is outside the document
+	 */
+	public static int getLeadingWhitespace(Document doc, int offset,
+			Segment seg) throws BadLocationException {
+		Element root = doc.getDefaultRootElement();
+		Element para = root.getElement(root.getElementIndex(offset));
+		// the final paragraph ends in the document's implied newline
+		int end = Math.min(para.getEndOffset(), doc.getLength());
+		// a whole segment rather than a partial return, since the line
+		// will only be copied if it straddles the content's gap
+		seg.setPartialReturn(false);
+		doc.getText(offset, Math.max(end - offset, 0), seg);
+		int n = 0;
+		while (n < seg.count) {
+			char c = seg.array[seg.offset + n];
+			if (c != '\t' && c != ' ') break;
+			n++;
+		}
+		seg.count = n;
+		return n;
+	}
+
 	/** Gets the file extension from a given path.
 	 * Assumes that the file extension is the substring
 	 * after the final period in the filename.
@@ -755,7 +796,10 @@ public class LibTTx {
 	 * @param eol the end-of-line style that will be applied to the text;
 	 * if null, the text's current EOL style will be preserved
 	 * @return true if the text was successfully written to the path
+	 * @deprecated replaced by <code>DocumentWriter</code>, which streams
+	 * the text from the document rather than copying it
 	 */
+	@Deprecated
 	public static boolean writeText(String path, String text, String eol) {
 		PrintWriter out = null;
 		try {
@@ -943,6 +987,10 @@ public class LibTTx {
 	 * it is blank
 	 */
 	public static int getVisibleLineCount(JTextComponent c) {
+		// uses the cached row counts where available
+		if (c instanceof TextPad) {
+			return ((TextPad) c).getLineIndex().getRowCount();
+		}
 		// ignores final line if empty
 		int len = c.getDocument().getLength();
 		int offset = 0;
@@ -1148,6 +1196,43 @@ public class LibTTx {
 		return installedVersionStr.indexOf(version) != -1;
 	}
 	
+	/**
+	 * Gets the offset of the text closest to the given point, the same
+	 * as <code>JTextComponent.viewToModel2D</code>.  That method appeared
+	 * in Java 9, so it is found by reflection to remain compatible with 
+	 * Java 8, where the since-deprecated <code>viewToModel</code> is 
+	 * used instead.
+	 * 
+	 * @param text the text component
+	 * @param pt the point, in the component's coordinates
+	 * @return the offset, or -1 if the component has no UI
+	 */
+	@SuppressWarnings("deprecation")
+	public static int viewToModel(JTextComponent text, Point pt) {
+		if (viewToModel2D != null) {
+			try {
+				return ((Integer) viewToModel2D.invoke(text, pt)).intValue();
+			} catch (Exception e) {
+				// falls back to the older method
+			}
+		}
+		return text.viewToModel(pt);
+	}
+	
+	/**
+	 * Finds <code>JTextComponent.viewToModel2D</code>, if available.
+	 * 
+	 * @return the method, or <code>null</code> before Java 9
+	 */
+	private static Method findViewToModel2D() {
+		try {
+			return JTextComponent.class.getMethod("viewToModel2D", 
+					new Class[] { java.awt.geom.Point2D.class });
+		} catch (Exception e) {
+			return null;
+		}
+	}
+	
 	/**
 	 * Calculate the time in hour:month:seconds:millisecond format.
 	 *
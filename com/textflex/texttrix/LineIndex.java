@@ -0,0 +1,407 @@
+/* ***** BEGIN LICENSE BLOCK *****
+ * Version: MPL 1.1/GPL 2.0/LGPL 2.1
+ *
+ * The contents of this file are subject to the Mozilla Public License Version
+ * 1.1 (the "License"); you may not use this file except in compliance with
+ * the License. You may obtain a copy of the License at
+ * http://www.mozilla.org/MPL/
+ *
+ * Software distributed under the License is distributed on an "AS IS" basis,
+ * WITHOUT WARRANTY OF ANY KIND, either express or implied. See the License
+ * for the specific language governing rights and limitations under the
+ * License.
+ *
+ * The Original Code is the Text Trix code.
+ *
+ * The Initial Developer of the Original Code is
+ * Text Flex.
+ * Portions created by the Initial Developer are Copyright (C) 2019
+ * the Initial Developer. All Rights Reserved.
+ *
+ * Contributor(s): David Young <david@textflex.com>
+ *
+ * Alternatively, the contents of this file may be used under the terms of
+ * either the GNU General Public License Version 2 or later (the "GPL"), or
+ * the GNU Lesser General Public License Version 2.1 or later (the "LGPL"),
+ * in which case the provisions of the GPL or the LGPL are applicable instead
+ * of those above. If you wish to allow use of your version of this file only
+ * under the terms of either the GPL or the LGPL, and not to allow others to
+ * use your version of this file under the terms of the MPL, indicate your
+ * decision by deleting the provisions above and replace them with the notice
+ * and other provisions required by the GPL or the LGPL. If you do not delete
+ * the provisions above, a recipient may use your version of this file under
+ * the terms of any one of the MPL, the GPL or the LGPL.
+ *
+ * ***** END LICENSE BLOCK ***** */
+
+
+package com.textflex.texttrix;
+
+import java.awt.event.*;
+import java.beans.*;
+import javax.swing.event.*;
+import javax.swing.text.*;
+
+/**
+ * Index of the line start offsets in a text component's document,
+ * along with the number of soft-wrapped rows in each line.
+ * 
+ * <p>The offsets are stored in an int array with a gap at the 
+ * most recently edited line, similar to <code>GapContent</code>.  
+ * Offsets before the gap are absolute, while offsets after it are 
+ * stored relative to the end of the document, so that inserting or
+ * removing text only has to move the gap to the edited line rather 
+ * than update every following offset.  The index is updated from 
+ * each <code>DocumentEvent</code> by scanning only the inserted text.
+ * 
+ * <p>Row counts are cached per line and only recalculated for lines 
+ * that have been edited, or for every line after the component's
+ * width or font changes.  Documents in the large-file viewer already
+ * index their lines and are used directly.
+ */
+public class LineIndex implements DocumentListener, PropertyChangeListener {
+	
+	private JTextComponent comp = null;
+	private Document doc = null;
+	private boolean paged = false; // document indexes its own lines
+	private boolean valid = false; // flags to rebuild before the next query
+	private int[] starts = new int[64]; // line start offsets, with a gap
+	private int[] rows = new int[64]; // rows per line, or -1 if unknown
+	private int gapStart = 0; // index of the first element in the gap
+	private int gapEnd = 64; // index of the first element after the gap
+	private int length = 0; // document length as of the last event
+	private int knownRows = 0; // total rows in lines with known rows
+	private int unknownRows = 0; // number of lines with unknown rows
+	private Segment seg = new Segment(); // reused for scanning text
+	
+	/** Constructs an index for the given component's document and any
+	 * documents later set in it.
+	 * @param aComp the text component
+	 */
+	public LineIndex(JTextComponent aComp) {
+		comp = aComp;
+		seg.setPartialReturn(true);
+		comp.addPropertyChangeListener(this);
+		comp.addComponentListener(new ComponentAdapter() {
+			public void componentResized(ComponentEvent e) {
+				invalidateRows();
+			}
+		});
+		setDocument(comp.getDocument());
+	}
+	
+	/** Switches the index to a new document, which will be indexed
+	 * on the first query.
+	 * @param aDoc the document
+	 */
+	private void setDocument(Document aDoc) {
+		if (doc != null) doc.removeDocumentListener(this);
+		doc = aDoc;
+		valid = false;
+		paged = doc instanceof PagedDocument;
+		if (doc != null && !paged) doc.addDocumentListener(this);
+	}
+	
+	/** Responds to documents being set in the component, and to font
+	 * changes, which may change the soft-wrapped rows.
+	 */
+	public void propertyChange(PropertyChangeEvent e) {
+		String name = e.getPropertyName();
+		if (name.equals("document")) {
+			setDocument(comp.getDocument());
+		} else if (name.equals("font")) {
+			invalidateRows();
+		}
+	}
+	
+	/** Builds the index from scratch by scanning the entire document.
+	 */
+	private void rebuild() {
+		starts = new int[64];
+		rows = new int[64];
+		gapStart = 0;
+		gapEnd = starts.length;
+		knownRows = 0;
+		unknownRows = 0;
+		length = doc.getLength();
+		addLine(0);
+		scan(0, length);
+		valid = true;
+	}
+	
+	/** Adds a line start for each newline in the given range of the 
+	 * document, inserting them at the gap.
+	 */
+	private void scan(int offset, int len) {
+		int end = offset + len;
+		try {
+			while (offset < end) {
+				doc.getText(offset, end - offset, seg);
+				for (int i = 0; i < seg.count; i++) {
+					if (seg.array[seg.offset + i] == '\n') {
+						addLine(offset + i + 1);
+					}
+				}
+				offset += seg.count;
+			}
+		} catch (BadLocationException e) {
+			// forces a rebuild on the next query
+			valid = false;
+		}
+	}
+	
+	/** Inserts a line start at the gap.
+	 * @param start the absolute offset of the line start
+	 */
+	private void addLine(int start) {
+		if (gapStart == gapEnd) {
+			// grows the gap by half again the current size
+			int len = starts.length;
+			int newLen = len * 3 / 2 + 16;
+			int[] newStarts = new int[newLen];
+			int[] newRows = new int[newLen];
+			int after = len - gapEnd;
+			System.arraycopy(starts, 0, newStarts, 0, gapStart);
+			System.arraycopy(rows, 0, newRows, 0, gapStart);
+			System.arraycopy(starts, gapEnd, newStarts, newLen - after, after);
+			System.arraycopy(rows, gapEnd, newRows, newLen - after, after);
+			starts = newStarts;
+			rows = newRows;
+			gapEnd = newLen - after;
+		}
+		starts[gapStart] = start;
+		rows[gapStart] = -1;
+		unknownRows++;
+		gapStart++;
+	}
+	
+	/** Moves the gap to just before the given line, converting the 
+	 * offsets of any lines that cross the gap.
+	 * @param line index of the line to follow the gap
+	 */
+	private void moveGap(int line) {
+		while (gapStart > line) {
+			gapStart--;
+			gapEnd--;
+			starts[gapEnd] = starts[gapStart] - length;
+			rows[gapEnd] = rows[gapStart];
+		}
+		while (gapStart < line) {
+			starts[gapStart] = starts[gapEnd] + length;
+			rows[gapStart] = rows[gapEnd];
+			gapStart++;
+			gapEnd++;
+		}
+	}
+	
+	/** Gets the physical array index for a line.
+	 */
+	private int physical(int line) {
+		return line < gapStart ? line : line + gapEnd - gapStart;
+	}
+	
+	/** Gets the start offset of a line from the arrays.
+	 */
+	private int start(int line) {
+		return line < gapStart 
+				? starts[line] : starts[line + gapEnd - gapStart] + length;
+	}
+	
+	/** Finds the line containing the given offset by binary search.
+	 */
+	private int find(int offset) {
+		int low = 0;
+		int high = count() - 1;
+		while (low < high) {
+			int mid = (low + high + 1) >>> 1;
+			if (start(mid) <= offset) {
+				low = mid;
+			} else {
+				high = mid - 1;
+			}
+		}
+		return low;
+	}
+	
+	private int count() {
+		return gapStart + starts.length - gapEnd;
+	}
+	
+	/** Flags a line's row count to be recalculated.
+	 */
+	private void invalidateRow(int line) {
+		int i = physical(line);
+		if (rows[i] >= 0) {
+			knownRows -= rows[i];
+			rows[i] = -1;
+			unknownRows++;
+		}
+	}
+	
+	/** Flags all row counts to be recalculated, such as after the
+	 * component has been resized.
+	 */
+	public void invalidateRows() {
+		if (!valid) return;
+		int n = count();
+		for (int i = 0; i < n; i++) {
+			invalidateRow(i);
+		}
+	}
+	
+	/** Ensures that the index reflects the current document.
+	 */
+	private void validate() {
+		if (!valid || length != doc.getLength()) rebuild();
+	}
+	
+	
+	
+	
+	/* Document events */
+	
+	public void insertUpdate(DocumentEvent e) {
+		int offset = e.getOffset();
+		int len = e.getLength();
+		// rebuilds later if out of step, such as after a query 
+		// from another listener already rebuilt the index
+		if (length + len != doc.getLength()) valid = false;
+		if (!valid) return;
+		int line = find(offset);
+		invalidateRow(line);
+		moveGap(line + 1);
+		scan(offset, len);
+		length += len;
+	}
+	
+	public void removeUpdate(DocumentEvent e) {
+		if (length - e.getLength() != doc.getLength()) valid = false;
+		if (!valid) return;
+		int offset = e.getOffset();
+		int end = offset + e.getLength();
+		int line = find(offset);
+		invalidateRow(line);
+		moveGap(line + 1);
+		// drops the lines whose preceding newline was removed
+		while (gapEnd < starts.length && starts[gapEnd] + length <= end) {
+			if (rows[gapEnd] >= 0) {
+				knownRows -= rows[gapEnd];
+			} else {
+				unknownRows--;
+			}
+			gapEnd++;
+		}
+		length -= e.getLength();
+	}
+	
+	/** Attribute changes may change the wrapping of the affected lines.
+	 */
+	public void changedUpdate(DocumentEvent e) {
+		if (!valid) return;
+		int offset = e.getOffset();
+		int last = find(Math.min(offset + e.getLength(), length));
+		for (int i = find(offset); i <= last; i++) {
+			invalidateRow(i);
+		}
+	}
+	
+	
+	
+	
+	/* Queries */
+	
+	/** Gets the number of lines, counting only hard line breaks.
+	 * @return the line count, which is at least one
+	 */
+	public int getLineCount() {
+		if (paged) return doc.getDefaultRootElement().getElementCount();
+		validate();
+		return count();
+	}
+	
+	/** Gets the line containing the given offset.
+	 * @param offset the document offset
+	 * @return the line, in zero-based indexing
+	 */
+	public int getLineOfOffset(int offset) {
+		if (paged) {
+			return doc.getDefaultRootElement().getElementIndex(offset);
+		}
+		validate();
+		return find(offset);
+	}
+	
+	/** Gets the start offset of the given line.
+	 * @param line the line, in zero-based indexing
+	 * @return the offset of the line's first character
+	 */
+	public int getLineStartOffset(int line) {
+		if (paged) {
+			return doc.getDefaultRootElement().getElement(line)
+					.getStartOffset();
+		}
+		validate();
+		return start(line);
+	}
+	
+	/** Gets the end offset of the given line, which is the offset just
+	 * after its newline.  As with elements, the last line ends 
+	 * one past the end of the document.
+	 * @param line the line, in zero-based indexing
+	 * @return the offset following the line
+	 */
+	public int getLineEndOffset(int line) {
+		if (paged) {
+			return doc.getDefaultRootElement().getElement(line)
+					.getEndOffset();
+		}
+		validate();
+		return line + 1 < count() ? start(line + 1) : length + 1;
+	}
+	
+	/** Gets the number of visible rows, including soft-wrapped rows.
+	 * Only the rows of lines that have changed since the last count 
+	 * are recalculated.  The final line is ignored if empty.
+	 * @return the row count
+	 */
+	public int getRowCount() {
+		if (paged) return getLineCount();
+		validate();
+		int n = count();
+		if (unknownRows > 0) {
+			try {
+				for (int i = 0; i < n; i++) {
+					int p = physical(i);
+					if (rows[p] < 0) {
+						int r = countRows(i);
+						rows[p] = r;
+						knownRows += r;
+						unknownRows--;
+					}
+				}
+			} catch (BadLocationException e) {
+				// view not yet available; falls back to hard lines
+				return start(n - 1) == length ? n - 1 : n;
+			}
+		}
+		// ignores the final line if empty
+		return start(n - 1) == length ? knownRows - rows[physical(n - 1)] 
+				: knownRows;
+	}
+	
+	/** Counts the rows that the view wraps the given line into.
+	 */
+	private int countRows(int line) throws BadLocationException {
+		int offset = start(line);
+		int end = (line + 1 < count() ? start(line + 1) : length + 1) - 1;
+		int n = 0;
+		do {
+			int rowEnd = Utilities.getRowEnd(comp, offset);
+			if (rowEnd < 0) throw new BadLocationException("No view", offset);
+			offset = rowEnd + 1;
+			n++;
+		} while (offset < end);
+		return n;
+	}
+	
+}
@@ -51,6 +51,9 @@ import javax.swing.ButtonGroup;
 import javax.swing.JMenu;
 import javax.swing.Icon;
 import javax.swing.JCheckBoxMenuItem;
+import javax.swing.JLabel;
+import javax.swing.JPanel;
+import javax.swing.JTextField;
 import javax.swing.SwingUtilities;
 import javax.swing.text.StyledEditorKit;
 import java.awt.EventQueue;
@@ -60,6 +63,7 @@ import java.awt.event.ActionListener;
 import java.awt.event.KeyEvent;
 import java.awt.Toolkit;
 import java.awt.BorderLayout;
+import java.awt.GridLayout;
 import java.io.File;
 import javax.swing.KeyStroke;
 
@@ -617,6 +621,31 @@ class MenuBarCreator implements Runnable {
 						selectAllActionMnemonic, selectAllActionShortcut);
 				editMenu.add(selectAllAction);
 				popup.add(selectAllAction);
+				
+				// replace every occurrence, ignoring case, as a single edit
+				Action replaceAllAction = new AbstractAction("Replace all...") {
+					public void actionPerformed(ActionEvent evt) {
+						JTextField findFld = 
+								new JTextField(ttx.getWordFindFld().getText());
+						JTextField replaceFld = new JTextField();
+						JPanel panel = new JPanel(new GridLayout(0, 1));
+						panel.add(new JLabel("Find (ignoring case):"));
+						panel.add(findFld);
+						panel.add(new JLabel("Replace with:"));
+						panel.add(replaceFld);
+						int choice = JOptionPane.showConfirmDialog(ttx, panel,
+								"Replace all", JOptionPane.OK_CANCEL_OPTION,
+								JOptionPane.PLAIN_MESSAGE);
+						if (choice == JOptionPane.OK_OPTION) {
+							ttx.replaceAll(findFld.getText(), 
+									replaceFld.getText());
+						}
+					}
+				};
+				LibTTx.setAcceleratedAction(replaceAllAction, 
+						"Replace every occurrence as a single edit", 'E',
+						KeyStroke.getKeyStroke("ctrl shift H"));
+				editMenu.add(replaceAllAction);
 
 				// edit menu preferences separator
 				editMenu.addSeparator();
@@ -821,6 +850,17 @@ class MenuBarCreator implements Runnable {
 						KeyStroke.getKeyStroke("F5"));
 				viewMenu.add(refreshTabAction);
 				
+				// follow a growing file, such as a log
+				Action followTabAction = new AbstractAction("Follow tab") {
+					public void actionPerformed(ActionEvent evt) {
+						ttx.followTab();
+					}
+				};
+				LibTTx.setAcceleratedAction(followTabAction, 
+						"Start or stop following the file as it grows", 'O',
+						KeyStroke.getKeyStroke("shift F5"));
+				viewMenu.add(followTabAction);
+				
 				// Start pad view types
 				viewMenu.addSeparator();
 
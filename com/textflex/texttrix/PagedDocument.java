@@ -0,0 +1,743 @@
+/* ***** BEGIN LICENSE BLOCK *****
+ * Version: MPL 1.1/GPL 2.0/LGPL 2.1
+ *
+ * The contents of this file are subject to the Mozilla Public License Version
+ * 1.1 (the "License"); you may not use this file except in compliance with
+ * the License. You may obtain a copy of the License at
+ * http://www.mozilla.org/MPL/
+ *
+ * Software distributed under the License is distributed on an "AS IS" basis,
+ * WITHOUT WARRANTY OF ANY KIND, either express or implied. See the License
+ * for the specific language governing rights and limitations under the
+ * License.
+ *
+ * The Original Code is the Text Trix code.
+ *
+ * The Initial Developer of the Original Code is
+ * Text Flex.
+ * Portions created by the Initial Developer are Copyright (C) 2019
+ * the Initial Developer. All Rights Reserved.
+ *
+ * Contributor(s): David Young <david@textflex.com>
+ *
+ * Alternatively, the contents of this file may be used under the terms of
+ * either the GNU General Public License Version 2 or later (the "GPL"), or
+ * the GNU Lesser General Public License Version 2.1 or later (the "LGPL"),
+ * in which case the provisions of the GPL or the LGPL are applicable instead
+ * of those above. If you wish to allow use of your version of this file only
+ * under the terms of either the GPL or the LGPL, and not to allow others to
+ * use your version of this file under the terms of the MPL, indicate your
+ * decision by deleting the provisions above and replace them with the notice
+ * and other provisions required by the GPL or the LGPL. If you do not delete
+ * the provisions above, a recipient may use your version of this file under
+ * the terms of any one of the MPL, the GPL or the LGPL.
+ *
+ * ***** END LICENSE BLOCK ***** */
+
+
+package com.textflex.texttrix;
+
+import java.awt.Color;
+import java.awt.EventQueue;
+import java.awt.Font;
+import java.io.*;
+import java.lang.reflect.InvocationTargetException;
+import java.nio.*;
+import java.nio.channels.FileChannel;
+import java.nio.charset.*;
+import java.util.BitSet;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import javax.swing.JProgressBar;
+import javax.swing.event.DocumentEvent;
+import javax.swing.text.*;
+import javax.swing.undo.UndoableEdit;
+
+/**
+ * Read-only document that pages its text in from a file on disk.
+ * Rather than holding the entire file in a <code>GapContent</code>,
+ * the document only keeps an index of where each fixed-size page of 
+ * characters starts in the file, along with the start of each line.
+ * Pages are decoded on demand and held in a small least-recently-used 
+ * cache, so that files of several gigabytes can be viewed with a 
+ * nearly flat heap.
+ * 
+ * <p>The index is built by a background scan of the file.  Text 
+ * becomes available as the scan progresses, and each newly 
+ * scanned block is published to the document on the event dispatch 
+ * thread as an insertion at the end of the document.
+ * 
+ * <p>As with the editor kits, all end-of-line characters are 
+ * presented as "\n".  Since document offsets are integers, files
+ * with more than <code>Integer.MAX_VALUE</code> characters are 
+ * truncated.
+ */
+public class PagedDocument extends AbstractDocument implements StyledDocument {
+	
+	/** Number of characters in each page of the file. */
+	public static final int PAGE_SIZE = 64 * 1024;
+	/** Maximum number of decoded pages to hold in memory. */
+	private static final int CACHE_PAGES = 32;
+	/** Number of pages to scan before publishing them to the document. */
+	private static final int PUBLISH_PAGES = 16;
+	
+	private File file = null;
+	private PagedContent content = null;
+	private Element root = new LineRoot(); // virtual line elements
+	private int[] lineStarts = new int[1]; // published line start offsets
+	private int lineCount = 1; // published line count
+	private int longestLine = 0; // chars in the longest published line
+	private String eol = null; // end-of-line style detected in the file
+	private Scanner scanner = null;
+	private Runnable onFinished = null;
+	
+	/** Constructs a document viewing the given file.
+	 * The file is not read until {@link #start(JProgressBar)} is called.
+	 * @param aFile the file to view
+	 * @throws IOException if the file cannot be opened
+	 */
+	public PagedDocument(File aFile) throws IOException {
+		super(new PagedContent(aFile), new StyleContext());
+		file = aFile;
+		content = (PagedContent) getContent();
+	}
+	
+	/** Starts the background scan that indexes the file's pages 
+	 * and lines.
+	 * @param progress progress bar in which to display the scan's
+	 * status; can be <code>null</code>
+	 */
+	public void start(JProgressBar progress) {
+		scanner = new Scanner(progress);
+		scanner.start();
+	}
+	
+	/** Stops any scan in progress and releases the file.
+	 */
+	public void close() {
+		if (scanner != null) {
+			// the scanner closes the file once it stops
+			scanner.requestStop();
+			scanner = null;
+		} else {
+			content.close();
+		}
+	}
+	
+	/** Checks whether the background scan is still indexing the file.
+	 * @return <code>true</code> if the scan has not yet finished
+	 */
+	public boolean isScanning() {
+		return scanner != null;
+	}
+	
+	/** Sets the task to run on the event dispatch thread once the
+	 * entire file has been indexed.
+	 * @param aOnFinished the task to run
+	 */
+	public void setOnFinished(Runnable aOnFinished) {
+		onFinished = aOnFinished;
+	}
+	
+	public File getFile() { return file; }
+	
+	/** Gets the end-of-line style detected at the start of the file.
+	 * @return the end-of-line characters, or <code>null</code> if the
+	 * scan has not yet reached the first page's end
+	 */
+	public String getEOL() { return eol; }
+	
+	/** Gets the number of characters in the longest line indexed so far,
+	 * not counting its end-of-line character.
+	 * @return the character count
+	 */
+	public int getLongestLine() { return longestLine; }
+	
+	public Element getDefaultRootElement() {
+		return root;
+	}
+	
+	public Element getParagraphElement(int pos) {
+		return root.getElement(root.getElementIndex(pos));
+	}
+	
+	/** Appends a block of scanned text to the document. 
+	 * Called on the event dispatch thread.
+	 * @param pageCount total number of pages now indexed
+	 * @param pageByteStarts byte offset of each page's start
+	 * @param pageCharStarts character offset of each page's start
+	 * @param crBefore pages whose previous page ended in a carriage return
+	 * @param lines line start offsets, including the new lines
+	 * @param count total number of lines now indexed
+	 * @param longest length of the longest line indexed
+	 */
+	private void publish(int pageCount, long[] pageByteStarts, 
+			int[] pageCharStarts, BitSet crBefore, int[] lines, int count, 
+			int longest) {
+		int offset = getLength();
+		writeLock();
+		try {
+			content.setPages(pageCount, pageByteStarts, pageCharStarts, 
+					crBefore);
+			lineStarts = lines;
+			lineCount = count;
+			longestLine = longest;
+			int len = getLength() - offset;
+			if (len > 0) {
+				DefaultDocumentEvent e = new DefaultDocumentEvent(
+						offset, len, DocumentEvent.EventType.INSERT);
+				e.end();
+				fireInsertUpdate(e);
+			}
+		} finally {
+			writeUnlock();
+		}
+	}
+	
+	
+	
+	
+	/* Style methods, which are fixed for this read-only document */
+	
+	public Style addStyle(String nm, Style parent) {
+		return getStyleContext().addStyle(nm, parent);
+	}
+	
+	public void removeStyle(String nm) {
+		getStyleContext().removeStyle(nm);
+	}
+	
+	public Style getStyle(String nm) {
+		return getStyleContext().getStyle(nm);
+	}
+	
+	public void setCharacterAttributes(int offset, int length, 
+			AttributeSet s, boolean replace) {
+	}
+	
+	public void setParagraphAttributes(int offset, int length, 
+			AttributeSet s, boolean replace) {
+	}
+	
+	public void setLogicalStyle(int pos, Style s) {
+	}
+	
+	public Style getLogicalStyle(int p) {
+		return getStyle(StyleContext.DEFAULT_STYLE);
+	}
+	
+	public Element getCharacterElement(int pos) {
+		return getParagraphElement(pos);
+	}
+	
+	public Color getForeground(AttributeSet attr) {
+		return getStyleContext().getForeground(attr);
+	}
+	
+	public Color getBackground(AttributeSet attr) {
+		return getStyleContext().getBackground(attr);
+	}
+	
+	public Font getFont(AttributeSet attr) {
+		return getStyleContext().getFont(attr);
+	}
+	
+	private StyleContext getStyleContext() {
+		return (StyleContext) getAttributeContext();
+	}
+	
+	
+	
+	
+	/** Root element whose children are the document's lines.
+	 * Line elements are created on demand from the line index
+	 * rather than stored.
+	 */
+	private class LineRoot implements Element {
+		public Document getDocument() { return PagedDocument.this; }
+		public Element getParentElement() { return null; }
+		public String getName() { return SectionElementName; }
+		public AttributeSet getAttributes() { return SimpleAttributeSet.EMPTY; }
+		public int getStartOffset() { return 0; }
+		public int getEndOffset() { return getLength() + 1; }
+		public boolean isLeaf() { return false; }
+		public int getElementCount() { return lineCount; }
+		public Element getElement(int index) {
+			if (index < 0 || index >= lineCount) return null;
+			return new LineElement(index);
+		}
+		
+		/** Finds the line containing the offset by binary search of the
+		 * line index.
+		 */
+		public int getElementIndex(int offset) {
+			int low = 0;
+			int high = lineCount - 1;
+			while (low < high) {
+				int mid = (low + high + 1) >>> 1;
+				if (lineStarts[mid] <= offset) {
+					low = mid;
+				} else {
+					high = mid - 1;
+				}
+			}
+			return low;
+		}
+	}
+	
+	/** A single line of the document, from its start through its
+	 * end-of-line character.
+	 */
+	private class LineElement implements Element {
+		private int index = 0;
+		
+		public LineElement(int aIndex) {
+			index = aIndex;
+		}
+		
+		public Document getDocument() { return PagedDocument.this; }
+		public Element getParentElement() { return root; }
+		public String getName() { return ParagraphElementName; }
+		public AttributeSet getAttributes() { return SimpleAttributeSet.EMPTY; }
+		public int getStartOffset() { return lineStarts[index]; }
+		public int getEndOffset() {
+			return index + 1 < lineCount 
+					? lineStarts[index + 1] : getLength() + 1;
+		}
+		public boolean isLeaf() { return true; }
+		public int getElementCount() { return 0; }
+		public Element getElement(int i) { return null; }
+		public int getElementIndex(int offset) { return -1; }
+	}
+	
+	
+	
+	
+	/** Content that decodes pages of the file on demand.
+	 * Like <code>GapContent</code>, the content always ends with an
+	 * implied newline beyond the document's length.
+	 */
+	private static class PagedContent implements AbstractDocument.Content {
+		private FileChannel channel = null;
+		private int pageCount = 0;
+		private long[] pageByteStarts = new long[1];
+		private int[] pageCharStarts = new int[1];
+		private BitSet crBefore = new BitSet();
+		private char[] newline = new char[] { '\n' };
+		// decoded pages in least-recently-used order
+		private LinkedHashMap<Integer, char[]> cache = 
+				new LinkedHashMap<Integer, char[]>(CACHE_PAGES, 0.75f, true) {
+			protected boolean removeEldestEntry(Map.Entry<Integer, char[]> e) {
+				return size() > CACHE_PAGES;
+			}
+		};
+		
+		public PagedContent(File file) throws IOException {
+			channel = new RandomAccessFile(file, "r").getChannel();
+		}
+		
+		/** Updates the index of available pages.
+		 */
+		void setPages(int aPageCount, long[] aPageByteStarts, 
+				int[] aPageCharStarts, BitSet aCrBefore) {
+			pageCount = aPageCount;
+			pageByteStarts = aPageByteStarts;
+			pageCharStarts = aPageCharStarts;
+			crBefore = aCrBefore;
+		}
+		
+		public int length() {
+			return pageCharStarts[pageCount] + 1;
+		}
+		
+		public Position createPosition(final int offset) 
+				throws BadLocationException {
+			// text is never inserted or removed before existing text, 
+			// so positions never move
+			return new Position() {
+				public int getOffset() { return offset; }
+			};
+		}
+		
+		public UndoableEdit insertString(int where, String str) 
+				throws BadLocationException {
+			throw new BadLocationException("Read-only document", where);
+		}
+		
+		public UndoableEdit remove(int where, int nitems) 
+				throws BadLocationException {
+			throw new BadLocationException("Read-only document", where);
+		}
+		
+		public String getString(int where, int len) 
+				throws BadLocationException {
+			Segment s = new Segment();
+			getChars(where, len, s);
+			return s.toString();
+		}
+		
+		/** Gets characters from the decoded pages.  Text within
+		 * a single page is shared directly from the cached page,
+		 * while text spanning pages is copied, unless the segment
+		 * allows partial returns.
+		 */
+		public void getChars(int where, int len, Segment txt) 
+				throws BadLocationException {
+			int end = where + len;
+			if (where < 0 || len < 0 || end > length()) {
+				throw new BadLocationException("Invalid range", where);
+			}
+			int textLen = length() - 1;
+			if (len == 0) {
+				txt.array = newline;
+				txt.offset = 0;
+				txt.count = 0;
+				return;
+			}
+			int page = findPage(where);
+			if (end <= textLen && page < pageCount 
+					&& end <= pageCharStarts[page + 1]) {
+				// entirely within a single page
+				txt.array = getPage(page);
+				txt.offset = where - pageCharStarts[page];
+				txt.count = len;
+				return;
+			}
+			if (where == textLen) {
+				// only the implied trailing newline
+				txt.array = newline;
+				txt.offset = 0;
+				txt.count = 1;
+				return;
+			}
+			if (txt.isPartialReturn()) {
+				// up to the end of the first page
+				txt.array = getPage(page);
+				txt.offset = where - pageCharStarts[page];
+				txt.count = pageCharStarts[page + 1] - where;
+				return;
+			}
+			char[] chars = new char[len];
+			int i = 0;
+			int pos = where;
+			while (pos < end) {
+				if (pos == textLen) {
+					chars[i++] = '\n';
+					pos++;
+				} else {
+					page = findPage(pos);
+					int pageEnd = Math.min(end, pageCharStarts[page + 1]);
+					System.arraycopy(getPage(page), pos - pageCharStarts[page],
+							chars, i, pageEnd - pos);
+					i += pageEnd - pos;
+					pos = pageEnd;
+				}
+			}
+			txt.array = chars;
+			txt.offset = 0;
+			txt.count = len;
+		}
+		
+		/** Finds the page containing the given offset, skipping
+		 * any empty pages.
+		 */
+		private int findPage(int offset) {
+			int low = 0;
+			int high = pageCount - 1;
+			while (low < high) {
+				int mid = (low + high + 1) >>> 1;
+				if (pageCharStarts[mid] <= offset) {
+					low = mid;
+				} else {
+					high = mid - 1;
+				}
+			}
+			return low;
+		}
+		
+		/** Gets a decoded page, reading it from the file if it 
+		 * is no longer cached.  Synchronized since the search reads
+		 * the document off the event dispatch thread while it paints,
+		 * and each lookup reorders the cache.
+		 */
+		private synchronized char[] getPage(int page) {
+			Integer key = Integer.valueOf(page);
+			char[] chars = cache.get(key);
+			if (chars == null) {
+				chars = readPage(page);
+				cache.put(key, chars);
+			}
+			return chars;
+		}
+		
+		/** Reads and decodes a single page from the file.
+		 * Reading failures leave blank characters in place of the
+		 * text so that the view remains usable.
+		 */
+		private char[] readPage(int page) {
+			char[] chars = new char[pageCharStarts[page + 1] 
+					- pageCharStarts[page]];
+			long start = pageByteStarts[page];
+			ByteBuffer bytes = 
+					ByteBuffer.allocate((int) (pageByteStarts[page + 1] - start));
+			try {
+				while (bytes.hasRemaining()) {
+					if (channel.read(bytes, start + bytes.position()) < 0) break;
+				}
+			} catch (IOException e) {
+				e.printStackTrace();
+				return chars;
+			}
+			bytes.flip();
+			CharBuffer raw = CharBuffer.allocate(PAGE_SIZE);
+			CharsetDecoder decoder = newDecoder();
+			decoder.decode(bytes, raw, true);
+			decoder.flush(raw);
+			raw.flip();
+			normalizeEOLs(raw, chars, crBefore.get(page), null, 0);
+			return chars;
+		}
+		
+		/** Closes the file.
+		 */
+		synchronized void close() {
+			try {
+				channel.close();
+			} catch (IOException e) {
+			}
+			cache.clear();
+		}
+	}
+	
+	/** Creates a decoder for the file, matching the default charset 
+	 * used by <code>FileReader</code> and replacing malformed input.
+	 */
+	private static CharsetDecoder newDecoder() {
+		return Charset.defaultCharset().newDecoder()
+			.onMalformedInput(CodingErrorAction.REPLACE)
+			.onUnmappableCharacter(CodingErrorAction.REPLACE);
+	}
+	
+	/** Converts CRLF and CR end-of-line characters to LF characters.
+	 * @param raw the decoded characters, in read mode
+	 * @param out array to receive the converted characters, or 
+	 * <code>null</code> to only count them
+	 * @param pendingCR <code>true</code> if the preceding character
+	 * was a carriage return, in which case a leading LF is skipped
+	 * @param lineStartsOut receives the offset of each line start 
+	 * after a newline, or <code>null</code> to skip
+	 * @param offset document offset of the first converted character
+	 * @return the number of converted characters
+	 */
+	private static int normalizeEOLs(CharBuffer raw, char[] out, 
+			boolean pendingCR, LineSink lineStartsOut, int offset) {
+		int n = 0;
+		int len = raw.remaining();
+		for (int i = 0; i < len; i++) {
+			char c = raw.get(i);
+			if (c == '\r') {
+				c = '\n';
+				pendingCR = true;
+			} else if (c == '\n' && pendingCR) {
+				pendingCR = false;
+				continue;
+			} else {
+				pendingCR = false;
+			}
+			if (out != null) out[n] = c;
+			n++;
+			if (c == '\n' && lineStartsOut != null) {
+				lineStartsOut.lineStart(offset + n);
+			}
+		}
+		return n;
+	}
+	
+	/** Receives line start offsets while normalizing text.
+	 */
+	private interface LineSink {
+		public void lineStart(int offset);
+	}
+	
+	
+	
+	
+	/** Scans the file in the background to index its pages and lines,
+	 * publishing the index to the document as it grows.
+	 */
+	private class Scanner extends StoppableThread implements LineSink {
+		private Thread thread = null;
+		private JProgressBar progress = null;
+		// index being built; published arrays are never modified in the
+		// region already published, only replaced when grown
+		private int pages = 0;
+		private long[] byteStarts = new long[256];
+		private int[] charStarts = new int[256];
+		private BitSet crs = new BitSet();
+		private int[] lines = new int[1024];
+		private int lineTotal = 1;
+		private int longest = 0;
+		private int lastLineStart = 0;
+		private boolean pendingCR = false;
+		
+		public Scanner(JProgressBar aProgress) {
+			progress = aProgress;
+		}
+		
+		public void start() {
+			setStopped(false);
+			thread = new Thread(this, "thread");
+			thread.start();
+		}
+		
+		public void run() {
+			FileChannel channel = null;
+			try {
+				channel = new RandomAccessFile(file, "r").getChannel();
+				final long size = channel.size();
+				CharsetDecoder decoder = newDecoder();
+				ByteBuffer bytes = ByteBuffer.allocateDirect(256 * 1024);
+				CharBuffer chars = CharBuffer.allocate(PAGE_SIZE);
+				long base = 0; // file offset of the buffer's first byte
+				long readPos = 0;
+				boolean eof = false;
+				int published = 0;
+				while (!isStopped()) {
+					if (!eof) {
+						int n = channel.read(bytes, readPos);
+						if (n < 0) {
+							eof = true;
+						} else {
+							readPos += n;
+						}
+					}
+					bytes.flip();
+					while (decoder.decode(bytes, chars, eof).isOverflow()) {
+						if (!endPage(chars, base + bytes.position())) {
+							eof = true; // reached the maximum document size
+							break;
+						}
+					}
+					if (eof) {
+						decoder.flush(chars);
+						if (chars.position() > 0) endPage(chars, size);
+						break;
+					}
+					base += bytes.position();
+					bytes.compact();
+					if (pages - published >= PUBLISH_PAGES) {
+						publish(size == 0 ? 100 : (int) (base * 100 / size));
+						published = pages;
+					}
+				}
+				if (!isStopped()) publish(100);
+			} catch (IOException e) {
+				e.printStackTrace();
+			} finally {
+				try {
+					if (channel != null) channel.close();
+				} catch (IOException e) {
+				}
+			}
+			final boolean stopped = isStopped();
+			EventQueue.invokeLater(new Runnable() {
+				public void run() {
+					if (progress != null) {
+						progress.setValue(0);
+						progress.setString("");
+					}
+					if (stopped) {
+						content.close();
+						return;
+					}
+					if (scanner == Scanner.this) scanner = null;
+					if (onFinished != null) onFinished.run();
+				}
+			});
+		}
+		
+		/** Indexes a full or final page of decoded characters.
+		 * @param chars the page's characters, in write mode
+		 * @param byteEnd file offset just past the page's bytes
+		 * @return <code>false</code> if the page would exceed the
+		 * maximum document size
+		 */
+		private boolean endPage(CharBuffer chars, long byteEnd) {
+			chars.flip();
+			if (eol == null) eol = LibTTx.getEOL(chars.toString());
+			int start = charStarts[pages];
+			if ((long) start + chars.remaining() >= Integer.MAX_VALUE - 1) {
+				chars.clear();
+				return false;
+			}
+			boolean cr = pendingCR;
+			int n = normalizeEOLs(chars, null, cr, this, start);
+			int len = chars.remaining();
+			pendingCR = len > 0 ? chars.get(len - 1) == '\r' : cr;
+			chars.clear();
+			if (pages + 2 > charStarts.length) {
+				charStarts = (int[]) LibTTx.growArray(charStarts);
+				byteStarts = (long[]) LibTTx.growArray(byteStarts);
+			}
+			if (cr) crs.set(pages);
+			pages++;
+			charStarts[pages] = start + n;
+			byteStarts[pages] = byteEnd;
+			longest = Math.max(longest, charStarts[pages] - lastLineStart);
+			return true;
+		}
+		
+		/** Records the start of a line.
+		 */
+		public void lineStart(int offset) {
+			longest = Math.max(longest, offset - 1 - lastLineStart);
+			lastLineStart = offset;
+			if (lineTotal >= lines.length) {
+				lines = (int[]) LibTTx.growArray(lines);
+			}
+			lines[lineTotal++] = offset;
+		}
+		
+		/** Publishes the index built so far to the document, waiting
+		 * for the event dispatch thread to receive it.
+		 * @param percent percent of the file scanned
+		 */
+		private void publish(final int percent) {
+			final int pageCount = pages;
+			final long[] pageByteStarts = byteStarts;
+			final int[] pageCharStarts = charStarts;
+			final BitSet crBefore = (BitSet) crs.clone();
+			final int[] lineStartsPub = lines;
+			final int count = lineTotal;
+			final int longestPub = longest;
+			try {
+				EventQueue.invokeAndWait(new Runnable() {
+					public void run() {
+						if (isStopped()) return;
+						PagedDocument.this.publish(pageCount, pageByteStarts, 
+								pageCharStarts, crBefore, lineStartsPub, count,
+								longestPub);
+						if (progress != null) {
+							progress.setValue(percent);
+							progress.setString("Indexing " + percent + "%");
+						}
+					}
+				});
+			} catch (InterruptedException e) {
+				requestStop();
+			} catch (InvocationTargetException e) {
+				e.printStackTrace();
+				requestStop();
+			}
+		}
+		
+		public void requestStop() {
+			setStopped(true);
+			if (thread != null) {
+				thread.interrupt();
+				thread = null;
+			}
+		}
+	}
+	
+}
@@ -0,0 +1,241 @@
+/* ***** BEGIN LICENSE BLOCK *****
+ * Version: MPL 1.1/GPL 2.0/LGPL 2.1
+ *
+ * The contents of this file are subject to the Mozilla Public License Version
+ * 1.1 (the "License"); you may not use this file except in compliance with
+ * the License. You may obtain a copy of the License at
+ * http://www.mozilla.org/MPL/
+ *
+ * Software distributed under the License is distributed on an "AS IS" basis,
+ * WITHOUT WARRANTY OF ANY KIND, either express or implied. See the License
+ * for the specific language governing rights and limitations under the
+ * License.
+ *
+ * The Original Code is the Text Trix code.
+ *
+ * The Initial Developer of the Original Code is
+ * Text Flex.
+ * Portions created by the Initial Developer are Copyright (C) 2019
+ * the Initial Developer. All Rights Reserved.
+ *
+ * Contributor(s): David Young <david@textflex.com>
+ *
+ * Alternatively, the contents of this file may be used under the terms of
+ * either the GNU General Public License Version 2 or later (the "GPL"), or
+ * the GNU Lesser General Public License Version 2.1 or later (the "LGPL"),
+ * in which case the provisions of the GPL or the LGPL are applicable instead
+ * of those above. If you wish to allow use of your version of this file only
+ * under the terms of either the GPL or the LGPL, and not to allow others to
+ * use your version of this file under the terms of the MPL, indicate your
+ * decision by deleting the provisions above and replace them with the notice
+ * and other provisions required by the GPL or the LGPL. If you do not delete
+ * the provisions above, a recipient may use your version of this file under
+ * the terms of any one of the MPL, the GPL or the LGPL.
+ *
+ * ***** END LICENSE BLOCK ***** */
+
+
+package com.textflex.texttrix;
+
+import javax.swing.event.DocumentEvent;
+import javax.swing.text.*;
+import java.awt.*;
+
+
+/**
+ * Editor kit for viewing a {@link PagedDocument}.
+ *
+ * The styled views of <code>WrapEditorKit</code> create and lay out
+ * a view for every paragraph, which would defeat the purpose of paging
+ * a large file in from disk.  This kit instead provides a single,
+ * unwrapped view that only reads and paints the lines intersecting
+ * the clip.  Each line is assumed to be a single row of the component's
+ * font, so that locating a line is a matter of division.  Only the 
+ * first <code>MAX_LINE_CHARS</code> characters of each line are read and
+ * shown, so that a file with a single line of hundreds of megabytes
+ * doesn't need the whole line in memory for each repaint.
+ */
+public class PagedEditorKit extends StyledEditorKit {
+	/** Maximum number of characters shown for each line. */
+	private static final int MAX_LINE_CHARS = 16 * 1024;
+	
+	ViewFactory defaultFactory = new PagedViewFactory();
+	public ViewFactory getViewFactory() {
+		return defaultFactory;
+	}
+	
+	/**
+	 * View factory creating a single view for the entire document.
+	 */
+	private class PagedViewFactory implements ViewFactory {
+		public View create(Element elem) {
+			return new PagedView(elem);
+		}
+	}
+	
+	/**
+	 * View of fixed-height, unwrapped lines that draws only the
+	 * visible lines.
+	 */
+	private class PagedView extends View implements TabExpander {
+		private Segment seg = new Segment(); // reused for each line
+		private FontMetrics metrics = null;
+		private int tabBase = 0;
+		
+		public PagedView(Element elem) {
+			super(elem);
+		}
+		
+		/** Updates the font metrics from the host component.
+		 */
+		private void updateMetrics() {
+			Component host = getContainer();
+			metrics = host.getFontMetrics(host.getFont());
+		}
+		
+		/** Gets the height of each line.
+		 */
+		private int getLineHeight() {
+			if (metrics == null) updateMetrics();
+			return metrics.getHeight();
+		}
+		
+		/** Loads the shown text of the given line, excluding its 
+		 * newline, into the reused segment.
+		 */
+		private void loadLine(Element line) throws BadLocationException {
+			int start = line.getStartOffset();
+			int end = Math.min(Math.min(line.getEndOffset() - 1, 
+					getDocument().getLength()), start + MAX_LINE_CHARS);
+			getDocument().getText(start, end - start, seg);
+		}
+		
+		public float getPreferredSpan(int axis) {
+			if (metrics == null) updateMetrics();
+			switch (axis) {
+				case View.X_AXIS:
+					// estimated from the longest line, since measuring each
+					// line would require reading the entire file
+					int longest = getDocument() instanceof PagedDocument
+							? ((PagedDocument) getDocument()).getLongestLine() : 0;
+					longest = Math.min(longest, MAX_LINE_CHARS);
+					return (longest + 1) * metrics.charWidth('m');
+				case View.Y_AXIS:
+					return getElement().getElementCount() * getLineHeight();
+				default:
+					throw new IllegalArgumentException(
+						"Incorrect axis: " + axis);
+			}
+		}
+		
+		public void paint(Graphics g, Shape a) {
+			updateMetrics();
+			Rectangle alloc = a.getBounds();
+			Rectangle clip = g.getClipBounds();
+			if (clip == null) clip = alloc;
+			int height = getLineHeight();
+			Element root = getElement();
+			int first = Math.max(0, (clip.y - alloc.y) / height);
+			int last = Math.min(root.getElementCount() - 1, 
+					(clip.y + clip.height - alloc.y) / height);
+			Component host = getContainer();
+			g.setFont(host.getFont());
+			g.setColor(host.getForeground());
+			tabBase = alloc.x;
+			int y = alloc.y + first * height + metrics.getAscent();
+			for (int i = first; i <= last; i++) {
+				try {
+					Element line = root.getElement(i);
+					loadLine(line);
+					Utilities.drawTabbedText(seg, alloc.x, y, g, this, 
+							line.getStartOffset());
+				} catch (BadLocationException e) {
+					// the remaining lines are beyond the published text
+					break;
+				}
+				y += height;
+			}
+		}
+		
+		public Shape modelToView(int pos, Shape a, Position.Bias b) 
+				throws BadLocationException {
+			Document doc = getDocument();
+			if (pos < 0 || pos > doc.getLength() + 1) {
+				throw new BadLocationException("Invalid position", pos);
+			}
+			int height = getLineHeight();
+			Rectangle alloc = a.getBounds();
+			Element root = getElement();
+			int index = root.getElementIndex(pos);
+			Element line = root.getElement(index);
+			int start = line.getStartOffset();
+			// positions past the shown part of the line sit at its end
+			int end = Math.min(Math.min(pos, doc.getLength()), 
+					start + MAX_LINE_CHARS);
+			doc.getText(start, end - start, seg);
+			tabBase = alloc.x;
+			int x = alloc.x + Utilities.getTabbedTextWidth(seg, metrics, 
+					alloc.x, this, start);
+			return new Rectangle(x, alloc.y + index * height, 1, height);
+		}
+		
+		public int viewToModel(float fx, float fy, Shape a, 
+				Position.Bias[] bias) {
+			bias[0] = Position.Bias.Forward;
+			Rectangle alloc = a.getBounds();
+			Element root = getElement();
+			int y = (int) fy;
+			int x = (int) fx;
+			if (y < alloc.y) {
+				return getStartOffset();
+			}
+			int index = (y - alloc.y) / getLineHeight();
+			if (index >= root.getElementCount()) {
+				return getDocument().getLength();
+			}
+			Element line = root.getElement(index);
+			try {
+				loadLine(line);
+			} catch (BadLocationException e) {
+				return line.getStartOffset();
+			}
+			tabBase = alloc.x;
+			return line.getStartOffset() + Utilities.getTabbedTextOffset(
+					seg, metrics, alloc.x, x, this, line.getStartOffset());
+		}
+		
+		/** Gets the next tab stop, based on the document's tab size 
+		 * property and the width of a space.
+		 */
+		public float nextTabStop(float x, int tabOffset) {
+			Object size = getDocument().getProperty(
+					PlainDocument.tabSizeAttribute);
+			int tabSize = size instanceof Integer 
+					? ((Integer) size).intValue() : 8;
+			int tabWidth = tabSize * metrics.charWidth(' ');
+			if (tabWidth == 0) return x;
+			int tabs = ((int) x - tabBase) / tabWidth;
+			return tabBase + (tabs + 1) * tabWidth;
+		}
+		
+		public void insertUpdate(DocumentEvent e, Shape a, ViewFactory f) {
+			preferenceChanged(null, true, true);
+			repaintHost();
+		}
+		
+		public void removeUpdate(DocumentEvent e, Shape a, ViewFactory f) {
+			preferenceChanged(null, true, true);
+			repaintHost();
+		}
+		
+		public void changedUpdate(DocumentEvent e, Shape a, ViewFactory f) {
+			repaintHost();
+		}
+		
+		private void repaintHost() {
+			Component host = getContainer();
+			if (host != null) host.repaint();
+		}
+		
+	}
+}
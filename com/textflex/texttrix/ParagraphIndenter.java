@@ -0,0 +1,269 @@
+/* ***** BEGIN LICENSE BLOCK *****
+ * Version: MPL 1.1/GPL 2.0/LGPL 2.1
+ *
+ * The contents of this file are subject to the Mozilla Public License Version
+ * 1.1 (the "License"); you may not use this file except in compliance with
+ * the License. You may obtain a copy of the License at
+ * http://www.mozilla.org/MPL/
+ *
+ * Software distributed under the License is distributed on an "AS IS" basis,
+ * WITHOUT WARRANTY OF ANY KIND, either express or implied. See the License
+ * for the specific language governing rights and limitations under the
+ * License.
+ *
+ * The Original Code is the Text Trix code.
+ *
+ * The Initial Developer of the Original Code is
+ * Text Flex.
+ * Portions created by the Initial Developer are Copyright (C) 2019
+ * the Initial Developer. All Rights Reserved.
+ *
+ * Contributor(s): David Young <david@textflex.com>
+ *
+ * Alternatively, the contents of this file may be used under the terms of
+ * either the GNU General Public License Version 2 or later (the "GPL"), or
+ * the GNU Lesser General Public License Version 2.1 or later (the "LGPL"),
+ * in which case the provisions of the GPL or the LGPL are applicable instead
+ * of those above. If you wish to allow use of your version of this file only
+ * under the terms of either the GPL or the LGPL, and not to allow others to
+ * use your version of this file under the terms of the MPL, indicate your
+ * decision by deleting the provisions above and replace them with the notice
+ * and other provisions required by the GPL or the LGPL. If you do not delete
+ * the provisions above, a recipient may use your version of this file under
+ * the terms of any one of the MPL, the GPL or the LGPL.
+ *
+ * ***** END LICENSE BLOCK ***** */
+
+
+package com.textflex.texttrix;
+
+import java.util.*;
+import javax.swing.event.*;
+import javax.swing.text.*;
+
+/** Applies the paragraph attributes that display tabs for wrap-indent.
+ * In wrap-indent mode, each paragraph is indented graphically by its 
+ * number of leading tabs, so that word-wrapped lines align with the first
+ * line, and the tabs themselves take up no space.  The indenter keeps one
+ * shared attribute set for each indentation level and applies the sets
+ * for a whole region at once, rather than building new attributes and 
+ * locking the document for every paragraph.
+ * 
+ * <p>Documents that implement <code>BatchStyledDocument</code> receive all
+ * the paragraphs in a single write-locked pass with one change event.  
+ * Other styled documents receive one call for each run of paragraphs 
+ * at the same level.
+ */
+public class ParagraphIndenter {
+	
+	private static final int TAB_STOPS = 30; // enough to fit default frame
+	
+	private int charWidth = -1; // width of a space in pixels
+	private int tabChars = -1; // number of spaces that each tab represents
+	// attributes for each indentation level, created as needed
+	private ArrayList<AttributeSet> indents = new ArrayList<AttributeSet>();
+	private AttributeSet noTabs = null; // tabs that take no space
+	private AttributeSet defaultTabs = null; // regular tabs without indents
+	private Segment seg = new Segment(); // reused to scan leading tabs
+	
+	/** Constructs an indenter, which must be given the tab size before
+	 * use.
+	 * @see #setTabSize(int, int)
+	 */
+	public ParagraphIndenter() {
+	}
+	
+	/** Sets the size of each tab, discarding the cached attributes if 
+	 * the size has changed.
+	 * @param aCharWidth width of a space in the pad's font, in pixels
+	 * @param aTabChars number of spaces that each tab represents
+	 */
+	public void setTabSize(int aCharWidth, int aTabChars) {
+		if (aCharWidth == charWidth && aTabChars == tabChars) return;
+		charWidth = aCharWidth;
+		tabChars = aTabChars;
+		indents.clear();
+		noTabs = null;
+		defaultTabs = null;
+	}
+	
+	/** Gets the attributes that shrink the displayed tabs to nothing, 
+	 * leaving paragraph indents to represent them.
+	 * Provides a whole array of tab stops at negative positions, many 
+	 * tabs deep, into which the first line of a paragraph can be pulled
+	 * back by a negative first-line indent.
+	 * @return the shared attributes
+	 */
+	public AttributeSet getNoTabsAttributes() {
+		if (noTabs == null) {
+			int tabWidth = charWidth * tabChars;
+			TabStop[] tabs = new TabStop[TAB_STOPS];
+			for (int i = 0; i < tabs.length; i++) {
+				tabs[i] = new TabStop(i * tabWidth * -1);
+			}
+			SimpleAttributeSet attribs = new SimpleAttributeSet();
+			StyleConstants.setTabSet(attribs, new TabSet(tabs));
+			noTabs = attribs;
+		}
+		return noTabs;
+	}
+	
+	/** Gets the attributes that display regular tabs and remove any
+	 * indents.
+	 * @return the shared attributes
+	 */
+	public AttributeSet getDefaultAttributes() {
+		if (defaultTabs == null) {
+			int tabWidth = charWidth * tabChars;
+			TabStop[] tabs = new TabStop[TAB_STOPS];
+			for (int i = 0; i < tabs.length; i++) {
+				tabs[i] = new TabStop((i + 1) * tabWidth);
+			}
+			SimpleAttributeSet attribs = new SimpleAttributeSet();
+			StyleConstants.setTabSet(attribs, new TabSet(tabs));
+			StyleConstants.setLeftIndent(attribs, 0);
+			StyleConstants.setFirstLineIndent(attribs, 0);
+			defaultTabs = attribs;
+		}
+		return defaultTabs;
+	}
+	
+	/** Gets the attributes that wrap-indent a paragraph by a given number 
+	 * of tabs.
+	 * The attributes include the tab stops from 
+	 * <code>getNoTabsAttributes()</code>, so that one set fully styles the
+	 * paragraph.
+	 * @param tabs number of tabs at the head of the paragraph
+	 * @return the shared attributes for the level
+	 */
+	public AttributeSet getIndentAttributes(int tabs) {
+		while (indents.size() <= tabs) {
+			indents.add(null);
+		}
+		AttributeSet attribs = indents.get(tabs);
+		if (attribs == null) {
+			SimpleAttributeSet indent = new SimpleAttributeSet(
+					getNoTabsAttributes());
+			StyleConstants.setLeftIndent(indent, tabs * charWidth * tabChars);
+			// merely extends the negative indentation area for the first 
+			// line, into which the negative tab stops drag its text
+			StyleConstants.setFirstLineIndent(indent, tabs * charWidth * -1.7f);
+			indents.set(tabs, indent);
+			attribs = indent;
+		}
+		return attribs;
+	}
+	
+	/** Wrap-indents each paragraph in a region according to its leading
+	 * tabs.
+	 * @param doc the document to indent
+	 * @param start a position in the first paragraph to indent
+	 * @param end the first position after the region; the paragraph 
+	 * containing the preceding position is the last one indented
+	 * @throws BadLocationException if the region is outside the document
+	 */
+	public void indent(StyledDocument doc, int start, int end) 
+			throws BadLocationException {
+		Element root = doc.getDefaultRootElement();
+		int first = root.getElementIndex(start);
+		int last = root.getElementIndex(Math.max(end - 1, start));
+		AttributeSet[] attribs = new AttributeSet[last - first + 1];
+		for (int i = 0; i < attribs.length; i++) {
+			int offset = root.getElement(first + i).getStartOffset();
+			attribs[i] = getIndentAttributes(countTabs(doc, offset));
+		}
+		setParagraphAttributes(
+				doc, root.getElement(first).getStartOffset(), attribs);
+	}
+	
+	/** Counts the tabs among the whitespace at the head of a paragraph.
+	 * @param doc the document to scan
+	 * @param offset the start of the paragraph
+	 * @return number of tabs
+	 * @throws BadLocationException if the position is outside the document
+	 */
+	private int countTabs(Document doc, int offset) 
+			throws BadLocationException {
+		int n = LibTTx.getLeadingWhitespace(doc, offset, seg);
+		int tabs = 0;
+		for (int i = seg.offset; i < seg.offset + n; i++) {
+			if (seg.array[i] == '\t') tabs++;
+		}
+		return tabs;
+	}
+	
+	/** Adds attributes to consecutive paragraphs, in a single pass if the
+	 * document supports it.
+	 * @param doc the document to style
+	 * @param offset a position in the first paragraph
+	 * @param attribs the attributes for each paragraph in turn
+	 */
+	public void setParagraphAttributes(StyledDocument doc, int offset, 
+			AttributeSet[] attribs) {
+		if (doc instanceof BatchStyledDocument) {
+			((BatchStyledDocument) doc).setParagraphAttributes(offset, attribs);
+			return;
+		}
+		// applies each run of paragraphs that share attributes together
+		Element root = doc.getDefaultRootElement();
+		int first = root.getElementIndex(offset);
+		int i = 0;
+		while (i < attribs.length) {
+			int j = i + 1;
+			while (j < attribs.length && attribs[j] == attribs[i]) j++;
+			int start = root.getElement(first + i).getStartOffset();
+			int end = root.getElement(first + j - 1).getEndOffset();
+			doc.setParagraphAttributes(start, end - start, attribs[i], false);
+			i = j;
+		}
+	}
+	
+	/** Adds attributes to consecutive paragraphs of a document whose write
+	 * lock the caller already holds.
+	 * For use by <code>BatchStyledDocument</code> implementations, which 
+	 * must fire the returned event before releasing the lock.
+	 * @param doc the document to style
+	 * @param offset a position in the first paragraph
+	 * @param attribs the attributes for each paragraph in turn
+	 * @return the event describing the changes, or <code>null</code> if 
+	 * every paragraph already had its attributes
+	 */
+	public static AbstractDocument.DefaultDocumentEvent addParagraphAttributes(
+			AbstractDocument doc, int offset, AttributeSet[] attribs) {
+		Element root = doc.getDefaultRootElement();
+		int first = root.getElementIndex(offset);
+		int count = Math.min(attribs.length, root.getElementCount() - first);
+		
+		// finds the range of paragraphs that need to change
+		int from = -1;
+		int to = -1;
+		for (int i = 0; i < count; i++) {
+			if (attribs[i] != null && !root.getElement(first + i)
+					.getAttributes().containsAttributes(attribs[i])) {
+				if (from == -1) from = i;
+				to = i;
+			}
+		}
+		if (from == -1) return null;
+		
+		int start = root.getElement(first + from).getStartOffset();
+		int end = root.getElement(first + to).getEndOffset();
+		AbstractDocument.DefaultDocumentEvent changes = 
+				doc.new DefaultDocumentEvent(start, end - start, 
+						DocumentEvent.EventType.CHANGE);
+		for (int i = from; i <= to; i++) {
+			Element para = root.getElement(first + i);
+			AttributeSet attribSet = attribs[i];
+			if (attribSet == null 
+					|| para.getAttributes().containsAttributes(attribSet)) {
+				continue;
+			}
+			changes.addEdit(new DefaultStyledDocument.AttributeUndoableEdit(
+					para, attribSet, false));
+			((MutableAttributeSet) para.getAttributes())
+					.addAttributes(attribSet);
+		}
+		changes.end();
+		return changes;
+	}
+}
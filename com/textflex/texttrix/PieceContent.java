@@ -0,0 +1,726 @@
+/* ***** BEGIN LICENSE BLOCK *****
+ * Version: MPL 1.1/GPL 2.0/LGPL 2.1
+ *
+ * The contents of this file are subject to the Mozilla Public License Version
+ * 1.1 (the "License"); you may not use this file except in compliance with
+ * the License. You may obtain a copy of the License at
+ * http://www.mozilla.org/MPL/
+ *
+ * Software distributed under the License is distributed on an "AS IS" basis,
+ * WITHOUT WARRANTY OF ANY KIND, either express or implied. See the License
+ * for the specific language governing rights and limitations under the
+ * License.
+ *
+ * The Original Code is the Text Trix code.
+ *
+ * The Initial Developer of the Original Code is
+ * Text Flex.
+ * Portions created by the Initial Developer are Copyright (C) 2019
+ * the Initial Developer. All Rights Reserved.
+ *
+ * Contributor(s): David Young <david@textflex.com>
+ *
+ * Alternatively, the contents of this file may be used under the terms of
+ * either the GNU General Public License Version 2 or later (the "GPL"), or
+ * the GNU Lesser General Public License Version 2.1 or later (the "LGPL"),
+ * in which case the provisions of the GPL or the LGPL are applicable instead
+ * of those above. If you wish to allow use of your version of this file only
+ * under the terms of either the GPL or the LGPL, and not to allow others to
+ * use your version of this file under the terms of the MPL, indicate your
+ * decision by deleting the provisions above and replace them with the notice
+ * and other provisions required by the GPL or the LGPL. If you do not delete
+ * the provisions above, a recipient may use your version of this file under
+ * the terms of any one of the MPL, the GPL or the LGPL.
+ *
+ * ***** END LICENSE BLOCK ***** */
+
+
+
+package com.textflex.texttrix;
+
+import java.lang.ref.*;
+import java.util.*;
+import javax.swing.text.*;
+import javax.swing.undo.*;
+
+/** Document content stored as a piece table rather than a single 
+ * gapped array.
+ * 
+ * <p>The text is a balanced tree of pieces, each piece a slice of an 
+ * array that is never written to again once the piece refers to it. 
+ * Inserts and removals only split and rejoin the tree along one path, 
+ * so they take logarithmic time however large the document, and the 
+ * tree at any moment can be kept as a {@link Snapshot} that stays 
+ * unchanged while the document carries on being edited. Background 
+ * tasks such as saving read a snapshot without holding the document 
+ * lock.
+ * 
+ * <p>Positions follow the same rules as <code>GapContent</code>'s: 
+ * they are kept in order by an index that only needs adjusting for 
+ * the positions between the previous edit and the current one.
+ */
+public class PieceContent implements AbstractDocument.Content {
+	
+	/* Size of each array that small inserts are appended to */
+	private static final int ADD_BUFFER = 64 * 1024;
+	/* Inserts up to this length are copied into the append buffer */
+	private static final int ADD_LIMIT = 1024;
+	
+	private Piece root = null; // the text tree
+	private char[] addBuf = null; // the current append buffer
+	private int addLen = 0; // chars used in the append buffer
+	private Random random = new Random();
+	
+	/* Positions, in index order.  Indices below markGapEnd are offsets;
+	 * indices above it are offsets plus the mark gap's length, so that
+	 * an edit only needs to move the marks between it and the previous
+	 * edit.
+	 */
+	private ArrayList<Mark> marks = new ArrayList<Mark>();
+	private long markGapStart = 0;
+	private long markGapEnd = Long.MAX_VALUE / 4;
+	private ReferenceQueue<StickyPosition> queue = 
+			new ReferenceQueue<StickyPosition>();
+	private int unusedMarks = 0;
+	private Mark search = new Mark(null, 0, null);
+	
+	/** Constructs an empty content, holding only the newline that 
+	 * every document ends with.
+	 */
+	public PieceContent() {
+		try {
+			insertString(0, "\n");
+		} catch (BadLocationException e) {
+			// the empty content always accepts an insert at 0
+		}
+	}
+	
+	/** Gets the length of the content, including the final newline.
+	 * @return the number of characters
+	 */
+	public synchronized int length() {
+		return Piece.length(root);
+	}
+	
+	/** Inserts a string.
+	 * @param where the offset to insert at
+	 * @param str the string to insert
+	 * @return an edit to undo the insertion
+	 * @throws BadLocationException if <code>where</code> is out of range
+	 */
+	public synchronized UndoableEdit insertString(int where, String str) 
+			throws BadLocationException {
+		if (where > length() || where < 0) {
+			throw new BadLocationException("Invalid insert", length());
+		}
+		int n = str.length();
+		if (n == 0) return new InsertUndo(where, 0);
+		Piece[] parts = Piece.split(root, where);
+		Piece left = parts[0];
+		if (n <= ADD_LIMIT && left != null && canExtend(left, n)) {
+			// continue the piece just typed into
+			str.getChars(0, n, addBuf, addLen);
+			addLen += n;
+			left = Piece.extendLast(left, n);
+		} else {
+			left = Piece.merge(left, newPiece(str));
+		}
+		root = Piece.merge(left, parts[1]);
+		insertMarks(where, n);
+		return new InsertUndo(where, n);
+	}
+	
+	/** Removes a range of characters.
+	 * @param where the offset of the first character to remove
+	 * @param nitems the number of characters to remove
+	 * @return an edit to undo the removal
+	 * @throws BadLocationException if the range includes the final 
+	 * newline or lies outside the content
+	 */
+	public synchronized UndoableEdit remove(int where, int nitems) 
+			throws BadLocationException {
+		if (where + nitems >= length()) {
+			throw new BadLocationException("Invalid remove", length() + 1);
+		}
+		RemoveUndo edit = new RemoveUndo(where, nitems);
+		edit.removed = cut(where, nitems);
+		return edit;
+	}
+	
+	/** Gets a string from the content.
+	 * @param where the starting offset
+	 * @param len the number of characters
+	 * @return the string
+	 * @throws BadLocationException if the range lies outside the content
+	 */
+	public String getString(int where, int len) throws BadLocationException {
+		Segment s = new Segment();
+		getChars(where, len, s);
+		return new String(s.array, s.offset, s.count);
+	}
+	
+	/** Gets a range of characters.  The segment refers straight to the 
+	 * stored array when the range lies within a single piece; otherwise 
+	 * the characters are copied, or only those within the first piece 
+	 * are given if the segment allows a partial return.
+	 * @param where the starting offset
+	 * @param len the number of characters
+	 * @param chars the segment to fill in
+	 * @throws BadLocationException if the range lies outside the content
+	 */
+	public synchronized void getChars(int where, int len, Segment chars) 
+			throws BadLocationException {
+		getChars(root, where, len, chars);
+	}
+	
+	/** Creates a position that moves along with edits to the content.
+	 * @param offset the offset to track
+	 * @return the position
+	 * @throws BadLocationException if the offset lies outside the content
+	 */
+	public synchronized Position createPosition(int offset) 
+			throws BadLocationException {
+		while (queue.poll() != null) {
+			unusedMarks++;
+		}
+		if (unusedMarks > Math.max(5, marks.size() / 10)) {
+			removeUnusedMarks();
+		}
+		// shares the position of any mark at the index, picking the same
+		// one as GapContent's binary search among several
+		search.index = toIndex(offset);
+		int i = Collections.binarySearch(marks, search);
+		if (i >= 0) {
+			StickyPosition pos = marks.get(i).get();
+			if (pos != null) return pos;
+		} else {
+			i = -i - 1;
+		}
+		long index = search.index;
+		StickyPosition pos = new StickyPosition();
+		Mark m = new Mark(pos, index, queue);
+		pos.mark = m;
+		marks.add(i, m);
+		return pos;
+	}
+	
+	/** Takes a snapshot of the content as it stands.  The snapshot 
+	 * shares the stored text rather than copying it, so taking one is 
+	 * cheap, and it remains unchanged by later edits.
+	 * @return the snapshot
+	 */
+	public synchronized Snapshot getSnapshot() {
+		return new Snapshot(root);
+	}
+	
+	
+	
+	
+	/* Text */
+	
+	/* Whether the last piece of the tree ends where the append buffer
+	 * ends, with room left to extend it.
+	 */
+	private boolean canExtend(Piece t, int n) {
+		while (t.right != null) t = t.right;
+		return t.array == addBuf && t.offset + t.count == addLen
+				&& addLen + n <= addBuf.length;
+	}
+	
+	/* Creates a piece holding the given string, starting a new 
+	 * append buffer for short strings when the old one is full.
+	 */
+	private Piece newPiece(String str) {
+		int n = str.length();
+		if (n > ADD_LIMIT) {
+			return new Piece(str.toCharArray(), 0, n, random.nextInt(), 
+					null, null);
+		}
+		if (addBuf == null || addLen + n > addBuf.length) {
+			addBuf = new char[ADD_BUFFER];
+			addLen = 0;
+		}
+		str.getChars(0, n, addBuf, addLen);
+		Piece p = new Piece(addBuf, addLen, n, random.nextInt(), null, null);
+		addLen += n;
+		return p;
+	}
+	
+	/* Removes a range from the tree, moving the marks within it to its 
+	 * start, and returns the removed pieces.
+	 */
+	private Piece cut(int where, int n) {
+		Piece[] parts = Piece.split(root, where);
+		Piece[] rest = Piece.split(parts[1], n);
+		root = Piece.merge(parts[0], rest[1]);
+		removeMarks(where, n);
+		return rest[0];
+	}
+	
+	/* Puts back removed pieces and moves the marks after them along.
+	 */
+	private void paste(int where, Piece pieces) {
+		Piece[] parts = Piece.split(root, where);
+		root = Piece.merge(Piece.merge(parts[0], pieces), parts[1]);
+		insertMarks(where, Piece.length(pieces));
+	}
+	
+	/* Fills in a segment from the given tree.
+	 */
+	private static void getChars(Piece root, int where, int len, 
+			Segment chars) throws BadLocationException {
+		int end = where + len;
+		if (where < 0 || end < 0) {
+			throw new BadLocationException("Invalid location", -1);
+		}
+		int length = Piece.length(root);
+		if (end > length || where > length) {
+			throw new BadLocationException("Invalid location", length + 1);
+		}
+		// find the piece holding the start of the range
+		Piece t = root;
+		int offset = where;
+		while (t != null) {
+			int leftLen = Piece.length(t.left);
+			if (offset < leftLen) {
+				t = t.left;
+			} else if (offset < leftLen + t.count || t.right == null) {
+				offset -= leftLen;
+				break;
+			} else {
+				offset -= leftLen + t.count;
+				t = t.right;
+			}
+		}
+		if (t == null || offset + len <= t.count) {
+			// within a single piece, or nothing at all
+			chars.array = t == null ? new char[0] : t.array;
+			chars.offset = t == null ? 0 : t.offset + offset;
+			chars.count = len;
+		} else if (chars.isPartialReturn()) {
+			chars.array = t.array;
+			chars.offset = t.offset + offset;
+			chars.count = t.count - offset;
+		} else {
+			char[] copy = new char[len];
+			Piece.copyChars(root, where, len, copy, 0);
+			chars.array = copy;
+			chars.offset = 0;
+			chars.count = len;
+		}
+	}
+	
+	
+	
+	
+	/* Positions */
+	
+	/* Converts an offset to a mark index for the current mark gap.
+	 */
+	private long toIndex(int offset) {
+		return offset < markGapStart ? offset 
+				: offset + (markGapEnd - markGapStart);
+	}
+	
+	/* Converts a mark index to an offset.
+	 */
+	private int toOffset(long index) {
+		return (int) (index < markGapEnd ? index 
+				: index - (markGapEnd - markGapStart));
+	}
+	
+	/* Finds the first mark whose index is at least the given one.
+	 */
+	private int findMark(long index) {
+		search.index = index;
+		int i = Collections.binarySearch(marks, search);
+		if (i < 0) return -i - 1;
+		while (i > 0 && marks.get(i - 1).index == index) i--;
+		return i;
+	}
+	
+	/* Moves the mark gap to the given offset, moving the indices of the
+	 * marks it passes over.  Marks at the offset itself end up after 
+	 * the gap.
+	 */
+	private void moveMarkGap(int offset) {
+		long gap = markGapEnd - markGapStart;
+		if (offset < markGapStart) {
+			int end = findMark(markGapStart);
+			for (int i = findMark(offset); i < end; i++) {
+				marks.get(i).index += gap;
+			}
+		} else if (offset > markGapStart) {
+			int end = findMark(offset + gap);
+			for (int i = findMark(markGapEnd); i < end; i++) {
+				marks.get(i).index -= gap;
+			}
+		}
+		markGapStart = offset;
+		markGapEnd = offset + gap;
+		resetMarksAtZero();
+	}
+	
+	/* Moves marks along for an insertion.  Marks at the insertion point
+	 * move with the text after it, except at the start of the content,
+	 * where they stay put.
+	 */
+	private void insertMarks(int where, int n) {
+		moveMarkGap(where);
+		markGapStart += n;
+	}
+	
+	/* Moves the marks within a removed range to its start.
+	 */
+	private void removeMarks(int where, int n) {
+		moveMarkGap(where);
+		long newEnd = markGapEnd + n;
+		int end = findMark(newEnd);
+		for (int i = findMark(markGapEnd); i < end; i++) {
+			marks.get(i).index = newEnd;
+		}
+		markGapEnd = newEnd;
+		resetMarksAtZero();
+	}
+	
+	/* Moves the marks at the start of the content before the mark gap 
+	 * whenever the gap is at the start, as GapContent does, so that 
+	 * they stay put for insertions there.  Positions created at the 
+	 * start while the gap is there fall after the gap until the next 
+	 * edit and so are kept apart from the older marks, which an undo 
+	 * or redo may move back to other offsets.
+	 */
+	private void resetMarksAtZero() {
+		if (markGapStart != 0) return;
+		for (int i = 0; i < marks.size() && marks.get(i).index <= markGapEnd; 
+				i++) {
+			marks.get(i).index = 0;
+		}
+	}
+	
+	/* Gets the live marks in a range along with their offsets.
+	 */
+	private Object[] getMarksInRange(int offset, int len) {
+		int start = offset == 0 ? 0 : findMark(toIndex(offset));
+		int end = findMark(toIndex(offset + len) + 1);
+		ArrayList<Mark> found = new ArrayList<Mark>();
+		for (int i = start; i < end; i++) {
+			Mark m = marks.get(i);
+			if (m.get() != null) found.add(m);
+		}
+		int[] offsets = new int[found.size()];
+		for (int i = 0; i < offsets.length; i++) {
+			offsets[i] = toOffset(found.get(i).index);
+		}
+		return new Object[] { found.toArray(new Mark[found.size()]), offsets };
+	}
+	
+	/* Puts marks recorded by getMarksInRange back at their old offsets
+	 * after the range has been reinserted.
+	 */
+	private void restoreMarks(Object[] recorded, int offset, int len) {
+		Mark[] found = (Mark[]) recorded[0];
+		int[] offsets = (int[]) recorded[1];
+		if (found.length == 0) return;
+		// the marks are all between the start of the range and the gap
+		int start = findMark(offset);
+		int end = findMark(markGapEnd + 1);
+		for (int i = 0; i < found.length; i++) {
+			found[i].index = toIndex(offsets[i]);
+		}
+		Collections.sort(marks.subList(start, end));
+	}
+	
+	/* Drops marks whose positions are no longer in use.
+	 */
+	private void removeUnusedMarks() {
+		ArrayList<Mark> live = new ArrayList<Mark>(marks.size());
+		for (Mark m : marks) {
+			if (m.get() != null) live.add(m);
+		}
+		marks = live;
+		unusedMarks = 0;
+	}
+	
+	
+	
+	
+	/** A piece of text, as a node of a treap whose in-order traversal
+	 * gives the content.  Pieces are immutable, so edits copy the path 
+	 * they change and trees can be shared among snapshots.
+	 */
+	private static class Piece {
+		private final char[] array;
+		private final int offset;
+		private final int count;
+		private final int priority;
+		private final Piece left;
+		private final Piece right;
+		private final int length; // chars in this subtree
+		
+		private Piece(char[] array, int offset, int count, int priority, 
+				Piece left, Piece right) {
+			this.array = array;
+			this.offset = offset;
+			this.count = count;
+			this.priority = priority;
+			this.left = left;
+			this.right = right;
+			length = length(left) + count + length(right);
+		}
+		
+		/* Copies this piece with new children. */
+		private Piece with(Piece left, Piece right) {
+			return new Piece(array, offset, count, priority, left, right);
+		}
+		
+		private static int length(Piece t) {
+			return t == null ? 0 : t.length;
+		}
+		
+		/* Splits a tree into the characters before and after an offset.
+		 */
+		private static Piece[] split(Piece t, int pos) {
+			if (t == null || pos <= 0) return new Piece[] { null, t };
+			if (pos >= t.length) return new Piece[] { t, null };
+			int leftLen = length(t.left);
+			if (pos <= leftLen) {
+				Piece[] parts = split(t.left, pos);
+				parts[1] = t.with(parts[1], t.right);
+				return parts;
+			}
+			int rightStart = leftLen + t.count;
+			if (pos >= rightStart) {
+				Piece[] parts = split(t.right, pos - rightStart);
+				parts[0] = t.with(t.left, parts[0]);
+				return parts;
+			}
+			// the offset falls within this piece
+			int k = pos - leftLen;
+			return new Piece[] {
+				new Piece(t.array, t.offset, k, t.priority, t.left, null),
+				new Piece(t.array, t.offset + k, t.count - k, t.priority, 
+						null, t.right)
+			};
+		}
+		
+		/* Joins two trees, all of whose characters in the first come 
+		 * before those in the second.
+		 */
+		private static Piece merge(Piece a, Piece b) {
+			if (a == null) return b;
+			if (b == null) return a;
+			if (a.priority > b.priority) {
+				return a.with(a.left, merge(a.right, b));
+			}
+			return b.with(merge(a, b.left), b.right);
+		}
+		
+		/* Lengthens the last piece of a tree by n characters.
+		 */
+		private static Piece extendLast(Piece t, int n) {
+			if (t.right == null) {
+				return new Piece(t.array, t.offset, t.count + n, t.priority, 
+						t.left, null);
+			}
+			return t.with(t.left, extendLast(t.right, n));
+		}
+		
+		/* Copies a range of a tree into an array.
+		 */
+		private static void copyChars(Piece t, int where, int len, 
+				char[] dest, int destPos) {
+			while (t != null && len > 0) {
+				int leftLen = length(t.left);
+				if (where < leftLen) {
+					int n = Math.min(len, leftLen - where);
+					copyChars(t.left, where, n, dest, destPos);
+					where += n;
+					len -= n;
+					destPos += n;
+				}
+				if (len <= 0) return;
+				int inPiece = where - leftLen;
+				if (inPiece < t.count) {
+					int n = Math.min(len, t.count - inPiece);
+					System.arraycopy(t.array, t.offset + inPiece, dest, destPos, n);
+					where += n;
+					len -= n;
+					destPos += n;
+				}
+				where -= leftLen + t.count;
+				t = t.right;
+			}
+		}
+	}
+	
+	/** A record of a position, ordered by its index.
+	 */
+	private static class Mark extends WeakReference<StickyPosition> 
+			implements Comparable<Mark> {
+		private long index;
+		
+		private Mark(StickyPosition pos, long index, 
+				ReferenceQueue<StickyPosition> queue) {
+			super(pos, queue);
+			this.index = index;
+		}
+		
+		public int compareTo(Mark m) {
+			return index < m.index ? -1 : (index == m.index ? 0 : 1);
+		}
+	}
+	
+	/** A position handed out to the document, which keeps its mark 
+	 * alive.
+	 */
+	private class StickyPosition implements Position {
+		private Mark mark = null;
+		
+		public int getOffset() {
+			synchronized (PieceContent.this) {
+				return toOffset(mark.index);
+			}
+		}
+		
+		public String toString() {
+			return Integer.toString(getOffset());
+		}
+	}
+	
+	/** Undoes an insertion by taking its pieces back out.
+	 */
+	private class InsertUndo extends AbstractUndoableEdit {
+		private int offset;
+		private int length;
+		private Piece removed = null; // the text, after an undo
+		private Object[] recorded = null; // positions within it
+		
+		private InsertUndo(int offset, int length) {
+			this.offset = offset;
+			this.length = length;
+		}
+		
+		public void undo() throws CannotUndoException {
+			super.undo();
+			synchronized (PieceContent.this) {
+				recorded = getMarksInRange(offset, length);
+				removed = cut(offset, length);
+			}
+		}
+		
+		public void redo() throws CannotRedoException {
+			super.redo();
+			synchronized (PieceContent.this) {
+				paste(offset, removed);
+				restoreMarks(recorded, offset, length);
+				removed = null;
+				recorded = null;
+			}
+		}
+	}
+	
+	/** Undoes a removal by putting its pieces back.
+	 */
+	private class RemoveUndo extends AbstractUndoableEdit {
+		private int offset;
+		private int length;
+		private Piece removed = null; // the text, until a redo
+		private Object[] recorded = null; // positions within it
+		
+		private RemoveUndo(int offset, int length) {
+			this.offset = offset;
+			this.length = length;
+			recorded = getMarksInRange(offset, length);
+		}
+		
+		public void undo() throws CannotUndoException {
+			super.undo();
+			synchronized (PieceContent.this) {
+				paste(offset, removed);
+				restoreMarks(recorded, offset, length);
+				removed = null;
+				recorded = null;
+			}
+		}
+		
+		public void redo() throws CannotRedoException {
+			super.redo();
+			synchronized (PieceContent.this) {
+				recorded = getMarksInRange(offset, length);
+				removed = cut(offset, length);
+			}
+		}
+	}
+	
+	/** An unchanging view of the content at one moment, readable from
+	 * any thread.  The view leaves out the final newline that the 
+	 * document adds, so it reads the same as the document's own text.
+	 */
+	public static class Snapshot implements CharSequence {
+		private final Piece root;
+		private final int length;
+		
+		private Snapshot(Piece root) {
+			this.root = root;
+			length = Math.max(0, Piece.length(root) - 1);
+		}
+		
+		/** Gets the number of characters in the snapshot.
+		 * @return the length, not counting the final newline
+		 */
+		public int length() {
+			return length;
+		}
+		
+		/** Gets a range of characters, given straight from the stored 
+		 * text where they lie within a single piece, as in 
+		 * {@link PieceContent#getChars(int, int, Segment)}.
+		 * @param where the starting offset
+		 * @param len the number of characters
+		 * @param chars the segment to fill in
+		 * @throws BadLocationException if the range lies outside the 
+		 * snapshot
+		 */
+		public void getChars(int where, int len, Segment chars) 
+				throws BadLocationException {
+			if (where + len > length) {
+				throw new BadLocationException("Invalid location", length + 1);
+			}
+			PieceContent.getChars(root, where, len, chars);
+		}
+		
+		public char charAt(int index) {
+			if (index < 0 || index >= length) {
+				throw new IndexOutOfBoundsException("" + index);
+			}
+			Piece t = root;
+			while (true) {
+				int leftLen = Piece.length(t.left);
+				if (index < leftLen) {
+					t = t.left;
+				} else if (index < leftLen + t.count) {
+					return t.array[t.offset + index - leftLen];
+				} else {
+					index -= leftLen + t.count;
+					t = t.right;
+				}
+			}
+		}
+		
+		public CharSequence subSequence(int start, int end) {
+			if (start < 0 || end > length || start > end) {
+				throw new IndexOutOfBoundsException(start + ", " + end);
+			}
+			char[] chars = new char[end - start];
+			Piece.copyChars(root, start, end - start, chars, 0);
+			return new String(chars);
+		}
+		
+		public String toString() {
+			char[] chars = new char[length];
+			Piece.copyChars(root, 0, length, chars, 0);
+			return new String(chars);
+		}
+	}
+}
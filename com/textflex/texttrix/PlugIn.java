@@ -69,6 +69,8 @@ public abstract class PlugIn extends JComponent {
 	//	private WindowAdapter winAdapter = null;
 	// flag to indicate that the plug-in's window has been activated
 	private boolean tmpActivated = false;
+	// flag to ask a running plug-in to stop early
+	private volatile boolean cancelled = false;
 
 	/** Constructs a plugin.
 	@param aName plugin name
@@ -112,6 +114,60 @@ public abstract class PlugIn extends JComponent {
 		listenerList.remove(PlugInListener.class, listener);
 	}
 
+	/** Registers a listener to notify of the plug-in's progress as it runs.
+	@param listener listener to register and notify
+	@see #setProgress(int)
+	*/
+	public void addPlugInProgressListener(PlugInProgressListener listener) {
+		listenerList.add(PlugInProgressListener.class, listener);
+	}
+
+	/** Removes a registered progress listener.
+	@param listener listener to remove
+	@see #setProgress(int)
+	*/
+	public void removePlugInProgressListener(
+			PlugInProgressListener listener) {
+		listenerList.remove(PlugInProgressListener.class, listener);
+	}
+
+	/** Reports the plug-in's progress while it runs.
+	 * Long-running plug-ins may call this method from within 
+	 * <code>run</code> or <code>runEdits</code> to show their progress
+	 * in the status bar.  Listeners are notified on the plug-in's own 
+	 * thread.
+	 * @param percent percentage complete, from 0 to 100
+	 * @see #addPlugInProgressListener(PlugInProgressListener)
+	 */
+	public void setProgress(int percent) {
+		EventListener[] listeners =
+			listenerList.getListeners(PlugInProgressListener.class);
+		for (int i = 0; i < listeners.length; i++) {
+			((PlugInProgressListener) listeners[i]).progressChanged(
+					this, percent);
+		}
+	}
+
+	/** Sets the flag asking the plug-in to stop.
+	 * <code>TextTrix</code> clears the flag before each run and sets
+	 * it when the user cancels the run, in which case any outcome
+	 * is discarded.
+	 * @param b <code>true</code> to ask the plug-in to stop
+	 * @see #isCancelled()
+	 */
+	public void setCancelled(boolean b) {
+		cancelled = b;
+	}
+
+	/** Checks whether the user has cancelled the plug-in's current run.
+	 * Long-running plug-ins should check the flag periodically and
+	 * return early, with any outcome, once it is set.
+	 * @return <code>true</code> if the run has been cancelled
+	 */
+	public boolean isCancelled() {
+		return cancelled;
+	}
+
 
 	/** Runs the plugin on a given section of the text.
 	 * To use, must override or else the function will simply call <code>run(s)</code>.
@@ -143,10 +199,38 @@ public abstract class PlugIn extends JComponent {
 	public PlugInOutcome run(String s, int caretPosition) {
 		return run(s);
 	}
+	
+	/** Runs the plugin on a read-only view of all the text, giving the
+	 * edits to make rather than the entire resulting text.  Large 
+	 * documents need not be copied into strings, and only the edited 
+	 * ranges are replaced, keeping the rest of the text's positions, 
+	 * highlighting, and undo history intact.
+	 * To use, must override; otherwise the function returns 
+	 * <code>null</code>, and the text is instead passed as a string to
+	 * <code>run(s)</code> or its variants.
+	 * @param text view of the entire text as it stood when the 
+	 * plug-in started, which the editor may change while the plug-in
+	 * runs on its worker thread; edits are rebased onto such changes
+	 * when they do not overlap them
+	 * @param selectionStart first char of the selected region
+	 * @param selectionEnd first char beyond the selected region, equal
+	 * to <code>selectionStart</code> if no text is selected
+	 * @return object containing the edits, added through 
+	 * {@link PlugInOutcome#addEdit(int, int, String)}, and the 
+	 * selection within the edited text; or <code>null</code> to run 
+	 * the plugin on a string instead
+	 * @see #run(String, int, int)
+	 */
+	public PlugInOutcome runEdits(CharSequence text, int selectionStart, 
+			int selectionEnd) {
+		return null;
+	}
 
 	/** Invokes the primary action of the plug in.
 	Creates an event to notify listeners that the plug has now
-	begun to perform its main function.
+	begun to perform its main function.  <code>TextTrix</code> then
+	calls <code>run</code> or <code>runEdits</code> on a worker thread,
+	so these methods should not modify Swing components directly.
 	*/
 	public void runPlugIn() {
 		PlugInEvent event = new PlugInEvent(this);
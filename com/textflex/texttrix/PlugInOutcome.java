@@ -36,6 +36,8 @@
 
 package com.textflex.texttrix;
 
+import java.util.ArrayList;
+
 /** Stores the outcome from a <code>PlugIn</code> event.
  * Encapsulates the text, selection region, and flags for how the plug-in's
  * calling function should handle the outcome.
@@ -50,6 +52,8 @@ public class PlugInOutcome {
 	// also the first char of region to replace
 	private int replaceStart = -1;
 	private int replaceEnd = -1; // the end char of the replacement region, non-inclusive
+	// edits to make in place of replacing the text, if any
+	private ArrayList<TextEdit> edits = null;
 
 	/** Creates an instance of the class.
 	 * 
@@ -173,6 +177,26 @@ public class PlugInOutcome {
 	 * @param n end char to replace, non-inclusive
 	*/
 	public void setReplaceEnd(int n) { replaceEnd = n; }
+	
+	/** Adds an edit to make in place of replacing the text.
+	 * Any edits flag <code>TextTrix.textTinker(PlugIn)</code> to make 
+	 * only the edits rather than replace the text with 
+	 * <code>text</code>.  Edits may be added in any order but must not 
+	 * overlap, and their offsets refer to the text before any edits.
+	 * @param start first char of the range to replace
+	 * @param end first char beyond the range to replace
+	 * @param aText the replacement text
+	 * @see PlugIn#runEdits(CharSequence, int, int)
+	 */
+	public void addEdit(int start, int end, String aText) {
+		if (edits == null) edits = new ArrayList<TextEdit>();
+		edits.add(new TextEdit(start, end, aText));
+	}
+	
+	/** Gets the edits to make in place of replacing the text.
+	 * @return the edits, or <code>null</code> if none have been added
+	 */
+	public ArrayList<TextEdit> getEdits() { return edits; }
 
 
 	/** Gets the resulting text.
@@ -0,0 +1,358 @@
+/* ***** BEGIN LICENSE BLOCK *****
+ * Version: MPL 1.1/GPL 2.0/LGPL 2.1
+ *
+ * The contents of this file are subject to the Mozilla Public License Version
+ * 1.1 (the "License"); you may not use this file except in compliance with
+ * the License. You may obtain a copy of the License at
+ * http://www.mozilla.org/MPL/
+ *
+ * Software distributed under the License is distributed on an "AS IS" basis,
+ * WITHOUT WARRANTY OF ANY KIND, either express or implied. See the License
+ * for the specific language governing rights and limitations under the
+ * License.
+ *
+ * The Original Code is the Text Trix code.
+ *
+ * The Initial Developer of the Original Code is
+ * Text Flex.
+ * Portions created by the Initial Developer are Copyright (C) 2019
+ * the Initial Developer. All Rights Reserved.
+ *
+ * Contributor(s): David Young <david@textflex.com>
+ *
+ * Alternatively, the contents of this file may be used under the terms of
+ * either the GNU General Public License Version 2 or later (the "GPL"), or
+ * the GNU Lesser General Public License Version 2.1 or later (the "LGPL"),
+ * in which case the provisions of the GPL or the LGPL are applicable instead
+ * of those above. If you wish to allow use of your version of this file only
+ * under the terms of either the GPL or the LGPL, and not to allow others to
+ * use your version of this file under the terms of the MPL, indicate your
+ * decision by deleting the provisions above and replace them with the notice
+ * and other provisions required by the GPL or the LGPL. If you do not delete
+ * the provisions above, a recipient may use your version of this file under
+ * the terms of any one of the MPL, the GPL or the LGPL.
+ *
+ * ***** END LICENSE BLOCK ***** */
+
+
+
+package com.textflex.texttrix;
+
+import java.awt.EventQueue;
+import java.util.*;
+import java.util.concurrent.*;
+import javax.swing.JProgressBar;
+import javax.swing.event.*;
+import javax.swing.text.*;
+
+/**
+ * Runs a plug-in on a worker thread against a snapshot of a pad's text.
+ * The snapshot is taken on the event dispatch thread, the plug-in runs
+ * on a shared worker so that the editor stays responsive, and the
+ * outcome is applied back on the event dispatch thread.
+ * 
+ * <p>The user may keep typing while the plug-in runs.  Each change to
+ * the document in the meantime is recorded, and once the plug-in 
+ * finishes, edits given through {@link PlugIn#runEdits} are moved past 
+ * those changes that precede them.  Outcomes that replace a section of
+ * text wholesale, or edits that overlap a change, would overwrite the 
+ * user's work and are rejected instead.
+ * 
+ * <p>Progress from {@link PlugIn#setProgress(int)} is shown in the 
+ * status bar's progress bar, and {@link #cancel()} asks the plug-in 
+ * to stop and discards its outcome.
+ */
+public class PlugInTask implements Runnable, DocumentListener, 
+		PlugInProgressListener {
+	
+	// all plug-ins share a single worker so that they run in the
+	// order that the user starts them
+	private static ThreadPoolExecutor executor = new ThreadPoolExecutor(
+			1, 1, 0L, TimeUnit.MILLISECONDS, 
+			new LinkedBlockingQueue<Runnable>());
+	
+	private TextTrix ttx = null; // the window that started the plug-in
+	private TextPad pad = null; // the pad to modify
+	private Document doc = null; // the pad's document at the start
+	private PlugIn pl = null; // the plug-in to run
+	private JProgressBar progress = null; // status bar progress
+	private CharSequence text = null; // snapshot of the entire text
+	private int start = 0; // selection start at the start of the run
+	private int end = 0; // selection end at the start of the run
+	private boolean entire = false; // flag to send the plug-in all the text
+	private PlugInOutcome outcome = null; // the plug-in's outcome
+	private boolean edits = false; // flag that the outcome gives edits
+	// changes made to the document while the plug-in runs, each given 
+	// as offset, length removed, and length inserted
+	private ArrayList<int[]> changes = new ArrayList<int[]>();
+	private Thread worker = null; // the thread running the plug-in
+	
+	/**
+	 * Creates a task to run a plug-in on a pad's text.
+	 * @param aTtx the window whose status bar shows the progress and 
+	 * that applies the outcome
+	 * @param aPad the pad whose text the plug-in works on
+	 * @param aPl the plug-in
+	 * @param aProgress the status bar's progress bar
+	 */
+	public PlugInTask(TextTrix aTtx, TextPad aPad, PlugIn aPl, 
+			JProgressBar aProgress) {
+		ttx = aTtx;
+		pad = aPad;
+		pl = aPl;
+		progress = aProgress;
+	}
+	
+	/**
+	 * Takes a snapshot of the pad's text and queues the plug-in to run
+	 * on it.  Must be called on the event dispatch thread.
+	 * @throws BadLocationException if the text cannot be read
+	 */
+	public void start() throws BadLocationException {
+		doc = pad.getDocument();
+		// unless flagged otherwise, only modify the selected text
+		start = pad.getSelectionStart();
+		end = pad.getSelectionEnd(); // at the first unselected character
+		entire = start == end || pl.getAlwaysEntireText();
+		
+		// documents in a piece table give a snapshot without copying 
+		// the text, while others are copied so that the worker never
+		// reads the document itself
+		if (doc instanceof IndentedDocument) {
+			text = ((IndentedDocument) doc).getSnapshot();
+		}
+		if (text == null) text = doc.getText(0, doc.getLength());
+		
+		doc.addDocumentListener(this);
+		pl.setCancelled(false);
+		pl.addPlugInProgressListener(this);
+		progress.setIndeterminate(true);
+		progress.setStringPainted(true);
+		progress.setString(pl.getName() + "...");
+		progress.setToolTipText("Click to cancel " + pl.getName());
+		executor.execute(this);
+	}
+	
+	/**
+	 * Runs the plug-in on the snapshot.  Called on the worker thread.
+	 */
+	public void run() {
+		synchronized (this) {
+			worker = Thread.currentThread();
+		}
+		try {
+			if (!pl.isCancelled()) {
+				// plug-ins that give edits work on the snapshot directly
+				outcome = pl.runEdits(text, start, end);
+				edits = outcome != null;
+				if (outcome != null) {
+					// done
+				
+				// By default, only sends the selected text;
+				// if no region is selected, or if plug-in flags to works on 
+				// the text pad's entire text, sends the plugin all the text
+				} else if (entire) {
+					String s = text.toString();
+					// invokes the plugin: need both start and ending selection
+					// positions when "alwaysEntireText" b/c want to both get
+					// all of the text and reshow its highlighted portion,
+					// rather than only getting the highlighted part
+					outcome = pl.getAlwaysEntireText() 
+						? pl.run(s, start, end) : pl.run(s, end);
+				} else {
+					// Send plugin the selected text only
+					outcome = pl.run(text.subSequence(start, end).toString());
+				}
+			}
+		} catch (RuntimeException e) {
+			e.printStackTrace();
+			outcome = null;
+		} finally {
+			synchronized (this) {
+				worker = null;
+				// clears any interrupt meant for this plug-in alone
+				Thread.interrupted();
+			}
+		}
+		EventQueue.invokeLater(new Runnable() {
+			public void run() {
+				finish();
+			}
+		});
+	}
+	
+	/**
+	 * Asks the plug-in to stop and discards its outcome.
+	 * Must be called on the event dispatch thread.
+	 */
+	public void cancel() {
+		pl.setCancelled(true);
+		// interrupts plug-ins waiting on blocking calls; others are
+		// expected to check the flag
+		synchronized (this) {
+			if (worker != null) worker.interrupt();
+		}
+		progress.setString("Cancelling " + pl.getName() + "...");
+	}
+	
+	/**
+	 * Gets the plug-in that this task runs.
+	 * @return the plug-in
+	 */
+	public PlugIn getPlugIn() {
+		return pl;
+	}
+	
+	/**
+	 * Shows the plug-in's progress in the status bar.
+	 * Called on the worker thread.
+	 */
+	public void progressChanged(PlugIn aPl, final int percent) {
+		EventQueue.invokeLater(new Runnable() {
+			public void run() {
+				if (pl.isCancelled()) return;
+				progress.setIndeterminate(false);
+				progress.setValue(percent);
+				progress.setString(pl.getName() + " " + percent + "%");
+			}
+		});
+	}
+	
+	/**
+	 * Applies the plug-in's outcome, if the pad's text still allows it.
+	 * Called on the event dispatch thread once the plug-in returns.
+	 */
+	private void finish() {
+		doc.removeDocumentListener(this);
+		pl.removePlugInProgressListener(this);
+		progress.setIndeterminate(false);
+		progress.setValue(0);
+		progress.setToolTipText(null);
+		ttx.plugInTaskFinished(this);
+		if (pl.isCancelled()) {
+			progress.setString(pl.getName() + " cancelled");
+			return;
+		}
+		if (outcome == null || pad.getDocument() != doc) {
+			progress.setString(pl.getName() + " did not finish");
+			return;
+		}
+		if (!changes.isEmpty()) {
+			// whole sections cannot be rebased onto the user's changes
+			if (!edits || !rebase()) {
+				progress.setString(
+						"Text changed; " + pl.getName() + " not applied");
+				return;
+			}
+		}
+		progress.setString("");
+		try {
+			pad.startCompoundEdit();
+			apply();
+		} catch (BadLocationException e) {
+			e.printStackTrace();
+		} finally {
+			pad.stopCompoundEdit();
+		}
+	}
+	
+	/**
+	 * Applies the outcome to the document.
+	 * @throws BadLocationException if the outcome refers to text beyond
+	 * the document
+	 */
+	private void apply() throws BadLocationException {
+		int i = -1;
+		if (edits) {
+			if (!outcome.getNoTextChange() && outcome.getEdits() != null) {
+				ttx.applyEdits(pad, doc, outcome.getEdits());
+			}
+			if ((i = outcome.getSelectionStart()) != -1) {
+				ttx.textSelection(pad, 0, i, outcome.getSelectionEnd());
+			}
+		} else if (entire) {
+			// if the plug-in flags that it has not changed the text,
+			// don't even try to do so
+			if (!outcome.getNoTextChange()) {
+				ttx.replaceSection(pad, doc, outcome, 0, doc.getLength());
+			}
+			// approximates the original caret position
+			if ((i = outcome.getSelectionStart()) != -1) {
+				ttx.textSelection(pad, 0, i, outcome.getSelectionEnd());
+			} else if (start > doc.getLength()) {
+				// otherwise errors toward end of document sometimes
+				pad.setCaretPosition(doc.getLength());
+			} else {
+				pad.setCaretPosition(start);
+			}
+		} else {
+			if (!outcome.getNoTextChange()) {
+				ttx.replaceSection(pad, doc, outcome, start, end - start);
+			}
+			// caret automatically returns to end of selected region
+			if ((i = outcome.getSelectionStart()) != -1) {
+				ttx.textSelection(pad, start, i, outcome.getSelectionEnd());
+			}
+		}
+	}
+	
+	/**
+	 * Moves the outcome's edits and selection past the changes made
+	 * to the document while the plug-in ran.
+	 * @return <code>true</code> if the edits could be rebased, or 
+	 * <code>false</code> if any edit overlaps a change
+	 */
+	private boolean rebase() {
+		ArrayList<TextEdit> orig = outcome.getEdits();
+		PlugInOutcome moved = new PlugInOutcome();
+		moved.setNoTextChange(outcome.getNoTextChange());
+		if (orig != null) {
+			for (int i = 0; i < orig.size(); i++) {
+				TextEdit edit = orig.get(i);
+				int editStart = edit.getStart();
+				int editEnd = edit.getEnd();
+				for (int j = 0; j < changes.size(); j++) {
+					int[] change = changes.get(j);
+					if (change[0] + change[1] <= editStart) {
+						// change lies wholly before the edit
+						int delta = change[2] - change[1];
+						editStart += delta;
+						editEnd += delta;
+					} else if (change[0] < editEnd) {
+						return false;
+					}
+				}
+				moved.addEdit(editStart, editEnd, edit.getText());
+			}
+		}
+		// approximates the selection, which refers to the edited text,
+		// by moving it past the changes before it
+		int selStart = outcome.getSelectionStart();
+		int selEnd = outcome.getSelectionEnd();
+		if (selStart != -1) {
+			for (int j = 0; j < changes.size(); j++) {
+				int[] change = changes.get(j);
+				if (change[0] + change[1] <= selStart) {
+					int delta = change[2] - change[1];
+					selStart += delta;
+					if (selEnd != -1) selEnd += delta;
+				}
+			}
+		}
+		moved.setSelectionStart(selStart);
+		moved.setSelectionEnd(selEnd);
+		outcome = moved;
+		return true;
+	}
+	
+	public void insertUpdate(DocumentEvent e) {
+		changes.add(new int[] { e.getOffset(), 0, e.getLength() });
+	}
+	
+	public void removeUpdate(DocumentEvent e) {
+		changes.add(new int[] { e.getOffset(), e.getLength(), 0 });
+	}
+	
+	public void changedUpdate(DocumentEvent e) {
+	}
+}
@@ -101,6 +101,9 @@ public class Prefs extends JDialog {//JFrame {
 	private JCheckBox reopenTabsChk = null; // check box
 	// comma-delimited list of paths
 	private static final String REOPEN_TABS_LIST = "reopenTabsList";
+	// list of edit journals for unsaved tabs, separated by JOURNAL_SEP
+	private static final String JOURNAL_LIST = "journalList";
+	public static final String JOURNAL_SEP = "::";
 
 	// tab name max characters
 	private static final String TAB_NAME_MAX_CHARS = "tabNameMaxChars";
@@ -157,6 +160,26 @@ public class Prefs extends JDialog {//JFrame {
 	private SpinnerNumberModel fontSizeMdl = null;
 	
 	
+	// file size beyond which files open in the read-only large-file viewer
+	private static final String LARGE_FILE_THRESHOLD = "largeFileThreshold";
+	private JSpinner largeFileThresholdSpinner = null; // numerical input
+	private SpinnerNumberModel largeFileThresholdMdl = null;
+	
+	// file size from which files are stored in a piece table
+	private static final String PIECE_TABLE_THRESHOLD = "pieceTableThreshold";
+	private JSpinner pieceTableThresholdSpinner = null; // numerical input
+	private SpinnerNumberModel pieceTableThresholdMdl = null;
+	// comma-or-space-delimited list of file extensions always stored
+	// in a piece table
+	private static final String PIECE_TABLE_EXT = "pieceTableExt";
+	private JTextField pieceTableExtFld = null; // input list
+	
+	// lines to keep when following a growing file, or 0 for all
+	private static final String FOLLOW_MAX_LINES = "followMaxLines";
+	private JSpinner followMaxLinesSpinner = null; // numerical input
+	private SpinnerNumberModel followMaxLinesMdl = null;
+	
+	
 	/* Shorts preferences--shortcuts */
 	private Preferences shortsPrefs = prefs.node("Shorts"); // shorts-specific prefs holder
 	private static final int SHORTS_PANEL_INDEX = 1; // tab index
@@ -515,6 +538,13 @@ public class Prefs extends JDialog {//JFrame {
 		generalPrefs.putBoolean(HIGHLIGHTING, highlightingChk.isSelected());
 		generalPrefs.putBoolean(SPELL_CHECKER, spellCheckerChk.isSelected());
 		generalPrefs.putInt(FONT_SIZE, fontSizeMdl.getNumber().intValue());
+		generalPrefs.putInt(LARGE_FILE_THRESHOLD, 
+			largeFileThresholdMdl.getNumber().intValue());
+		generalPrefs.putInt(PIECE_TABLE_THRESHOLD, 
+			pieceTableThresholdMdl.getNumber().intValue());
+		generalPrefs.put(PIECE_TABLE_EXT, pieceTableExtFld.getText());
+		generalPrefs.putInt(FOLLOW_MAX_LINES, 
+			followMaxLinesMdl.getNumber().intValue());
 	}
 	
 	/** Stores the Shorts preferences.
@@ -612,6 +642,14 @@ public class Prefs extends JDialog {//JFrame {
 	public void storeReopenTabsList(String paths) {
 		generalPrefs.put(REOPEN_TABS_LIST, paths);
 	}
+	
+	/** Stores the list of edit journals for the open tabs, for
+	 * recovering unsaved edits at the next startup.
+	 * @param names journal file names, separated by {@link #JOURNAL_SEP}
+	 */
+	public void storeJournalList(String names) {
+		generalPrefs.put(JOURNAL_LIST, names);
+	}
 
 	/** Stores the number of recently opened files to remember quick re-opening.
 	 * If the new count is less than the previous one, the extra entries are removed.
@@ -842,6 +880,55 @@ public class Prefs extends JDialog {//JFrame {
 	public String getReopenTabsList() {
 		return generalPrefs.get(REOPEN_TABS_LIST, "");
 	}
+	/** Gets the stored list of edit journals left from the last session.
+	 * 
+	 * @return journal file names, separated by {@link #JOURNAL_SEP}
+	 * @see #getJournalDir()
+	 */
+	public String getJournalList() {
+		return generalPrefs.get(JOURNAL_LIST, "");
+	}
+	/** Gets the directory for storing files in the user's home 
+	 * directory, creating it if necessary.
+	 * 
+	 * @return the preferences directory
+	 */
+	public File getPrefsDir() {
+		File dir = new File(System.getProperty("user.home"), ".texttrix");
+		if (!dir.exists()) dir.mkdirs();
+		return dir;
+	}
+	/** Gets the directory for edit journals, creating it if necessary.
+	 * 
+	 * @return the journals directory
+	 * @see #getJournalList()
+	 */
+	public File getJournalDir() {
+		File dir = new File(getPrefsDir(), "journals");
+		if (!dir.exists()) dir.mkdirs();
+		return dir;
+	}
+	/** Gets the directory for storing the undo histories of closed
+	 * files, creating it if necessary.
+	 * 
+	 * @return the undo history directory
+	 * @see UndoHistory
+	 */
+	public File getUndoDir() {
+		File dir = new File(getPrefsDir(), "undo");
+		if (!dir.exists()) dir.mkdirs();
+		return dir;
+	}
+	/** Gets the directory for caching the spell checker's dictionaries
+	 * once they have been built, creating it if necessary.
+	 * 
+	 * @return the dictionary cache directory
+	 */
+	public File getDictionaryCacheDir() {
+		File dir = new File(getPrefsDir(), "dictionaries");
+		if (!dir.exists()) dir.mkdirs();
+		return dir;
+	}
 	/**Gets the stored flag for whether the program should cap the number of
 	 * characters displayed in tab names.
 	 * 
@@ -928,6 +1015,44 @@ public class Prefs extends JDialog {//JFrame {
 		return generalPrefs.getBoolean(AUTO_SAVE_PROMPT, false);
 	}
 	
+	/**Gets the file size beyond which files are opened in the
+	 * read-only large-file viewer rather than loaded into memory.
+	 * 
+	 * @return the threshold in megabytes
+	 */
+	public int getLargeFileThreshold() {
+		return generalPrefs.getInt(LARGE_FILE_THRESHOLD, 64);
+	}
+	
+	/**Gets the file size from which files are stored in a piece table,
+	 * which keeps editing quick in large files.
+	 * 
+	 * @return the threshold in megabytes
+	 * @see PieceContent
+	 */
+	public int getPieceTableThreshold() {
+		return generalPrefs.getInt(PIECE_TABLE_THRESHOLD, 16);
+	}
+	
+	/**Gets the stored list of file extensions of files to store in a
+	 * piece table whatever their size.
+	 * 
+	 * @return comma-or-space-delimited list of file extensions, where the
+	 * period is assumed and optional
+	 */
+	public String getPieceTableExt() {
+		return generalPrefs.get(PIECE_TABLE_EXT, "log, csv");
+	}
+	
+	/**Gets the number of lines to keep in a tab that follows a growing
+	 * file, beyond which the earliest lines are removed.
+	 * 
+	 * @return the maximum number of lines, or 0 to keep all lines
+	 */
+	public int getFollowMaxLines() {
+		return generalPrefs.getInt(FOLLOW_MAX_LINES, 0);
+	}
+	
 	public boolean getHighlighting() {
 //		System.out.println("highlighting pref: " + generalPrefs.getBoolean(HIGHLIGHTING, true));
 		return generalPrefs.getBoolean(HIGHLIGHTING, true);
@@ -989,6 +1114,10 @@ public class Prefs extends JDialog {//JFrame {
 		private JLabel tabNameMaxCharsNumLbl = null;
 		private JLabel autoSaveIntervalLbl = null;
 		private JLabel fontSizeLbl = null;
+		private JLabel largeFileThresholdLbl = null;
+		private JLabel pieceTableThresholdLbl = null;
+		private JLabel pieceTableExtLbl = null;
+		private JLabel followMaxLinesLbl = null;
 
 		/** Starts the thread.
 		 * 
@@ -1180,6 +1309,52 @@ public class Prefs extends JDialog {//JFrame {
 						new SpinnerNumberModel(getFontSize(), 4, 24, 1);
 					fontSizeSpinner = new JSpinner(fontSizeMdl);
 					
+					// large-file viewer threshold
+					largeFileThresholdLbl = 
+						new JLabel("Large file viewer (MB):");
+					String largeFileThresholdTipTxt =
+						"<html>Files larger than this size open in a read-only"
+						+ "<br>viewer that pages the file in from disk"
+						+ "<br>rather than loading it all into memory.</html>";
+					largeFileThresholdLbl.setToolTipText(largeFileThresholdTipTxt);
+					// the numerical model for the spinner
+					largeFileThresholdMdl =
+						new SpinnerNumberModel(getLargeFileThreshold(), 1, 4096, 1);
+					largeFileThresholdSpinner = 
+						new JSpinner(largeFileThresholdMdl);
+					
+					// piece table storage for large or growing files
+					pieceTableThresholdLbl = 
+						new JLabel("Piece table storage (MB):");
+					String pieceTableThresholdTipTxt =
+						"<html>Files at least this size are stored in a piece"
+						+ "<br>table, which keeps editing quick in large files"
+						+ "<br>and lets them be saved in the background.</html>";
+					pieceTableThresholdLbl.setToolTipText(pieceTableThresholdTipTxt);
+					// the numerical model for the spinner
+					pieceTableThresholdMdl =
+						new SpinnerNumberModel(getPieceTableThreshold(), 0, 4096, 1);
+					pieceTableThresholdSpinner = 
+						new JSpinner(pieceTableThresholdMdl);
+					pieceTableExtLbl = new JLabel("Piece table file types:");
+					pieceTableExtLbl.setToolTipText(
+						"<html>Files with these extensions are stored in a"
+						+ "<br>piece table whatever their size.</html>");
+					pieceTableExtFld = new JTextField(getPieceTableExt(), 100);
+					
+					// line limit for tabs following growing files
+					followMaxLinesLbl = 
+						new JLabel("Follow mode line limit:");
+					String followMaxLinesTipTxt =
+						"<html>Tabs following a growing file, such as a log,"
+						+ "<br>remove their earliest lines beyond this many."
+						+ "<br>Set to 0 to keep every line.</html>";
+					followMaxLinesLbl.setToolTipText(followMaxLinesTipTxt);
+					// the numerical model for the spinner
+					followMaxLinesMdl = new SpinnerNumberModel(
+							getFollowMaxLines(), 0, 10000000, 1000);
+					followMaxLinesSpinner = new JSpinner(followMaxLinesMdl);
+					
 					
 					
 					
@@ -1479,6 +1654,86 @@ public class Prefs extends JDialog {//JFrame {
 						0,
 						0,
 						panel);
+					LibTTx.addGridBagComponent(
+						largeFileThresholdLbl,
+						constraints,
+						0,
+						++row,
+						1,
+						1,
+						0,
+						0,
+						panel);
+					LibTTx.addGridBagComponent(
+						largeFileThresholdSpinner,
+						constraints,
+						1,
+						row,
+						1,
+						1,
+						0,
+						0,
+						panel);
+					LibTTx.addGridBagComponent(
+						pieceTableThresholdLbl,
+						constraints,
+						0,
+						++row,
+						1,
+						1,
+						0,
+						0,
+						panel);
+					LibTTx.addGridBagComponent(
+						pieceTableThresholdSpinner,
+						constraints,
+						1,
+						row,
+						1,
+						1,
+						0,
+						0,
+						panel);
+					LibTTx.addGridBagComponent(
+						pieceTableExtLbl,
+						constraints,
+						0,
+						++row,
+						1,
+						1,
+						0,
+						0,
+						panel);
+					LibTTx.addGridBagComponent(
+						pieceTableExtFld,
+						constraints,
+						1,
+						row,
+						2,
+						1,
+						0,
+						0,
+						panel);
+					LibTTx.addGridBagComponent(
+						followMaxLinesLbl,
+						constraints,
+						0,
+						++row,
+						1,
+						1,
+						0,
+						0,
+						panel);
+					LibTTx.addGridBagComponent(
+						followMaxLinesSpinner,
+						constraints,
+						1,
+						row,
+						1,
+						1,
+						0,
+						0,
+						panel);
 						
 					
 					// Export/Import Preferences
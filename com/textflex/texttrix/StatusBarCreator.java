@@ -51,6 +51,12 @@ import javax.swing.event.CaretEvent;
 import javax.swing.event.CaretListener;
 import javax.swing.text.Document;
 import javax.swing.text.AbstractDocument;
+import javax.swing.text.BadLocationException;
+import javax.swing.text.DefaultHighlighter;
+import javax.swing.text.Highlighter;
+import javax.swing.text.Segment;
+import javax.swing.event.DocumentEvent;
+import javax.swing.event.DocumentListener;
 import javax.swing.text.StyledEditorKit;
 import java.awt.EventQueue;
 import java.awt.Color;
@@ -63,6 +69,7 @@ import java.awt.event.FocusEvent;
 import java.awt.Point;
 import java.awt.Toolkit;
 import javax.swing.KeyStroke;
+import java.util.ArrayList;
 
 /**Creates the status bar in a worker thread.
 */
@@ -72,6 +79,14 @@ class StatusBarCreator implements Runnable {
 	private int lastLine = 0; // most recent line highlighted
 	private String lastWord = ""; // most recent word found
 	private JTextField wordFindFld = null;
+	private FindWorker finder = null; // the search in progress
+	private TextPad highlightedPad = null; // pad holding search highlights
+	private ArrayList<Object> highlights = new ArrayList<Object>();
+	// most occurrences to highlight, to keep painting quick
+	private static final int MAX_HIGHLIGHTS = 10000;
+	private static final Highlighter.HighlightPainter FIND_PAINTER = 
+			new DefaultHighlighter.DefaultHighlightPainter(
+					new Color(255, 240, 150));
 	
 	public StatusBarCreator(TextTrix aTtx) {
 		ttx = aTtx;
@@ -162,9 +177,11 @@ class StatusBarCreator implements Runnable {
 				wordFindFld.addCaretListener(new CaretListener() {
 					public void caretUpdate(CaretEvent e) {
 						String lineStr = wordFindFld.getText();
-						// do nothing if empty box
-						if (!lineStr.equals("") 
-								&& !lastWord.equalsIgnoreCase(lineStr)) {
+						// clears the search if empty box
+						if (lineStr.equals("")) {
+							stopFind();
+							lastWord = "";
+						} else if (!lastWord.equalsIgnoreCase(lineStr)) {
 							// otherwise, parse string, assuming key listener 
 							// has filtered out non-digits
 							findSeq(lineStr, -1);
@@ -363,7 +380,8 @@ class StatusBarCreator implements Runnable {
 	/** Finds the first occurrence of a sequence from the
 	 * given starting point, ignoring case.
 	 * If the given sequence has already been selected, the next
-	 * occurrance of the sequence will be found.
+	 * occurrance of the sequence will be found.  The search runs in
+	 * the background, highlighting every occurrence as it is found.
 	 * @param seq the sequence to find
 	 * @param start the position number from which to start 
 	 * searching; if -1, the search will begin from the current 
@@ -373,9 +391,6 @@ class StatusBarCreator implements Runnable {
 		// Prepare the search
 		TextPad t = ttx.getSelectedTextPad();
 		if (t == null) return;
-		// shifts text and quarry to lower case
-		String text = t.getAllText().toLowerCase();
-		seq = seq.toLowerCase();
 		// saves the caret position
 		int origCaretPosition = t.getCaretPosition();
 		// starts from 0 if flagged not to start at caret position
@@ -385,24 +400,10 @@ class StatusBarCreator implements Runnable {
 				&& currentSelection.equalsIgnoreCase(seq)) start++;
 		
 		// Find the quarry
-		int i = text.indexOf(seq, start);
-		// if can't find, wraps to the beginning
-		if (i == -1) {
-			i = text.indexOf(seq, 0);
-		}
-		// if still can't find, turns field pink and sounds an audible
-		// warning; otherwise, highlights the word
-		if (i != -1) {
-			wordFindFld.setBackground(Color.white);
-			ttx.textSelection(t, 0, i, i + seq.length());
-		} else {
-			Toolkit.getDefaultToolkit().beep();
-			wordFindFld.setBackground(Color.pink);
-			t.setCaretPositionTop(origCaretPosition);
-		}
+		startFind(t, seq, start, false, origCaretPosition);
 		
 		// Save the quarry
-		lastWord = seq;
+		lastWord = seq.toLowerCase();
 	}
 	
 	/** Finds the first occurrence of a sequence from the
@@ -416,34 +417,221 @@ class StatusBarCreator implements Runnable {
 		// Prepare the search
 		TextPad t = ttx.getSelectedTextPad();
 		if (t == null) return;
-		// shifts text and quarry to lower case
-		String text = t.getAllText().toLowerCase();
-		seq = seq.toLowerCase();
 		// saves the caret position
 		int origCaretPosition = t.getCaretPosition();
 		// starts from 0 flagged not to start at caret position
-		if (start == -1) start = text.length() - 1;
+		if (start == -1) start = t.getDocument().getLength();
 		
 		// Find the quarry
-		int i = LibTTx.reverseIndexOf(text, seq, start);
-		// if can't find, wraps to the beginning
-		if (i == -1) {
-			i =  LibTTx.reverseIndexOf(text, seq, text.length() - 1);
+		startFind(t, seq, start, true, origCaretPosition);
+		
+		// Save the quarry
+		lastWord = seq.toLowerCase();
+	}
+	
+	/** Starts searching a pad in the background, stopping any earlier
+	 * search and clearing its highlights.
+	 * @param t the pad to search
+	 * @param seq the sequence to find
+	 * @param start the position from which to search
+	 * @param reverse <code>true</code> to search backward
+	 * @param origCaretPosition the caret position to restore if the
+	 * sequence is not found
+	 */
+	private void startFind(TextPad t, String seq, int start, boolean reverse,
+			int origCaretPosition) {
+		stopFind();
+		if (seq.length() == 0) return;
+		int len = t.getDocument().getLength();
+		if (start < 0) start = 0;
+		if (start > len) start = len;
+		finder = new FindWorker(t, seq, start, reverse, origCaretPosition);
+		finder.start();
+	}
+	
+	/** Stops any search in progress and clears the highlights of 
+	 * earlier searches.
+	 */
+	public void stopFind() {
+		if (finder != null) {
+			finder.requestStop();
+			finder = null;
 		}
-		// if still can't find, turns field pink and sounds an audible
-		// warning; otherwise, highlights the word
-		if (i != -1) {
-			wordFindFld.setBackground(Color.white);
-			t.setCaretPosition(i);
-			ttx.textSelection(t, 0, i, i + seq.length());
-		} else {
-			Toolkit.getDefaultToolkit().beep();
-			wordFindFld.setBackground(Color.pink);
-			t.setCaretPositionTop(origCaretPosition);
+		if (highlightedPad != null) {
+			Highlighter highlighter = highlightedPad.getHighlighter();
+			for (int i = 0; i < highlights.size(); i++) {
+				highlighter.removeHighlight(highlights.get(i));
+			}
+			highlights.clear();
+			highlightedPad = null;
 		}
+	}
+	
+	
+	
+	
+	/** Searches a pad outside of the event dispatch thread, selecting
+	 * the first occurrence and highlighting the others as they are found.
+	 * The search wraps around the end of the document and stops if the
+	 * document is edited.
+	 */
+	private class FindWorker extends StoppableThread 
+			implements DocumentListener {
+		private Thread thread = null;
+		private TextPad pad = null;
+		private Document doc = null;
+		private DocumentSearcher searcher = null;
+		private int start = 0;
+		private boolean reverse = false;
+		private int origCaretPosition = 0;
+		// the following are only accessed in the event dispatch thread
+		private boolean found = false;
+		private int count = 0;
 		
-		// Save the quarry
-		lastWord = seq;
+		public FindWorker(TextPad aPad, String seq, int aStart, 
+				boolean aReverse, int aOrigCaretPosition) {
+			pad = aPad;
+			doc = pad.getDocument();
+			searcher = new DocumentSearcher(seq);
+			start = aStart;
+			reverse = aReverse;
+			origCaretPosition = aOrigCaretPosition;
+		}
+		
+		public void start() {
+			setStopped(false);
+			doc.addDocumentListener(this);
+			thread = new Thread(this, "thread");
+			thread.start();
+		}
+		
+		public void run() {
+			int len = doc.getLength();
+			// searches from the starting point, then wraps around
+			if (reverse) {
+				if (scan(0, start)) scan(start, len);
+			} else {
+				if (scan(start, len)) scan(0, start);
+			}
+			EventQueue.invokeLater(new Runnable() {
+				public void run() {
+					finish();
+				}
+			});
+		}
+		
+		/** Searches a region a chunk at a time, in the direction of the
+		 * search.
+		 * @return <code>true</code> if the search was not stopped
+		 */
+		private boolean scan(int from, int to) {
+			Segment seg = new Segment();
+			DocumentSearcher.Matches matches = new DocumentSearcher.Matches();
+			int chunk = DocumentSearcher.CHUNK;
+			int chunks = (to - from + chunk - 1) / chunk;
+			for (int i = 0; i < chunks && !isStopped(); i++) {
+				int chunkStart = from + (reverse ? chunks - 1 - i : i) * chunk;
+				int chunkEnd = Math.min(chunkStart + chunk, to);
+				matches.clear();
+				read(chunkStart, chunkEnd, seg, matches);
+				if (matches.size() > 0) publish(matches);
+			}
+			return !isStopped();
+		}
+		
+		/** Searches a chunk while holding the document's read lock.
+		 */
+		private void read(final int chunkStart, final int chunkEnd, 
+				final Segment seg, final DocumentSearcher.Matches matches) {
+			Runnable search = new Runnable() {
+				public void run() {
+					try {
+						// overlapping matches in reverse so that the 
+						// nearest earlier occurrence is always found
+						searcher.findChunk(doc, chunkStart, chunkEnd, seg, 
+								matches, reverse);
+					} catch (BadLocationException e) {
+						// the document shrank before the listener stopped
+						// the search
+						setStopped(true);
+					}
+				}
+			};
+			if (doc instanceof AbstractDocument) {
+				((AbstractDocument) doc).render(search);
+			} else {
+				search.run();
+			}
+		}
+		
+		/** Selects the first occurrence found and highlights the others.
+		 * @param matches the occurrences found in a chunk, in document 
+		 * order
+		 */
+		private void publish(DocumentSearcher.Matches matches) {
+			int n = matches.size();
+			final int[] offsets = new int[n];
+			for (int i = 0; i < n; i++) {
+				offsets[i] = matches.get(reverse ? n - 1 - i : i);
+			}
+			EventQueue.invokeLater(new Runnable() {
+				public void run() {
+					if (isStopped()) return;
+					int len = searcher.getLength();
+					if (!found) {
+						found = true;
+						int i = offsets[0];
+						wordFindFld.setBackground(Color.white);
+						if (reverse) pad.setCaretPosition(i);
+						ttx.textSelection(pad, 0, i, i + len);
+					}
+					highlightedPad = pad;
+					Highlighter highlighter = pad.getHighlighter();
+					for (int i = 0; i < offsets.length 
+							&& highlights.size() < MAX_HIGHLIGHTS; i++) {
+						try {
+							highlights.add(highlighter.addHighlight(
+									offsets[i], offsets[i] + len, 
+									FIND_PAINTER));
+						} catch (BadLocationException e) {
+						}
+					}
+					count += offsets.length;
+				}
+			});
+		}
+		
+		/** Shows the outcome of the search.
+		 */
+		private void finish() {
+			doc.removeDocumentListener(this);
+			if (isStopped()) return;
+			// if can't find, turns field pink and sounds an audible
+			// warning
+			if (!found) {
+				Toolkit.getDefaultToolkit().beep();
+				wordFindFld.setBackground(Color.pink);
+				pad.setCaretPositionTop(origCaretPosition);
+			}
+			ttx.getStatusProgress().setString(count + " found");
+		}
+		
+		public void requestStop() {
+			setStopped(true);
+			doc.removeDocumentListener(this);
+			thread = null;
+		}
+		
+		public void insertUpdate(DocumentEvent e) {
+			setStopped(true);
+		}
+		
+		public void removeUpdate(DocumentEvent e) {
+			setStopped(true);
+		}
+		
+		public void changedUpdate(DocumentEvent e) {
+		}
 	}
 	
 }
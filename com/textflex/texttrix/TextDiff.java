@@ -0,0 +1,318 @@
+/* ***** BEGIN LICENSE BLOCK *****
+ * Version: MPL 1.1/GPL 2.0/LGPL 2.1
+ *
+ * The contents of this file are subject to the Mozilla Public License Version
+ * 1.1 (the "License"); you may not use this file except in compliance with
+ * the License. You may obtain a copy of the License at
+ * http://www.mozilla.org/MPL/
+ *
+ * Software distributed under the License is distributed on an "AS IS" basis,
+ * WITHOUT WARRANTY OF ANY KIND, either express or implied. See the License
+ * for the specific language governing rights and limitations under the
+ * License.
+ *
+ * The Original Code is the Text Trix code.
+ *
+ * The Initial Developer of the Original Code is
+ * Text Flex.
+ * Portions created by the Initial Developer are Copyright (C) 2019
+ * the Initial Developer. All Rights Reserved.
+ *
+ * Contributor(s): David Young <david@textflex.com>
+ *
+ * Alternatively, the contents of this file may be used under the terms of
+ * either the GNU General Public License Version 2 or later (the "GPL"), or
+ * the GNU Lesser General Public License Version 2.1 or later (the "LGPL"),
+ * in which case the provisions of the GPL or the LGPL are applicable instead
+ * of those above. If you wish to allow use of your version of this file only
+ * under the terms of either the GPL or the LGPL, and not to allow others to
+ * use your version of this file under the terms of the MPL, indicate your
+ * decision by deleting the provisions above and replace them with the notice
+ * and other provisions required by the GPL or the LGPL. If you do not delete
+ * the provisions above, a recipient may use your version of this file under
+ * the terms of any one of the MPL, the GPL or the LGPL.
+ *
+ * ***** END LICENSE BLOCK ***** */
+
+
+package com.textflex.texttrix;
+
+import java.util.ArrayList;
+import javax.swing.text.*;
+
+/**
+ * Updates a document to new text by editing only the lines that differ.
+ * Rather than replacing the entire text, such as when refreshing a file
+ * that was modified elsewhere, the text common to the start and end of 
+ * both versions is first trimmed.  The remaining lines are compared by 
+ * hash with a Myers diff, and each differing run of lines is applied as
+ * a removal and insertion.  Undo history and positions in unchanged
+ * text are thus preserved, and a file that merely grew by a few lines
+ * costs only a few lines' worth of edits.
+ */
+public class TextDiff {
+	/** Maximum number of differing lines to diff line by line before
+	 * simply replacing all the lines between the common start and end.
+	 */
+	private static final int MAX_EDITS = 1000;
+	/** Characters to compare at a time when trimming the common ends. */
+	private static final int CHUNK = 8192;
+	
+	private TextDiff() {}
+	
+	/** Converts CRLF and CR end-of-line characters to LF, the only
+	 * end-of-line character that documents hold.
+	 * @param text the text to convert
+	 * @return the text with LF end-of-lines only
+	 */
+	public static String normalizeEOL(String text) {
+		int r = text.indexOf('\r');
+		if (r == -1) return text;
+		int len = text.length();
+		StringBuffer buf = new StringBuffer(len);
+		buf.append(text, 0, r);
+		for (int i = r; i < len; i++) {
+			char c = text.charAt(i);
+			if (c == '\r') {
+				buf.append('\n');
+				// CRLF becomes a single LF
+				if (i + 1 < len && text.charAt(i + 1) == '\n') i++;
+			} else {
+				buf.append(c);
+			}
+		}
+		return buf.toString();
+	}
+	
+	/** Edits the document so that its text matches the given text.
+	 * The document should not be modified by other threads during the
+	 * update.
+	 * @param doc the document to update
+	 * @param text the new text, with LF end-of-lines only
+	 * @return the start and end offsets of each changed region in the 
+	 * updated document, ordered from the end of the document; empty if 
+	 * the text was unchanged
+	 * @throws BadLocationException if the document was modified 
+	 * during the update
+	 */
+	public static ArrayList<int[]> apply(Document doc, String text) 
+			throws BadLocationException {
+		int oldLen = doc.getLength();
+		int newLen = text.length();
+		ArrayList<int[]> regions = new ArrayList<int[]>();
+		int prefix = commonPrefix(doc, text);
+		if (prefix == oldLen && prefix == newLen) return regions;
+		int suffix = commonSuffix(doc, text, Math.min(oldLen, newLen) - prefix);
+		
+		// aligns the changed region to whole lines, first moving the start
+		// back to the beginning of its line and then the end forward past
+		// the first line break within the common end
+		int start = text.lastIndexOf('\n', prefix - 1) + 1;
+		if (suffix > 0) {
+			int eol = text.indexOf('\n', newLen - suffix);
+			suffix = eol == -1 ? 0 : newLen - eol - 1;
+		}
+		int oldEnd = oldLen - suffix;
+		int newEnd = newLen - suffix;
+		
+		if (start == oldEnd) {
+			doc.insertString(start, text.substring(start, newEnd), null);
+			regions.add(new int[] { start, newEnd });
+			return regions;
+		}
+		if (start == newEnd) {
+			doc.remove(start, oldEnd - start);
+			regions.add(new int[] { start, newEnd });
+			return regions;
+		}
+		
+		// diffs the remaining lines
+		String oldText = doc.getText(start, oldEnd - start);
+		String newText = text.substring(start, newEnd);
+		int[] oldLines = lineStarts(oldText);
+		int[] newLines = lineStarts(newText);
+		int[] oldHashes = lineHashes(oldText, oldLines);
+		int[] newHashes = lineHashes(newText, newLines);
+		ArrayList<int[]> hunks = diff(oldText, oldLines, oldHashes, 
+				newText, newLines, newHashes);
+		if (hunks == null) {
+			// too many differences to be worth diffing line by line
+			doc.remove(start, oldEnd - start);
+			doc.insertString(start, newText, null);
+			regions.add(new int[] { start, newEnd });
+			return regions;
+		}
+		// hunks are ordered from the end, so earlier offsets remain valid
+		for (int i = 0; i < hunks.size(); i++) {
+			int[] hunk = hunks.get(i);
+			int offset = start + oldLines[hunk[0]];
+			int len = oldLines[hunk[1]] - oldLines[hunk[0]];
+			if (len > 0) doc.remove(offset, len);
+			if (hunk[3] > hunk[2]) {
+				doc.insertString(offset, newText.substring(
+						newLines[hunk[2]], newLines[hunk[3]]), null);
+			}
+			regions.add(new int[] { 
+					start + newLines[hunk[2]], start + newLines[hunk[3]] });
+		}
+		return regions;
+	}
+	
+	/** Counts the characters common to the start of the document and text.
+	 */
+	private static int commonPrefix(Document doc, String text) 
+			throws BadLocationException {
+		int max = Math.min(doc.getLength(), text.length());
+		Segment seg = new Segment();
+		seg.setPartialReturn(true);
+		int n = 0;
+		while (n < max) {
+			doc.getText(n, Math.min(CHUNK, max - n), seg);
+			for (int i = 0; i < seg.count; i++) {
+				if (seg.array[seg.offset + i] != text.charAt(n)) return n;
+				n++;
+			}
+		}
+		return n;
+	}
+	
+	/** Counts the characters common to the end of the document and text.
+	 * @param max the most characters to count
+	 */
+	private static int commonSuffix(Document doc, String text, int max) 
+			throws BadLocationException {
+		int oldLen = doc.getLength();
+		int newLen = text.length();
+		Segment seg = new Segment();
+		int n = 0;
+		while (n < max) {
+			int len = Math.min(CHUNK, max - n);
+			doc.getText(oldLen - n - len, len, seg);
+			for (int i = len - 1; i >= 0; i--) {
+				if (seg.array[seg.offset + i] 
+						!= text.charAt(newLen - n - 1)) return n;
+				n++;
+			}
+		}
+		return n;
+	}
+	
+	/** Finds the start of each line, plus the end of the text.
+	 */
+	private static int[] lineStarts(String text) {
+		int count = 1;
+		int len = text.length();
+		for (int i = 0; i < len - 1; i++) {
+			if (text.charAt(i) == '\n') count++;
+		}
+		int[] starts = new int[count + 1];
+		int line = 1;
+		for (int i = 0; i < len - 1; i++) {
+			if (text.charAt(i) == '\n') starts[line++] = i + 1;
+		}
+		starts[count] = len;
+		return starts;
+	}
+	
+	/** Hashes each line, including its line break.
+	 */
+	private static int[] lineHashes(String text, int[] starts) {
+		int[] hashes = new int[starts.length - 1];
+		for (int i = 0; i < hashes.length; i++) {
+			int h = 0;
+			for (int j = starts[i]; j < starts[i + 1]; j++) {
+				h = 31 * h + text.charAt(j);
+			}
+			hashes[i] = h;
+		}
+		return hashes;
+	}
+	
+	/** Finds the runs of differing lines with Myers' O(ND) algorithm.
+	 * @return the runs as arrays of the first and end old line followed
+	 * by the first and end new line, ordered from the end of the text, 
+	 * or <code>null</code> if the texts differ by more than 
+	 * {@link #MAX_EDITS} lines
+	 */
+	private static ArrayList<int[]> diff(String a, int[] aLines, int[] aHashes,
+			String b, int[] bLines, int[] bHashes) {
+		int n = aHashes.length;
+		int m = bHashes.length;
+		int max = Math.min(n + m, MAX_EDITS);
+		// furthest x reached on each diagonal k, stored at k + max + 1
+		int[] v = new int[2 * max + 3];
+		// the diagonals before each round, for tracing the path back
+		ArrayList<int[]> trace = new ArrayList<int[]>();
+		int rounds = -1;
+		for (int d = 0; d <= max && rounds == -1; d++) {
+			int[] prev = new int[2 * d + 1];
+			System.arraycopy(v, max + 1 - d, prev, 0, prev.length);
+			trace.add(prev);
+			for (int k = -d; k <= d; k += 2) {
+				int x = 0;
+				if (k == -d || (k != d 
+						&& v[max + k] < v[max + k + 2])) {
+					x = v[max + k + 2]; // down, an insertion
+				} else {
+					x = v[max + k] + 1; // right, a removal
+				}
+				int y = x - k;
+				while (x < n && y < m && sameLine(
+						a, aLines, aHashes, x, b, bLines, bHashes, y)) {
+					x++;
+					y++;
+				}
+				v[max + k + 1] = x;
+				if (x >= n && y >= m) {
+					rounds = d;
+					break;
+				}
+			}
+		}
+		if (rounds == -1) return null;
+		
+		// traces back from the end, merging adjacent edits into runs
+		ArrayList<int[]> hunks = new ArrayList<int[]>();
+		int[] hunk = null;
+		int x = n;
+		int y = m;
+		for (int d = rounds; d > 0; d--) {
+			int[] prev = trace.get(d); // diagonals -d through d
+			int k = x - y;
+			int prevK = 0;
+			if (k == -d || (k != d && prev[k - 1 + d] < prev[k + 1 + d])) {
+				prevK = k + 1;
+			} else {
+				prevK = k - 1;
+			}
+			int prevX = prev[prevK + d];
+			int prevY = prevX - prevK;
+			// the end of the edit, before any matching lines after it
+			int editX = prevK == k + 1 ? prevX : prevX + 1;
+			int editY = editX - k;
+			if (hunk != null && editX == hunk[0] && editY == hunk[2]) {
+				// adjoins the following edit
+				hunk[0] = prevX;
+				hunk[2] = prevY;
+			} else {
+				if (hunk != null) hunks.add(hunk);
+				hunk = new int[] { prevX, editX, prevY, editY };
+			}
+			x = prevX;
+			y = prevY;
+		}
+		if (hunk != null) hunks.add(hunk);
+		return hunks;
+	}
+	
+	/** Checks whether two lines match, first by hash and then by text.
+	 */
+	private static boolean sameLine(String a, int[] aLines, int[] aHashes, 
+			int i, String b, int[] bLines, int[] bHashes, int j) {
+		if (aHashes[i] != bHashes[j]) return false;
+		int len = aLines[i + 1] - aLines[i];
+		return len == bLines[j + 1] - bLines[j]
+				&& a.regionMatches(aLines[i], b, bLines[j], len);
+	}
+	
+}
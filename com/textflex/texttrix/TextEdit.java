@@ -0,0 +1,73 @@
+/* ***** BEGIN LICENSE BLOCK *****
+ * Version: MPL 1.1/GPL 2.0/LGPL 2.1
+ *
+ * The contents of this file are subject to the Mozilla Public License Version
+ * 1.1 (the "License"); you may not use this file except in compliance with
+ * the License. You may obtain a copy of the License at
+ * http://www.mozilla.org/MPL/
+ *
+ * Software distributed under the License is distributed on an "AS IS" basis,
+ * WITHOUT WARRANTY OF ANY KIND, either express or implied. See the License
+ * for the specific language governing rights and limitations under the
+ * License.
+ *
+ * The Original Code is the Text Trix code.
+ *
+ * The Initial Developer of the Original Code is
+ * Text Flex.
+ * Portions created by the Initial Developer are Copyright (C) 2019
+ * the Initial Developer. All Rights Reserved.
+ *
+ * Contributor(s): David Young <david@textflex.com>
+ *
+ * Alternatively, the contents of this file may be used under the terms of
+ * either the GNU General Public License Version 2 or later (the "GPL"), or
+ * the GNU Lesser General Public License Version 2.1 or later (the "LGPL"),
+ * in which case the provisions of the GPL or the LGPL are applicable instead
+ * of those above. If you wish to allow use of your version of this file only
+ * under the terms of either the GPL or the LGPL, and not to allow others to
+ * use your version of this file under the terms of the MPL, indicate your
+ * decision by deleting the provisions above and replace them with the notice
+ * and other provisions required by the GPL or the LGPL. If you do not delete
+ * the provisions above, a recipient may use your version of this file under
+ * the terms of any one of the MPL, the GPL or the LGPL.
+ *
+ * ***** END LICENSE BLOCK ***** */
+
+
+
+package com.textflex.texttrix;
+
+/** A single replacement of a range of text, such as one of the edits
+ * that a plug-in returns in place of the entire resulting text.
+ * @see PlugInOutcome#addEdit(int, int, String)
+ */
+public class TextEdit {
+	private int start = 0; // first char to replace
+	private int end = 0; // first char beyond the replaced range
+	private String text = ""; // replacement text
+	
+	/** Creates an edit.
+	 * 
+	 * @param aStart first char of the range to replace
+	 * @param anEnd first char beyond the range to replace; equal to 
+	 * <code>aStart</code> for a pure insertion
+	 * @param aText the text to replace the range with; empty for a 
+	 * pure removal
+	 */
+	public TextEdit(int aStart, int anEnd, String aText) {
+		if (aStart < 0 || anEnd < aStart) {
+			throw new IllegalArgumentException(
+					"Invalid range: " + aStart + "-" + anEnd);
+		}
+		start = aStart;
+		end = anEnd;
+		text = aText == null ? "" : aText;
+	}
+	
+	public int getStart() { return start; }
+	
+	public int getEnd() { return end; }
+	
+	public String getText() { return text; }
+}
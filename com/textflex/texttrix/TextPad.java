@@ -90,6 +90,22 @@ public class TextPad extends JTextPane implements StateEditable {
 	private boolean changed = false; // flag that text changed
 	private boolean ignoreChanged = false;
 	private String path; // file's path
+	/* Most edits kept in each pad's undo history */
+	private static final int UNDO_LIMIT = 1000;
+	/* Estimated size of each pad's undo history, beyond which the
+	 * oldest edits are discarded */
+	private static final long PAD_UNDO_BYTES = 8L * 1024 * 1024;
+	/* Estimated size of all pads' undo histories, beyond which the
+	 * oldest edits of the largest histories are discarded */
+	private static final long ALL_UNDO_BYTES = 64L * 1024 * 1024;
+	/* Estimated bookkeeping size of each edit, besides its text */
+	private static final long EDIT_BYTES = 256;
+	/* Longest insertion or removal whose text is kept for storing the
+	 * undo history when the pad is closed */
+	private static final int MAX_HISTORY_CHARS = 1024 * 1024;
+	// undo managers of all pads, for the global budget
+	private static final WeakHashMap<UndoManagerTTx, Boolean> undoManagers =
+			new WeakHashMap<UndoManagerTTx, Boolean>();
 	// allows for multiple and ignored undo operations
 	private UndoManagerTTx undoManager = new UndoManagerTTx();
 	private Hashtable actions; // table of shortcut actions
@@ -97,12 +113,27 @@ public class TextPad extends JTextPane implements StateEditable {
 	private ActionMap amap = null; // map of actions
 	private boolean autoIndent = false; // flag to auto-indent the text
 	private int tabSize = 4; // default tab display size
+	private Segment lineSeg = new Segment(); // reused to scan the current line
+	// reused to count the current line's leading whitespace
+	private WhitespaceCounter lineCounter = new WhitespaceCounter();
+	// shared paragraph attributes for wrap-indent
+	private ParagraphIndenter indenter = new ParagraphIndenter();
+	// wrap-indents the paragraphs in view
+	private ViewportIndenter viewportIndenter = new ViewportIndenter(this);
 // 	private long saveTimeCheck = -1;
 	private CompoundEdit compoundEdit = null; // group editing tasks for single undo
 	private boolean compoundEditing = false; // flags whether editing as group
 	private JScrollPane scrollPane = null; // the scroll pane that houses this pad
 	private LineDancePanel lineDancePanel = null; // the Line Dance panel
-	private FileModifiedThread fileModifiedThread = null;
+	private FileWatcher.Watch fileWatch = null; // watches for outside edits
+	private ChunkedFileLoader loader = null; // loads the file in chunks
+	private LineIndex lineIndex = new LineIndex(this); // line start offsets
+	private int saves = 0; // number of saves in progress
+	private int editCount = 0; // number of text edits, to compare snapshots
+	private EditJournal journal = null; // records unsaved edits for recovery
+	// directory of the stored undo history to restore at the first undo
+	private File undoHistoryDir = null;
+	private FileTailer tailer = null; // appends text added to the file
 	private DocumentListener docListener = null;
 	private WrappedPlainView wrappedView = null;
 	private String eol = null;
@@ -120,10 +151,7 @@ public class TextPad extends JTextPane implements StateEditable {
 		// within TextTrix, with ways to check TextTrix or pass as a parameter 
 		
 		file = aFile;
-		FileModifiedThread modifiedThread = new FileModifiedThread(
-				this, prefs.getRefreshPrompt());
-		setFileModifiedThread(modifiedThread);
-		modifiedThread.start();
+		fileWatch = FileWatcher.watch(this, prefs.getRefreshPrompt());
 		
 		// custom editor with support for wrapping long words
 		setEditorKit(new WrapEditorKit());
@@ -343,7 +371,7 @@ public class TextPad extends JTextPane implements StateEditable {
 		// either requires no styling or has a content type that
 		// requires its own formatting
 		String ext = getFileExtension().toLowerCase();
-		if (ext.equals("") || ext.equals("txt")) return;
+		if (ext.equals("") || ext.equals("txt") || isPaged()) return;
 		
 		// prepares to transfer text into new styled document, which
 		// will automatically style the text
@@ -370,7 +398,7 @@ public class TextPad extends JTextPane implements StateEditable {
 			// Ostermiller syntax highlighter for better wrapped text
 			StyledDocument doc = getStyledDocument();
 			if (doc == null || !(doc instanceof HighlightedDocument)) {
-				doc = new HighlightedDocument();
+				doc = new IndentedHighlightedDocument();
 				setStyledDocument(doc);
 			}
 			HighlightedDocument highlightedDoc = (HighlightedDocument)doc;
@@ -419,7 +447,7 @@ public class TextPad extends JTextPane implements StateEditable {
 	}
 	
 	public void spellChecker(boolean check) {
-		if (check) {
+		if (check && !isPaged()) {
 			String ext = getFileExtension().toLowerCase();
 			if (ext.equals("") || ext.equals("txt") ) {
 			
@@ -769,20 +797,8 @@ public class TextPad extends JTextPane implements StateEditable {
 	 * @see #setIndentTabs(int) 
 	 */
 	public void setDefaultTabs(int tabChars) {
-		int charWidth = getFontMetrics(getFont()).charWidth(' ');
-		int tabWidth = charWidth * tabChars;
-		
-		// Creates the tabs and fills them with the default indent
-		TabStop[] tabs = new TabStop[30]; // just enough to fit default frame
-		for (int i = 0; i < tabs.length; i++)
-			tabs[i] = new TabStop((i + 1) * tabWidth);
-		TabSet tabSet = new TabSet(tabs);
-		
 		// resets any other indents or styles to their default settings
-		SimpleAttributeSet attribs = new SimpleAttributeSet();
-		StyleConstants.setTabSet(attribs, tabSet);
-		StyleConstants.setLeftIndent(attribs, 0);
-		StyleConstants.setFirstLineIndent(attribs, 0);
+		AttributeSet attribs = getIndenter(tabChars).getDefaultAttributes();
 		
 		// apply the change without recording an undo
 		undoManager.setIgnoreNextStyleChange(true);
@@ -799,31 +815,30 @@ public class TextPad extends JTextPane implements StateEditable {
 	 * @see #setIndentTabs(int)
 	 * @see #indent(int, int, int, int)
 	 */
-	public void setNoTabs() { //int offset, int length) {
+	public void setNoTabs() {
+		setNoTabs(0, getDocument().getLength() + 1);
+	}
+	
+	/** Sets the displayed tab size to 0 for the paragraphs in the 
+	 * given region.
+	 * @param offset the start of the region
+	 * @param length the number of characters in the region
+	 * @see #setNoTabs()
+	 */
+	public void setNoTabs(int offset, int length) {
 		//	System.out.println("set no tabs at position " + offset + " for " + length + " chars");
-		TabStop[] tabs = new TabStop[30];
-		//tabs[0] = new TabStop(0, TabStop.ALIGN_RIGHT, TabStop.LEAD_NONE);
-		
 		/* Provide a whole array of TabStops for positions many tabs deep;
 		 * now setFirstLineIndent, set to a neg number, can provide the neg
 		 * region into which these tabs can pull the first line of text in a paragraph
 		 * (see indent(int, int, int, int).
 		*/
-		int charWidth = getFontMetrics(getFont()).charWidth(' ');
-		int tabWidth = charWidth * getTabSize();
-		for (int i = 0; i < 30; i++) {
-			tabs[i] = new TabStop(i * tabWidth * -1);
-		}
-		TabSet tabSet = new TabSet(tabs);
-		SimpleAttributeSet attribs = new SimpleAttributeSet();
-		StyleConstants.setTabSet(attribs, tabSet);
+		AttributeSet attribs = 
+				getIndenter(getTabSize()).getNoTabsAttributes();
 		
 		// apply the change without recording an undo
 		undoManager.setIgnoreNextStyleChange(true);
 		getStyledDocument()
-			.setParagraphAttributes(0, getDocument().getLength() + 1,
-		// next char
-		attribs, false); // false to preserve default font
+			.setParagraphAttributes(offset, length, attribs, false);
 	}
 
 	/** Sets the displayed indentation for the entire text. 
@@ -834,13 +849,15 @@ public class TextPad extends JTextPane implements StateEditable {
 	 * @see #setIndentTabs(int, int, int)
 	 */
 	public void setIndentTabs(int tabChars) {
-		setIndentTabs(tabChars, 0, getAllText().length());
+		setIndentTabs(tabChars, 0, getDocument().getLength());
 	}
 
 	/** Sets the displayed indentation for the region beginning at 
 	 * <code>start</code> through any paragraph that begins at <code>end</code>.
 	 * By only affecting the displayed size, this method is useful 
 	 * to represent tabs as styled indents.  The underlying text remains untouched.
+	 * Each paragraph also receives the tab stops from <code>setNoTabs()</code>,
+	 * and the whole region is styled in a single pass.
 	 * @param tabChars the number of characters that each tab represents
 	 * @param start the position from which to start indenting
 	 * @param end the first position from which to no longer indent
@@ -849,24 +866,27 @@ public class TextPad extends JTextPane implements StateEditable {
 	 */
 	public void setIndentTabs(int tabChars, int start, int end) {
 		//		System.out.println("start: " + start + ", end: " + end);
-		int i = start;
-		int j = 0;
-		String s = getAllText();
-		
 		// indent every paragraph from "start" to "end" acc
-		// to each paragraph's number of tabs
-		while (i < end) {
-			// find next newline
-			j = s.indexOf("\n", i);
-			if (j == -1) j = end - 1; // if found none, go to end
-			
-			// count and graphically indent tabs at head of curr line
-			WhitespaceCounter counter = leadingTabsCount(s, i);
-			if (counter.tabs >= 0)
-				indent(tabChars, counter, i, j - i + 1);
-			i = j + 1;
+		// to each paragraph's number of tabs, without recording undos
+		undoManager.setIgnoreStyleChanges(true);
+		try {
+			getIndenter(tabChars).indent(getStyledDocument(), start, end);
+		} catch (BadLocationException e) {
+			e.printStackTrace();
+		} finally {
+			undoManager.setIgnoreStyleChanges(false);
 		}
 	}
+	
+	/** Gets the indenter, updated for the current font and a given
+	 * tab size.
+	 * @param tabChars the number of characters that each tab represents
+	 * @return the indenter
+	 */
+	private ParagraphIndenter getIndenter(int tabChars) {
+		indenter.setTabSize(getFontMetrics(getFont()).charWidth(' '), tabChars);
+		return indenter;
+	}
 
 	/** Counts the number of continuous tabs from a given position.
 	 * Useful when determining the number of tabs in the current line to auto-indent
@@ -894,6 +914,34 @@ public class TextPad extends JTextPane implements StateEditable {
 		return counter;
 	}
 
+	/** Counts the continuous tabs and spaces from a given position to the
+	 * end of its paragraph.
+	 * Reads only that paragraph through a reused segment rather than 
+	 * copying the document, so that the cost depends only on the length
+	 * of the line, and returns a counter that is reused on the next call.
+	 * @param doc document to count for tabs
+	 * @param offset position to start counting
+	 * @return WhitespaceCounter with number of continuous tabs and/or spaces 
+	 * from a given position as well as the given whitespace in a StringBuilder
+	 * @throws BadLocationException if the position is outside the document
+	 * @see #leadingTabsCount(String, int)
+	 */
+	public WhitespaceCounter leadingTabsCount(Document doc, int offset) 
+			throws BadLocationException {
+		WhitespaceCounter counter = lineCounter;
+		counter.reset();
+		int n = LibTTx.getLeadingWhitespace(doc, offset, lineSeg);
+		for (int i = 0; i < n; i++) {
+			if (lineSeg.array[lineSeg.offset + i] == '\t') {
+				counter.tabs++;
+			} else {
+				counter.spaces++;
+			}
+		}
+		counter.strBuilder.append(lineSeg.array, lineSeg.offset, n);
+		return counter;
+	}
+
 	/** Indents a paragraph by a given number of tabs and size per tab.
 	 * Indents the entire region, not just the first line, though each tab remains the size of
 	 * one space.
@@ -904,14 +952,14 @@ public class TextPad extends JTextPane implements StateEditable {
 	 */
 	public void indent(int tabChars, WhitespaceCounter counter, int offset, int length) {
 		// TODO: update for spaces
-		int charWidth = getFontMetrics(getFont()).charWidth(' ');
-		int tabWidth = charWidth * tabChars;
 		//System.out.println("tabWidth: " + tabWidth + ", charWidth: " + charWidth + ", tabs: " + tabs + ", offset: " + offset + ", length: " + length + ", styledDoc: " + getStyledDocument().toString());
 
-		SimpleAttributeSet attribs = new SimpleAttributeSet();
+		// shared attributes for the level, which also include the
+		// tab stops from setNoTabs
+		AttributeSet attribs = 
+				getIndenter(tabChars).getIndentAttributes(counter.tabs);
 		
 // 		StyleContext sc = new StyleContext();
-		StyleConstants.setLeftIndent(attribs, counter.tabs * tabWidth);
 		/*
 		Style defaultStyle = sc.getStyle(StyleContext.DEFAULT_STYLE);
 		final Style mainStyle = sc.addStyle("MainStyle", defaultStyle);
@@ -930,7 +978,6 @@ public class TextPad extends JTextPane implements StateEditable {
 		 * the command provides an area into which these tabs can drag
 		 * the text from the first line.
 		*/
-		StyleConstants.setFirstLineIndent(attribs, counter.tabs * charWidth * -1.7f);
 		undoManager.setIgnoreNextStyleChange(true);
 		getStyledDocument().setParagraphAttributes(offset, length, // next char
 				attribs, false); // false to preserve default font
@@ -958,9 +1005,17 @@ public class TextPad extends JTextPane implements StateEditable {
 	public void indentCurrentParagraph(
 		int tabChars,
 		boolean decrementTab) {
-		String s = getAllText();
-		int start = LibTTx.reverseIndexOf(s, "\n", getCaretPosition()) + 1;
-		WhitespaceCounter counter = leadingTabsCount(s, start);
+		Document doc = getDocument();
+		Element root = doc.getDefaultRootElement();
+		Element para = root.getElement(root.getElementIndex(getCaretPosition()));
+		int start = para.getStartOffset();
+		WhitespaceCounter counter = null;
+		try {
+			counter = leadingTabsCount(doc, start);
+		} catch (BadLocationException e) {
+			e.printStackTrace();
+			return;
+		}
 		// the tab has already been deleted in JVM >= v.1.5;
 		// tabs should equal the final number of tab characters, so tabs
 		// must be decremented in JVM < v.1.5
@@ -976,8 +1031,9 @@ public class TextPad extends JTextPane implements StateEditable {
 			}
 		}
 //		System.out.println("tabs: " + tabs);
-		int end = s.indexOf("\n", start);
-		indent(tabChars, counter, start, (end == -1 ? s.length() : end + 1) - start);
+		// the final paragraph ends in the document's implied newline
+		int end = Math.min(para.getEndOffset(), doc.getLength());
+		indent(tabChars, counter, start, end - start);
 	}
 
 	/** Determines whether the tab is at the start of a given line.
@@ -988,11 +1044,17 @@ public class TextPad extends JTextPane implements StateEditable {
 	public boolean isLeadingTab() {
 		//System.out.println("caret: " + getCaretPosition() + ", selectionEnd: " + getSelectionEnd());
 		int i = getLeadingCharIndex();
+		if (i < 0) return false;
+		Document doc = getDocument();
+		// checks that the line holds only tabs up through the character
+		int start = LibTTx.getParagraphStart(doc, i);
 		try {
-			if (i >= 0 && !getDocument().getText(i, 1).equals("\t")) return false;
-			while (i > 0 && getDocument().getText(i, 1).equals("\t"))
-				i--;
-			return i == 0 || i >= 0 && getDocument().getText(i, 1).equals("\n");
+			doc.getText(start, i + 1 - start, lineSeg);
+			for (int j = lineSeg.offset + lineSeg.count - 1; 
+					j >= lineSeg.offset; j--) {
+				if (lineSeg.array[j] != '\t') return false;
+			}
+			return true;
 		} catch (BadLocationException e) {
 			System.out.println("Can't find no tabs, dude.");
 			return false;
@@ -1026,7 +1088,7 @@ public class TextPad extends JTextPane implements StateEditable {
 		// finds the start of the line, either immediately following
 		// the previous newline, or if none exists, the first character
 		// of the document
-		int lineLeadingChar = LibTTx.reverseIndexOf(doc, "\n", i) + 1;
+		int lineLeadingChar = LibTTx.getParagraphStart(doc, i);
 // 		System.out.println("lineLeadingChar: " + lineLeadingChar);
 		// removes the first tab
 		if (doc.getText(lineLeadingChar, 1).equals("\t")) {
@@ -1047,74 +1109,65 @@ public class TextPad extends JTextPane implements StateEditable {
 	public void tabRegion(String whitespace, boolean reverse) 
 			throws BadLocationException {
 		Document doc = getDocument();
+		Element root = doc.getDefaultRootElement();
 		int start = getSelectionStart();
 		int end = getSelectionEnd();
-		String currChar = "";
-		int charsAdded = 0; // char count for re-highlighting
-		boolean checkTab = false; // check for tab at beginning of last line
+		int len = whitespace.length();
 		
 		// include the current line, but skip if current char is newline for 
-		// ease of highlighting by grabbing from the end of the prior line
-		int restart = LibTTx.reverseIndexOf(getAllText(), "\n", start + 1);
-		if (restart != -1) start = restart;
-		int len = end - start;
-		// slightly larger than the text to accommodate any new tabs
-		StringBuilder builder = new StringBuilder((int) (len + len * .1));
-		
-		// starts from the character just before the selected region
-		// to the last character that the selection encompasses
-		for (int i = start - 1; i < end; i++) {
-			// get each character after the first char in the document
-			if (i != -1) currChar = doc.getText(i, 1);
-			if (reverse) {
-				if (i != start - 1 && !(checkTab 
-						&& currChar.equals(whitespace))) {
-					builder.append(currChar);
-					charsAdded++;
-				} else {
-					// resets the tab flag after skipping a char
-					checkTab = false;
-				}
-				// flag tab check if newline or start of doc
-				if (i == -1|| currChar.equals("\n")) {
-					checkTab = true;
-				}
-			} else {
-				// append every character but the one preceding the region
-				if (i != start - 1) builder.append(currChar);
-				// add a tab after any newline or at the start of 
-				// the document; the tab follows the newline
-				if (i == -1|| currChar.equals("\n")) {
-					builder.append(whitespace);
-					charsAdded++;
-				}
-			}
-		}
-		// allow one undo to undo the entire edit
+		// ease of highlighting by grabbing from the end of the prior line;
+		// a line that starts right after the selection, following a 
+		// selected newline, is included as well
+		int first = root.getElementIndex(Math.min(start + 1, doc.getLength()));
+		int last = root.getElementIndex(end);
+		int charsAdded = 0; // char count for re-highlighting
+		
+		// allow one undo to undo the entire edit; works back from the
+		// last line so that the earlier line starts remain in place, and
+		// only touches the whitespace at the head of each line
 		startCompoundEdit();
-		doc.remove(start, len);
-		doc.insertString(start, builder.toString(), null);
-		if (reverse) {
-			// remove one final tab if the last selected character is a newline 
-			// and the tab immediately follows the selection
-			end = start + charsAdded;
-			if (doc.getLength() > end && checkTab 
-					&& doc.getText(end, 1).equals(whitespace)) {
-				doc.remove(end, 1);
+		try {
+			for (int i = last; i >= first; i--) {
+				int lineStart = root.getElement(i).getStartOffset();
+				if (!reverse) {
+					doc.insertString(lineStart, whitespace, null);
+					charsAdded += len;
+				} else if (lineStart + len <= doc.getLength()) {
+					doc.getText(lineStart, len, lineSeg);
+					if (startsWith(lineSeg, whitespace)) {
+						doc.remove(lineStart, len);
+						if (lineStart < end) charsAdded -= len;
+					}
+				}
 			}
-		} else {
-			end += charsAdded;
+		} finally {
+			stopCompoundEdit();
 		}
-		stopCompoundEdit();
-		
-		// re-indent graphically, if necessary
-		if (autoIndent) indentRegion(start, end);
 		
-		// re-highlight the text
-		setSelectionEnd(end);
+		// re-highlight the text, from the end of the prior line
+		start = root.getElement(first).getStartOffset();
+		if (start > 0) start--;
+		end = Math.max(end + charsAdded, start);
+		// the viewport indenter re-indents graphically, if necessary
+		setCaretPosition(end);
 		moveCaretPosition(start);
 	}
 	
+	/** Checks whether a segment begins with the given string.
+	 * @param seg the segment to check
+	 * @param str the string
+	 * @return <code>true</code> if the segment holds at least the
+	 * characters of the string at its start
+	 */
+	private static boolean startsWith(Segment seg, String str) {
+		int len = str.length();
+		if (seg.count < len) return false;
+		for (int i = 0; i < len; i++) {
+			if (seg.array[seg.offset + i] != str.charAt(i)) return false;
+		}
+		return true;
+	}
+	
 
 
 
@@ -1147,6 +1200,8 @@ public class TextPad extends JTextPane implements StateEditable {
 	 */
 	public void setChanged(boolean b) {
 		changed = b;
+		// the text now matches the file, so earlier edits need no recovery
+		if (!b && journal != null) journal.reset(file);
 	}
 
 	/**Gets the file's path.
@@ -1202,7 +1257,7 @@ public class TextPad extends JTextPane implements StateEditable {
 	 */
 	public void setFile(File aFile) {
 		file = aFile;
-//		setupFileModifiedThread();
+//		setupFileWatch();
 	}
 
 	/**Sets the file to a path.
@@ -1210,22 +1265,23 @@ public class TextPad extends JTextPane implements StateEditable {
 	 */
 	public void setFile(String path) {
 		file = new File(path);
-//		setupFileModifiedThread();
+//		setupFileWatch();
 	}
 	
-	public void setupFileModifiedThread() {
-		FileModifiedThread thread = getFileModifiedThread();
-		if (thread != null) {
-//			thread.setFile(file);
-//System.out.println("just saved: " + getFile().lastModified());
-			thread.setLastModifiedWithTTx(getFile().lastModified());
-		}
+	/**Updates the watch for modifications made elsewhere to the pad's
+	 * current file and its modification time, such as after loading or 
+	 * saving the file.
+	 */
+	public void setupFileWatch() {
+		if (fileWatch != null) fileWatch.update();
 	}
 	
-	public void stopFileModifiedThread() {
-		FileModifiedThread thread = getFileModifiedThread();
-		if (thread != null) {
-			thread.requestStop();
+	/**Stops watching the pad's file, such as when closing the pad.
+	 */
+	public void stopFileWatch() {
+		if (fileWatch != null) {
+			fileWatch.cancel();
+			fileWatch = null;
 		}
 	}
 
@@ -1237,8 +1293,285 @@ public class TextPad extends JTextPane implements StateEditable {
 		applyAutoIndent();
 	}
 	
-	public void setFileModifiedThread(FileModifiedThread thread) {
-		fileModifiedThread = thread;
+	/**Stops the chunked loader, if any, from loading any more of the 
+	 * file into this pad.  Pads in the large-file viewer stop indexing
+	 * and release their file.
+	 */
+	public void stopLoader() {
+		if (loader != null) {
+			loader.requestStop();
+			loader = null;
+		}
+		if (isPaged()) {
+			((PagedDocument) getDocument()).close();
+		}
+	}
+	
+	/**Views the pad's file in the read-only large-file viewer, which
+	 * pages the file in from disk rather than loading it into memory.
+	 * @param progress progress bar in which to display the indexing
+	 * status; can be <code>null</code>
+	 * @throws IOException if the file cannot be opened
+	 */
+	public void viewPaged(JProgressBar progress) throws IOException {
+		final PagedDocument doc = new PagedDocument(getFile());
+		stopLoader();
+		SpellChecker.unregister(this);
+		removeDocListener();
+		setEditable(false);
+		if (!(getEditorKit() instanceof PagedEditorKit)) {
+			setEditorKit(new PagedEditorKit());
+		}
+		// keeps the caret in place as the indexed text is appended
+		Caret caret = getCaret();
+		if (caret instanceof DefaultCaret) {
+			((DefaultCaret) caret).setUpdatePolicy(DefaultCaret.NEVER_UPDATE);
+		}
+		setStyledDocument(doc);
+		applyDocumentSettings();
+		doc.setOnFinished(new Runnable() {
+			public void run() {
+				setEOL(doc.getEOL());
+			}
+		});
+		doc.start(progress);
+	}
+	
+	/**Checks whether the pad is in the read-only large-file viewer.
+	 * @return <code>true</code> if the pad's document is paged in
+	 * from disk
+	 */
+	public boolean isPaged() {
+		return getDocument() instanceof PagedDocument;
+	}
+	
+	/**Sets whether the pad's text is stored in a piece table, which 
+	 * keeps edits quick in large documents and lets background tasks 
+	 * read snapshots of the text without locking the document.
+	 * Only takes effect on an empty pad with the default document, 
+	 * before its file is loaded; other documents such as those for
+	 * syntax highlighting keep their own storage.
+	 * @param b <code>true</code> to store the text in a piece table
+	 * @see PieceContent
+	 */
+	public void setPieceContent(boolean b) {
+		Document doc = getDocument();
+		if (b == isPieceContent() || doc.getLength() > 0 
+				|| doc.getClass() != IndentedDocument.class) {
+			return;
+		}
+		setStyledDocument(b ? new IndentedDocument(new PieceContent()) 
+				: new IndentedDocument());
+	}
+	
+	/**Checks whether the pad's text is stored in a piece table.
+	 * @return <code>true</code> if the document can give snapshots
+	 * of its text
+	 */
+	public boolean isPieceContent() {
+		Document doc = getDocument();
+		return doc instanceof IndentedDocument 
+				&& ((IndentedDocument) doc).getSnapshot() != null;
+	}
+	
+	/**Gets the text as it stands, to be read outside the event 
+	 * dispatch thread.  Pads stored in a piece table give a snapshot 
+	 * that shares the document's text; others give a copy.
+	 * @return the text, which does not change with later edits
+	 */
+	public CharSequence getSnapshot() {
+		Document doc = getDocument();
+		if (doc instanceof IndentedDocument) {
+			CharSequence snapshot = ((IndentedDocument) doc).getSnapshot();
+			if (snapshot != null) return snapshot;
+		}
+		return getAllText();
+	}
+	
+	/**Checks whether the file is still being loaded into this pad.
+	 * @return <code>true</code> if a chunked loader is still running
+	 */
+	public boolean isLoading() {
+		return loader != null;
+	}
+	
+	public void setLoader(ChunkedFileLoader val) { loader = val; }
+	
+	public ChunkedFileLoader getLoader() { return loader; }
+	
+	/**Follows the pad's file as it grows, appending any text added to
+	 * the end of the file, such as to watch a log.  The pad is read-only
+	 * while following, and the appended text cannot be undone.
+	 * @param maxLines the most lines to keep, removing the earliest lines
+	 * beyond it, or 0 to keep all lines
+	 */
+	public void startFollowing(int maxLines) {
+		if (isFollowing() || isPaged() || !fileExists()) return;
+		// catches up with changes made since the file was last read
+		if (fileWatch != null 
+				&& fileWatch.getLastModifiedWithTTx() != file.lastModified()) {
+			refresh();
+		}
+		tailer = new FileTailer(this, file.length(), maxLines);
+		setEditable(false);
+		getDocument().removeUndoableEditListener(undoManager);
+		getDocument().removeDocumentListener(undoManager);
+		undoManager.discardAllEdits();
+		setupFileWatch();
+	}
+	
+	/**Stops following the pad's file and makes the pad editable again.
+	 */
+	public void stopFollowing() {
+		if (!isFollowing()) return;
+		tailer.stop();
+		tailer = null;
+		setEditable(true);
+		applyDocumentSettings();
+		setupFileWatch();
+	}
+	
+	/**Checks whether the pad is following its file.
+	 * @return <code>true</code> if text added to the file is appended
+	 * to the pad
+	 * @see #startFollowing(int)
+	 */
+	public boolean isFollowing() {
+		return tailer != null;
+	}
+	
+	public FileTailer getTailer() { return tailer; }
+	
+	/**Flags that a save of the pad's contents has started or finished.
+	 * Since auto-saves may be queued while another is in progress,
+	 * each call with <code>true</code> should be paired with a
+	 * call with <code>false</code>.
+	 * @param val <code>true</code> when a save starts, <code>false</code>
+	 * when it finishes
+	 */
+	public void setSaving(boolean val) {
+		if (val) {
+			saves++;
+		} else if (saves > 0) {
+			saves--;
+		}
+	}
+	
+	/**Checks whether the pad's contents are being saved.
+	 * @return <code>true</code> while a save is in progress
+	 */
+	public boolean isSaving() { return saves > 0; }
+	
+	/**Counts an insertion or removal of text, for checking whether the
+	 * pad has been edited since a snapshot of its text.
+	 */
+	public void countEdit() { editCount++; }
+	
+	public int getEditCount() { return editCount; }
+	
+	/**Sets the journal that records edits to this pad for recovery
+	 * after a crash.
+	 * @param val the journal, or <code>null</code> to stop journaling
+	 */
+	public void setJournal(EditJournal val) { journal = val; }
+	
+	public EditJournal getJournal() { return journal; }
+	
+	/**Closes and deletes the pad's journal, such as when the pad is
+	 * closed and its unsaved edits are intentionally discarded.
+	 */
+	public void closeJournal() {
+		if (journal != null) {
+			journal.close();
+			journal = null;
+		}
+	}
+	
+	/**Starts the journal over from the pad's entire text, for when
+	 * the pad's text no longer corresponds to its saved file.
+	 */
+	public void rebaseJournal() {
+		if (journal != null && !isPaged()) journal.rebase(getAllText());
+	}
+	
+	/**Starts the journal over from the pad's file just after saving 
+	 * a snapshot of the pad's text, keeping only the edits made since
+	 * the snapshot.  Falls back to the pad's entire text if those 
+	 * edits were not all kept.
+	 * @param editCount the pad's edit count when the snapshot was taken
+	 * @see #getEditCount()
+	 */
+	public void rebaseJournal(int editCount) {
+		if (journal == null || isPaged()) return;
+		if (!journal.rebase(file, editCount)) rebaseJournal();
+	}
+	
+	/**Flags the pad to restore the undo history stored when its file
+	 * was last closed.  The history is only read at the first undo, 
+	 * redo, or edit, so that opening files is not slowed.
+	 * @param dir the directory of stored histories
+	 * @see #saveUndoHistory(File)
+	 */
+	public void restoreUndoHistoryLater(File dir) {
+		undoHistoryDir = dir;
+	}
+	
+	/**Restores the stored undo history, as long as the file has not 
+	 * changed since the history was stored.
+	 * @param checkText <code>true</code> to also check that the 
+	 * history ends with the pad's text, which is only possible before
+	 * the pad has been edited
+	 */
+	private void restoreUndoHistory(boolean checkText) {
+		File dir = undoHistoryDir;
+		undoHistoryDir = null;
+		UndoHistory history = UndoHistory.read(dir, getPath());
+		if (history == null 
+				|| checkText && !history.matches(getDocument())) {
+			return;
+		}
+		undoManager.restore(history);
+	}
+	
+	/**Stores the pad's undo history for the next time its file is 
+	 * opened, such as when closing the pad.  Only the history of a
+	 * pad whose text has been saved is stored.
+	 * @param dir the directory of stored histories
+	 */
+	public void saveUndoHistory(File dir) {
+		// leaves any history not yet restored in place
+		if (undoHistoryDir != null || isPaged() || !fileExists() 
+				|| getChanged()) {
+			return;
+		}
+		UndoHistory history = undoManager.getHistory(getPath());
+		if (history == null) {
+			UndoHistory.getFile(dir, getPath()).delete();
+		} else {
+			history.write(dir, getDocument());
+		}
+	}
+	
+	/**Records an edit in the pad's journal.
+	 * @param e the event for the insertion or removal
+	 */
+	public void recordEdit(DocumentEvent e) {
+		// followed text is already in the file
+		if (journal == null || isPaged() || isFollowing()) return;
+		// keeps edits made during a save to rebase onto the saved file
+		int edit = isSaving() ? editCount : -1;
+		if (e.getType() == DocumentEvent.EventType.INSERT) {
+			try {
+				journal.insert(e.getOffset(), 
+						getDocument().getText(e.getOffset(), e.getLength()), 
+						edit);
+			} catch (BadLocationException ex) {
+				// restarts the journal from the full text
+				rebaseJournal();
+			}
+		} else if (e.getType() == DocumentEvent.EventType.REMOVE) {
+			journal.remove(e.getOffset(), e.getLength(), edit);
+		}
 	}
 	
 // 	public void setSaveTimeCheck(long val) { saveTimeCheck = val; }
@@ -1261,6 +1594,7 @@ public class TextPad extends JTextPane implements StateEditable {
 	 * May need to make include the goofy features' text manipulations.
 	 */
 	public void undo() {
+		if (undoHistoryDir != null) restoreUndoHistory(true);
 		if (undoManager.canUndo()) {
 			undoManager.undo();
 			System.out.println("here");
@@ -1276,6 +1610,7 @@ public class TextPad extends JTextPane implements StateEditable {
 	 * May need to make include the goofy features' text manipulations
 	 */
 	public void redo() {
+		if (undoHistoryDir != null) restoreUndoHistory(true);
 		if (undoManager.canRedo()) {
 			undoManager.redo();
 		} else {
@@ -1291,8 +1626,15 @@ public class TextPad extends JTextPane implements StateEditable {
 		// need to remove and re-add the undo manager to properly
 		// undo events after reading in new text
 		doc.removeUndoableEditListener(undoManager);	
+		doc.removeDocumentListener(undoManager);
 		undoManager.discardAllEdits();
+		undoHistoryDir = null;
+		doc.addDocumentListener(undoManager);
 		doc.addUndoableEditListener(undoManager);
+		// records removed text for the stored undo history
+		if (doc instanceof AbstractDocument) {
+			((AbstractDocument) doc).setDocumentFilter(new RemovalFilter());
+		}
 	}
 	
 	/** Visually indents the tabs and word-wrapped lines
@@ -1305,24 +1647,44 @@ public class TextPad extends JTextPane implements StateEditable {
 	 */
 	public void applyAutoIndent() {
 		// TODO: visual indentation not currently
-		// working with WrappedPlainView, and calls to paragraph attributes
-		// causing crash on loading and extremely long loading times
-		// when mixed with syntax highlighting, so only using for
-		// Ostermiller syntax highlighter (HighlightedDocument) for now
-		if (getStyledDocument() instanceof HighlightedDocument) {
-			if (autoIndent) {
-				setIndentTabs(getTabSize());
-				setNoTabs();
-			} else {
-				setDefaultTabs(getTabSize());
-			}
+		// working with WrappedPlainView; paragraph attributes are applied
+		// only to the paragraphs in view to avoid the long loading times
+		// once seen when mixed with syntax highlighting
+		viewportIndenter.setEnabled(autoIndent && isStyleable());
+		if (isStyleable() && !autoIndent) {
+			setDefaultTabs(getTabSize());
+		}
+	}
+	
+	/**Applies the auto-indent setting to the paragraphs in the given 
+	 * region, such as text that has just been inserted.
+	 * Only the part of the region in view is indented right away; the
+	 * rest is indented once scrolled into view.
+	 * @param start the start of the region
+	 * @param end the end of the region
+	 * @see #applyAutoIndent()
+	 */
+	public void applyAutoIndent(int start, int end) {
+		if (autoIndent && isStyleable()) {
+			viewportIndenter.schedule();
 		}
 	}
+	
+	/**Checks whether the pad's document takes paragraph attributes
+	 * for wrap-indent.
+	 * @return <code>true</code> if the document is styled and not 
+	 * in the read-only large-file viewer
+	 */
+	private boolean isStyleable() {
+		return !isPaged() && getDocument() instanceof StyledDocument;
+	}
 
 	/**Tells whether the pad has any characters in it.
 	 * @return boolean <code>true</code> if the pad is empty
 	 */
 	public boolean isEmpty() {
+		// avoids reading the entire file in the large-file viewer
+		if (isPaged()) return getDocument().getLength() == 0;
 		String text = getText();
 		return ((text == null) || !(new StringTokenizer(text)).hasMoreTokens())
 			? true
@@ -1539,25 +1901,19 @@ public class TextPad extends JTextPane implements StateEditable {
 		// go back 2 to skip the hard return that makes the new line
 		// requiring indentation
 		try {
-			int n = 0;
-			int tabs = 0;
-			
-			// finds the previous newline that created the previous paragraph
-			for (n = getCaretPosition() - 2;
-				n >= 0 && !getDocument().getText(n, 1).equals("\n");
-				n--);
-//				System.out.println("n char: " + getDocument().getText(n, 1)); }
-			/*
-			if (n == 0)
-				n = -1;
-			*/
-			WhitespaceCounter counter = leadingTabsCount(getAllText(), ++n);
+			Document doc = getDocument();
+			// the previous paragraph ends with the hard return just typed
+			int n = LibTTx.getParagraphStart(
+					doc, Math.max(getCaretPosition() - 1, 0));
+			WhitespaceCounter counter = leadingTabsCount(doc, n);
 			
 			// add the tabs
-			getDocument().insertString(
-				getCaretPosition(),
-				counter.strBuilder.toString(),
-				null);
+			if (counter.strBuilder.length() > 0) {
+				doc.insertString(
+					getCaretPosition(),
+					counter.strBuilder.toString(),
+					null);
+			}
 		} catch (BadLocationException e) {
 			System.out.println(
 				"Insert location " + getCaretPosition() + " does not exist");
@@ -1642,18 +1998,9 @@ public class TextPad extends JTextPane implements StateEditable {
 	 * @param end the last character to indent, non-inclusive
 	*/
 	public void indentRegion(int start, int end) {
-		int prevBreak = end; // position of next preceding "\n"
-		String text = getAllText(); // pad's text
-		// indents each paragraph in pasted region individually;
-		// stops once finds a hard return outside the region
-		do {
-			// indentCurrentParagraph relies on caret position
-			setCaretPosition(prevBreak); 
-			indentCurrentParagraph(getTabSize(), false);
-		} while (
-			start
-				< (prevBreak = LibTTx.reverseIndexOf(text, "\n", prevBreak)));
-		setCaretPosition(end); // returns caret position to end of region
+		// indents the paragraphs in pasted region together,
+		// through the paragraph holding the end of the region
+		setIndentTabs(getTabSize(), start, end + 1);
 	}
 	
 	/**Deletes the following character or, if text is selected, the
@@ -1717,8 +2064,7 @@ public class TextPad extends JTextPane implements StateEditable {
 	 */
 	public int getLineNumber() {
 		int offset = getCaretPosition();
-		return getDocument().getDefaultRootElement()
-				.getElementIndex(offset) + 1;
+		return lineIndex.getLineOfOffset(offset) + 1;
 	}
 
 	/**
@@ -1728,7 +2074,7 @@ public class TextPad extends JTextPane implements StateEditable {
 	 * @return the number of lines with hard breaks
 	 */
 	public int getTotalLineNumber() {
-		return getDocument().getDefaultRootElement().getElementCount();
+		return lineIndex.getLineCount();
 	}
 	
 	/**
@@ -1738,8 +2084,7 @@ public class TextPad extends JTextPane implements StateEditable {
 	 * @return starting offset within the document for the given line
 	 */
 	public int getLineOffset(int line) {
-		return getDocument().getDefaultRootElement().getElement(line)
-				.getStartOffset();
+		return lineIndex.getLineStartOffset(line);
 	}
 	
 	/**Gets the index position within the document, given the line number.
@@ -1756,20 +2101,18 @@ public class TextPad extends JTextPane implements StateEditable {
 		// adjusts the line number from the user-friendly, 1 to n+1 numbering
 		// system, to the standard 0 to n system
 		line--;
-		Element elt = getDocument().getDefaultRootElement();
 		int len = getDocument().getLength();
 		// returns x=0, y=0 if the line number precedes the doc
 		if (line < 0) {
 			return new Point(0, 0);
-		} else if (line >= elt.getElementCount()) {
+		} else if (line >= lineIndex.getLineCount()) {
 			// returns x=len,y=len if the line num exceeds the doc
 			int i = len;
 			return new Point(i, i);
 		}
 		// otherwise, returns the boundary indices of the line
-		Element lineElt = elt.getElement(line);
-		int end = lineElt.getEndOffset() - 1;
-		return new Point(lineElt.getStartOffset(), end);
+		int end = lineIndex.getLineEndOffset(line) - 1;
+		return new Point(lineIndex.getLineStartOffset(line), end);
 	}
 	
 	/** Remembers a line number and caret position in the 
@@ -1876,47 +2219,72 @@ public class TextPad extends JTextPane implements StateEditable {
 			}
 		}
 		
-		// Refreshes the tab and tries to restore the caret position
-		// to its original position
-		final int pos = getCaretPosition();
-		String path = getPath();
+		// Reindexes the file in the large-file viewer rather than
+		// reading it into memory
+		if (isPaged()) {
+			try {
+				viewPaged(null);
+			} catch (IOException e) {
+				e.printStackTrace();
+			}
+			return;
+		}
+		
+		// Refreshes the tab by editing only the lines that changed, which
+		// keeps the undo history as well as the caret and LineDance
+		// positions in the unchanged text; the file is read in the 
+		// background, checking first whether it was only appended to
+		long syncedLength = fileWatch == null || getChanged() 
+				? -1 : fileWatch.getLengthWithTTx();
+		(new Thread(new RefreshReader(file, syncedLength), "thread")).start();
+	}
+	
+	/**Applies the text read for a refresh, editing only the lines that
+	 * changed.
+	 * @param text the file's text, with LF end-of-lines only
+	 * @param eol the file's end-of-line characters
+	 * @param length the file's length in bytes
+	 */
+	private void applyRefresh(String text, String eol, long length) {
+		// prevent UI updates in TextPadDocListener
+		setChanged(true);
+		setEOL(eol);
+		startCompoundEdit();
 		try {
-			BufferedReader reader = new BufferedReader(new FileReader(path));
-			final String text = LibTTx.readText(new BufferedReader(reader));
-			SwingUtilities.invokeLater(new Runnable() {
-				public void run() {
-					// prevent UI and LineDance updates in TextPadDocListener; 
-					// LineDance positions are lost when replacing text, so 
-					// need to recreate those positions
-					setChanged(true);
-					suspendLineDanceUpdate = true;
-					setText(text);
-					suspendLineDanceUpdate = false;
-					lineDancePanel.restorePositions(getDocument());
-					applyAutoIndent();
-					setChanged(false);
-					// prevent caret from exceeding length of refreshed file
-					if (pos <= getDocument().getLength()) {
-						setCaretPosition(pos);
-					} else {
-						setCaretPosition(getDocument().getLength());
-					}
-				}
-			});
-		} catch(FileNotFoundException e) {
-			// This message will most likely not be reached since
-			// the non-existant file would be detected earlier.
-			String msg = "The original file appears to have been moved, "
-				+ "\ndeleted, or set to be unreadable.";
-			JOptionPane.showMessageDialog(
-				this, 
-				msg, 
-				"File missing",
-				JOptionPane.ERROR_MESSAGE);
+			ArrayList<int[]> regions = TextDiff.apply(getDocument(), text);
+			for (int i = 0; i < regions.size(); i++) {
+				int[] region = regions.get(i);
+				applyAutoIndent(region[0], region[1]);
+			}
+		} catch (BadLocationException e) {
+			e.printStackTrace();
 		}
+		stopCompoundEdit();
+		setChanged(false);
+		if (fileWatch != null) fileWatch.setLengthWithTTx(length);
+	}
+	
+	/**Appends the text added to the end of the file for a refresh.
+	 * @param tail the added text, with LF end-of-lines only
+	 * @param length the file's length in bytes
+	 */
+	private void applyRefreshAppend(String tail, long length) {
+		Document doc = getDocument();
+		int start = doc.getLength();
+		setChanged(true);
+		startCompoundEdit();
+		try {
+			doc.insertString(start, tail, null);
+			applyAutoIndent(start, start + tail.length());
+		} catch (BadLocationException e) {
+			e.printStackTrace();
+		}
+		stopCompoundEdit();
+		setChanged(false);
+		if (fileWatch != null) fileWatch.setLengthWithTTx(length);
 	}
 	
-	public void addDocListener(DocumentListener aDocListener) {
+		public void addDocListener(DocumentListener aDocListener) {
 		docListener = aDocListener;
 		getDocument().addDocumentListener(docListener);
 	}
@@ -1963,6 +2331,7 @@ public class TextPad extends JTextPane implements StateEditable {
 	 */
 	public void setTabSize(int aTabSize) {
 		tabSize = aTabSize;
+		viewportIndenter.schedule();
 	}
 
 	
@@ -2009,6 +2378,7 @@ public class TextPad extends JTextPane implements StateEditable {
 	 */
 	public void setScrollPane(JScrollPane aScrollPane) {
 		scrollPane = aScrollPane;
+		viewportIndenter.setScrollPane(scrollPane);
 	}
 	
 	public void setEOL(String val) { eol = val; }
@@ -2051,8 +2421,15 @@ public class TextPad extends JTextPane implements StateEditable {
 		return lineDancePanel;
 	}
 	
-	public FileModifiedThread getFileModifiedThread() {
-		return fileModifiedThread;
+	public FileWatcher.Watch getFileWatch() {
+		return fileWatch;
+	}
+	
+	/**Gets the index of line start offsets and soft-wrapped rows.
+	 * @return the line index
+	 */
+	public LineIndex getLineIndex() {
+		return lineIndex;
 	}
 	
 	public WrappedPlainView getWrappedView() { return wrappedView; }
@@ -2071,11 +2448,51 @@ public class TextPad extends JTextPane implements StateEditable {
 	
 	
 	/** Subclass of the <code>UndoManager</code>.
-	 * Allows the code to ignore undos.
+	 * Allows the code to ignore undos, merges consecutive typing into 
+	 * word-sized edits, and keeps the undo history within a memory 
+	 * budget, both for each pad and across all pads.
+	 * 
+	 * <p>The manager also listens to the document for the offset and 
+	 * length of each edit, which the undoable edits that Java 9+ wraps
+	 * document events in do not give.
 	 * @author davit
 	 */
-	private class UndoManagerTTx extends UndoManager {
+	private class UndoManagerTTx extends UndoManager 
+			implements DocumentListener {
 		private boolean ignoreNextStyleChange = false;
+		private boolean ignoreStyleChanges = false;
+		// the document change behind the edit about to be added
+		private DocumentEvent.EventType pendingType = null;
+		private int pendingOffset = 0;
+		private int pendingLength = 0;
+		private char pendingChar = 0;
+		private Segment pendingSeg = new Segment();
+		private TypingEdit typing = null; // typing still being merged
+		private long compoundBytes = 0; // size of the compound edit so far
+		// estimated sizes of the edits in the history
+		private IdentityHashMap<UndoableEdit, Long> editBytes = 
+				new IdentityHashMap<UndoableEdit, Long>();
+		private long bytes = 0; // total of the estimated sizes
+		// text changes that each edit made, or null if not all known
+		private IdentityHashMap<UndoableEdit, ArrayList<UndoHistory.Op>> 
+				editOps = 
+				new IdentityHashMap<UndoableEdit, ArrayList<UndoHistory.Op>>();
+		private UndoHistory.Op pendingOp = null;
+		private ArrayList<UndoHistory.Op> compoundOps = 
+				new ArrayList<UndoHistory.Op>();
+		// text about to be removed, recorded by the removal filter
+		private String removing = null;
+		private int removingOffset = 0;
+		private boolean undoing = false; // undoing or redoing an edit
+		
+		/** Creates a manager and registers it with the global budget.
+		 */
+		public UndoManagerTTx() {
+			setLimit(UNDO_LIMIT);
+			synchronized (undoManagers) {
+				undoManagers.put(this, Boolean.TRUE);
+			}
+		}
 
 		/** Sublcassed method to add ability to ignore undos when flagged.
 		 * If <code>ignoreNextStyleChange</code> is set to <code>true</code>,
@@ -2089,11 +2506,11 @@ public class TextPad extends JTextPane implements StateEditable {
 				// ignore style attribute changes by ignoring if change event
 				// or flagged specifically as a style change
 				if (de.getType() == DocumentEvent.EventType.CHANGE
-					|| ignoreNextStyleChange) {
+					|| ignoreNextStyleChange || ignoreStyleChanges) {
 					ignoreNextStyleChange = false; // reset the ignore flag
 					return false;
 				}
-			} else if (ignoreNextStyleChange) {
+			} else if (ignoreNextStyleChange || ignoreStyleChanges) {
 				// Java 9+ edits are of 
 				// AbstractDocument$DefaultDocumentEventUndoableWrapper
 				// rather than AbstractDocument.DefaultDocumentEvent so need 
@@ -2101,8 +2518,55 @@ public class TextPad extends JTextPane implements StateEditable {
 				ignoreNextStyleChange = false;
 				return false;
 			}
+			// restores the stored history before the first edit since 
+			// opening, while the history still applies
+			if (undoHistoryDir != null && !undoing) restoreUndoHistory(false);
+			long size = EDIT_BYTES;
+			ArrayList<UndoHistory.Op> ops = null;
+			if (anEdit == compoundEdit) {
+				size += compoundBytes;
+				compoundBytes = 0;
+				ops = compoundOps;
+				compoundOps = new ArrayList<UndoHistory.Op>();
+			} else if (pendingType != null) {
+				size += 2L * pendingLength;
+				ops = new ArrayList<UndoHistory.Op>();
+				if (pendingOp != null) {
+					ops.add(pendingOp);
+				} else if (pendingType != DocumentEvent.EventType.CHANGE) {
+					ops = null;
+				}
+			}
+			// merges typing into the previous edit if it continues it;
+			// otherwise, starts a new edit for any single character typed
+			if (typing != null && typing.continues(pendingType, pendingOffset, 
+					pendingLength, pendingChar) && lastEdit() == typing 
+					&& editToBeUndone() == typing) {
+				typing.append(anEdit, pendingType, pendingOffset, pendingChar);
+				addBytes(typing, size);
+				ArrayList<UndoHistory.Op> typed = editOps.get(typing);
+				if (typed != null && ops != null) {
+					typed.addAll(ops);
+				} else {
+					editOps.put(typing, null);
+				}
+				return true;
+			}
+			endTyping();
+			if (pendingType != null && pendingLength == 1
+					&& pendingType != DocumentEvent.EventType.CHANGE) {
+				typing = new TypingEdit();
+				typing.append(anEdit, pendingType, pendingOffset, pendingChar);
+				anEdit = typing;
+			}
 			// call superclass' method
-			return super.addEdit(anEdit);
+			boolean added = super.addEdit(anEdit);
+			if (added) {
+				editOps.put(anEdit, ops);
+				addBytes(anEdit, size);
+				trimForBudget(PAD_UNDO_BYTES);
+			}
+			return added;
 		}
 		
 		/**Subclassed method to check for compound edits.
@@ -2116,10 +2580,280 @@ public class TextPad extends JTextPane implements StateEditable {
 				// Java 9+ events appear to propagate here and need to be 
 				// checked whether to ignore
 				ignoreNextStyleChange = false;
+			} else if (ignoreStyleChanges || undoing) {
+				// ignores every edit until the flag is reset, as well as 
+				// those made in undoing stored edits
 			} else if (isCompoundEditing()) {
 				compoundEdit.addEdit(evt.getEdit());
+				if (pendingType != null) compoundBytes += 2L * pendingLength;
+				if (compoundOps != null && pendingOp != null) {
+					compoundOps.add(pendingOp);
+				} else if (pendingType != DocumentEvent.EventType.CHANGE) {
+					compoundOps = null;
+				}
 			} else {
 				super.undoableEditHappened(evt);
+				trimForGlobalBudget();
+			}
+			pendingType = null;
+			pendingOp = null;
+		}
+		
+		/** Finishes merging typing before undoing.
+		 */
+		public synchronized void undo() throws CannotUndoException {
+			endTyping();
+			undoing = true;
+			try {
+				super.undo();
+			} finally {
+				undoing = false;
+				pendingType = null;
+			}
+		}
+		
+		/** Finishes merging typing before redoing.
+		 */
+		public synchronized void redo() throws CannotRedoException {
+			endTyping();
+			undoing = true;
+			try {
+				super.redo();
+			} finally {
+				undoing = false;
+				pendingType = null;
+			}
+		}
+		
+		/** Finishes merging typing before undoing or redoing.
+		 */
+		public synchronized void undoOrRedo() 
+				throws CannotRedoException, CannotUndoException {
+			endTyping();
+			undoing = true;
+			try {
+				super.undoOrRedo();
+			} finally {
+				undoing = false;
+				pendingType = null;
+			}
+		}
+		
+		/** Discards the history along with its size.
+		 */
+		public synchronized void discardAllEdits() {
+			endTyping();
+			super.discardAllEdits();
+			editBytes.clear();
+			editOps.clear();
+			compoundOps = new ArrayList<UndoHistory.Op>();
+			bytes = 0;
+		}
+		
+		/** Removes edits from the history, along with their sizes.
+		 * @param from index of the first edit to remove
+		 * @param to index of the last edit to remove
+		 */
+		protected void trimEdits(int from, int to) {
+			for (int i = from; i <= to && i < edits.size(); i++) {
+				UndoableEdit edit = edits.elementAt(i);
+				Long size = editBytes.remove(edit);
+				if (size != null) bytes -= size.longValue();
+				editOps.remove(edit);
+				if (edit == typing) typing = null;
+			}
+			super.trimEdits(from, to);
+		}
+		
+		/** Records the change behind the next edit.
+		 * @param e the document event
+		 */
+		public void insertUpdate(DocumentEvent e) {
+			setPending(e);
+			if (pendingLength == 1) {
+				try {
+					e.getDocument().getText(pendingOffset, 1, pendingSeg);
+					pendingChar = pendingSeg.first();
+				} catch (BadLocationException ex) {
+					pendingChar = 0;
+				}
+			}
+			// keeps the text for the stored history unless loading
+			if (isEditable() && !undoing 
+					&& pendingLength <= MAX_HISTORY_CHARS) {
+				try {
+					pendingOp = new UndoHistory.Op(UndoHistory.OP_INSERT, 
+							pendingOffset, e.getDocument().getText(
+									pendingOffset, pendingLength));
+				} catch (BadLocationException ex) {
+				}
+			}
+		}
+		
+		/** Records the change behind the next edit.
+		 * @param e the document event
+		 */
+		public void removeUpdate(DocumentEvent e) {
+			setPending(e);
+			if (removing != null && removingOffset == pendingOffset
+					&& removing.length() == pendingLength) {
+				pendingOp = new UndoHistory.Op(UndoHistory.OP_REMOVE, 
+						pendingOffset, removing);
+			}
+			removing = null;
+		}
+		
+		/** Keeps text about to be removed, for the stored history.
+		 * @param doc the document
+		 * @param offset the offset of the text
+		 * @param len the number of characters to be removed
+		 */
+		public void recordRemoval(Document doc, int offset, int len) {
+			removing = null;
+			if (len == 0 || !isEditable() || len > MAX_HISTORY_CHARS) return;
+			try {
+				removing = doc.getText(offset, len);
+				removingOffset = offset;
+			} catch (BadLocationException e) {
+			}
+		}
+		
+		/** Records the change behind the next edit.
+		 * @param e the document event
+		 */
+		public void changedUpdate(DocumentEvent e) {
+			setPending(e);
+		}
+		
+		private void setPending(DocumentEvent e) {
+			pendingType = e.getType();
+			pendingOffset = e.getOffset();
+			pendingLength = e.getLength();
+			pendingChar = 0;
+			pendingOp = null;
+		}
+		
+		/** Stops merging typing into the last edit.
+		 */
+		private void endTyping() {
+			if (typing != null) {
+				typing.close();
+				typing = null;
+			}
+		}
+		
+		private void addBytes(UndoableEdit edit, long size) {
+			Long prev = editBytes.get(edit);
+			editBytes.put(edit, Long.valueOf(
+					prev == null ? size : prev.longValue() + size));
+			bytes += size;
+		}
+		
+		/** Gets the history of edits whose text changes are all known,
+		 * to be stored.  Edits before the latest unknown edit that can be
+		 * undone, or from the earliest unknown edit that can be redone,
+		 * are left out.
+		 * @param path the path of the pad's file
+		 * @return the history, or <code>null</code> if it has no edits
+		 */
+		public synchronized UndoHistory getHistory(String path) {
+			UndoableEdit next = editToBeRedone();
+			int nextAdd = next == null ? edits.size() : edits.indexOf(next);
+			int start = nextAdd;
+			while (start > 0 && editOps.get(edits.elementAt(start - 1)) != null) {
+				start--;
+			}
+			int end = nextAdd;
+			while (end < edits.size() && editOps.get(edits.elementAt(end)) != null) {
+				end++;
+			}
+			if (start == end) return null;
+			UndoHistory history = new UndoHistory(path, nextAdd - start);
+			for (int i = start; i < end; i++) {
+				ArrayList<UndoHistory.Op> ops = editOps.get(edits.elementAt(i));
+				history.add(ops.toArray(new UndoHistory.Op[ops.size()]));
+			}
+			return history;
+		}
+		
+		/** Restores a stored history into the empty manager.
+		 * @param history the stored history
+		 */
+		public synchronized void restore(UndoHistory history) {
+			if (!edits.isEmpty()) return;
+			ArrayList<UndoHistory.Op[]> stored = history.getEdits();
+			for (int i = 0; i < stored.size(); i++) {
+				UndoHistory.Op[] ops = stored.get(i);
+				UndoableEdit edit = new UndoHistory.Edit(getDocument(), ops, 
+						i < history.getUndoCount());
+				super.addEdit(edit);
+				long size = EDIT_BYTES;
+				for (int j = 0; j < ops.length; j++) {
+					size += 2L * ops[j].getText().length();
+				}
+				addBytes(edit, size);
+				editOps.put(edit, new ArrayList<UndoHistory.Op>(
+						Arrays.asList(ops)));
+			}
+			// moves back to the end of the edits that can be undone; the
+			// edits after it have not been applied, so nothing changes
+			if (history.getUndoCount() < edits.size()) {
+				undoing = true;
+				try {
+					undoTo(edits.elementAt(history.getUndoCount()));
+				} finally {
+					undoing = false;
+				}
+			}
+			trimForBudget(PAD_UNDO_BYTES);
+		}
+		
+		/** Gets the estimated size of the history.
+		 * @return the size in bytes
+		 */
+		public synchronized long getBytes() {
+			return bytes;
+		}
+		
+		/** Removes the oldest edits until the history fits within the
+		 * given size, always keeping the latest edit that can be undone.
+		 * @param budget the size to fit within, in bytes
+		 * @return <code>true</code> if any edits were removed
+		 */
+		public synchronized boolean trimForBudget(long budget) {
+			int count = 0;
+			long size = bytes;
+			int last = edits.indexOf(editToBeUndone());
+			while (size > budget && count < last) {
+				Long editSize = editBytes.get(edits.elementAt(count));
+				if (editSize != null) size -= editSize.longValue();
+				count++;
+			}
+			if (count == 0) return false;
+			trimEdits(0, count - 1);
+			return true;
+		}
+		
+		/** Trims the largest histories among all pads until together
+		 * they fit within the global budget.
+		 */
+		private void trimForGlobalBudget() {
+			while (true) {
+				long total = 0;
+				UndoManagerTTx largest = null;
+				synchronized (undoManagers) {
+					for (UndoManagerTTx manager : undoManagers.keySet()) {
+						long size = manager.getBytes();
+						total += size;
+						if (largest == null || size > largest.getBytes()) {
+							largest = manager;
+						}
+					}
+				}
+				if (total <= ALL_UNDO_BYTES 
+						|| !largest.trimForBudget(largest.getBytes() / 2)) {
+					return;
+				}
 			}
 		}
 
@@ -2138,6 +2872,100 @@ public class TextPad extends JTextPane implements StateEditable {
 		public boolean getIgnoreNextStyleChange() {
 			return ignoreNextStyleChange;
 		}
+		
+		/** Flags the manager to ignore all changes until the flag is reset.
+		 * Useful when styling many paragraphs at once, which may take 
+		 * more than a single edit.
+		 * @param b <code>true</code> to ignore changes; <code>false</code>
+		 * to resume recording them
+		 */
+		public void setIgnoreStyleChanges(boolean b) {
+			ignoreStyleChanges = b;
+		}
+	}
+	
+	/** Records text just before it is removed, which document events
+	 * no longer give, so that the undo history can be stored.
+	 */
+	private class RemovalFilter extends DocumentFilter {
+		public void remove(DocumentFilter.FilterBypass fb, int offset, 
+				int length) throws BadLocationException {
+			undoManager.recordRemoval(fb.getDocument(), offset, length);
+			fb.remove(offset, length);
+		}
+		
+		public void replace(DocumentFilter.FilterBypass fb, int offset, 
+				int length, String text, AttributeSet attrs) 
+				throws BadLocationException {
+			undoManager.recordRemoval(fb.getDocument(), offset, length);
+			fb.replace(offset, length, text, attrs);
+		}
+	}
+	
+	/** Consecutive characters typed or deleted, undone together as a 
+	 * single edit.  Typing a word and the spaces after it makes a single
+	 * edit, as does deleting a run of characters one at a time.
+	 * The edit is complete from the start, so that it can be undone
+	 * while typing may still be merged into it.
+	 */
+	private static class TypingEdit extends CompoundEdit {
+		private boolean open = true; // more typing may be merged
+		private DocumentEvent.EventType type = null;
+		private int start = 0; // offset of the edit's first character
+		private int end = 0; // offset just after the edit's last character
+		private char lastChar = 0;
+		
+		public TypingEdit() {
+			end();
+		}
+		
+		/** Only accepts edits through {@link #append}, so that the undo
+		 * manager does not merge other edits into this one.
+		 * @param anEdit the edit to merge
+		 * @return <code>false</code>
+		 */
+		public boolean addEdit(UndoableEdit anEdit) {
+			return false;
+		}
+		
+		/** Checks whether a single character edit carries on from this
+		 * one: the next character of the same word typed, or the
+		 * character just before or after the last one deleted.
+		 */
+		private boolean continues(DocumentEvent.EventType aType, int offset, 
+				int length, char c) {
+			if (!open || aType != type || length != 1) return false;
+			if (type == DocumentEvent.EventType.INSERT) {
+				return offset == end && c != '\n' 
+						&& (Character.isWhitespace(c) 
+								|| !Character.isWhitespace(lastChar));
+			}
+			return offset == start - 1 || offset == start;
+		}
+		
+		/** Merges a single character edit.
+		 */
+		private void append(UndoableEdit anEdit, DocumentEvent.EventType aType, 
+				int offset, char c) {
+			edits.addElement(anEdit);
+			if (type == null) {
+				type = aType;
+				start = offset;
+				end = offset;
+			}
+			if (type == DocumentEvent.EventType.INSERT) {
+				end = offset + 1;
+				lastChar = c;
+			} else {
+				start = offset;
+			}
+		}
+		
+		/** Stops merging typing into this edit.
+		 */
+		private void close() {
+			open = false;
+		}
 	}
 	
 	/**An action to delete the next character.
@@ -2167,6 +2995,123 @@ public class TextPad extends JTextPane implements StateEditable {
 	}
 	
 	
+	/** Reads the pad's file for a refresh outside the event dispatch 
+	 * thread.  If the pad's text matched the file and the file has 
+	 * since grown, the end of the pad's text is compared with the bytes
+	 * just before where the file grew, and if they match, only the 
+	 * added bytes are decoded and appended.  Otherwise the whole file 
+	 * is read and diffed against the pad's text.
+	 */
+	private class RefreshReader implements Runnable {
+		/** Bytes before the added text to compare with the pad's text. */
+		private static final int SAMPLE_BYTES = 4 * 1024;
+		private File file = null;
+		private long syncedLength = -1;
+		
+		/** Constructs a reader for the given file.
+		 * @param aFile the pad's file
+		 * @param aSyncedLength the file's length when the pad's text 
+		 * last matched it, or -1 to always read the whole file
+		 */
+		public RefreshReader(File aFile, long aSyncedLength) {
+			file = aFile;
+			syncedLength = aSyncedLength;
+		}
+		
+		public void run() {
+			try {
+				final long length = file.length();
+				if (syncedLength > 0 && length > syncedLength 
+						&& readAppended(length)) {
+					return;
+				}
+				String[] eol = { null };
+				final String text = 
+						ChunkedFileLoader.readText(file, 0, length, eol);
+				final String eolChars = eol[0] == null ? "\n" : eol[0];
+				EventQueue.invokeLater(new Runnable() {
+					public void run() {
+						applyRefresh(text, eolChars, length);
+					}
+				});
+			} catch (FileNotFoundException e) {
+				// This message will most likely not be reached since
+				// the non-existant file would be detected earlier.
+				EventQueue.invokeLater(new Runnable() {
+					public void run() {
+						String msg = "The original file appears to have been moved, "
+							+ "\ndeleted, or set to be unreadable.";
+						JOptionPane.showMessageDialog(
+							TextPad.this, 
+							msg, 
+							"File missing",
+							JOptionPane.ERROR_MESSAGE);
+					}
+				});
+			} catch (IOException e) {
+				e.printStackTrace();
+			}
+		}
+		
+		/** Queues the bytes added to the file to be appended, as long as
+		 * the end of the pad's text still matches the bytes before them.
+		 * @param length the file's length in bytes
+		 * @return <code>true</code> if the added text was queued
+		 */
+		private boolean readAppended(final long length) throws IOException {
+			// compares only whole lines, skipping the first line of the 
+			// sample since it may start in the middle of a character
+			final long sampleStart = Math.max(0, syncedLength - SAMPLE_BYTES);
+			String sample = 
+					ChunkedFileLoader.readText(file, sampleStart, syncedLength, null);
+			if (sampleStart > 0) {
+				int eol = sample.indexOf('\n');
+				if (eol == -1 || eol == sample.length() - 1) return false;
+				sample = sample.substring(eol + 1);
+			}
+			final String expected = sample;
+			final Document doc = getDocument();
+			final boolean[] matches = { false };
+			final int[] editCount = { 0 };
+			Runnable checker = new Runnable() {
+				public void run() {
+					editCount[0] = getEditCount();
+					int len = doc.getLength();
+					int n = expected.length();
+					if (len < n || sampleStart == 0 && len != n) return;
+					try {
+						matches[0] = doc.getText(len - n, n).equals(expected);
+					} catch (BadLocationException e) {
+					}
+				}
+			};
+			if (doc instanceof AbstractDocument) {
+				((AbstractDocument) doc).render(checker);
+			} else {
+				checker.run();
+			}
+			if (!matches[0]) return false;
+			
+			// starts from the last byte already read so that an LF 
+			// completing a CRLF is not added as a second newline; that
+			// byte decodes to a single char, which is dropped
+			final String tail = ChunkedFileLoader.readText(
+					file, syncedLength - 1, length, null).substring(1);
+			EventQueue.invokeLater(new Runnable() {
+				public void run() {
+					if (getEditCount() == editCount[0]) {
+						applyRefreshAppend(tail, length);
+					} else {
+						// edited since the check, so diffs the whole file
+						(new Thread(new RefreshReader(file, -1), "thread"))
+								.start();
+					}
+				}
+			});
+			return true;
+		}
+	}
+	
 	/** A mouse listener for detecting double clicks in the Line Dance panel.
 	 */
 	private class LineDanceMouseListener extends MouseAdapter {
@@ -2185,6 +3130,13 @@ public class TextPad extends JTextPane implements StateEditable {
 		int tabs = 0;
 		int spaces = 0;
 		StringBuilder strBuilder = new StringBuilder();
+		
+		/** Clears the counts and whitespace for reuse. */
+		void reset() {
+			tabs = 0;
+			spaces = 0;
+			strBuilder.setLength(0);
+		}
 	}
 	
 }
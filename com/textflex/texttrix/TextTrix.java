@@ -39,6 +39,7 @@ package com.textflex.texttrix;
 import javax.swing.*;
 import java.awt.*;
 import java.util.*;
+import java.util.concurrent.*;
 import java.awt.event.*;
 import java.awt.font.TextLayout;
 import java.io.*;
@@ -107,6 +108,11 @@ public class TextTrix extends JFrame {
 	private static boolean verbose = false; // verbose command-line output
 	private static boolean clearTabs = false;
 	private static TextPadAutoSaveTimer autoSaveTimer = null;
+	// writes documents to files, shared among windows
+	private static DocumentWriter docWriter = new DocumentWriter();
+	private static TextPadSnapshotSaver snapshotSaver = null;
+	// journals from the last session are kept until checked for recovery
+	private static boolean journalsRecovered = false;
 	
 	/* General GUI components */
 	private static ArrayList ttxWindows = new ArrayList();
@@ -123,6 +129,7 @@ public class TextTrix extends JFrame {
 	private JMenu viewMenu = null; // view menu
 	private JMenu trixMenu = null; // trix plugins
 	private JMenu toolsMenu = null; // tools plugins
+	private JMenu batchMenu = null; // plugins to run on many files
 	private JToolBar toolBar = null; // icons
 	private static JMenu fileMenu = null; // file menu, which incl file history
 
@@ -154,6 +161,8 @@ public class TextTrix extends JFrame {
 	private JTextField lineNumFld = new JTextField(5); // Line Find
 	private JTextField wordFindFld = new JTextField(10); // Word Find
 	private JPopupMenu statusBarPopup = null; // status bar popup menu
+	private PlugInTask plugInTask = null; // the plug-in currently running
+	private BatchPlugInRunner batchRunner = null; // the batch running
 	
 	
 	/* Actions */
@@ -305,6 +314,10 @@ public class TextTrix extends JFrame {
 		// Create user dictionary in the current working directory
 		SpellChecker.setUserDictionaryProvider( new FileUserDictionary() );
 		
+		// Cache the dictionaries' trees so that languages load quickly
+		// after their first use
+		SpellChecker.setDictionaryCacheDir(getPrefs().getDictionaryCacheDir());
+		
 		// Load the configuration from the file dictionaries.cnf and 
 		// use the current locale or the first language as default 
 		SpellChecker.registerDictionaries( null, "en" );
@@ -384,6 +397,12 @@ public class TextTrix extends JFrame {
 		// other thread interacts with statusBar label, so need to create early
 		statusBar = new JLabel();
 		statusProgress = new JProgressBar();
+		// cancels a running plug-in
+		statusProgress.addMouseListener(new MouseAdapter() {
+			public void mouseClicked(MouseEvent e) {
+				cancelPlugIn();
+			}
+		});
 		statusBarPopup = new JPopupMenu();
 		(statusBarCreator = new StatusBarCreator(this)).start();
 		
@@ -467,6 +486,15 @@ public class TextTrix extends JFrame {
 					}
 				}
 				
+				// offers to recover unsaved edits left by a crash, once
+				// the first window has reopened its files
+				if (!journalsRecovered && ttxWindows.indexOf(getThis()) == 0) {
+					String journals = getPrefs().getJournalList();
+					journalsRecovered = true;
+					recoverJournals(journals);
+					storeJournals();
+				}
+				
 				// selects the first tab group and updates the UI for the 
 				// currently selected tab
 				getGroupTabbedPane().setSelectedIndex(0);
@@ -670,7 +698,10 @@ public class TextTrix extends JFrame {
 	}
 	
 	void setTrixMenu(JMenu val) { trixMenu = val; }
-	void setToolsMenu(JMenu val) { toolsMenu = val; }
+	void setToolsMenu(JMenu val) {
+		toolsMenu = val;
+		batchMenu = null;
+	}
 	void setToolBar(JToolBar val) { toolBar = val; }
 	void setPopup(JPopupMenu val) { popup = val; }
 	void setTabsPopup(JPopupMenu val) { tabsPopup = val; }
@@ -924,7 +955,9 @@ public class TextTrix extends JFrame {
 				updateTabTitle(pad);
 				
 				// reset refresh prompt
-				pad.getFileModifiedThread().setPrompt(prefs.getRefreshPrompt());
+				if (pad.getFileWatch() != null) {
+					pad.getFileWatch().setPrompt(prefs.getRefreshPrompt());
+				}
 			}
 		}
 		
@@ -1121,6 +1154,31 @@ public class TextTrix extends JFrame {
 			trixMenu.add(startAction);
 		}
 
+		// run the plug-in over every tab in the group or file in a folder
+		Action batchTabsAction = new AbstractAction(name + " on Tab Group") {
+			public void actionPerformed(ActionEvent evt) {
+				batchTinker(pl, null);
+			}
+		};
+		Action batchDirAction = new AbstractAction(name + " on Folder...") {
+			public void actionPerformed(ActionEvent evt) {
+				JFileChooser dirChooser = new JFileChooser(getOpenDir());
+				dirChooser.setFileSelectionMode(
+						JFileChooser.DIRECTORIES_ONLY);
+				if (dirChooser.showOpenDialog(TextTrix.this) 
+						== JFileChooser.APPROVE_OPTION) {
+					batchTinker(pl, dirChooser.getSelectedFile());
+				}
+			}
+		};
+		if (batchMenu == null) {
+			batchMenu = new JMenu("Batch");
+			toolsMenu.insert(batchMenu, 0);
+			toolsMenu.insertSeparator(1);
+		}
+		batchMenu.add(batchTabsAction);
+		batchMenu.add(batchDirAction);
+
 		// add the action to a tool bar menu
 		JButton button = toolBar.add(startAction);
 		button.setBorderPainted(false);
@@ -1221,82 +1279,101 @@ public class TextTrix extends JFrame {
 	 * <code>true</code>. If so, the plug-in will receive the entire body of
 	 * text as well as the positions of selected text. The plug-in receives the
 	 * entire body but only the caret position when no text is selected.
+	 * Plug-ins that give edits rather than text instead receive a view
+	 * of the entire text along with the selection, and only their edits
+	 * are made.
+	 * The plug-in runs on a worker thread against a snapshot of the text,
+	 * and its outcome is only applied if the text has not changed in the
+	 * meantime, or if its edits can be moved past the changes.
 	 * 
 	 * @param pl
 	 *            plugin to invoke
+	 * @see PlugIn#runEdits(CharSequence, int, int)
 	 */
 	public void textTinker(PlugIn pl) {
 		TextPad t = getSelectedTextPad();
-		if (t != null) {
-// 			viewPlain();
-			// plugins generally need to work on displayed text
-			// works through Document rather than getText/setText since
-			// the latter method does not seem to work on all systems,
-			// evidently only delivering and working on the current line
-			Document doc = t.getDocument();
-			String text = null; // text from the Document methods
-
-			// unless flagged otherwise, only modify the selected text, and make
-			// the action undoable
-			int start = t.getSelectionStart();
-			int end = t.getSelectionEnd(); // at the first unselected character
-			PlugInOutcome outcome = null;
-			try {
-				t.startCompoundEdit();
-				
-				// By default, only sends the selected text;
-				// if no region is selected, or if plug-in flags to works on 
-				// the text pad's entire text, sends the plugin all the text
-				if (start == end || pl.getAlwaysEntireText()) { // no selection
-					text = doc.getText(0, doc.getLength()); // all the text
-
-					// invokes the plugin: need both start and ending selection
-					// positions when "alwaysEntireText" b/c want to both get
-					// all of the text and reshow its highlighted portion,
-					// rather than only getting the highlighted part
-					outcome = pl.getAlwaysEntireText() 
-						? pl.run(text, start, end) : pl.run(text, end);
-
-					// if the plug-in flags that it has not changed the text,
-					// don't even try to do so
-					if (!outcome.getNoTextChange()) {
-						replaceSection(t, doc, outcome, 0, doc.getLength());
-					}
-					// approximates the original caret position
-					int i = -1;
-					if ((i = outcome.getSelectionStart()) != -1) {
-						textSelection(t, 0, i, outcome.getSelectionEnd());
-					} else if (start > doc.getLength()) {
-						// otherwise errors toward end of document sometimes
-						t.setCaretPosition(doc.getLength());
-					} else {
-						t.setCaretPosition(start);
-					}
-				} else {
-				
-					// Send plugin the selected text only
-					
-					int len = end - start; // length of selected region
-					text = doc.getText(start, len); // only get the region
-
-					// start and end only
-					outcome = pl.run(text); // invoke the plugin
-
-					// if the plug-in flags that it has not changed the text,
-					// don't even try to do so
-					if (!outcome.getNoTextChange()) {
-						replaceSection(t, doc, outcome, start, len);
-					}
-					// caret automatically returns to end of selected region
-					int i = -1;
-					if ((i = outcome.getSelectionStart()) != -1)
-						textSelection(t, start, i, outcome.getSelectionEnd());
-				}
-				t.stopCompoundEdit();
-			} catch (BadLocationException e) {
-				e.printStackTrace();
-			}
+		if (t == null) return;
+		if (plugInTask != null || batchRunner != null) {
+			PlugIn running = plugInTask != null 
+				? plugInTask.getPlugIn() : batchRunner.getPlugIn();
+			statusProgress.setString(running.getName() + " is still running");
+			return;
+		}
+		// paged and following pads are read-only, and a loading pad 
+		// doesn't yet hold the whole file
+		if (t.isPaged() || t.isFollowing() || t.isLoading()) {
+			statusProgress.setString(pl.getName() + " can't edit " 
+					+ (t.isLoading() ? "a file still loading" 
+					: "a read-only view"));
+			return;
+		}
+		// plugins generally need to work on displayed text;
+		// the task snapshots the text here and runs the plug-in on
+		// a worker thread, applying the outcome once it finishes
+		plugInTask = new PlugInTask(this, t, pl, statusProgress);
+		try {
+			plugInTask.start();
+		} catch (BadLocationException e) {
+			e.printStackTrace();
+			plugInTask = null;
+		}
+	}
+	
+	/**Runs a plug-in on every tab in the selected tab group, or on 
+	 * every file in a folder without opening them.  The texts are 
+	 * processed in parallel, and a summary of the changed files is
+	 * shown once all have finished.
+	 * @param pl plugin to invoke
+	 * @param dir the folder whose files to process, or <code>null</code>
+	 * to process the tabs in the selected tab group
+	 * @see BatchPlugInRunner
+	 */
+	public void batchTinker(PlugIn pl, File dir) {
+		if (plugInTask != null || batchRunner != null) {
+			PlugIn running = plugInTask != null 
+				? plugInTask.getPlugIn() : batchRunner.getPlugIn();
+			statusProgress.setString(running.getName() + " is still running");
+			return;
 		}
+		try {
+			batchRunner = dir == null 
+				? new BatchPlugInRunner(this, pl, getSelectedTabbedPane(), 
+						statusProgress)
+				: new BatchPlugInRunner(this, pl, dir, statusProgress);
+			batchRunner.start();
+		} catch (BadLocationException e) {
+			e.printStackTrace();
+			batchRunner = null;
+		}
+	}
+	
+	/**Shows the summary of a finished batch, and clears it so that 
+	 * another plug-in may start.
+	 * @param runner the finished batch
+	 */
+	void batchFinished(BatchPlugInRunner runner) {
+		if (batchRunner == runner) batchRunner = null;
+		JTextArea summary = new JTextArea(runner.getSummary(), 15, 50);
+		summary.setEditable(false);
+		JOptionPane.showMessageDialog(this, new JScrollPane(summary), 
+				runner.getPlugIn().getName(), JOptionPane.INFORMATION_MESSAGE);
+	}
+	
+	/**Cancels the plug-in or batch currently running, if any, 
+	 * discarding its outcome.
+	 * @see PlugIn#isCancelled()
+	 */
+	public void cancelPlugIn() {
+		if (plugInTask != null) plugInTask.cancel();
+		if (batchRunner != null) batchRunner.cancel();
+	}
+	
+	/**Clears the running plug-in once it has finished, so that another
+	 * may start.
+	 * @param task the finished task
+	 */
+	void plugInTaskFinished(PlugInTask task) {
+		if (plugInTask == task) plugInTask = null;
 	}
 	
 	/**Replaces a section of the given pad's document according
@@ -1320,6 +1397,17 @@ public class TextTrix extends JFrame {
 			len = outcome.getReplaceEnd() - start;
 		}
 		
+		// replaces the entire text through only the lines that differ,
+		// keeping positions and highlighting in the rest of the text
+		if (start == 0 && len == doc.getLength()) {
+			ArrayList<int[]> regions = TextDiff.apply(doc, outcome.getText());
+			for (int i = 0; i < regions.size(); i++) {
+				int[] region = regions.get(i);
+				t.applyAutoIndent(region[0], region[1]);
+			}
+			return;
+		}
+		
 		// replaces the section
 		doc.remove(start, len); // remove all the text
 		doc.insertString(start, outcome.getText(), null);	// insert text
@@ -1329,7 +1417,47 @@ public class TextTrix extends JFrame {
 			t.indentRegion(start, start + outcome.getText().length());
 		}
 	}
-
+	
+	/**Makes a plug-in's edits to the given pad's document.
+	 * The edits are checked before any are made, and are then made from
+	 * the end of the document back so that the offsets of those still
+	 * to be made remain valid.
+	 * @param t the pad to alter
+	 * @param doc the pad's document
+	 * @param edits the edits, whose offsets refer to the document 
+	 * before any edits
+	 * @throws BadLocationException if any edits overlap or lie beyond
+	 * the end of the document
+	 */
+	public void applyEdits(TextPad t, Document doc, 
+			ArrayList<TextEdit> edits) throws BadLocationException {
+		ArrayList<TextEdit> sorted = new ArrayList<TextEdit>(edits);
+		Collections.sort(sorted, new Comparator<TextEdit>() {
+			public int compare(TextEdit a, TextEdit b) {
+				return b.getStart() - a.getStart();
+			}
+		});
+		int limit = doc.getLength();
+		for (int i = 0; i < sorted.size(); i++) {
+			TextEdit edit = sorted.get(i);
+			if (edit.getEnd() > limit) {
+				throw new BadLocationException(
+						"Plug-in edits overlap or lie beyond the text", 
+						edit.getEnd());
+			}
+			limit = edit.getStart();
+		}
+		for (int i = 0; i < sorted.size(); i++) {
+			TextEdit edit = sorted.get(i);
+			int start = edit.getStart();
+			if (edit.getEnd() > start) doc.remove(start, edit.getEnd() - start);
+			if (edit.getText().length() > 0) {
+				doc.insertString(start, edit.getText(), null);
+			}
+			t.applyAutoIndent(start, start + edit.getText().length());
+		}
+	}
+	
 	/**
 	 * Selects the given region of text. Works on the given text pad.
 	 * @param t text pad from which to select text
@@ -1742,7 +1870,11 @@ public class TextTrix extends JFrame {
 			b = b && ((TextTrix)ttxWindows.get(i)).closeAllTabs();
 		}
 		// exit Text Trix if all the files closed
-		if (b) System.exit(0);
+		if (b) {
+			// deletes the journals of the closed pads
+			EditJournal.shutdown();
+			System.exit(0);
+		}
 	}
 	
 	/**	Closes each tab individually, checking for unsaved files.
@@ -1963,6 +2095,8 @@ public class TextTrix extends JFrame {
 		// show " *" in tab title when text changed
 		tabbedPane.setSelectedIndex(i);
 		tabbedPane.setToolTipTextAt(i, textPad.getPath());
+		textPad.setJournal(new EditJournal(getPrefs().getJournalDir()));
+		storeJournals();
 	}
 
 	/** Updates the user interface for the give Text Pad.
@@ -2150,6 +2284,65 @@ public class TextTrix extends JFrame {
 		});
 	}
 	
+	/**
+	 * Loads a file into a <code>TextPad</code> in chunks, memory-mapping
+	 * the file and appending each chunk to the pad's document as it is
+	 * decoded so that large files display without first being read 
+	 * entirely into memory.  The pad is kept uneditable until the
+	 * entire file has loaded, after which <code>TextPad</code> and 
+	 * <code>TextTrix</code>-specific settings are applied as in
+	 * {@link #read(TextPad, Reader, Object)}.
+	 * 
+	 * @param textPad pad to load the file into
+	 * @param file file to load
+	 * @param editable <code>true</code> if the pad should be editable
+	 * once the file has loaded
+	 */
+	public void load(final TextPad textPad, File file, final boolean editable) {
+		textPad.stopFollowing();
+		textPad.stopLoader();
+		textPad.setEditable(false);
+		// suspends the change flag while appending chunks; the chunks'
+		// undo edits are discarded once loading finishes
+		textPad.removeDocListener();
+		textPad.setPieceContent(isPieceTableFile(file));
+		final ChunkedFileLoader loader = 
+				new ChunkedFileLoader(textPad, file, statusProgress);
+		loader.setOnFinished(new Runnable() {
+			public void run() {
+				// a reload stops this loader and starts another, which
+				// finishes the pad in its own turn
+				if (textPad.getLoader() != loader) return;
+				textPad.setLoader(null);
+				if (loader.isStopped()) {
+					// unable to read the rest of the file
+					statusProgress.setValue(0);
+					statusProgress.setString("");
+					return;
+				}
+				if (verbose) System.out.println(
+						"loading eol..." + LibTTx.getEOLName(textPad.getEOL()));
+				textPad.addDocListener(new TextPadDocListener(textPad));
+				textPad.applyDocumentSettings();
+				textPad.setChanged(false);
+				updateTabTitle(textPad);
+				if (getPrefs().getHighlighting() && getHighlighting()) {
+					applyHighlighting(textPad);
+				}
+				autoAutoIndent(textPad);
+				textPad.restoreUndoHistoryLater(getPrefs().getUndoDir());
+				textPad.setCaretPosition(0);
+				textPad.setEditable(editable);
+				// provides feedback on document loading status
+				Thread loadCheck = 
+						new Thread(new CheckDocLoad(textPad, statusProgress));
+				loadCheck.start();
+			}
+		});
+		textPad.setLoader(loader);
+		loader.start();
+	}
+	
 	/**
 	 * Loads text into a TextPad and sets teh caret position.
 	 * The associated documents managers will also be applied, and the text's
@@ -2204,60 +2397,174 @@ public class TextTrix extends JFrame {
 		// stops the pad's save timer and removes the pad
 		if (t != null) {
 // 			stopTextPadAutoSaveTimer(t);
-			t.stopFileModifiedThread();
+			t.stopFileWatch();
+			if (t.isLoading()) {
+				// the stopped loader leaves its progress in place
+				statusProgress.setValue(0);
+				statusProgress.setString("");
+			}
+			t.stopLoader();
+			t.stopFollowing();
+			t.saveUndoHistory(getPrefs().getUndoDir());
+			t.closeJournal();
 			tp.remove(i);
+			storeJournals();
+		}
+	}
+	
+	/**
+	 * Stores the list of journals for the pads in all Text Trix windows,
+	 * so that unsaved edits can be recovered at the next startup if
+	 * Text Trix does not exit normally.
+	 * @see #recoverJournals(String)
+	 */
+	public void storeJournals() {
+		if (!journalsRecovered) return;
+		StringBuffer names = new StringBuffer();
+		for (int i = 0; i < ttxWindows.size(); i++) {
+			ArrayList pads = ((TextTrix) ttxWindows.get(i)).getTextPads();
+			for (int j = 0; j < pads.size(); j++) {
+				EditJournal journal = ((TextPad) pads.get(j)).getJournal();
+				if (journal == null) continue;
+				if (names.length() > 0) names.append(Prefs.JOURNAL_SEP);
+				names.append(journal.getFile().getName());
+			}
 		}
+		getPrefs().storeJournalList(names.toString());
+	}
+	
+	/**
+	 * Recovers the unsaved edits from journals left by a previous
+	 * session that did not exit normally.  Edits to saved files are
+	 * only applied if the file has not changed since the edits were 
+	 * made.  The journals are deleted afterward.
+	 * @param list journal file names, separated by 
+	 * {@link Prefs#JOURNAL_SEP}
+	 */
+	public void recoverJournals(String list) {
+		if (list.equals("")) return;
+		File dir = getPrefs().getJournalDir();
+		String[] names = list.split(Prefs.JOURNAL_SEP);
+		final ArrayList<EditJournal.Recovery> recoveries = 
+				new ArrayList<EditJournal.Recovery>();
+		final ArrayList<File> files = new ArrayList<File>();
+		for (int i = 0; i < names.length; i++) {
+			File file = new File(dir, names[i]);
+			if (!file.exists()) continue;
+			files.add(file);
+			EditJournal.Recovery recovery = EditJournal.read(file);
+			if (recovery != null && recovery.hasEdits()) {
+				recoveries.add(recovery);
+			}
+		}
+		if (recoveries.size() > 0 && LibTTx.yesNoDialog(this, 
+				"Text Trix found unsaved changes in " + recoveries.size()
+				+ " file(s) from the last session." + NEWLINE 
+				+ "May I recover them?",
+				"Recover unsaved changes")) {
+			for (int i = 0; i < recoveries.size(); i++) {
+				EditJournal.Recovery recovery = recoveries.get(i);
+				String path = recovery.getPath();
+				if (path.equals("")) {
+					addTextArea(getSelectedTabbedPane(), makeNewFile());
+					applyRecovery(getSelectedTextPad(), recovery);
+				} else {
+					File file = new File(path);
+					if (file.exists() && recovery.matchesBase(file)
+							&& openFile(file, true, false, false, false)) {
+						applyRecovery(getSelectedTextPad(), recovery);
+					} else {
+						System.out.println("Unable to recover changes to "
+								+ path + " since it changed on disk");
+					}
+				}
+			}
+		}
+		for (int i = 0; i < files.size(); i++) {
+			files.get(i).delete();
+		}
+	}
+	
+	/**
+	 * Applies recovered edits to a pad, waiting for the pad's file to 
+	 * finish loading if necessary.
+	 * @param pad the pad
+	 * @param recovery the edits to apply
+	 */
+	private void applyRecovery(final TextPad pad, 
+			final EditJournal.Recovery recovery) {
+		if (pad == null || pad.isPaged()) return;
+		if (pad.isLoading()) {
+			javax.swing.Timer timer = new javax.swing.Timer(100, 
+					new ActionListener() {
+				public void actionPerformed(ActionEvent evt) {
+					((javax.swing.Timer) evt.getSource()).stop();
+					applyRecovery(pad, recovery);
+				}
+			});
+			timer.setRepeats(false);
+			timer.start();
+			return;
+		}
+		pad.startCompoundEdit();
+		try {
+			recovery.apply(pad.getDocument());
+		} catch (BadLocationException e) {
+			System.out.println("Unable to recover all changes to " 
+					+ pad.getPath());
+		}
+		pad.stopCompoundEdit();
 	}
 
 	/**
 	 * Saves text area contents to a given path.
+	 * The text is written in the background, with the pad's file, 
+	 * title, and highlighting updated once the write finishes.  If the
+	 * write fails, the user will be asked whether to save elsewhere.
 	 * 
 	 * @param path file path in which to save
 	 * @param t the pad to save; if <code>null</code>, defaults to the
 	 *            currently selected pad if null
-	 * @return true for a successful save, false if otherwise
+	 * @return true if the save was started, false if otherwise
 	 * @see #saveFile
 	 */
 	public boolean saveFile(String path, TextPad t) {
 		if (t == null) t = getSelectedTextPad();
 		if (t == null) return false;
-		try {
-			LibTTx.writeText(path, t.getText(), t.getEOL());
-			if (verbose) {
-				System.out.println("saving eol..." 
-						+ LibTTx.getEOLName(t.getEOL()));
-			}
-			// keeps track of orig filename to compare file extensions
-			// for syntax highlighting;
-			// assumes that path points to a valid file
-			String origName = t.getFile().getName();
-			t.setFile(path);
-
-			getPrefs().storeFileHist(path);
-			// sets the style according to extension, but only if 
-			// the next extension is different from the previous one
-			if (!origName.equals(t.getFile().getName())) {
-				if (getPrefs().getHighlighting() && getHighlighting()
-							&& !LibTTx.getFileExtension(origName)
-									.equalsIgnoreCase(t.getFileExtension())) {
-					String text = t.getAllText();
-					int caretPos = t.getCaretPosition();
-					loadText(t, text);
-					applyHighlighting(t);
-					t.setCaretPosition(caretPos);
-				}
-				// automatically starts indenting, if applicable, after
-				// rather than before applying the syntax highlighting 
-				// so that the indentations are applied to the new styled doc
-				autoAutoIndent(t); 
-			}
-			t.setChanged(false);
-			t.setIgnoreChanged(false);
-			updateTabTitle(t);
-			return true;
-		} finally { // release system resources from stream
-			t.setupFileModifiedThread();
+		if (t.isPaged()) {
+			JOptionPane.showMessageDialog(getThis(),
+					"This file is open in the read-only large file viewer"
+					+ "\nand can't be saved from here.  Sorry about that.",
+					"Large file viewer",
+					JOptionPane.INFORMATION_MESSAGE);
+			return false;
 		}
+		if (t.isFollowing()) {
+			JOptionPane.showMessageDialog(getThis(),
+					"This tab is following its file and may not hold"
+					+ "\nall of it.  Stop following to edit and save it.",
+					"Following file",
+					JOptionPane.INFORMATION_MESSAGE);
+			return false;
+		}
+		if (t.isLoading()) {
+			JOptionPane.showMessageDialog(getThis(),
+					"This file is still loading, and saving now would"
+					+ "\nleave out the rest of it.  Please try again once"
+					+ "\nit has finished.",
+					"Still loading",
+					JOptionPane.INFORMATION_MESSAGE);
+			return false;
+		}
+		// only one save at a time, since the first will save all the 
+		// pad's text
+		if (t.isSaving()) return true;
+		if (verbose) {
+			System.out.println("saving eol..." 
+					+ LibTTx.getEOLName(t.getEOL()));
+		}
+		(new TextPadSaver(t, path)).start();
+		return true;
 	}
 	
 	/**
@@ -2271,7 +2578,10 @@ public class TextTrix extends JFrame {
 	public boolean saveFileOnExit(String path) {
 		//	System.out.println("printing");
 		TextPad t = getSelectedTextPad();
-		return LibTTx.writeText(path, t.getText(), t.getEOL());
+		// the text loaded so far would replace the whole file
+		if (t.isLoading()) return false;
+		return docWriter.write(t.getDocument(), new File(path), t.getEOL(), 
+				null);
 	}
 	
 
@@ -2326,7 +2636,7 @@ public class TextTrix extends JFrame {
 			BufferedReader reader = null;
 			try {
 				// Resources are read as input streams, while
-				// non-resources are read with file readers
+				// non-resources are memory-mapped and loaded in chunks
 				if (resource) {
 					// Attempt to get the resource as a stream
 					InputStream in = TextTrix.class.getResourceAsStream(path);
@@ -2336,23 +2646,28 @@ public class TextTrix extends JFrame {
 					} else {
 						return false;
 					}
-				} else {
-					// Read non-resources through a buffered reader
-					reader = new BufferedReader(new FileReader(path));
+				} else if (!file.isFile()) {
+					throw new FileNotFoundException(path);
 				}
 
 				// enter file contents into current text area if it is empty
 				// and unmodified; otherwise, create a new text area
-				if (t != null && reuseTab && t.isEmpty() && !t.getChanged()) {
-					read(t, reader, path);
-				} else {
+				if (t == null || !reuseTab || !t.isEmpty() || t.getChanged()) {
 					addTextArea(getSelectedTabbedPane(), file);
 					t = getSelectedTextPad();
-					read(t, reader, path);
 				}
 				t.setFile(path); // sets file pointer
-				t.setEditable(editable);
-				t.setupFileModifiedThread(); // sets last modified time
+				if (reader != null) {
+					read(t, reader, path);
+					t.setEditable(editable);
+				} else if (file.length() 
+						> getPrefs().getLargeFileThreshold() * 1024L * 1024L) {
+					// pages large files in from disk in a read-only viewer
+					t.viewPaged(statusProgress);
+				} else {
+					load(t, file, editable);
+				}
+				t.setupFileWatch(); // sets last modified time
 				// TODO: check whether thread safe
 				getSelectedTabbedPane().setToolTipTextAt(
 						getSelectedTabbedPane().getSelectedIndex(), 
@@ -2456,6 +2771,57 @@ public class TextTrix extends JFrame {
 			t.refresh();
 		}
 	}
+	
+	/**
+	 * Replaces every occurrence of a sequence in the currently selected 
+	 * <code>TextPad</code>, ignoring case.  The replacements are grouped
+	 * into a single undoable edit.
+	 * @param find the sequence to replace
+	 * @param replace the text to replace each occurrence
+	 * @return the number of occurrences replaced
+	 */
+	public int replaceAll(String find, String replace) {
+		TextPad t = getSelectedTextPad();
+		if (t == null || find.length() == 0 || !t.isEditable()) return 0;
+		statusBarCreator.stopFind();
+		int count = 0;
+		t.startCompoundEdit();
+		try {
+			count = new DocumentSearcher(find).replaceAll(
+					t.getDocument(), replace);
+		} catch (BadLocationException e) {
+			e.printStackTrace();
+		}
+		t.stopCompoundEdit();
+		statusProgress.setString(count + " replaced");
+		return count;
+	}
+	
+	/**
+	 * Starts or stops following the file in the currently selected
+	 * <code>TextPad</code>, appending text as it is added to the file.
+	 */
+	public void followTab() {
+		TextPad t = getSelectedTextPad();
+		if (t == null) return;
+		if (t.isFollowing()) {
+			t.stopFollowing();
+		} else if (!t.fileExists() || t.isPaged()) {
+			JOptionPane.showMessageDialog(getThis(),
+					"Only saved files outside of the large file viewer"
+					+ "\ncan be followed.  Sorry about that.",
+					"Follow file",
+					JOptionPane.INFORMATION_MESSAGE);
+		} else if (t.getChanged()) {
+			JOptionPane.showMessageDialog(getThis(),
+					"Please save or refresh this tab before following"
+					+ "\nits file.",
+					"Follow file",
+					JOptionPane.INFORMATION_MESSAGE);
+		} else {
+			t.startFollowing(getPrefs().getFollowMaxLines());
+		}
+	}
 
 	/**
 	 * Automatically auto-indents the given Text Pad. Determines whether the
@@ -2483,6 +2849,33 @@ public class TextTrix extends JFrame {
 	 * @see #autoAutoIndent(TextPad)
 	 */
 	public boolean isAutoIndentExt(String path) {
+		return isExtInList(path, getPrefs().getAutoIndentExt());
+	}
+	
+	/**
+	 * Checks if the given file should be stored in a piece table, either
+	 * for its size or because its extension is in the user-defined list.
+	 * 
+	 * @param file file to check
+	 * @return <code>true</code> if the file should be stored in a 
+	 * piece table
+	 * @see TextPad#setPieceContent(boolean)
+	 */
+	public boolean isPieceTableFile(File file) {
+		return file.length() 
+				>= getPrefs().getPieceTableThreshold() * 1024L * 1024L
+				|| isExtInList(file.getName(), getPrefs().getPieceTableExt());
+	}
+	
+	/**
+	 * Checks if the given file's extension is in a list of extensions.
+	 * 
+	 * @param path file to check
+	 * @param extList comma-or-space-delimited list of extensions, where
+	 * the period is optional
+	 * @return <code>true</code> if the file's extension is in the list
+	 */
+	private static boolean isExtInList(String path, String extList) {
 		// get the file extension index
 		int extIndex = path.lastIndexOf(".") + 1;
 		// stop searching if no extension
@@ -2491,8 +2884,7 @@ public class TextTrix extends JFrame {
 		// get the extension str
 		String ext = path.substring(extIndex);
 		// get the list of extensions to check
-		StringTokenizer tokenizer = new StringTokenizer(getPrefs()
-				.getAutoIndentExt(), " ,.");
+		StringTokenizer tokenizer = new StringTokenizer(extList, " ,.");
 		String token = "";
 		// compare the extension with the list of extensions;
 		// return true once find
@@ -3148,6 +3540,8 @@ public class TextTrix extends JFrame {
 		 * @param e insertion event
 		 */
 		public void insertUpdate(DocumentEvent e) {
+			pad.countEdit();
+			pad.recordEdit(e);
 			setChanged();
 			pad.updateLineDance(e);
 		}
@@ -3158,6 +3552,8 @@ public class TextTrix extends JFrame {
 		 * @param e removal event
 		 */
 		public void removeUpdate(DocumentEvent e) {
+			pad.countEdit();
+			pad.recordEdit(e);
 			setChanged();
 			pad.updateLineDance(e);
 		}
@@ -3189,6 +3585,197 @@ public class TextTrix extends JFrame {
 
 	}
 	
+	/**
+	 * Saves a <code>TextPad</code>'s contents in the background.
+	 * The text is taken under the document's read lock along with the 
+	 * pad's edit count, so that edits made after it leave the pad 
+	 * flagged as changed and are kept in its journal.
+	 */
+	private class TextPadSaver implements Runnable {
+		private TextPad pad = null;
+		private String path = null;
+		private int editCount = 0; // the pad's edit count when written
+		
+		public TextPadSaver(TextPad aPad, String aPath) {
+			pad = aPad;
+			path = aPath;
+		}
+		
+		/** Starts saving the pad's contents in a separate thread.
+		 */
+		public void start() {
+			pad.setSaving(true);
+			(new Thread(this, "thread")).start();
+		}
+		
+		/** Writes the pad's contents, then updates the pad in the 
+		 * event dispatch thread.
+		 */
+		public void run() {
+			final CharSequence[] text = { null };
+			Runnable copier = new Runnable() {
+				public void run() {
+					text[0] = pad.getSnapshot();
+					editCount = pad.getEditCount();
+				}
+			};
+			Document doc = pad.getDocument();
+			if (doc instanceof AbstractDocument) {
+				((AbstractDocument) doc).render(copier);
+			} else {
+				copier.run();
+			}
+			final boolean success = docWriter.write(text[0], 
+					new File(path), pad.getEOL(), statusProgress);
+			EventQueue.invokeLater(new Runnable() {
+				public void run() {
+					finish(success);
+				}
+			});
+		}
+		
+		/** Updates the pad after the write.
+		 * @param success <code>true</code> if the file was written
+		 */
+		private void finish(boolean success) {
+			pad.setupFileWatch();
+			pad.setSaving(false);
+			if (!success) {
+				// error dialog to user if can't save, for whatever reason
+				String msg = path + " couldn't be written.\n"
+						+ "Would you like to try saving it somewhere else?";
+				if (LibTTx.yesNoDialog(getThis(), msg, "Couldn't write")) {
+					fileSaveDialog(pad, getThis());
+				}
+				return;
+			}
+			// keeps track of orig filename to compare file extensions
+			// for syntax highlighting;
+			// assumes that path points to a valid file
+			String origName = pad.getFile().getName();
+			pad.setFile(path);
+			pad.setupFileWatch();
+
+			getPrefs().storeFileHist(path);
+			// sets the style according to extension, but only if 
+			// the next extension is different from the previous one
+			if (!origName.equals(pad.getFile().getName())) {
+				if (getPrefs().getHighlighting() && getHighlighting()
+							&& !LibTTx.getFileExtension(origName)
+									.equalsIgnoreCase(pad.getFileExtension())) {
+					String text = pad.getAllText();
+					int caretPos = pad.getCaretPosition();
+					loadText(pad, text);
+					applyHighlighting(pad);
+					pad.setCaretPosition(caretPos);
+				}
+				// automatically starts indenting, if applicable, after
+				// rather than before applying the syntax highlighting 
+				// so that the indentations are applied to the new styled doc
+				autoAutoIndent(pad); 
+			}
+			if (pad.getEditCount() != editCount) {
+				// only the edits since the write apply to the saved file
+				pad.rebaseJournal(editCount);
+			} else {
+				pad.setChanged(false);
+			}
+			pad.setIgnoreChanged(false);
+			updateTabTitle(pad);
+		}
+	}
+	
+	/**
+	 * Saves snapshots of <code>TextPad</code>s in the background for
+	 * auto-saves.  Each snapshot is taken in the event dispatch thread
+	 * and written by a single worker with a bounded queue, so that the
+	 * user can keep editing while many pads save.  A snapshot queued 
+	 * for a file whose previous snapshot has not yet been written 
+	 * replaces that snapshot, and snapshots whose text matches the last 
+	 * save are not written at all.
+	 */
+	private class TextPadSnapshotSaver {
+		private ThreadPoolExecutor executor = new ThreadPoolExecutor(
+				1, 1, 0L, TimeUnit.MILLISECONDS, 
+				new ArrayBlockingQueue<Runnable>(16));
+		// queued saves that have not yet started, by file path
+		private HashMap<String, SnapshotSave> queued = 
+				new HashMap<String, SnapshotSave>();
+		
+		/** Takes a snapshot of the pad's text and queues it to be saved.
+		 * Must be called in the event dispatch thread.
+		 * @param pad the pad to save
+		 */
+		public void save(TextPad pad) {
+			String path = pad.getPath();
+			SnapshotSave save = new SnapshotSave(pad, path);
+			synchronized (this) {
+				SnapshotSave prev = queued.get(path);
+				if (prev != null) {
+					// the queued save will write this snapshot instead
+					prev.text = save.text;
+					prev.editCount = save.editCount;
+					return;
+				}
+				try {
+					executor.execute(save);
+				} catch (RejectedExecutionException e) {
+					// leaves the pad flagged as changed for the next round
+					return;
+				}
+				queued.put(path, save);
+			}
+			pad.setSaving(true);
+		}
+		
+		/** A single snapshot to save.
+		 */
+		private class SnapshotSave implements Runnable {
+			private TextPad pad = null;
+			private String path = null;
+			private CharSequence text = null;
+			private String eol = null;
+			private int editCount = 0;
+			
+			public SnapshotSave(TextPad aPad, String aPath) {
+				pad = aPad;
+				path = aPath;
+				text = pad.getSnapshot();
+				eol = pad.getEOL();
+				editCount = pad.getEditCount();
+			}
+			
+			public void run() {
+				CharSequence snapshot = null;
+				final int snapshotEditCount;
+				synchronized (TextPadSnapshotSaver.this) {
+					queued.remove(path);
+					snapshot = text;
+					snapshotEditCount = editCount;
+				}
+				final boolean success = 
+						docWriter.write(snapshot, new File(path), eol, true);
+				EventQueue.invokeLater(new Runnable() {
+					public void run() {
+						pad.setupFileWatch();
+						pad.setSaving(false);
+						// the pad is only unchanged if not edited since
+						// the snapshot
+						if (success && pad.getEditCount() == snapshotEditCount
+								&& path.equals(pad.getPath())) {
+							pad.setChanged(false);
+							updateTabTitle(pad);
+						} else if (success && path.equals(pad.getPath())) {
+							pad.rebaseJournal(snapshotEditCount);
+						} else if (success) {
+							pad.rebaseJournal();
+						}
+					}
+				});
+			}
+		}
+	}
+	
 	/**
 	 * A timer to automatically save the <code>TextPad</code>'s contents. The
 	 * timer checks the preferences to determine the interval between saves and
@@ -3308,10 +3895,13 @@ public class TextTrix extends JFrame {
 				}
 			}
 			
-			// saves the pad directly if it already exists;
-			// otherwise, asks for a file path
+			// saves a snapshot of the pad in the background if the file 
+			// already exists; otherwise, asks for a file path
 			if (textPad.fileExists()) {
-				saveFile(textPad.getPath(), textPad);
+				if (snapshotSaver == null) {
+					snapshotSaver = new TextPadSnapshotSaver();
+				}
+				snapshotSaver.save(textPad);
 			} else {
 				// asks users whether they would like to supply
 				// a file
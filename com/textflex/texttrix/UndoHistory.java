@@ -0,0 +1,344 @@
+/* ***** BEGIN LICENSE BLOCK *****
+ * Version: MPL 1.1/GPL 2.0/LGPL 2.1
+ *
+ * The contents of this file are subject to the Mozilla Public License Version
+ * 1.1 (the "License"); you may not use this file except in compliance with
+ * the License. You may obtain a copy of the License at
+ * http://www.mozilla.org/MPL/
+ *
+ * Software distributed under the License is distributed on an "AS IS" basis,
+ * WITHOUT WARRANTY OF ANY KIND, either express or implied. See the License
+ * for the specific language governing rights and limitations under the
+ * License.
+ *
+ * The Original Code is the Text Trix code.
+ *
+ * The Initial Developer of the Original Code is
+ * Text Flex.
+ * Portions created by the Initial Developer are Copyright (C) 2019
+ * the Initial Developer. All Rights Reserved.
+ *
+ * Contributor(s): David Young <david@textflex.com>
+ *
+ * Alternatively, the contents of this file may be used under the terms of
+ * either the GNU General Public License Version 2 or later (the "GPL"), or
+ * the GNU Lesser General Public License Version 2.1 or later (the "LGPL"),
+ * in which case the provisions of the GPL or the LGPL are applicable instead
+ * of those above. If you wish to allow use of your version of this file only
+ * under the terms of either the GPL or the LGPL, and not to allow others to
+ * use your version of this file under the terms of the MPL, indicate your
+ * decision by deleting the provisions above and replace them with the notice
+ * and other provisions required by the GPL or the LGPL. If you do not delete
+ * the provisions above, a recipient may use your version of this file under
+ * the terms of any one of the MPL, the GPL or the LGPL.
+ *
+ * ***** END LICENSE BLOCK ***** */
+
+
+
+package com.textflex.texttrix;
+
+import java.io.*;
+import java.security.*;
+import java.util.ArrayList;
+import java.util.zip.*;
+import javax.swing.text.*;
+import javax.swing.undo.*;
+
+/**
+ * A pad's undo and redo history, stored on disk when the pad is 
+ * closed so that it can be restored the next time the file is opened.
+ * 
+ * <p>Each history is kept in its own compressed file, named after a
+ * digest of the path of the file it belongs to.  The history starts 
+ * with a header holding that path along with the file's length, 
+ * modification time, and a digest of its text, so that a history is 
+ * never restored onto a file that has changed since.  Each edit is 
+ * then stored as the insertions and removals it made, with their 
+ * offsets and text.
+ */
+public class UndoHistory {
+	
+	private static final int MAGIC = 0x54545548; // "TTUH"
+	private static final int VERSION = 1;
+	/** Type of an insertion. */
+	public static final byte OP_INSERT = 1;
+	/** Type of a removal. */
+	public static final byte OP_REMOVE = 2;
+	
+	private String path = "";
+	private long length = 0;
+	private long modified = 0;
+	private byte[] digest = null;
+	private ArrayList<Op[]> edits = new ArrayList<Op[]>();
+	private int undoCount = 0; // edits that can be undone; the rest redone
+	
+	/** Constructs a history of the given edits.
+	 * @param aPath the path of the file that the edits apply to
+	 * @param anUndoCount the number of edits, from the start, that 
+	 * can be undone; the remaining edits can be redone
+	 */
+	public UndoHistory(String aPath, int anUndoCount) {
+		path = aPath;
+		undoCount = anUndoCount;
+	}
+	
+	/** Adds an edit to the end of the history.
+	 * @param ops the insertions and removals that the edit made, in 
+	 * the order made
+	 */
+	public void add(Op[] ops) {
+		edits.add(ops);
+	}
+	
+	public ArrayList<Op[]> getEdits() { return edits; }
+	
+	public int getUndoCount() { return undoCount; }
+	
+	/** Gets the file for storing a file's history.
+	 * @param dir the directory for histories
+	 * @param path the path of the file whose history to store
+	 * @return the history file
+	 */
+	public static File getFile(File dir, String path) {
+		MessageDigest md = newDigest();
+		md.update(path.getBytes());
+		StringBuffer name = new StringBuffer();
+		byte[] bytes = md.digest();
+		for (int i = 0; i < bytes.length; i++) {
+			name.append(Integer.toHexString((bytes[i] >> 4) & 0xf));
+			name.append(Integer.toHexString(bytes[i] & 0xf));
+		}
+		return new File(dir, name.append(".ttu").toString());
+	}
+	
+	/** Writes the history for a file whose text matches the document.
+	 * @param dir the directory for histories
+	 * @param doc the document, whose text must match the file
+	 * @return <code>true</code> if the history was written
+	 */
+	public boolean write(File dir, Document doc) {
+		File file = new File(path);
+		File historyFile = getFile(dir, path);
+		DataOutputStream out = null;
+		try {
+			digest = digest(doc);
+			out = new DataOutputStream(new BufferedOutputStream(
+					new DeflaterOutputStream(new FileOutputStream(historyFile))));
+			out.writeInt(MAGIC);
+			out.writeInt(VERSION);
+			out.writeUTF(path);
+			out.writeLong(file.length());
+			out.writeLong(file.lastModified());
+			out.write(digest);
+			out.writeInt(undoCount);
+			out.writeInt(edits.size());
+			for (int i = 0; i < edits.size(); i++) {
+				Op[] ops = edits.get(i);
+				out.writeInt(ops.length);
+				for (int j = 0; j < ops.length; j++) {
+					out.writeByte(ops[j].type);
+					out.writeInt(ops[j].offset);
+					out.writeInt(ops[j].text.length());
+					out.writeChars(ops[j].text);
+				}
+			}
+			out.close();
+			out = null;
+			return true;
+		} catch (IOException e) {
+			System.out.println("Could not write the undo history to " 
+					+ historyFile);
+			historyFile.delete();
+			return false;
+		} catch (BadLocationException e) {
+			historyFile.delete();
+			return false;
+		} finally {
+			try {
+				if (out != null) out.close();
+			} catch (IOException e) {
+			}
+		}
+	}
+	
+	/** Reads a file's stored history, as long as the file has not
+	 * changed since the history was written.
+	 * @param dir the directory for histories
+	 * @param path the path of the file whose history to read
+	 * @return the history, or <code>null</code> if none is stored or 
+	 * the file has since changed
+	 */
+	public static UndoHistory read(File dir, String path) {
+		File historyFile = getFile(dir, path);
+		if (!historyFile.exists()) return null;
+		DataInputStream in = null;
+		try {
+			in = new DataInputStream(new BufferedInputStream(
+					new InflaterInputStream(new FileInputStream(historyFile))));
+			if (in.readInt() != MAGIC || in.readInt() != VERSION
+					|| !in.readUTF().equals(path)) {
+				return null;
+			}
+			File file = new File(path);
+			if (in.readLong() != file.length() 
+					|| in.readLong() != file.lastModified()) {
+				return null;
+			}
+			byte[] digest = new byte[newDigest().getDigestLength()];
+			in.readFully(digest);
+			UndoHistory history = new UndoHistory(path, in.readInt());
+			history.digest = digest;
+			int editCount = in.readInt();
+			for (int i = 0; i < editCount; i++) {
+				Op[] ops = new Op[in.readInt()];
+				for (int j = 0; j < ops.length; j++) {
+					byte type = in.readByte();
+					int offset = in.readInt();
+					char[] chars = new char[in.readInt()];
+					for (int k = 0; k < chars.length; k++) {
+						chars[k] = in.readChar();
+					}
+					ops[j] = new Op(type, offset, new String(chars));
+				}
+				history.add(ops);
+			}
+			return history;
+		} catch (IOException e) {
+			return null;
+		} finally {
+			try {
+				if (in != null) in.close();
+			} catch (IOException e) {
+			}
+		}
+	}
+	
+	/** Checks whether the history ends with the document's text.
+	 * @param doc the document to check
+	 * @return <code>true</code> if the digest of the document's text 
+	 * matches the one stored with the history
+	 */
+	public boolean matches(Document doc) {
+		try {
+			return digest != null && MessageDigest.isEqual(digest, digest(doc));
+		} catch (BadLocationException e) {
+			return false;
+		}
+	}
+	
+	/** Digests a document's text.
+	 */
+	private static byte[] digest(Document doc) throws BadLocationException {
+		MessageDigest md = newDigest();
+		Segment seg = new Segment();
+		seg.setPartialReturn(true);
+		byte[] bytes = new byte[0];
+		int len = doc.getLength();
+		for (int offset = 0; offset < len; offset += seg.count) {
+			doc.getText(offset, len - offset, seg);
+			if (bytes.length < seg.count * 2) bytes = new byte[seg.count * 2];
+			int j = 0;
+			for (int i = seg.offset; i < seg.offset + seg.count; i++) {
+				bytes[j++] = (byte) (seg.array[i] >> 8);
+				bytes[j++] = (byte) seg.array[i];
+			}
+			md.update(bytes, 0, j);
+		}
+		return md.digest();
+	}
+	
+	private static MessageDigest newDigest() {
+		try {
+			return MessageDigest.getInstance("MD5");
+		} catch (NoSuchAlgorithmException e) {
+			// all platforms are required to support MD5
+			throw new RuntimeException(e);
+		}
+	}
+	
+	
+	
+	
+	/** A single insertion or removal.
+	 */
+	public static class Op {
+		private byte type = OP_INSERT;
+		private int offset = 0;
+		private String text = null;
+		
+		/** Constructs an operation.
+		 * @param aType {@link #OP_INSERT} or {@link #OP_REMOVE}
+		 * @param anOffset the offset of the inserted or removed text
+		 * @param aText the inserted or removed text
+		 */
+		public Op(byte aType, int anOffset, String aText) {
+			type = aType;
+			offset = anOffset;
+			text = aText;
+		}
+		
+		public String getText() { return text; }
+		
+		/** Makes the operation in a document.
+		 */
+		private void apply(Document doc, boolean forward) 
+				throws BadLocationException {
+			if ((type == OP_INSERT) == forward) {
+				doc.insertString(offset, text, null);
+			} else {
+				doc.remove(offset, text.length());
+			}
+		}
+	}
+	
+	/** An edit restored from a stored history, which undoes and redoes
+	 * its operations directly in the document.
+	 */
+	public static class Edit extends AbstractUndoableEdit {
+		private Document doc = null;
+		private Op[] ops = null;
+		private boolean applied = true; // the document has the edit
+		
+		/** Constructs an edit to a document.
+		 * @param aDoc the document to edit
+		 * @param someOps the operations that the edit made
+		 * @param isApplied <code>false</code> if the edit has been 
+		 * undone in the document, in which case the edit's first undo 
+		 * leaves the document as it is, ready to be redone
+		 */
+		public Edit(Document aDoc, Op[] someOps, boolean isApplied) {
+			doc = aDoc;
+			ops = someOps;
+			applied = isApplied;
+		}
+		
+		public Op[] getOps() { return ops; }
+		
+		public void undo() throws CannotUndoException {
+			super.undo();
+			if (!applied) {
+				applied = true;
+				return;
+			}
+			try {
+				for (int i = ops.length - 1; i >= 0; i--) {
+					ops[i].apply(doc, false);
+				}
+			} catch (BadLocationException e) {
+				throw new CannotUndoException();
+			}
+		}
+		
+		public void redo() throws CannotRedoException {
+			super.redo();
+			try {
+				for (int i = 0; i < ops.length; i++) {
+					ops[i].apply(doc, true);
+				}
+			} catch (BadLocationException e) {
+				throw new CannotRedoException();
+			}
+		}
+	}
+}
@@ -0,0 +1,173 @@
+/* ***** BEGIN LICENSE BLOCK *****
+ * Version: MPL 1.1/GPL 2.0/LGPL 2.1
+ *
+ * The contents of this file are subject to the Mozilla Public License Version
+ * 1.1 (the "License"); you may not use this file except in compliance with
+ * the License. You may obtain a copy of the License at
+ * http://www.mozilla.org/MPL/
+ *
+ * Software distributed under the License is distributed on an "AS IS" basis,
+ * WITHOUT WARRANTY OF ANY KIND, either express or implied. See the License
+ * for the specific language governing rights and limitations under the
+ * License.
+ *
+ * The Original Code is the Text Trix code.
+ *
+ * The Initial Developer of the Original Code is
+ * Text Flex.
+ * Portions created by the Initial Developer are Copyright (C) 2019
+ * the Initial Developer. All Rights Reserved.
+ *
+ * Contributor(s): David Young <david@textflex.com>
+ *
+ * Alternatively, the contents of this file may be used under the terms of
+ * either the GNU General Public License Version 2 or later (the "GPL"), or
+ * the GNU Lesser General Public License Version 2.1 or later (the "LGPL"),
+ * in which case the provisions of the GPL or the LGPL are applicable instead
+ * of those above. If you wish to allow use of your version of this file only
+ * under the terms of either the GPL or the LGPL, and not to allow others to
+ * use your version of this file under the terms of the MPL, indicate your
+ * decision by deleting the provisions above and replace them with the notice
+ * and other provisions required by the GPL or the LGPL. If you do not delete
+ * the provisions above, a recipient may use your version of this file under
+ * the terms of any one of the MPL, the GPL or the LGPL.
+ *
+ * ***** END LICENSE BLOCK ***** */
+
+
+package com.textflex.texttrix;
+
+import java.awt.*;
+import java.beans.*;
+import javax.swing.*;
+import javax.swing.event.*;
+import javax.swing.text.*;
+
+/**
+ * Wrap-indents only the paragraphs that the user can see.
+ * 
+ * <p>Rather than styling every paragraph of the document when it loads,
+ * the indenter styles the paragraphs that intersect the pad's visible
+ * area, along with a margin of one screen above and below so that 
+ * scrolling rarely reaches unstyled text.  Each scroll, resize, or edit
+ * schedules another pass on the event dispatch thread, and passes 
+ * requested before the first one runs are coalesced.  A pass recounts 
+ * the leading tabs of each paragraph in range, and paragraphs whose 
+ * attributes still match their tabs are left untouched, so edited
+ * paragraphs are restyled while the rest cost only the check.
+ */
+public class ViewportIndenter 
+		implements ChangeListener, DocumentListener, PropertyChangeListener {
+	
+	private TextPad pad = null;
+	private Document doc = null;
+	private JViewport viewport = null; // viewport whose scrolling to follow
+	private boolean enabled = false; // flags to indent visible paragraphs
+	private boolean pending = false; // flags that a pass has been queued
+	
+	/** Constructs an indenter for the given pad and any documents later
+	 * set in it.
+	 * The indenter remains disabled until the pad's auto-indent is set.
+	 * @param aPad the pad to indent
+	 */
+	public ViewportIndenter(TextPad aPad) {
+		pad = aPad;
+		pad.addPropertyChangeListener(this);
+		setDocument(pad.getDocument());
+	}
+	
+	/** Follows the scrolling of the given scroll pane.
+	 * @param scrollPane the pane that houses the pad, or 
+	 * <code>null</code> to stop following
+	 */
+	public void setScrollPane(JScrollPane scrollPane) {
+		if (viewport != null) viewport.removeChangeListener(this);
+		viewport = scrollPane == null ? null : scrollPane.getViewport();
+		if (viewport != null) viewport.addChangeListener(this);
+		schedule();
+	}
+	
+	/** Starts or stops indenting the visible paragraphs.
+	 * Stopping leaves any existing indents in place.
+	 * @param b <code>true</code> to indent
+	 */
+	public void setEnabled(boolean b) {
+		enabled = b;
+		schedule();
+	}
+	
+	/** Switches to a new document.
+	 * @param aDoc the document
+	 */
+	private void setDocument(Document aDoc) {
+		if (doc != null) doc.removeDocumentListener(this);
+		doc = aDoc;
+		if (doc != null) doc.addDocumentListener(this);
+	}
+	
+	/** Queues a pass over the visible paragraphs if none is already
+	 * queued.
+	 */
+	public void schedule() {
+		if (!enabled || pending) return;
+		pending = true;
+		SwingUtilities.invokeLater(new Runnable() {
+			public void run() {
+				pending = false;
+				indentVisible();
+			}
+		});
+	}
+	
+	/** Wrap-indents the paragraphs in the pad's visible area and the 
+	 * margin around it.
+	 */
+	private void indentVisible() {
+		if (!enabled || pad.isPaged() 
+				|| !(pad.getDocument() instanceof StyledDocument)) {
+			return;
+		}
+		Rectangle rect = pad.getVisibleRect();
+		if (rect.height <= 0) return;
+		// prefetches a screen above and below the visible area
+		int top = Math.max(rect.y - rect.height, 0);
+		int bottom = rect.y + rect.height * 2;
+		int start = LibTTx.viewToModel(pad, new Point(0, top));
+		int end = LibTTx.viewToModel(pad, new Point(rect.x + rect.width, bottom));
+		if (start < 0 || end < 0) return;
+		pad.setIndentTabs(pad.getTabSize(), start, end + 1);
+	}
+	
+	/** Responds to the viewport scrolling or changing size.
+	 */
+	public void stateChanged(ChangeEvent e) {
+		schedule();
+	}
+	
+	/** Responds to documents being set in the pad, and to font changes,
+	 * which change the width of each indent.
+	 */
+	public void propertyChange(PropertyChangeEvent e) {
+		String name = e.getPropertyName();
+		if (name.equals("document")) {
+			setDocument(pad.getDocument());
+			schedule();
+		} else if (name.equals("font")) {
+			schedule();
+		}
+	}
+	
+	public void insertUpdate(DocumentEvent e) {
+		schedule();
+	}
+	
+	public void removeUpdate(DocumentEvent e) {
+		schedule();
+	}
+	
+	/** Ignores attribute changes, including those from the indents 
+	 * themselves.
+	 */
+	public void changedUpdate(DocumentEvent e) {
+	}
+}
@@ -59,6 +59,14 @@ public class WrapEditorKit extends StyledEditorKit {
 		return defaultFactory;
 	}
 	
+	/**
+	 * Creates a styled document that can set paragraph attributes in
+	 * batches for wrap-indent.
+	 */
+	public Document createDefaultDocument() {
+		return new IndentedDocument();
+	}
+	
 	/**
 	 * View factory with support for wrapping long words.
 	 */
@@ -0,0 +1,143 @@
+/* ***** BEGIN LICENSE BLOCK *****
+ * Version: MPL 1.1/GPL 2.0/LGPL 2.1
+ *
+ * The contents of this file are subject to the Mozilla Public License Version
+ * 1.1 (the "License"); you may not use this file except in compliance with
+ * the License. You may obtain a copy of the License at
+ * http://www.mozilla.org/MPL/
+ *
+ * Software distributed under the License is distributed on an "AS IS" basis,
+ * WITHOUT WARRANTY OF ANY KIND, either express or implied. See the License
+ * for the specific language governing rights and limitations under the
+ * License.
+ *
+ * The Original Code is the Text Trix code.
+ *
+ * The Initial Developer of the Original Code is
+ * Text Flex.
+ * Portions created by the Initial Developer are Copyright (C) 2019
+ * the Initial Developer. All Rights Reserved.
+ *
+ * Contributor(s): David Young <david@textflex.com>
+ *
+ * Alternatively, the contents of this file may be used under the terms of
+ * either the GNU General Public License Version 2 or later (the "GPL"), or
+ * the GNU Lesser General Public License Version 2.1 or later (the "LGPL"),
+ * in which case the provisions of the GPL or the LGPL are applicable instead
+ * of those above. If you wish to allow use of your version of this file only
+ * under the terms of either the GPL or the LGPL, and not to allow others to
+ * use your version of this file under the terms of the MPL, indicate your
+ * decision by deleting the provisions above and replace them with the notice
+ * and other provisions required by the GPL or the LGPL. If you do not delete
+ * the provisions above, a recipient may use your version of this file under
+ * the terms of any one of the MPL, the GPL or the LGPL.
+ *
+ * ***** END LICENSE BLOCK ***** */
+
+
+package com.textflex.texttrixtests;
+
+import java.util.Random;
+import javax.swing.JTextArea;
+import javax.swing.text.*;
+
+import com.textflex.texttrix.LineIndex;
+
+import junit.framework.TestCase;
+
+/**
+ * Checks the line index against the document's own line elements
+ * after each edit.
+ */
+public class LineIndexTest extends TestCase {
+	
+	private JTextArea text = null;
+	private Document doc = null;
+	private LineIndex index = null;
+	
+	protected void setUp() throws Exception {
+		text = new JTextArea();
+		doc = text.getDocument();
+		doc.insertString(0, "one\ntwo\n\nfour\nfive", null);
+		index = new LineIndex(text);
+		// builds the index so that the edits update it incrementally
+		index.getLineCount();
+	}
+	
+	/** Asserts that the index agrees with the document's elements.
+	 */
+	private void assertLines() {
+		Element root = doc.getDefaultRootElement();
+		int n = root.getElementCount();
+		assertEquals("line count", n, index.getLineCount());
+		for (int i = 0; i < n; i++) {
+			Element line = root.getElement(i);
+			assertEquals("start of line " + i, line.getStartOffset(), 
+					index.getLineStartOffset(i));
+			assertEquals("end of line " + i, line.getEndOffset(), 
+					index.getLineEndOffset(i));
+		}
+		for (int offset = 0; offset <= doc.getLength(); offset++) {
+			assertEquals("line of offset " + offset, 
+					root.getElementIndex(offset), 
+					index.getLineOfOffset(offset));
+		}
+	}
+	
+	public void testInsertNewlines() throws Exception {
+		doc.insertString(5, "a\nb\n\nc", null);
+		assertLines();
+		doc.insertString(3, "\n\n\n", null);
+		assertLines();
+	}
+	
+	public void testRemoveNewlines() throws Exception {
+		doc.remove(2, 9);
+		assertLines();
+		doc.remove(0, doc.getLength());
+		assertLines();
+	}
+	
+	public void testEditAtStart() throws Exception {
+		doc.insertString(0, "\nzero\n", null);
+		assertLines();
+		doc.insertString(0, "x", null);
+		assertLines();
+		doc.remove(0, 2);
+		assertLines();
+		doc.remove(0, 1);
+		assertLines();
+	}
+	
+	public void testEditAtEnd() throws Exception {
+		doc.insertString(doc.getLength(), "\n", null);
+		assertLines();
+		doc.insertString(doc.getLength(), "six\n\nseven", null);
+		assertLines();
+		doc.remove(doc.getLength() - 7, 7);
+		assertLines();
+		doc.remove(doc.getLength() - 1, 1);
+		assertLines();
+	}
+	
+	public void testRandomEdits() throws Exception {
+		Random random = new Random(1);
+		String chars = "ab\n";
+		for (int i = 0; i < 500; i++) {
+			int length = doc.getLength();
+			if (random.nextBoolean() || length == 0) {
+				StringBuilder s = new StringBuilder();
+				for (int j = random.nextInt(6); j >= 0; j--) {
+					s.append(chars.charAt(random.nextInt(chars.length())));
+				}
+				doc.insertString(random.nextInt(length + 1), s.toString(), 
+						null);
+			} else {
+				int offset = random.nextInt(length);
+				doc.remove(offset, 
+						1 + random.nextInt(Math.min(8, length - offset)));
+			}
+			assertLines();
+		}
+	}
+}
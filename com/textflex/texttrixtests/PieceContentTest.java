@@ -0,0 +1,199 @@
+/* ***** BEGIN LICENSE BLOCK *****
+ * Version: MPL 1.1/GPL 2.0/LGPL 2.1
+ *
+ * The contents of this file are subject to the Mozilla Public License Version
+ * 1.1 (the "License"); you may not use this file except in compliance with
+ * the License. You may obtain a copy of the License at
+ * http://www.mozilla.org/MPL/
+ *
+ * Software distributed under the License is distributed on an "AS IS" basis,
+ * WITHOUT WARRANTY OF ANY KIND, either express or implied. See the License
+ * for the specific language governing rights and limitations under the
+ * License.
+ *
+ * The Original Code is the Text Trix code.
+ *
+ * The Initial Developer of the Original Code is
+ * Text Flex.
+ * Portions created by the Initial Developer are Copyright (C) 2019
+ * the Initial Developer. All Rights Reserved.
+ *
+ * Contributor(s): David Young <david@textflex.com>
+ *
+ * Alternatively, the contents of this file may be used under the terms of
+ * either the GNU General Public License Version 2 or later (the "GPL"), or
+ * the GNU Lesser General Public License Version 2.1 or later (the "LGPL"),
+ * in which case the provisions of the GPL or the LGPL are applicable instead
+ * of those above. If you wish to allow use of your version of this file only
+ * under the terms of either the GPL or the LGPL, and not to allow others to
+ * use your version of this file under the terms of the MPL, indicate your
+ * decision by deleting the provisions above and replace them with the notice
+ * and other provisions required by the GPL or the LGPL. If you do not delete
+ * the provisions above, a recipient may use your version of this file under
+ * the terms of any one of the MPL, the GPL or the LGPL.
+ *
+ * ***** END LICENSE BLOCK ***** */
+
+
+
+package com.textflex.texttrixtests;
+
+import java.util.ArrayList;
+import java.util.Random;
+import javax.swing.text.*;
+import javax.swing.undo.UndoableEdit;
+
+import com.textflex.texttrix.PieceContent;
+
+import junit.framework.TestCase;
+
+/**
+ * Checks the piece table against Swing's own gap buffer by making the
+ * same edits, undos, and redos to both and comparing their text and 
+ * positions after each step.
+ */
+public class PieceContentTest extends TestCase {
+	
+	private PieceContent pieces = null;
+	private GapContent gap = null;
+	// positions created in each content, in the same order
+	private ArrayList<Position> piecePositions = null;
+	private ArrayList<Position> gapPositions = null;
+	// edits made to each content, with the undone edits at the end
+	private ArrayList<UndoableEdit> pieceEdits = null;
+	private ArrayList<UndoableEdit> gapEdits = null;
+	private int done = 0; // number of edits not undone
+	
+	protected void setUp() throws Exception {
+		pieces = new PieceContent();
+		gap = new GapContent();
+		piecePositions = new ArrayList<Position>();
+		gapPositions = new ArrayList<Position>();
+		pieceEdits = new ArrayList<UndoableEdit>();
+		gapEdits = new ArrayList<UndoableEdit>();
+		done = 0;
+	}
+	
+	private void insert(int where, String str) throws Exception {
+		addEdits(pieces.insertString(where, str), gap.insertString(where, str));
+		assertSame();
+	}
+	
+	private void remove(int where, int n) throws Exception {
+		addEdits(pieces.remove(where, n), gap.remove(where, n));
+		assertSame();
+	}
+	
+	/** Adds the edits just made, discarding any undone edits.
+	 */
+	private void addEdits(UndoableEdit pieceEdit, UndoableEdit gapEdit) {
+		while (pieceEdits.size() > done) {
+			pieceEdits.remove(done);
+			gapEdits.remove(done);
+		}
+		pieceEdits.add(pieceEdit);
+		gapEdits.add(gapEdit);
+		done++;
+	}
+	
+	private void undo() throws Exception {
+		done--;
+		pieceEdits.get(done).undo();
+		gapEdits.get(done).undo();
+		assertSame();
+	}
+	
+	private void redo() throws Exception {
+		pieceEdits.get(done).redo();
+		gapEdits.get(done).redo();
+		done++;
+		assertSame();
+	}
+	
+	private void createPosition(int offset) throws Exception {
+		piecePositions.add(pieces.createPosition(offset));
+		gapPositions.add(gap.createPosition(offset));
+		assertSame();
+	}
+	
+	/** Asserts that both contents hold the same text and positions.
+	 */
+	private void assertSame() throws Exception {
+		assertEquals("length", gap.length(), pieces.length());
+		assertEquals(gap.getString(0, gap.length()), 
+				pieces.getString(0, pieces.length()));
+		for (int i = 0; i < gapPositions.size(); i++) {
+			assertEquals("position " + i, gapPositions.get(i).getOffset(), 
+					piecePositions.get(i).getOffset());
+		}
+	}
+	
+	public void testInsertRemove() throws Exception {
+		insert(0, "one two three");
+		createPosition(4);
+		createPosition(8);
+		insert(4, "and ");
+		remove(0, 4);
+		insert(0, "zero ");
+		remove(3, 10);
+		createPosition(pieces.length() - 1);
+		insert(pieces.length() - 1, " four");
+	}
+	
+	public void testUndoRedo() throws Exception {
+		insert(0, "abcdef");
+		createPosition(2);
+		createPosition(5);
+		remove(1, 4);
+		createPosition(1);
+		undo();
+		createPosition(3);
+		undo();
+		redo();
+		redo();
+		undo();
+		insert(6, "xyz");
+		undo();
+		redo();
+	}
+	
+	public void testPositionsAtStart() throws Exception {
+		insert(0, "abc");
+		createPosition(1);
+		undo();
+		createPosition(0);
+		redo();
+		createPosition(0);
+		remove(0, 2);
+		createPosition(0);
+		undo();
+		redo();
+		undo();
+	}
+	
+	public void testRandomEdits() throws Exception {
+		Random random = new Random(7);
+		for (int i = 0; i < 5000; i++) {
+			int len = pieces.length();
+			int action = random.nextInt(10);
+			if (action < 3) {
+				StringBuilder str = new StringBuilder();
+				int n = 1 + random.nextInt(random.nextInt(10) == 0 ? 2000 : 8);
+				for (int j = 0; j < n; j++) {
+					str.append((char) ('a' + random.nextInt(26)));
+				}
+				insert(random.nextInt(len), str.toString());
+			} else if (action < 5 && len > 1) {
+				int where = random.nextInt(len - 1);
+				remove(where, 1 + random.nextInt(Math.min(len - 1 - where, 20)));
+			} else if (action < 7) {
+				createPosition(random.nextInt(len));
+			} else if (action < 9 && done > 0) {
+				undo();
+			} else if (done < pieceEdits.size()) {
+				redo();
+			}
+		}
+	}
+	
+}
@@ -0,0 +1,155 @@
+/* ***** BEGIN LICENSE BLOCK *****
+ * Version: MPL 1.1/GPL 2.0/LGPL 2.1
+ *
+ * The contents of this file are subject to the Mozilla Public License Version
+ * 1.1 (the "License"); you may not use this file except in compliance with
+ * the License. You may obtain a copy of the License at
+ * http://www.mozilla.org/MPL/
+ *
+ * Software distributed under the License is distributed on an "AS IS" basis,
+ * WITHOUT WARRANTY OF ANY KIND, either express or implied. See the License
+ * for the specific language governing rights and limitations under the
+ * License.
+ *
+ * The Original Code is the Text Trix code.
+ *
+ * The Initial Developer of the Original Code is
+ * Text Flex.
+ * Portions created by the Initial Developer are Copyright (C) 2019
+ * the Initial Developer. All Rights Reserved.
+ *
+ * Contributor(s): David Young <david@textflex.com>
+ *
+ * Alternatively, the contents of this file may be used under the terms of
+ * either the GNU General Public License Version 2 or later (the "GPL"), or
+ * the GNU Lesser General Public License Version 2.1 or later (the "LGPL"),
+ * in which case the provisions of the GPL or the LGPL are applicable instead
+ * of those above. If you wish to allow use of your version of this file only
+ * under the terms of either the GPL or the LGPL, and not to allow others to
+ * use your version of this file under the terms of the MPL, indicate your
+ * decision by deleting the provisions above and replace them with the notice
+ * and other provisions required by the GPL or the LGPL. If you do not delete
+ * the provisions above, a recipient may use your version of this file under
+ * the terms of any one of the MPL, the GPL or the LGPL.
+ *
+ * ***** END LICENSE BLOCK ***** */
+
+
+
+package com.textflex.texttrixtests;
+
+import java.util.ArrayList;
+import javax.swing.text.*;
+
+import com.textflex.texttrix.TextDiff;
+
+import junit.framework.TestCase;
+
+/**
+ * Checks that updating a document to new text gives the new text 
+ * while leaving positions in the unchanged text in place.
+ */
+public class TextDiffTest extends TestCase {
+	
+	private Document doc = null;
+	
+	protected void setUp() throws Exception {
+		doc = new PlainDocument();
+		doc.insertString(0, "one\ntwo\nthree\nfour\nfive\n", null);
+	}
+	
+	/** Updates the document and asserts that it holds the new text.
+	 */
+	private ArrayList<int[]> apply(String text) throws Exception {
+		ArrayList<int[]> regions = TextDiff.apply(doc, text);
+		assertEquals(text, doc.getText(0, doc.getLength()));
+		return regions;
+	}
+	
+	/** Asserts that a position still marks the given text.
+	 */
+	private void assertMarks(Position pos, String text) throws Exception {
+		assertEquals("text at " + pos.getOffset(), text, 
+				doc.getText(pos.getOffset(), text.length()));
+	}
+	
+	public void testUnchanged() throws Exception {
+		Position pos = doc.createPosition(8);
+		assertEquals(0, apply("one\ntwo\nthree\nfour\nfive\n").size());
+		assertEquals(8, pos.getOffset());
+	}
+	
+	public void testAppend() throws Exception {
+		Position two = doc.createPosition(4);
+		Position five = doc.createPosition(19);
+		ArrayList<int[]> regions = apply("one\ntwo\nthree\nfour\nfive\nsix\nseven\n");
+		assertEquals(4, two.getOffset());
+		assertEquals(19, five.getOffset());
+		assertMarks(five, "five");
+		assertEquals(1, regions.size());
+		assertEquals(24, regions.get(0)[0]);
+		assertEquals(doc.getLength(), regions.get(0)[1]);
+	}
+	
+	public void testAppendToLastLine() throws Exception {
+		doc.remove(doc.getLength() - 1, 1);
+		Position four = doc.createPosition(14);
+		ArrayList<int[]> regions = 
+				apply("one\ntwo\nthree\nfour\nfive and more\nsix");
+		assertMarks(four, "four");
+		// only the line that grew is replaced
+		assertEquals(19, regions.get(0)[0]);
+	}
+	
+	public void testTruncate() throws Exception {
+		Position two = doc.createPosition(4);
+		apply("one\ntwo\n");
+		assertEquals(4, two.getOffset());
+		assertMarks(two, "two");
+		apply("");
+		assertEquals(0, doc.getLength());
+	}
+	
+	public void testMiddleEdits() throws Exception {
+		Position one = doc.createPosition(0);
+		Position three = doc.createPosition(8);
+		Position five = doc.createPosition(19);
+		apply("one\n2\nthree\nfour and a half\nfour\nfive\n");
+		assertMarks(one, "one");
+		assertMarks(three, "three");
+		assertMarks(five, "five");
+		apply("one\nthree\nfive\n");
+		assertMarks(one, "one");
+		assertMarks(three, "three");
+		assertMarks(five, "five");
+	}
+	
+	public void testPrepend() throws Exception {
+		Position three = doc.createPosition(8);
+		apply("zero\none\ntwo\nthree\nfour\nfive\n");
+		assertMarks(three, "three");
+	}
+	
+	public void testNormalizeEOL() throws Exception {
+		assertEquals("a\nb\nc\n\nd", TextDiff.normalizeEOL("a\r\nb\rc\n\r\nd"));
+		assertEquals("a\n", TextDiff.normalizeEOL("a\r"));
+		String text = "one\ntwo\n";
+		assertSame(text, TextDiff.normalizeEOL(text));
+		
+		Position four = doc.createPosition(14);
+		apply(TextDiff.normalizeEOL(
+				"one\r\ntwo\r\nthree\r\nfour\r\nfive\r\nsix\r\n"));
+		assertMarks(four, "four");
+	}
+	
+	public void testEmpty() throws Exception {
+		doc.remove(0, doc.getLength());
+		assertEquals(0, apply("").size());
+		apply("one\ntwo\n");
+		Position two = doc.createPosition(4);
+		apply("one\ntwo\nthree\n");
+		assertMarks(two, "two");
+		apply("");
+	}
+	
+}